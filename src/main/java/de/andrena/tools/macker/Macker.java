@@ -27,10 +27,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
 
 import de.andrena.tools.macker.event.ListenerException;
 import de.andrena.tools.macker.event.MackerEventListener;
@@ -39,11 +41,13 @@ import de.andrena.tools.macker.event.PrintingListener;
 import de.andrena.tools.macker.event.ThrowingListener;
 import de.andrena.tools.macker.event.XmlReportingListener;
 import de.andrena.tools.macker.rule.EvaluationContext;
+import de.andrena.tools.macker.rule.MatchMatrix;
 import de.andrena.tools.macker.rule.Pattern;
 import de.andrena.tools.macker.rule.RuleSet;
 import de.andrena.tools.macker.rule.RuleSetBuilder;
 import de.andrena.tools.macker.rule.RuleSeverity;
 import de.andrena.tools.macker.rule.RulesException;
+import de.andrena.tools.macker.rule.SinglePass;
 import de.andrena.tools.macker.structure.ClassInfo;
 import de.andrena.tools.macker.structure.ClassManager;
 import de.andrena.tools.macker.structure.ClassParseException;
@@ -70,6 +74,8 @@ public class Macker {
 
 			Macker macker = new Macker();
 
+			List<File> classFiles = new ArrayList<File>();
+			List<String> includes = new ArrayList<String>(), excludes = new ArrayList<String>();
 			boolean nextIsRule = false;
 			for (int arg = 0; arg < args.length; arg++) {
 				if (args[arg].equals("-h") || args[arg].equals("-help") || args[arg].equals("--help")) {
@@ -109,6 +115,18 @@ public class Macker {
 					macker.setPrintThreshold(RuleSeverity.fromName(args[++arg]));
 				else if (args[arg].equals("--anger"))
 					macker.setAngerThreshold(RuleSeverity.fromName(args[++arg]));
+				else if (args[arg].equals("--cache"))
+					macker.setParseCacheDirectory(new File(args[++arg]));
+				else if (args[arg].equals("--type-arguments"))
+					macker.setIncludeTypeArguments(true);
+				else if (args[arg].equals("--parallel-rules"))
+					macker.setParallelRules(true);
+				else if (args[arg].equals("--single-pass"))
+					macker.setSinglePass(true);
+				else if (args[arg].equals("--include"))
+					includes.add(args[++arg]);
+				else if (args[arg].equals("--exclude"))
+					excludes.add(args[++arg]);
 				else if (args[arg].equals("-r") || args[arg].equals("--rulesfile"))
 					nextIsRule = true;
 				else if (args[arg].startsWith("@"))
@@ -123,15 +141,22 @@ public class Macker {
 					macker.addRulesFile(new File(args[arg]));
 					nextIsRule = false;
 				} else if (args[arg].endsWith(".class"))
-					macker.addClass(new File(args[arg]));
-				else {
+					classFiles.add(new File(args[arg]));
+				else if (isArchive(args[arg]))
+					macker.addJar(new File(args[arg]));
+				else if (new File(args[arg]).isDirectory()) {
+					macker.addDirectory(new File(args[arg]), includes, excludes);
+					includes.clear();
+					excludes.clear();
+				} else {
 					System.out.println();
 					System.out.println("macker: Unknown file type: " + args[arg]);
-					System.out.println("(expected .class or .xml)");
+					System.out.println("(expected .class, .jar, .zip, .xml or a directory)");
 					commandLineUsage();
 					return;
 				}
 			}
+			macker.addClasses(classFiles);
 
 			macker.check();
 
@@ -151,17 +176,27 @@ public class Macker {
 	}
 
 	public static void commandLineUsage() {
-		System.out.println("usage: macker [opts]* <rules files> <classes> [@class list file]");
+		System.out.println("usage: macker [opts]* <rules files> <classes | jars | dirs> [@class list file]");
 		System.out.println("          -r, --rulesfile <rules.xml>");
 		System.out.println("          -o, --output <report.xml>");
 		System.out.println("          -D, --define <var>=<value>");
 		System.out.println("              --print <threshold>");
 		System.out.println("              --anger <threshold>");
 		System.out.println("              --print-max <max-messages>");
+		System.out.println("              --cache <parse cache dir>  (before any classes)");
+		System.out.println("              --type-arguments  (before any classes)");
+		System.out.println("              --parallel-rules");
+		System.out.println("              --single-pass");
+		System.out.println("              --include <glob>  (for the next directory)");
+		System.out.println("              --exclude <glob>  (for the next directory)");
 		System.out.println("          -v, --verbose");
 		System.out.println("          -V, --version");
 	}
 
+	private static boolean isArchive(String fileName) {
+		return fileName.endsWith(".jar") || fileName.endsWith(".zip");
+	}
+
 	// ------------------------------------------------------------------------
 	// Instance
 	// ------------------------------------------------------------------------
@@ -185,15 +220,45 @@ public class Macker {
 		cm.makePrimary(cm.getClassInfo(className));
 	}
 
+	public void addClasses(Collection<File> classFiles) throws IOException, ClassParseException {
+		for (ClassInfo classInfo : cm.readClasses(classFiles))
+			cm.makePrimary(classInfo);
+	}
+
+	/**
+	 * Adds all the classes in a jar or zip file as primary classes.
+	 */
+	public void addJar(File jarFile) throws IOException, ClassParseException {
+		for (ClassInfo classInfo : cm.readArchive(jarFile))
+			cm.makePrimary(classInfo);
+	}
+
+	/**
+	 * Adds all the class files, jars and zip files below a directory as
+	 * primary classes; see {@link ClassManager#readDirectory}.
+	 */
+	public void addDirectory(File directory) throws IOException, ClassParseException {
+		addDirectory(directory, Collections.<String> emptyList(), Collections.<String> emptyList());
+	}
+
+	public void addDirectory(File directory, Collection<String> includes, Collection<String> excludes)
+			throws IOException, ClassParseException {
+		for (ClassInfo classInfo : cm.readDirectory(directory, includes, excludes))
+			cm.makePrimary(classInfo);
+	}
+
 	public void addClassesFromFile(String fileName) throws IOException, ClassParseException {
 		File indexFile = new File(fileName);
 
 		BufferedReader indexReader = new BufferedReader(new FileReader(indexFile));
 
+		List<File> classFiles = new ArrayList<File>();
 		for (String line; (line = indexReader.readLine()) != null;)
-			addClass(new File(line));
+			classFiles.add(new File(line));
 
 		indexReader.close();
+
+		addClasses(classFiles);
 	}
 
 	public void addReachableClasses(Class<?> initialClass, final String primaryPrefix)
@@ -254,6 +319,46 @@ public class Macker {
 		this.verbose = verbose;
 	}
 
+	/**
+	 * Caches parsed classes in the given directory across runs; see
+	 * {@link ClassManager#setParseCacheDirectory(File)}.
+	 */
+	public void setParseCacheDirectory(File directory) throws IOException {
+		cm.setParseCacheDirectory(directory);
+	}
+
+	/**
+	 * Also checks the classes named in generic type arguments; see
+	 * {@link ClassManager#setIncludeTypeArguments(boolean)}.
+	 */
+	public void setIncludeTypeArguments(boolean includeTypeArguments) {
+		cm.setIncludeTypeArguments(includeTypeArguments);
+	}
+
+	public void setParallelism(int parallelism) {
+		cm.setParallelism(parallelism);
+	}
+
+	/**
+	 * Checks access rules on as many threads as the class manager's
+	 * parallelism, splitting the references by source class, and runs the
+	 * iterations of foreach rules side by side. Violations are reported in
+	 * the same order as a serial check. Off by default.
+	 */
+	public void setParallelRules(boolean parallelRules) {
+		this.parallelRules = parallelRules;
+	}
+
+	/**
+	 * Checks the access rules of all rule sets in a single walk over the
+	 * references, instead of one walk per rule. Listeners hear the events of
+	 * each rule set as usual, but only once all rules are checked. Off by
+	 * default.
+	 */
+	public void setSinglePass(boolean singlePass) {
+		this.singlePass = singlePass;
+	}
+
 	public void setClassLoader(ClassLoader classLoader) {
 		cm.setClassLoader(classLoader);
 	}
@@ -274,6 +379,14 @@ public class Macker {
 		this.xmlReportFile = xmlReportFile;
 	}
 
+	/**
+	 * Releases the classes read so far; see {@link ClassManager#release()}.
+	 * Rules, variables and listeners are kept.
+	 */
+	public void release() {
+		cm.release();
+	}
+
 	/**
 	 * Performs rule checking with the default printing, throwing, and XML
 	 * reporting listeners.
@@ -338,30 +451,48 @@ public class Macker {
 	 * Performs rule checking without any default listeners.
 	 **/
 	public void checkRaw() throws MackerIsMadException, RulesException, ListenerException {
-		for (RuleSet rs : ruleSets) {
-			if (verbose)
-				for (final Pattern pat : rs.getAllPatterns()) {
-					final EvaluationContext ctx = new EvaluationContext(cm, rs);
-					System.out.println("matching " + pat);
-					for (ClassInfo classInfo : cm.getPrimaryClasses())
-						if (pat.matches(ctx, classInfo))
-							System.out.println("    " + classInfo);
-					System.out.println();
-				}
-
-			EvaluationContext context = new EvaluationContext(cm, rs);
-			context.setVariables(vars);
-			for (MackerEventListener listener : listeners)
-				context.addListener(listener);
+		ForkJoinPool rulePool = (parallelRules && cm.getParallelism() > 1) ? new ForkJoinPool(cm.getParallelism())
+				: null;
+		SinglePass pass = singlePass ? new SinglePass(cm) : null;
+		// One matrix for the run, so the rule sets share their pattern results
+		MatchMatrix matchMatrix = new MatchMatrix(cm);
+		try {
+			for (RuleSet rs : ruleSets) {
+				if (verbose)
+					for (final Pattern pat : rs.getAllPatterns()) {
+						final EvaluationContext ctx = new EvaluationContext(cm, rs);
+						ctx.setMatchMatrix(matchMatrix);
+						System.out.println("matching " + pat);
+						for (ClassInfo classInfo : cm.getPrimaryClasses())
+							if (pat.matches(ctx, classInfo))
+								System.out.println("    " + classInfo);
+						System.out.println();
+					}
 
-			rs.check(context, cm);
+				EvaluationContext context = new EvaluationContext(cm, rs);
+				context.setVariables(vars);
+				context.setRulePool(rulePool);
+				context.setMatchMatrix(matchMatrix);
+				for (MackerEventListener listener : listeners)
+					context.addListener(listener);
+
+				if (pass != null)
+					pass.add(rs, context);
+				else
+					rs.check(context, cm);
+			}
+			if (pass != null)
+				pass.run();
+		} finally {
+			if (rulePool != null)
+				rulePool.shutdown();
 		}
 	}
 
 	private ClassManager cm;
 	private Collection<RuleSet> ruleSets;
 	private Map<String, String> vars;
-	private boolean verbose;
+	private boolean verbose, parallelRules, singlePass;
 	private File xmlReportFile;
 	private List<MackerEventListener> listeners = new ArrayList<MackerEventListener>();
 	private int printMaxMessages;
@@ -99,6 +99,9 @@ public class MackerAntTask extends Task {
 		} catch (IncompleteClassInfoException icie) {
 			printMessageChain(icie);
 			throw new BuildException(MACKER_CHOKED_MESSAGE);
+		} finally {
+			// Ant holds on to its tasks until the build ends
+			macker.release();
 		}
 	}
 
@@ -149,6 +152,30 @@ public class MackerAntTask extends Task {
 		jvmArgs.add(var.getName() + "=" + var.getValue());
 	}
 
+	public void setParseCache(File parseCacheDir) throws IOException {
+		macker.setParseCacheDirectory(parseCacheDir);
+		jvmArgs.add("--cache");
+		jvmArgs.add(parseCacheDir.getPath());
+	}
+
+	public void setIncludeTypeArguments(boolean includeTypeArguments) {
+		macker.setIncludeTypeArguments(includeTypeArguments);
+		if (includeTypeArguments)
+			jvmArgs.add("--type-arguments");
+	}
+
+	public void setParallelRules(boolean parallelRules) {
+		macker.setParallelRules(parallelRules);
+		if (parallelRules)
+			jvmArgs.add("--parallel-rules");
+	}
+
+	public void setSinglePass(boolean singlePass) {
+		macker.setSinglePass(singlePass);
+		if (singlePass)
+			jvmArgs.add("--single-pass");
+	}
+
 	public void setXmlReportFile(File xmlReportFile) {
 		macker.setXmlReportFile(xmlReportFile);
 		jvmArgs.add("-o");
@@ -179,20 +206,60 @@ public class MackerAntTask extends Task {
 		DirectoryScanner classScanner = classFiles.getDirectoryScanner(getProject());
 		String[] fileNames = classScanner.getIncludedFiles();
 		File baseDir = classScanner.getBasedir();
+		List<File> classFileList = new ArrayList<File>(fileNames.length);
 		for (int n = 0; n < fileNames.length; n++) {
 			File classFile = new File(baseDir, fileNames[n]);
 			if (!classFile.getName().endsWith(".class"))
 				System.out.println("WARNING: " + fileNames[n] + " is not a .class file; ignoring");
 			jvmArgs.add(classFile.getPath());
+			classFileList.add(classFile);
+		}
+		try {
+			macker.addClasses(classFileList);
+		} catch (ClassParseException cpe) {
+			printMessageChain("Unable to parse class file", cpe);
+			throw new BuildException(MACKER_CHOKED_MESSAGE);
+		}
+	}
+
+	public void addConfiguredJars(FileSet jarFiles) throws IOException {
+		DirectoryScanner jarScanner = jarFiles.getDirectoryScanner(getProject());
+		String[] fileNames = jarScanner.getIncludedFiles();
+		File baseDir = jarScanner.getBasedir();
+		for (int n = 0; n < fileNames.length; n++) {
+			File jarFile = new File(baseDir, fileNames[n]);
+			if (!fileNames[n].endsWith(".jar") && !fileNames[n].endsWith(".zip"))
+				System.out.println("WARNING: " + fileNames[n] + " is not a .jar or .zip file; ignoring");
+			jvmArgs.add(jarFile.getPath());
 			try {
-				macker.addClass(classFile);
+				macker.addJar(jarFile);
 			} catch (ClassParseException cpe) {
-				printMessageChain("Unable to parse class file: " + classFile.getPath(), cpe);
+				printMessageChain("Unable to parse class file", cpe);
 				throw new BuildException(MACKER_CHOKED_MESSAGE);
 			}
 		}
 	}
 
+	public void addConfiguredClassDirectory(ClassDirectory classDirectory) throws IOException {
+		if (classDirectory.getDir() == null)
+			throw new BuildException("<classdirectory> requires a dir attribute");
+		for (String include : classDirectory.getIncludes()) {
+			jvmArgs.add("--include");
+			jvmArgs.add(include);
+		}
+		for (String exclude : classDirectory.getExcludes()) {
+			jvmArgs.add("--exclude");
+			jvmArgs.add(exclude);
+		}
+		jvmArgs.add(classDirectory.getDir().getPath());
+		try {
+			macker.addDirectory(classDirectory.getDir(), classDirectory.getIncludes(), classDirectory.getExcludes());
+		} catch (ClassParseException cpe) {
+			printMessageChain("Unable to parse class file", cpe);
+			throw new BuildException(MACKER_CHOKED_MESSAGE);
+		}
+	}
+
 	public void addConfiguredRules(FileSet rulesFiles) throws IOException {
 		DirectoryScanner rulesScanner = rulesFiles.getDirectoryScanner(getProject());
 		String[] fileNames = rulesScanner.getIncludedFiles();
@@ -218,6 +285,47 @@ public class MackerAntTask extends Task {
 		return jvm;
 	}
 
+	/**
+	 * A directory of class files and jars, walked by Macker itself in
+	 * parallel. Includes and excludes are comma- or space-separated globs.
+	 */
+	static public class ClassDirectory {
+		public File getDir() {
+			return dir;
+		}
+
+		public List<String> getIncludes() {
+			return includes;
+		}
+
+		public List<String> getExcludes() {
+			return excludes;
+		}
+
+		public void setDir(File dir) {
+			this.dir = dir;
+		}
+
+		public void setIncludes(String includes) {
+			this.includes = splitPatterns(includes);
+		}
+
+		public void setExcludes(String excludes) {
+			this.excludes = splitPatterns(excludes);
+		}
+
+		private static List<String> splitPatterns(String patterns) {
+			List<String> result = new ArrayList<String>();
+			for (String pattern : patterns.split("[,\\s]+"))
+				if (pattern.length() > 0)
+					result.add(pattern);
+			return result;
+		}
+
+		private File dir;
+		private List<String> includes = new ArrayList<String>(), excludes = new ArrayList<String>();
+	}
+
 	private void printMessageChain(Throwable e) {
 		printMessageChain("", e);
 	}
@@ -0,0 +1,75 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.andrena.tools.macker.rule.CycleRule;
+
+/**
+ * Classes or packages in scope of a {@link CycleRule} which depend on each
+ * other, directly or not: a strongly connected component of their
+ * reference graph, with one of its shortest cycles as an example.
+ */
+public class CycleViolation extends MackerEvent {
+	public CycleViolation(CycleRule cycleRule, List<String> members, List<String> cycle, List<String> messages) {
+		super(cycleRule, describe(cycleRule, members, cycle), messages);
+		this.cycleRule = cycleRule;
+		this.members = Collections.unmodifiableList(new ArrayList<String>(members));
+		this.cycle = Collections.unmodifiableList(new ArrayList<String>(cycle));
+	}
+
+	public final CycleRule getCycleRule() {
+		return cycleRule;
+	}
+
+	/**
+	 * The names of all classes or packages in the component, in name order.
+	 */
+	public final List<String> getMembers() {
+		return members;
+	}
+
+	/**
+	 * The names along a shortest cycle through the first member; each refers
+	 * to the next, and the last to the first.
+	 */
+	public final List<String> getCycle() {
+		return cycle;
+	}
+
+	private static String describe(CycleRule cycleRule, List<String> members, List<String> cycle) {
+		StringBuilder s = new StringBuilder();
+		s.append(cycleRule.isPackageLevel() ? "Package" : "Class").append(" cycle among ").append(members.size())
+				.append(cycleRule.isPackageLevel() ? " packages" : " classes").append(CR).append("  ");
+		for (String name : cycle)
+			s.append(name).append(" -> ");
+		s.append(cycle.get(0));
+		return s.toString();
+	}
+
+	private final CycleRule cycleRule;
+	private final List<String> members, cycle;
+	private static final String CR = System.getProperty("line.separator");
+}
@@ -0,0 +1,65 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.event;
+
+import java.util.List;
+
+import de.andrena.tools.macker.rule.LayerRule;
+import de.andrena.tools.macker.structure.ClassInfo;
+
+public class LayerViolation extends MackerEvent {
+	public LayerViolation(LayerRule layerRule, ClassInfo from, ClassInfo to, String fromLayer, String toLayer,
+			List<String> messages) {
+		super(layerRule, "Illegal reference from layer " + fromLayer + " to layer " + toLayer + CR + "  from " + from
+				+ CR + "    to " + to, messages);
+		this.layerRule = layerRule;
+		this.from = from;
+		this.to = to;
+		this.fromLayer = fromLayer;
+		this.toLayer = toLayer;
+	}
+
+	public final LayerRule getLayerRule() {
+		return layerRule;
+	}
+
+	public final ClassInfo getFrom() {
+		return from;
+	}
+
+	public final ClassInfo getTo() {
+		return to;
+	}
+
+	public final String getFromLayer() {
+		return fromLayer;
+	}
+
+	public final String getToLayer() {
+		return toLayer;
+	}
+
+	private final LayerRule layerRule;
+	private final ClassInfo from, to;
+	private final String fromLayer, toLayer;
+	private static final String CR = System.getProperty("line.separator");
+}
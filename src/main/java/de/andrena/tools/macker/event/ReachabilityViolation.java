@@ -0,0 +1,73 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.andrena.tools.macker.rule.ReachabilityRule;
+import de.andrena.tools.macker.structure.ClassInfo;
+
+public class ReachabilityViolation extends MackerEvent {
+	public ReachabilityViolation(ReachabilityRule reachabilityRule, ClassInfo from, ClassInfo to,
+			List<ClassInfo> path, List<String> messages) {
+		super(reachabilityRule, describe(from, to, path), messages);
+		this.reachabilityRule = reachabilityRule;
+		this.from = from;
+		this.to = to;
+		this.path = Collections.unmodifiableList(new ArrayList<ClassInfo>(path));
+	}
+
+	public final ReachabilityRule getReachabilityRule() {
+		return reachabilityRule;
+	}
+
+	public final ClassInfo getFrom() {
+		return from;
+	}
+
+	public final ClassInfo getTo() {
+		return to;
+	}
+
+	/**
+	 * A shortest chain of references from {@link #getFrom()} to
+	 * {@link #getTo()}, both included.
+	 */
+	public final List<ClassInfo> getPath() {
+		return path;
+	}
+
+	private static String describe(ClassInfo from, ClassInfo to, List<ClassInfo> path) {
+		StringBuilder s = new StringBuilder("Illegal path").append(CR).append("  from ").append(from).append(CR)
+				.append("    to ").append(to);
+		for (int n = 1; n < path.size() - 1; n++)
+			s.append(n == 1 ? CR + "   via " : " -> ").append(path.get(n));
+		return s.toString();
+	}
+
+	private final ReachabilityRule reachabilityRule;
+	private final ClassInfo from, to;
+	private final List<ClassInfo> path;
+	private static final String CR = System.getProperty("line.separator");
+}
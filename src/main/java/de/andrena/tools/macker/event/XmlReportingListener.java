@@ -118,6 +118,63 @@ public class XmlReportingListener implements MackerEventListener {
 			curElem.addContent(violationElem);
 		}
 
+		if (event instanceof LayerViolation) {
+			LayerViolation violation = (LayerViolation) event;
+			Element violationElem = new Element("layer-violation");
+			violationElem.setAttribute("from-layer", violation.getFromLayer());
+			violationElem.setAttribute("to-layer", violation.getToLayer());
+
+			handleEventBasics(violationElem, violation);
+
+			Element fromElem = new Element("from");
+			Element toElem = new Element("to");
+			describeClass(fromElem, violation.getFrom());
+			describeClass(toElem, violation.getTo());
+			violationElem.addContent(fromElem);
+			violationElem.addContent(toElem);
+
+			curElem.addContent(violationElem);
+		}
+
+		if (event instanceof ReachabilityViolation) {
+			ReachabilityViolation violation = (ReachabilityViolation) event;
+			Element violationElem = new Element("reachability-violation");
+
+			handleEventBasics(violationElem, violation);
+
+			Element fromElem = new Element("from");
+			Element toElem = new Element("to");
+			describeClass(fromElem, violation.getFrom());
+			describeClass(toElem, violation.getTo());
+			violationElem.addContent(fromElem);
+			violationElem.addContent(toElem);
+			Element pathElem = new Element("path");
+			for (ClassInfo step : violation.getPath())
+				pathElem.addContent(new Element("full-name").setText(step.getFullName()));
+			violationElem.addContent(pathElem);
+
+			curElem.addContent(violationElem);
+		}
+
+		if (event instanceof CycleViolation) {
+			CycleViolation violation = (CycleViolation) event;
+			Element violationElem = new Element("cycle-violation");
+			violationElem.setAttribute("level", violation.getCycleRule().isPackageLevel() ? "package" : "class");
+
+			handleEventBasics(violationElem, violation);
+
+			Element membersElem = new Element("members");
+			for (String member : violation.getMembers())
+				membersElem.addContent(new Element("member").setText(member));
+			Element cycleElem = new Element("cycle");
+			for (String member : violation.getCycle())
+				cycleElem.addContent(new Element("member").setText(member));
+			violationElem.addContent(membersElem);
+			violationElem.addContent(cycleElem);
+
+			curElem.addContent(violationElem);
+		}
+
 		if (event instanceof ForEachStarted) {
 			ForEachStarted forEachStarted = (ForEachStarted) event;
 			Element forEachElem = new Element("foreach");
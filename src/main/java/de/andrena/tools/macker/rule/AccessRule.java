@@ -20,16 +20,24 @@
 
 package de.andrena.tools.macker.rule;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.andrena.tools.macker.event.AccessRuleViolation;
 import de.andrena.tools.macker.event.ListenerException;
 import de.andrena.tools.macker.event.MackerIsMadException;
 import de.andrena.tools.macker.structure.ClassInfo;
 import de.andrena.tools.macker.structure.ClassManager;
-import de.andrena.tools.macker.util.IncludeExcludeLogic;
-import de.andrena.tools.macker.util.IncludeExcludeNode;
 import de.andrena.tools.macker.util.collect.MultiMap;
 
 public class AccessRule extends Rule {
@@ -40,7 +48,8 @@ public class AccessRule extends Rule {
 	public AccessRule(RuleSet parent) {
 		super(parent);
 		type = AccessRuleType.DENY;
-		from = to = Pattern.ALL;
+		setFrom(Pattern.ALL);
+		setTo(Pattern.ALL);
 	}
 
 	// --------------------------------------------------------------------------
@@ -55,6 +64,7 @@ public class AccessRule extends Rule {
 		if (type == null)
 			throw new NullPointerException("type parameter cannot be null");
 		this.type = type;
+		STRUCTURE_CHANGES.incrementAndGet();
 	}
 
 	public Pattern getFrom() {
@@ -63,6 +73,8 @@ public class AccessRule extends Rule {
 
 	public void setFrom(Pattern from) {
 		this.from = from;
+		fromCostly = ClassAttribute.needClassFile(ClassAttribute.readBy(from));
+		STRUCTURE_CHANGES.incrementAndGet();
 	}
 
 	public String getMessage() {
@@ -79,6 +91,8 @@ public class AccessRule extends Rule {
 
 	public void setTo(Pattern to) {
 		this.to = to;
+		toCostly = ClassAttribute.needClassFile(ClassAttribute.readBy(to));
+		STRUCTURE_CHANGES.incrementAndGet();
 	}
 
 	public AccessRule getChild() {
@@ -87,6 +101,7 @@ public class AccessRule extends Rule {
 
 	public void setChild(AccessRule child) {
 		this.child = child;
+		STRUCTURE_CHANGES.incrementAndGet();
 	}
 
 	public AccessRule getNext() {
@@ -95,10 +110,33 @@ public class AccessRule extends Rule {
 
 	public void setNext(AccessRule next) {
 		this.next = next;
+		STRUCTURE_CHANGES.incrementAndGet();
+	}
+
+	/**
+	 * Whether this rule or its children match on attributes which need the
+	 * class file, such as supertypes or access.
+	 */
+	public boolean isCostly() {
+		if (fromCostly || toCostly)
+			return true;
+		for (AccessRule rule = child; rule != null; rule = rule.getNext())
+			if (rule.isCostly())
+				return true;
+		return false;
+	}
+
+	boolean isFromCostly() {
+		return fromCostly;
+	}
+
+	boolean isToCostly() {
+		return toCostly;
 	}
 
 	private AccessRuleType type;
 	private Pattern from, to;
+	private boolean fromCostly, toCostly;
 	private String message;
 	private AccessRule child, next;
 
@@ -109,56 +147,258 @@ public class AccessRule extends Rule {
 	@Override
 	public void check(EvaluationContext context, ClassManager classes) throws RulesException, MackerIsMadException,
 			ListenerException {
-		EvaluationContext localContext = new EvaluationContext(context);
-		for (MultiMap.Entry<ClassInfo, ClassInfo> reference : classes.getReferences().entrySet()) {
-			ClassInfo from = reference.getKey();
-			ClassInfo to = reference.getValue();
-			if (from.equals(to))
-				continue;
-			if (!localContext.getRuleSet().isInSubset(localContext, from))
-				continue;
-
-			localContext.setVariableValue("from", from.getClassName());
-			localContext.setVariableValue("to", to.getClassName());
-			localContext.setVariableValue("from-package", from.getPackageName());
-			localContext.setVariableValue("to-package", to.getPackageName());
-			localContext.setVariableValue("from-full", from.getFullName());
-			localContext.setVariableValue("to-full", to.getFullName());
-
-			if (!checkAccess(localContext, from, to)) {
-				List<String> messages;
-				if (getMessage() == null)
-					messages = Collections.emptyList();
-				else
-					messages = Collections.singletonList(VariableParser.parse(localContext, getMessage()));
-				context.broadcastEvent(new AccessRuleViolation(this, from, to, messages));
+		DecisionProgram program = getProgram();
+		Map<String, Boolean> packageDecisions = decidedByPackage(this) ? new ConcurrentHashMap<String, Boolean>()
+				: null;
+		int variables = referenceVariables(context.getRuleSet());
+		// Within a ForEach, only the references the rule may deny for the
+		// current value of the loop variable
+		ReferenceIndex index = context.getReferenceIndex();
+		int[] positions = (index != null && index.narrows(this)) ? index.positions(context) : null;
+
+		SinglePass singlePass = context.getSinglePass();
+		if (positions == null && singlePass != null) {
+			context.broadcastEvent(singlePass.defer(this, context, program, packageDecisions, variables));
+			return;
+		}
+
+		ForkJoinPool pool = context.getRulePool();
+		if (pool == null || pool.getParallelism() < 2) {
+			EvaluationContext localContext = new EvaluationContext(context);
+			if (positions != null)
+				for (int position : positions) {
+					AccessRuleViolation violation = check(localContext, program, packageDecisions, variables,
+							index.getFrom()[position], index.getTo()[position]);
+					if (violation != null)
+						context.broadcastEvent(violation);
+				}
+			else
+				for (MultiMap.Entry<ClassInfo, ClassInfo> reference : classes.getReferences().entrySet()) {
+					AccessRuleViolation violation = check(localContext, program, packageDecisions, variables,
+							reference.getKey(), reference.getValue());
+					if (violation != null)
+						context.broadcastEvent(violation);
+				}
+			return;
+		}
+
+		ClassInfo[] from, to;
+		int count = 0;
+		if (positions != null) {
+			from = new ClassInfo[positions.length];
+			to = new ClassInfo[from.length];
+			for (int position : positions) {
+				from[count] = index.getFrom()[position];
+				to[count++] = index.getTo()[position];
+			}
+		} else {
+			MultiMap<ClassInfo, ClassInfo> references = classes.getReferences();
+			from = new ClassInfo[references.size()];
+			to = new ClassInfo[from.length];
+			for (MultiMap.Entry<ClassInfo, ClassInfo> reference : references.entrySet()) {
+				from[count] = reference.getKey();
+				to[count++] = reference.getValue();
 			}
 		}
+
+		// Chunks end on a change of source class, and are reported in order,
+		// so listeners see exactly what a serial check would produce
+		List<ForkJoinTask<Chunk>> chunks = new ArrayList<ForkJoinTask<Chunk>>();
+		int chunkCount = pool.getParallelism() * CHUNKS_PER_THREAD;
+		for (int start = 0, chunk = 1; start < count; chunk++) {
+			int end = Math.min(count, Math.max(start + 1, (int) ((long) count * chunk / chunkCount)));
+			while (end < count && from[end].equals(from[end - 1]))
+				end++;
+			chunks.add(pool.submit(new Chunk(context, program, packageDecisions, variables, from, to, start, end)));
+			start = end;
+		}
+		try {
+			for (ForkJoinTask<Chunk> chunk : chunks) {
+				Chunk done = chunk.join();
+				for (AccessRuleViolation violation : done.violations)
+					context.broadcastEvent(violation);
+				if (done.failure != null)
+					throw done.failure;
+			}
+		} finally {
+			for (ForkJoinTask<Chunk> chunk : chunks)
+				chunk.cancel(false);
+		}
 	}
 
-	private boolean checkAccess(EvaluationContext context, ClassInfo fromClass, ClassInfo toClass)
-			throws RulesException {
-		return IncludeExcludeLogic.apply(makeIncludeExcludeNode(this, context, fromClass, toClass));
+	/**
+	 * This rule compiled together with the rules following it and their
+	 * children. The program is kept until any access rule changes its type,
+	 * patterns, child or next rule, since a rule doesn't know the rules whose
+	 * programs include it.
+	 */
+	DecisionProgram getProgram() {
+		int changes = STRUCTURE_CHANGES.get();
+		CompiledChain compiled = this.compiled;
+		if (compiled == null || compiled.changes != changes)
+			this.compiled = compiled = new CompiledChain(DecisionProgram.compile(this), changes);
+		return compiled.program;
 	}
 
-	static IncludeExcludeNode makeIncludeExcludeNode(final AccessRule rule, final EvaluationContext context,
-			final ClassInfo fromClass, final ClassInfo toClass) {
-		return (rule == null) ? null : new IncludeExcludeNode() {
-			public boolean isInclude() {
-				return rule.getType() == AccessRuleType.ALLOW;
-			}
+	private volatile CompiledChain compiled;
 
-			public boolean matches() throws RulesException {
-				return rule.getFrom().matches(context, fromClass) && rule.getTo().matches(context, toClass);
-			}
+	/**
+	 * Checks one reference. If the rules are decided by package (see
+	 * {@link #decidedByPackage(AccessRule)}), the decision for a reference
+	 * between top-level classes is remembered for their pair of packages in
+	 * <tt>packageDecisions</tt>, and references allowed that way are passed
+	 * without setting any variables. Of the variables naming the classes,
+	 * only those in <tt>variables</tt> (see
+	 * {@link #referenceVariables(RuleSet)}) are set.
+	 */
+	AccessRuleViolation check(EvaluationContext localContext, DecisionProgram program,
+			Map<String, Boolean> packageDecisions, int variables, ClassInfo from, ClassInfo to) throws RulesException {
+		if (from.equals(to))
+			return null;
+		if (!localContext.getRuleSet().isInSubset(localContext, from))
+			return null;
 
-			public IncludeExcludeNode getChild() {
-				return makeIncludeExcludeNode(rule.getChild(), context, fromClass, toClass);
-			}
+		String packagePair = null;
+		Boolean allowed = null;
+		if (packageDecisions != null && isTopLevel(from) && isTopLevel(to)) {
+			packagePair = from.getPackageName() + ' ' + to.getPackageName();
+			allowed = packageDecisions.get(packagePair);
+			if (allowed != null && allowed)
+				return null;
+		}
+
+		localContext.setReferenceVariables(from, to, variables);
 
-			public IncludeExcludeNode getNext() {
-				return makeIncludeExcludeNode(rule.getNext(), context, fromClass, toClass);
+		if (allowed == null) {
+			allowed = program.allows(localContext, from, to);
+			if (packagePair != null)
+				packageDecisions.put(packagePair, allowed);
+		}
+		if (allowed)
+			return null;
+		List<String> messages;
+		if (getMessage() == null)
+			messages = Collections.emptyList();
+		else
+			messages = Collections.singletonList(VariableParser.parse(localContext, getMessage()));
+		return new AccessRuleViolation(this, from, to, messages);
+	}
+
+	/**
+	 * The variables naming the classes of a reference (<tt>${from}</tt>,
+	 * <tt>${to-package}</tt> and so on) which are read by the rules, their
+	 * message or the subset patterns of the rule set, as a mask of slots (see
+	 * {@link VariableSlots}). The others needn't be set; if a pattern doesn't
+	 * say what it reads, all are.
+	 */
+	int referenceVariables(RuleSet ruleSet) {
+		Set<String> read = new HashSet<String>();
+		if (!addVariablesReadBy(this, read))
+			return VariableSlots.REFERENCE_VARIABLES;
+		for (RuleSet rs = ruleSet; rs != null; rs = rs.getParent()) {
+			Set<String> variables = VariableParser.variablesReadBy(rs.getSubsetPattern());
+			if (variables == null)
+				return VariableSlots.REFERENCE_VARIABLES;
+			read.addAll(variables);
+		}
+		if (message != null)
+			read.addAll(VariableParser.variablesIn(message));
+
+		return VariableSlots.referenceVariables(read);
+	}
+
+	private static boolean addVariablesReadBy(AccessRule rule, Set<String> read) {
+		for (AccessRule r = rule; r != null; r = r.getNext()) {
+			Set<String> variables = VariableParser.variablesReadBy(r.getFrom(), r.getTo());
+			if (variables == null)
+				return false;
+			read.addAll(variables);
+			if (r.getChild() != null && !addVariablesReadBy(r.getChild(), read))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Whether the given rules, the rules following them and their children
+	 * only read the packages of the classes (and variables other than those
+	 * naming the classes), so that they decide all references between two
+	 * packages alike.
+	 */
+	static boolean decidedByPackage(AccessRule rule) {
+		for (AccessRule r = rule; r != null; r = r.getNext()) {
+			if (!PACKAGE_ONLY.containsAll(ClassAttribute.readBy(r.getFrom(), r.getTo())))
+				return false;
+			Set<String> variables = VariableParser.variablesReadBy(r.getFrom(), r.getTo());
+			if (variables == null || !Collections.disjoint(variables, CLASS_VARIABLES))
+				return false;
+			if (r.getChild() != null && !decidedByPackage(r.getChild()))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isTopLevel(ClassInfo classInfo) {
+		String name = classInfo.getFullName();
+		return name.indexOf('$', name.lastIndexOf('.') + 1) < 0;
+	}
+
+	/**
+	 * A run of references checked on a pool thread with its own context. The
+	 * violations found are kept for the calling thread to report; a failure
+	 * ends the run, as it would end a serial check.
+	 */
+	private final class Chunk implements Callable<Chunk> {
+		Chunk(EvaluationContext context, DecisionProgram program, Map<String, Boolean> packageDecisions,
+				int variables, ClassInfo[] from, ClassInfo[] to, int start, int end) {
+			this.context = context;
+			this.program = program;
+			this.packageDecisions = packageDecisions;
+			this.variables = variables;
+			this.from = from;
+			this.to = to;
+			this.start = start;
+			this.end = end;
+		}
+
+		public Chunk call() {
+			EvaluationContext localContext = new EvaluationContext(context);
+			try {
+				for (int n = start; n < end; n++) {
+					AccessRuleViolation violation = check(localContext, program, packageDecisions, variables, from[n],
+							to[n]);
+					if (violation != null)
+						violations.add(violation);
+				}
+			} catch (RulesException re) {
+				failure = re;
 			}
-		};
+			return this;
+		}
+
+		private final EvaluationContext context;
+		private final DecisionProgram program;
+		private final Map<String, Boolean> packageDecisions;
+		private final int variables;
+		private final ClassInfo[] from, to;
+		private final int start, end;
+		private final List<AccessRuleViolation> violations = new ArrayList<AccessRuleViolation>();
+		private RulesException failure;
 	}
+
+	private static final class CompiledChain {
+		CompiledChain(DecisionProgram program, int changes) {
+			this.program = program;
+			this.changes = changes;
+		}
+
+		final DecisionProgram program;
+		final int changes;
+	}
+
+	private static final int CHUNKS_PER_THREAD = 4;
+	private static final AtomicInteger STRUCTURE_CHANGES = new AtomicInteger();
+	private static final Set<ClassAttribute> PACKAGE_ONLY = ClassAttribute.of(ClassAttribute.PACKAGE);
+	private static final Set<String> CLASS_VARIABLES = new HashSet<String>(Arrays.asList("from", "to", "from-full",
+			"to-full"));
 }
@@ -0,0 +1,118 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.andrena.tools.macker.event.ListenerException;
+import de.andrena.tools.macker.event.MackerEvent;
+import de.andrena.tools.macker.event.MackerIsMadException;
+
+/**
+ * A context which keeps what is broadcast through it, instead of passing it
+ * on to its parent, until {@link #replay()}. This lets work run on another
+ * thread while listeners still see its events in the usual order.
+ */
+final class BufferingContext extends EvaluationContext {
+	BufferingContext(EvaluationContext parent) {
+		super(parent);
+	}
+
+	@Override
+	protected void broadcastStarted(RuleSet targetRuleSet) {
+		records.add(new Record(STARTED, targetRuleSet, null));
+	}
+
+	@Override
+	protected void broadcastFinished(RuleSet targetRuleSet) {
+		records.add(new Record(FINISHED, targetRuleSet, null));
+	}
+
+	@Override
+	protected void broadcastAborted(RuleSet targetRuleSet) {
+		records.add(new Record(ABORTED, targetRuleSet, null));
+	}
+
+	@Override
+	protected void broadcastEvent(MackerEvent event, RuleSet targetRuleSet) {
+		records.add(new Record(EVENT, targetRuleSet, event));
+	}
+
+	/**
+	 * Broadcasts what was kept through the parent, in order, with the
+	 * violations of access rules checked by a {@link SinglePass} in place of
+	 * their placeholders. If a listener or such a rule throws, the rule sets
+	 * started but not finished are aborted before the exception is passed on,
+	 * as {@link RuleSet#check(EvaluationContext,
+	 * de.andrena.tools.macker.structure.ClassManager)} would have done.
+	 */
+	void replay() throws RulesException, MackerIsMadException, ListenerException {
+		EvaluationContext parent = getParent();
+		List<RuleSet> open = new ArrayList<RuleSet>();
+		boolean done = false;
+		try {
+			for (Record record : records)
+				switch (record.kind) {
+				case STARTED:
+					parent.broadcastStarted(record.ruleSet);
+					open.add(record.ruleSet);
+					break;
+				case FINISHED:
+					parent.broadcastFinished(record.ruleSet);
+					open.remove(record.ruleSet);
+					break;
+				case ABORTED:
+					open.remove(record.ruleSet);
+					parent.broadcastAborted(record.ruleSet);
+					break;
+				default:
+					if (record.event instanceof SinglePass.Deferred && ((SinglePass.Deferred) record.event).isChecked())
+						((SinglePass.Deferred) record.event).replay(parent, record.ruleSet);
+					else
+						parent.broadcastEvent(record.event, record.ruleSet);
+				}
+			done = true;
+		} finally {
+			records.clear();
+			if (!done)
+				for (int n = open.size() - 1; n >= 0; n--)
+					parent.broadcastAborted(open.get(n));
+		}
+	}
+
+	private static final class Record {
+		Record(int kind, RuleSet ruleSet, MackerEvent event) {
+			this.kind = kind;
+			this.ruleSet = ruleSet;
+			this.event = event;
+		}
+
+		private final int kind;
+		private final RuleSet ruleSet;
+		private final MackerEvent event;
+	}
+
+	private final List<Record> records = new ArrayList<Record>();
+
+	private static final int STARTED = 0, FINISHED = 1, ABORTED = 2, EVENT = 3;
+}
@@ -0,0 +1,85 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The attributes of a class which a pattern may read. The name, whether a
+ * class is primary and which primary classes refer to it are known up front;
+ * everything else requires the class file, which for classes outside the
+ * primary set means loading it from the classpath. Knowing the subtypes of a
+ * class requires the class files of all supertypes of the primary classes.
+ * <p>
+ * A pattern reading only the {@link #PACKAGE} of a class gives the same
+ * result for all top-level classes of a package (those with no '$' in their
+ * simple name); for nested classes it may read the whole name.
+ */
+public enum ClassAttribute {
+	NAME(false), PACKAGE(false), PRIMARY(false), REFERRERS(false), FLAGS(true), ACCESS(true), SUPERTYPES(true),
+	REFERENCES(true), SUBTYPES(true);
+
+	/**
+	 * The attributes the given pattern reads. Patterns which don't declare
+	 * theirs (see {@link AttributePattern}) are assumed to read all of them.
+	 */
+	public static Set<ClassAttribute> readBy(Pattern pattern) {
+		if (pattern == null || pattern == Pattern.ALL || pattern == Pattern.NONE)
+			return NONE;
+		if (pattern instanceof AttributePattern)
+			return ((AttributePattern) pattern).getAttributes();
+		return ALL;
+	}
+
+	public static Set<ClassAttribute> readBy(Pattern... patterns) {
+		Set<ClassAttribute> attributes = EnumSet.noneOf(ClassAttribute.class);
+		for (Pattern pattern : patterns)
+			attributes.addAll(readBy(pattern));
+		return Collections.unmodifiableSet(attributes);
+	}
+
+	public static boolean needClassFile(Set<ClassAttribute> attributes) {
+		for (ClassAttribute attribute : attributes)
+			if (attribute.needsClassFile())
+				return true;
+		return false;
+	}
+
+	public static Set<ClassAttribute> of(ClassAttribute first, ClassAttribute... rest) {
+		return Collections.unmodifiableSet(EnumSet.of(first, rest));
+	}
+
+	public boolean needsClassFile() {
+		return needsClassFile;
+	}
+
+	private ClassAttribute(boolean needsClassFile) {
+		this.needsClassFile = needsClassFile;
+	}
+
+	private final boolean needsClassFile;
+
+	private static final Set<ClassAttribute> NONE = Collections.unmodifiableSet(EnumSet.noneOf(ClassAttribute.class)),
+			ALL = Collections.unmodifiableSet(EnumSet.allOf(ClassAttribute.class));
+}
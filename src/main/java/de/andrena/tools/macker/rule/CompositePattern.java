@@ -20,11 +20,11 @@
 
 package de.andrena.tools.macker.rule;
 
+import java.util.Set;
+
 import de.andrena.tools.macker.structure.ClassInfo;
-import de.andrena.tools.macker.util.IncludeExcludeLogic;
-import de.andrena.tools.macker.util.IncludeExcludeNode;
 
-public final class CompositePattern implements Pattern {
+public final class CompositePattern implements AttributePattern, VariablePattern {
 	// --------------------------------------------------------------------------
 	// Constructors
 	// --------------------------------------------------------------------------
@@ -50,6 +50,8 @@ public final class CompositePattern implements Pattern {
 		this.head = head;
 		this.child = child;
 		this.next = next;
+		this.attributes = ClassAttribute.readBy(head, child, next);
+		this.variables = VariableParser.variablesReadBy(head, child, next);
 	}
 
 	// --------------------------------------------------------------------------
@@ -72,55 +74,31 @@ public final class CompositePattern implements Pattern {
 		return next;
 	}
 
+	public Set<ClassAttribute> getAttributes() {
+		return attributes;
+	}
+
+	public Set<String> getVariables() {
+		return variables;
+	}
+
 	private final CompositePatternType type;
 	private final Pattern head, child, next;
+	private final Set<ClassAttribute> attributes;
+	private final Set<String> variables;
 
 	// --------------------------------------------------------------------------
 	// Evaluation
 	// --------------------------------------------------------------------------
 
 	public boolean matches(EvaluationContext context, ClassInfo classInfo) throws RulesException {
-		return IncludeExcludeLogic.apply(makeIncludeExcludeNode(this, context, classInfo));
+		DecisionProgram compiled = program;
+		if (compiled == null)
+			program = compiled = DecisionProgram.compile(this);
+		return compiled.matches(context, classInfo);
 	}
 
-	private static IncludeExcludeNode makeIncludeExcludeNode(final Pattern pat, final EvaluationContext context,
-			final ClassInfo classInfo) {
-		if (pat == null)
-			return null;
-
-		final boolean include;
-		final Pattern head, child, next;
-
-		if (pat instanceof CompositePattern) {
-			CompositePattern compositePat = (CompositePattern) pat;
-			include = (compositePat.getType() == CompositePatternType.INCLUDE);
-			head = compositePat.getHead();
-			child = compositePat.getChild();
-			next = compositePat.getNext();
-		} else {
-			include = true;
-			head = pat;
-			child = next = null;
-		}
-
-		return new IncludeExcludeNode() {
-			public boolean isInclude() {
-				return include;
-			}
-
-			public boolean matches() throws RulesException {
-				return head.matches(context, classInfo);
-			}
-
-			public IncludeExcludeNode getChild() {
-				return makeIncludeExcludeNode(child, context, classInfo);
-			}
-
-			public IncludeExcludeNode getNext() {
-				return makeIncludeExcludeNode(next, context, classInfo);
-			}
-		};
-	}
+	private volatile DecisionProgram program;
 
 	// --------------------------------------------------------------------------
 	// Object
@@ -0,0 +1,167 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import de.andrena.tools.macker.event.CycleViolation;
+import de.andrena.tools.macker.event.ListenerException;
+import de.andrena.tools.macker.event.MackerIsMadException;
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+import de.andrena.tools.macker.util.collect.GraphWalker;
+import de.andrena.tools.macker.util.collect.Graphs;
+import de.andrena.tools.macker.util.collect.MultiMap;
+
+/**
+ * Forbids dependency cycles among the packages, or the classes, in a scope.
+ * Each strongly connected component of the reference graph of the primary
+ * classes matching the scope (and the subset of the rule set) is reported
+ * once, with a shortest cycle through its first member. At class level,
+ * nested classes count as their top-level class, since they always depend
+ * on each other.
+ */
+public class CycleRule extends Rule {
+	// --------------------------------------------------------------------------
+	// Constructors
+	// --------------------------------------------------------------------------
+
+	public CycleRule(RuleSet parent) {
+		super(parent);
+		scope = Pattern.ALL;
+		packageLevel = true;
+	}
+
+	// --------------------------------------------------------------------------
+	// Properties
+	// --------------------------------------------------------------------------
+
+	public Pattern getScope() {
+		return scope;
+	}
+
+	public void setScope(Pattern scope) {
+		if (scope == null)
+			throw new NullPointerException("scope parameter cannot be null");
+		this.scope = scope;
+	}
+
+	/**
+	 * Whether cycles among packages (the default) or among classes are
+	 * reported.
+	 */
+	public boolean isPackageLevel() {
+		return packageLevel;
+	}
+
+	public void setPackageLevel(boolean packageLevel) {
+		this.packageLevel = packageLevel;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	private Pattern scope;
+	private boolean packageLevel;
+	private String message;
+
+	// --------------------------------------------------------------------------
+	// Evaluation
+	// --------------------------------------------------------------------------
+
+	@Override
+	public void check(EvaluationContext context, ClassManager classes) throws RulesException, MackerIsMadException,
+			ListenerException {
+		// Only classes which refer to others can be on a cycle
+		MultiMap<ClassInfo, ClassInfo> references = classes.getReferences();
+		Set<ClassInfo> inScope = new HashSet<ClassInfo>();
+		for (ClassInfo classInfo : references.keySet())
+			if (context.getRuleSet().isInSubset(context, classInfo) && scope.matches(context, classInfo))
+				inScope.add(classInfo);
+
+		Set<String> nodes = new TreeSet<String>();
+		final Map<String, Set<String>> edges = new HashMap<String, Set<String>>();
+		for (ClassInfo classInfo : inScope)
+			nodes.add(nodeOf(classInfo));
+		for (MultiMap.Entry<ClassInfo, ClassInfo> reference : references.entrySet()) {
+			if (!inScope.contains(reference.getKey()) || !inScope.contains(reference.getValue()))
+				continue;
+			String from = nodeOf(reference.getKey()), to = nodeOf(reference.getValue());
+			if (from.equals(to))
+				continue;
+			Set<String> targets = edges.get(from);
+			if (targets == null)
+				edges.put(from, targets = new TreeSet<String>());
+			targets.add(to);
+		}
+
+		GraphWalker<String> walker = new GraphWalker<String>() {
+			public Collection<String> getEdgesFrom(String node) {
+				Set<String> targets = edges.get(node);
+				return (targets == null) ? Collections.<String> emptySet() : targets;
+			}
+		};
+		List<List<String>> cycles = new ArrayList<List<String>>();
+		for (List<String> component : Graphs.stronglyConnectedComponents(nodes, walker))
+			if (component.size() > 1) {
+				Collections.sort(component);
+				cycles.add(component);
+			}
+		Collections.sort(cycles, new Comparator<List<String>>() {
+			public int compare(List<String> a, List<String> b) {
+				return a.get(0).compareTo(b.get(0));
+			}
+		});
+
+		List<String> messages;
+		if (getMessage() == null)
+			messages = Collections.emptyList();
+		else
+			messages = Collections.singletonList(VariableParser.parse(context, getMessage()));
+		for (List<String> members : cycles) {
+			List<String> cycle = Graphs.shortestCycle(members.get(0), new HashSet<String>(members), walker);
+			context.broadcastEvent(new CycleViolation(this, members, cycle, messages));
+		}
+	}
+
+	private String nodeOf(ClassInfo classInfo) {
+		if (packageLevel)
+			return classInfo.getPackageName();
+		String name = classInfo.getFullName();
+		int nested = name.indexOf('$', name.lastIndexOf('.') + 1);
+		return (nested < 0) ? name : name.substring(0, nested);
+	}
+}
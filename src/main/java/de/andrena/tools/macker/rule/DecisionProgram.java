@@ -0,0 +1,315 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.util.IncludeExcludeLogic;
+
+/**
+ * Access rules and composite patterns compiled into flat arrays, so that
+ * matching them needs no node objects. Each include / exclude chain becomes
+ * a contiguous run of nodes; a node's test is either a leaf pattern or
+ * another chain, and its children are a chain of their own. The interpreter
+ * follows {@link IncludeExcludeLogic} exactly: chains are evaluated from
+ * their end, and costly nodes only when the result depends on them.
+ * <p>
+ * Leaves are tested through the {@link MatchMatrix} of the run, so each
+ * leaf is evaluated once per class. Programs are immutable once compiled,
+ * apart from remembering the rows of the last run, and may be shared between
+ * threads.
+ */
+final class DecisionProgram {
+	/**
+	 * Compiles a pattern; see {@link #matches(EvaluationContext, ClassInfo)}.
+	 */
+	static DecisionProgram compile(Pattern pattern) {
+		Compiler compiler = new Compiler();
+		int entry = compiler.test(pattern);
+		return new DecisionProgram(compiler, entry);
+	}
+
+	/**
+	 * Compiles an access rule together with the rules following it; see
+	 * {@link #allows(EvaluationContext, ClassInfo, ClassInfo)}.
+	 */
+	static DecisionProgram compile(AccessRule rule) {
+		Compiler compiler = new Compiler();
+		int entry = compiler.accessChain(rule);
+		return new DecisionProgram(compiler, entry);
+	}
+
+	private DecisionProgram(Compiler compiler, int entry) {
+		this.entry = entry;
+		int nodes = compiler.nodeCount, chains = compiler.chainCount;
+		include = Arrays.copyOf(compiler.include, nodes);
+		costly = Arrays.copyOf(compiler.costly, nodes);
+		toFirst = Arrays.copyOf(compiler.toFirst, nodes);
+		fromTest = Arrays.copyOf(compiler.fromTest, nodes);
+		toTest = Arrays.copyOf(compiler.toTest, nodes);
+		child = Arrays.copyOf(compiler.child, nodes);
+		chainFirst = Arrays.copyOf(compiler.chainFirst, chains);
+		chainLast = Arrays.copyOf(compiler.chainLast, chains);
+		leaves = compiler.leaves.toArray(new Pattern[compiler.leaves.size()]);
+	}
+
+	// ------------------------------------------------------------------------
+	// Evaluation
+	// ------------------------------------------------------------------------
+
+	/**
+	 * Whether a class matches a compiled pattern.
+	 */
+	public boolean matches(EvaluationContext context, ClassInfo classInfo) throws RulesException {
+		return test(rowsFor(context), entry, context, classInfo);
+	}
+
+	/**
+	 * Whether a compiled access rule allows a reference.
+	 */
+	public boolean allows(EvaluationContext context, ClassInfo from, ClassInfo to) throws RulesException {
+		return applyAccess(rowsFor(context), entry, context, from, to);
+	}
+
+	private MatchMatrix.Row[] rowsFor(EvaluationContext context) {
+		MatchMatrix matrix = context.getMatchMatrix();
+		Binding binding = this.binding;
+		if (binding == null || binding.matrix != matrix)
+			this.binding = binding = new Binding(matrix, matrix.rowsOf(leaves));
+		return binding.rows;
+	}
+
+	private boolean test(MatchMatrix.Row[] rows, int test, EvaluationContext context, ClassInfo classInfo)
+			throws RulesException {
+		if (test >= 0)
+			return rows[test].matches(context, classInfo);
+		return applyPattern(rows, ~test, context, classInfo);
+	}
+
+	private boolean applyPattern(MatchMatrix.Row[] rows, int chain, EvaluationContext context, ClassInfo classInfo)
+			throws RulesException {
+		return applyPattern(rows, chainFirst[chain], chainLast[chain], context, classInfo);
+	}
+
+	/**
+	 * The result of the nodes from <tt>first</tt> up to and including
+	 * <tt>last</tt>; see {@link IncludeExcludeLogic}.
+	 */
+	private boolean applyPattern(MatchMatrix.Row[] rows, int first, int last, EvaluationContext context,
+			ClassInfo classInfo) throws RulesException {
+		for (int node = last; node >= first; node--) {
+			if (costly[node]) {
+				boolean before = applyPattern(rows, first, node - 1, context, classInfo);
+				return (before != include[node] && decidesPattern(rows, node, context, classInfo)) ? include[node]
+						: before;
+			}
+			if (decidesPattern(rows, node, context, classInfo))
+				return include[node];
+		}
+		return !include[first];
+	}
+
+	private boolean decidesPattern(MatchMatrix.Row[] rows, int node, EvaluationContext context, ClassInfo classInfo)
+			throws RulesException {
+		if (!test(rows, fromTest[node], context, classInfo))
+			return false;
+		if (child[node] < 0)
+			return true;
+		return include[node] == applyPattern(rows, child[node], context, classInfo);
+	}
+
+	private boolean applyAccess(MatchMatrix.Row[] rows, int chain, EvaluationContext context, ClassInfo from,
+			ClassInfo to) throws RulesException {
+		return applyAccess(rows, chainFirst[chain], chainLast[chain], context, from, to);
+	}
+
+	private boolean applyAccess(MatchMatrix.Row[] rows, int first, int last, EvaluationContext context,
+			ClassInfo from, ClassInfo to) throws RulesException {
+		for (int node = last; node >= first; node--) {
+			if (costly[node]) {
+				boolean before = applyAccess(rows, first, node - 1, context, from, to);
+				return (before != include[node] && decidesAccess(rows, node, context, from, to)) ? include[node]
+						: before;
+			}
+			if (decidesAccess(rows, node, context, from, to))
+				return include[node];
+		}
+		return !include[first];
+	}
+
+	private boolean decidesAccess(MatchMatrix.Row[] rows, int node, EvaluationContext context, ClassInfo from,
+			ClassInfo to) throws RulesException {
+		// The side which can be decided without loading goes first
+		boolean matches = toFirst[node] ? test(rows, toTest[node], context, to)
+				&& test(rows, fromTest[node], context, from) : test(rows, fromTest[node], context, from)
+				&& test(rows, toTest[node], context, to);
+		if (!matches)
+			return false;
+		if (child[node] < 0)
+			return true;
+		return include[node] == applyAccess(rows, child[node], context, from, to);
+	}
+
+	// ------------------------------------------------------------------------
+	// Compiling
+	// ------------------------------------------------------------------------
+
+	/**
+	 * Lays out chains depth first. A pattern used in several places (such as
+	 * a named pattern) is compiled once.
+	 */
+	private static final class Compiler {
+		/**
+		 * Returns a test for the pattern: the index of a leaf, or the
+		 * complement of a chain.
+		 */
+		int test(Pattern pattern) {
+			if (!(pattern instanceof CompositePattern)) {
+				Integer leaf = leafIndex.get(pattern);
+				if (leaf == null) {
+					leafIndex.put(pattern, leaf = leaves.size());
+					leaves.add(pattern);
+				}
+				return leaf;
+			}
+			return ~chain(pattern);
+		}
+
+		/**
+		 * Returns the chain for a pattern; a plain pattern gets a chain of a
+		 * single include node.
+		 */
+		int chain(Pattern pattern) {
+			Integer chain = patternChains.get(pattern);
+			if (chain == null)
+				patternChains.put(pattern, chain = patternChain(pattern));
+			return chain;
+		}
+
+		// Results of recursive calls go through locals: the arrays may grow
+		// meanwhile
+
+		private int patternChain(Pattern pattern) {
+			int length = 0;
+			for (Pattern pat = pattern; pat != null; pat = next(pat))
+				length++;
+			int chain = newChain(length), node = chainFirst[chain];
+			for (Pattern pat = pattern; pat != null; pat = next(pat), node++) {
+				Pattern head, child;
+				if (pat instanceof CompositePattern) {
+					CompositePattern compositePat = (CompositePattern) pat;
+					include[node] = (compositePat.getType() == CompositePatternType.INCLUDE);
+					head = compositePat.getHead();
+					child = compositePat.getChild();
+				} else {
+					include[node] = true;
+					head = pat;
+					child = null;
+				}
+				costly[node] = ClassAttribute.needClassFile(ClassAttribute.readBy(head, child));
+				int headTest = test(head), childChain = (child == null) ? -1 : chain(child);
+				fromTest[node] = headTest;
+				this.child[node] = childChain;
+			}
+			return chain;
+		}
+
+		private static Pattern next(Pattern pattern) {
+			return (pattern instanceof CompositePattern) ? ((CompositePattern) pattern).getNext() : null;
+		}
+
+		int accessChain(AccessRule rule) {
+			int length = 0;
+			for (AccessRule r = rule; r != null; r = r.getNext())
+				length++;
+			int chain = newChain(length), node = chainFirst[chain];
+			for (AccessRule r = rule; r != null; r = r.getNext(), node++) {
+				include[node] = (r.getType() == AccessRuleType.ALLOW);
+				costly[node] = r.isCostly();
+				toFirst[node] = r.isFromCostly() && !r.isToCostly();
+				int from = test(r.getFrom()), to = test(r.getTo());
+				int childChain = (r.getChild() == null) ? -1 : accessChain(r.getChild());
+				fromTest[node] = from;
+				toTest[node] = to;
+				child[node] = childChain;
+			}
+			return chain;
+		}
+
+		/**
+		 * Reserves a contiguous run of nodes; the nodes' children are laid
+		 * out after it.
+		 */
+		private int newChain(int length) {
+			if (chainCount == chainFirst.length) {
+				chainFirst = Arrays.copyOf(chainFirst, chainCount * 2);
+				chainLast = Arrays.copyOf(chainLast, chainCount * 2);
+			}
+			int first = nodeCount;
+			nodeCount += length;
+			if (nodeCount > include.length) {
+				int capacity = Math.max(nodeCount, include.length * 2);
+				include = Arrays.copyOf(include, capacity);
+				costly = Arrays.copyOf(costly, capacity);
+				toFirst = Arrays.copyOf(toFirst, capacity);
+				fromTest = Arrays.copyOf(fromTest, capacity);
+				toTest = Arrays.copyOf(toTest, capacity);
+				child = Arrays.copyOf(child, capacity);
+			}
+			chainFirst[chainCount] = first;
+			chainLast[chainCount] = nodeCount - 1;
+			return chainCount++;
+		}
+
+		private boolean[] include = new boolean[16], costly = new boolean[16], toFirst = new boolean[16];
+		private int[] fromTest = new int[16], toTest = new int[16], child = new int[16];
+		private int[] chainFirst = new int[8], chainLast = new int[8];
+		private int nodeCount, chainCount;
+		private final List<Pattern> leaves = new ArrayList<Pattern>();
+		private final Map<Pattern, Integer> leafIndex = new IdentityHashMap<Pattern, Integer>();
+		private final Map<Pattern, Integer> patternChains = new IdentityHashMap<Pattern, Integer>();
+	}
+
+	private final int entry;
+	// Per node; pattern nodes only use fromTest
+	private final boolean[] include, costly, toFirst;
+	private final int[] fromTest, toTest, child;
+	// Per chain
+	private final int[] chainFirst, chainLast;
+	private final Pattern[] leaves;
+	private volatile Binding binding;
+
+	private static final class Binding {
+		Binding(MatchMatrix matrix, MatchMatrix.Row[] rows) {
+			this.matrix = matrix;
+			this.rows = rows;
+		}
+
+		final MatchMatrix matrix;
+		final MatchMatrix.Row[] rows;
+	}
+}
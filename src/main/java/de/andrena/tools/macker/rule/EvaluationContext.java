@@ -20,22 +20,25 @@
 
 package de.andrena.tools.macker.rule;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import de.andrena.tools.macker.event.ListenerException;
 import de.andrena.tools.macker.event.MackerEvent;
 import de.andrena.tools.macker.event.MackerEventListener;
 import de.andrena.tools.macker.event.MackerIsMadException;
+import de.andrena.tools.macker.structure.ClassInfo;
 import de.andrena.tools.macker.structure.ClassManager;
 
 public class EvaluationContext {
 	public EvaluationContext(ClassManager classManager, RuleSet ruleSet) {
 		this.classManager = classManager;
 		this.ruleSet = ruleSet;
-		varValues = new HashMap<String, String>();
+		values = new String[VariableSlots.count()];
 		listeners = new HashSet<MackerEventListener>();
 	}
 
@@ -61,20 +64,134 @@ public class EvaluationContext {
 	}
 
 	public void setVariableValue(String name, String value) throws UndeclaredVariableException {
-		varValues.put(name, (value == null) ? "" : VariableParser.parse(this, value));
+		setVariableValue(VariableSlots.slotOf(name), (value == null) ? "" : VariableParser.parse(this, value));
+	}
+
+	/**
+	 * Sets a variable by its slot (see {@link VariableSlots}), taking the
+	 * value as it is.
+	 */
+	void setVariableValue(int slot, String value) {
+		if (slot >= values.length)
+			values = Arrays.copyOf(values, Math.max(slot + 1, VariableSlots.count()));
+		values[slot] = value;
+	}
+
+	/**
+	 * Sets the variables naming the classes of a reference (<tt>${from}</tt>,
+	 * <tt>${to-package}</tt> and so on) whose slots are in the given mask
+	 * (see {@link VariableSlots#REFERENCE_VARIABLES}).
+	 */
+	void setReferenceVariables(ClassInfo from, ClassInfo to, int mask) {
+		if ((mask & (1 << VariableSlots.FROM)) != 0)
+			setVariableValue(VariableSlots.FROM, from.getClassName());
+		if ((mask & (1 << VariableSlots.TO)) != 0)
+			setVariableValue(VariableSlots.TO, to.getClassName());
+		if ((mask & (1 << VariableSlots.FROM_PACKAGE)) != 0)
+			setVariableValue(VariableSlots.FROM_PACKAGE, from.getPackageName());
+		if ((mask & (1 << VariableSlots.TO_PACKAGE)) != 0)
+			setVariableValue(VariableSlots.TO_PACKAGE, to.getPackageName());
+		if ((mask & (1 << VariableSlots.FROM_FULL)) != 0)
+			setVariableValue(VariableSlots.FROM_FULL, from.getFullName());
+		if ((mask & (1 << VariableSlots.TO_FULL)) != 0)
+			setVariableValue(VariableSlots.TO_FULL, to.getFullName());
+	}
+
+	/**
+	 * The values of all variables visible here, including those of the
+	 * parent contexts.
+	 */
+	Map<String, String> getVariables() {
+		Map<String, String> variables = (parent == null) ? new HashMap<String, String>() : parent.getVariables();
+		for (int slot = 0; slot < values.length; slot++)
+			if (values[slot] != null)
+				variables.put(VariableSlots.nameOf(slot), values[slot]);
+		return variables;
 	}
 
 	public String getVariableValue(String name) throws UndeclaredVariableException {
-		String value = varValues.get(name);
-		if (value != null)
-			return value;
+		return getVariableValue(VariableSlots.slotOf(name));
+	}
+
+	String getVariableValue(int slot) throws UndeclaredVariableException {
+		for (EvaluationContext context = this; context != null; context = context.parent)
+			if (slot < context.values.length && context.values[slot] != null)
+				return context.values[slot];
+		throw new UndeclaredVariableException(VariableSlots.nameOf(slot));
+	}
+
+	/**
+	 * The pool on which access rules are checked in parallel, or null (the
+	 * default) to check them on the calling thread. Inherited from the parent
+	 * context unless set.
+	 */
+	public ForkJoinPool getRulePool() {
+		if (rulePool == null && parent != null)
+			return parent.getRulePool();
+		return rulePool;
+	}
+
+	public void setRulePool(ForkJoinPool rulePool) {
+		this.rulePool = rulePool;
+	}
+
+	/**
+	 * The references of the innermost ForEach iterating, or null. Inherited
+	 * from the parent context unless set.
+	 */
+	ReferenceIndex getReferenceIndex() {
+		if (referenceIndex == null && parent != null)
+			return parent.getReferenceIndex();
+		return referenceIndex;
+	}
+
+	void setReferenceIndex(ReferenceIndex referenceIndex) {
+		this.referenceIndex = referenceIndex;
+	}
+
+	/**
+	 * The single pass registering access rules which walk all references,
+	 * or null to have them check the references themselves. Inherited from
+	 * the parent context unless set.
+	 */
+	SinglePass getSinglePass() {
+		if (singlePass == null && parent != null)
+			return parent.getSinglePass();
+		return singlePass;
+	}
+
+	void setSinglePass(SinglePass singlePass) {
+		this.singlePass = singlePass;
+	}
+
+	/**
+	 * The pattern results of this run, shared by every context below the
+	 * root one. A root context without a matrix set creates its own.
+	 */
+	MatchMatrix getMatchMatrix() {
 		if (parent != null)
-			return parent.getVariableValue(name);
-		throw new UndeclaredVariableException(name);
+			return parent.getMatchMatrix();
+		MatchMatrix matrix = matchMatrix;
+		if (matrix == null)
+			synchronized (this) {
+				if (matchMatrix == null)
+					matchMatrix = new MatchMatrix(classManager);
+				matrix = matchMatrix;
+			}
+		return matrix;
+	}
+
+	/**
+	 * Shares the pattern results of a root context with others, such as
+	 * those of the other rule sets checked in the same run.
+	 */
+	public void setMatchMatrix(MatchMatrix matchMatrix) {
+		this.matchMatrix = matchMatrix;
 	}
 
 	public void setVariables(Map<String, String> vars) {
-		varValues.putAll(vars);
+		for (Map.Entry<String, String> var : vars.entrySet())
+			setVariableValue(VariableSlots.slotOf(var.getKey()), var.getValue());
 	}
 
 	public void addListener(MackerEventListener listener) {
@@ -132,7 +249,11 @@ public class EvaluationContext {
 
 	private RuleSet ruleSet;
 	private EvaluationContext parent;
-	private Map<String, String> varValues;
+	private String[] values;
 	private Set<MackerEventListener> listeners;
 	private ClassManager classManager;
+	private ForkJoinPool rulePool;
+	private ReferenceIndex referenceIndex;
+	private SinglePass singlePass;
+	private volatile MatchMatrix matchMatrix;
 }
@@ -20,9 +20,14 @@
 
 package de.andrena.tools.macker.rule;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import de.andrena.tools.macker.event.ForEachFinished;
 import de.andrena.tools.macker.event.ForEachIterationFinished;
@@ -66,6 +71,7 @@ public class ForEach extends Rule {
 	public void check(EvaluationContext parentContext, ClassManager classes) throws RulesException,
 			MackerIsMadException, ListenerException {
 		EvaluationContext context = new EvaluationContext(ruleSet, parentContext);
+		context.setReferenceIndex(new ReferenceIndex(getVariableName(), classes));
 
 		Set<String> varValues = new TreeSet<String>();
 		Set<ClassInfo> pool = new HashSet<ClassInfo>();
@@ -83,15 +89,79 @@ public class ForEach extends Rule {
 		}
 
 		context.broadcastEvent(new ForEachStarted(this));
-		for (String varValue : varValues) {
-			context.broadcastEvent(new ForEachIterationStarted(this, varValue));
+		ForkJoinPool rulePool = context.getRulePool();
+		if (rulePool == null || rulePool.getParallelism() < 2 || varValues.size() < 2)
+			for (String varValue : varValues)
+				checkIteration(context, classes, varValue);
+		else
+			checkIterations(rulePool, context, classes, varValues);
+		context.broadcastEvent(new ForEachFinished(this));
+	}
 
-			context.setVariableValue(getVariableName(), varValue);
-			ruleSet.check(context, classes);
+	private void checkIteration(EvaluationContext context, ClassManager classes, String varValue)
+			throws RulesException, MackerIsMadException, ListenerException {
+		context.broadcastEvent(new ForEachIterationStarted(this, varValue));
 
-			context.broadcastEvent(new ForEachIterationFinished(this, varValue));
+		context.setVariableValue(getVariableName(), varValue);
+		ruleSet.check(context, classes);
+
+		context.broadcastEvent(new ForEachIterationFinished(this, varValue));
+	}
+
+	/**
+	 * Runs the iterations on the pool, each in a context of its own which
+	 * keeps its events. The events are replayed in order of the values, so
+	 * listeners see what a serial loop would produce; the first iteration to
+	 * fail ends the loop after its events.
+	 */
+	private void checkIterations(ForkJoinPool pool, EvaluationContext context, ClassManager classes,
+			Set<String> varValues) throws RulesException, MackerIsMadException, ListenerException {
+		List<ForkJoinTask<Iteration>> iterations = new ArrayList<ForkJoinTask<Iteration>>();
+		for (String varValue : varValues)
+			iterations.add(pool.submit(new Iteration(new BufferingContext(context), classes, varValue)));
+		try {
+			for (ForkJoinTask<Iteration> iteration : iterations) {
+				Iteration done = iteration.join();
+				done.context.replay();
+				if (done.rulesFailure != null)
+					throw done.rulesFailure;
+				if (done.madFailure != null)
+					throw done.madFailure;
+				if (done.listenerFailure != null)
+					throw done.listenerFailure;
+			}
+		} finally {
+			for (ForkJoinTask<Iteration> iteration : iterations)
+				iteration.cancel(false);
 		}
-		context.broadcastEvent(new ForEachFinished(this));
+	}
+
+	private final class Iteration implements Callable<Iteration> {
+		Iteration(BufferingContext context, ClassManager classes, String varValue) {
+			this.context = context;
+			this.classes = classes;
+			this.varValue = varValue;
+		}
+
+		public Iteration call() {
+			try {
+				checkIteration(context, classes, varValue);
+			} catch (RulesException re) {
+				rulesFailure = re;
+			} catch (MackerIsMadException mime) {
+				madFailure = mime;
+			} catch (ListenerException le) {
+				listenerFailure = le;
+			}
+			return this;
+		}
+
+		private final BufferingContext context;
+		private final ClassManager classes;
+		private final String varValue;
+		private RulesException rulesFailure;
+		private MackerIsMadException madFailure;
+		private ListenerException listenerFailure;
 	}
 
 	private RuleSet ruleSet;
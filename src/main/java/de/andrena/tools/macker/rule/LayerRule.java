@@ -0,0 +1,189 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.andrena.tools.macker.event.LayerViolation;
+import de.andrena.tools.macker.event.ListenerException;
+import de.andrena.tools.macker.event.MackerIsMadException;
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+import de.andrena.tools.macker.util.collect.MultiMap;
+
+/**
+ * A layered architecture: layers listed from top to bottom, each given by a
+ * pattern. A class belongs to the first layer whose pattern it matches, if
+ * any. Classes may refer to their own layer and to layers below it (in
+ * strict mode, only the one directly below), never to layers above.
+ * References from or to classes outside all layers are not checked.
+ * <p>
+ * The layer of each class is looked up once per check and kept in a table
+ * indexed by class ID (see {@link ClassManager#getClassId(ClassInfo)}), so
+ * checking a reference takes two table lookups and a comparison.
+ */
+public class LayerRule extends Rule {
+	// --------------------------------------------------------------------------
+	// Constructors
+	// --------------------------------------------------------------------------
+
+	public LayerRule(RuleSet parent) {
+		super(parent);
+	}
+
+	// --------------------------------------------------------------------------
+	// Properties
+	// --------------------------------------------------------------------------
+
+	/**
+	 * Adds a layer below those added so far.
+	 */
+	public void addLayer(String name, Pattern pattern) {
+		if (name == null || pattern == null)
+			throw new NullPointerException("name and pattern parameters cannot be null");
+		layerNames.add(name);
+		layerPatterns.add(pattern);
+	}
+
+	/**
+	 * The names of the layers, from top to bottom.
+	 */
+	public List<String> getLayerNames() {
+		return Collections.unmodifiableList(layerNames);
+	}
+
+	public List<Pattern> getLayerPatterns() {
+		return Collections.unmodifiableList(layerPatterns);
+	}
+
+	/**
+	 * Whether a layer may only refer to the layer directly below it, rather
+	 * than to all layers below it (the default).
+	 */
+	public boolean isStrict() {
+		return strict;
+	}
+
+	public void setStrict(boolean strict) {
+		this.strict = strict;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	private final List<String> layerNames = new ArrayList<String>();
+	private final List<Pattern> layerPatterns = new ArrayList<Pattern>();
+	private boolean strict;
+	private String message;
+
+	// --------------------------------------------------------------------------
+	// Evaluation
+	// --------------------------------------------------------------------------
+
+	@Override
+	public void check(EvaluationContext context, ClassManager classes) throws RulesException, MackerIsMadException,
+			ListenerException {
+		Ranks ranks = new Ranks(context, classes);
+		EvaluationContext localContext = null;
+		int messageVariables = 0;
+		ClassInfo lastFrom = null;
+		boolean inSubset = false;
+		for (MultiMap.Entry<ClassInfo, ClassInfo> reference : classes.getReferences().entrySet()) {
+			ClassInfo from = reference.getKey(), to = reference.getValue();
+			if (from != lastFrom) {
+				inSubset = context.getRuleSet().isInSubset(context, from);
+				lastFrom = from;
+			}
+			if (!inSubset || from.equals(to))
+				continue;
+
+			int fromRank = ranks.get(from), toRank = ranks.get(to);
+			if (fromRank < 0 || toRank < 0 || allows(fromRank, toRank))
+				continue;
+
+			List<String> messages;
+			if (getMessage() == null)
+				messages = Collections.emptyList();
+			else {
+				if (localContext == null) {
+					localContext = new EvaluationContext(context);
+					messageVariables = VariableSlots.referenceVariables(VariableParser.variablesIn(getMessage()));
+				}
+				localContext.setReferenceVariables(from, to, messageVariables);
+				localContext.setVariableValue(FROM_LAYER, layerNames.get(fromRank));
+				localContext.setVariableValue(TO_LAYER, layerNames.get(toRank));
+				messages = Collections.singletonList(VariableParser.parse(localContext, getMessage()));
+			}
+			context.broadcastEvent(new LayerViolation(this, from, to, layerNames.get(fromRank),
+					layerNames.get(toRank), messages));
+		}
+	}
+
+	private boolean allows(int fromRank, int toRank) {
+		return strict ? (toRank == fromRank || toRank == fromRank + 1) : toRank >= fromRank;
+	}
+
+	/**
+	 * The layer of each class, looked up when first asked for.
+	 */
+	private final class Ranks {
+		Ranks(EvaluationContext context, ClassManager classes) {
+			this.context = context;
+			this.classes = classes;
+		}
+
+		/**
+		 * The index of the layer of a class, or -1 if it is in none.
+		 */
+		int get(ClassInfo classInfo) throws RulesException {
+			int id = classes.getClassId(classInfo);
+			if (id >= ranks.length)
+				ranks = Arrays.copyOf(ranks, Math.max(id + 1, ranks.length * 2));
+			int rank = ranks[id];
+			if (rank == 0) {
+				rank = NO_LAYER;
+				for (int n = 0; n < layerPatterns.size() && rank == NO_LAYER; n++)
+					if (layerPatterns.get(n).matches(context, classInfo))
+						rank = n + 1;
+				ranks[id] = rank;
+			}
+			return (rank == NO_LAYER) ? -1 : rank - 1;
+		}
+
+		private final EvaluationContext context;
+		private final ClassManager classes;
+		// The layer index plus one, or NO_LAYER; 0 for not yet looked up
+		private int[] ranks = new int[256];
+	}
+
+	private static final int NO_LAYER = -1;
+	private static final int FROM_LAYER = VariableSlots.slotOf("from-layer");
+	private static final int TO_LAYER = VariableSlots.slotOf("to-layer");
+}
@@ -21,9 +21,12 @@
 package de.andrena.tools.macker.rule;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -42,12 +45,27 @@ public final class MackerRegex {
 			throw new NullPointerException("regexStr == null");
 
 		this.regexStr = regexStr;
-		parts = null;
-		regex = null;
-		prevVarValues = new HashMap<String, String>();
 
 		if (!(allowParts ? allowable : allowableNoParts).matcher(regexStr).matches())
 			throw new MackerRegexSyntaxException(regexStr);
+
+		List<Part> parsedParts = new ArrayList<Part>();
+		Matcher varMatcher = var.matcher(regexStr);
+		for (int pos = 0; pos >= 0;) {
+			boolean hasAnotherVar = varMatcher.find(pos);
+			int expEnd = hasAnotherVar ? varMatcher.start() : regexStr.length();
+
+			if (pos < expEnd)
+				parsedParts.add(new ExpPart(parseSubexpr(regexStr.substring(pos, expEnd))));
+			if (hasAnotherVar)
+				parsedParts.add(new VarPart(varMatcher.group(1)));
+
+			pos = hasAnotherVar ? varMatcher.end() : -1;
+		}
+		parts = parsedParts;
+		variables = VariableParser.variablesIn(regexStr);
+		variableSlots = VariableSlots.slotsOf(variables.toArray(new String[variables.size()]));
+		byPackage = byPackageEnd.matcher(regexStr).find();
 	}
 
 	// --------------------------------------------------------------------------
@@ -58,7 +76,36 @@ public final class MackerRegex {
 		return regexStr;
 	}
 
+	/**
+	 * The names of the variables the regex refers to.
+	 */
+	public Set<String> getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Whether the regex decides a top-level class name by its package alone.
+	 * That is the case when it ends in <tt>*</tt> or <tt>**</tt> after a
+	 * separator: the simple name of a top-level class contains neither '.' nor
+	 * '$', so the part before the last separator has to match the package (or,
+	 * for <tt>**</tt>, a leading part of it).
+	 */
+	public boolean matchesByPackage() {
+		return byPackage;
+	}
+
+	/**
+	 * Whether the regex starts with the given variable, so that every name
+	 * it matches starts with the value of that variable (if the value is a
+	 * plain name).
+	 */
+	public boolean startsWithVariable(String name) {
+		return !parts.isEmpty() && parts.get(0) instanceof VarPart && ((VarPart) parts.get(0)).varName.equals(name);
+	}
+
 	private final String regexStr;
+	private final Set<String> variables;
+	private final boolean byPackage;
 
 	// --------------------------------------------------------------------------
 	// Evaluation
@@ -71,78 +118,85 @@ public final class MackerRegex {
 
 	public String getMatch(EvaluationContext context, String s) throws UndeclaredVariableException,
 			MackerRegexSyntaxException {
-		parseExpr(context);
-		Boolean match = matchCache.get(s);
-		if (match != null)
-			return match ? matchResultCache.get(s) : null;
-
-		Matcher matcher = regex.matcher('.' + s);
-		match = matcher.matches();
-		matchCache.put(s, match);
-		if (match) {
-			String matchResult = matcher.group(matcher.groupCount());
-			matchResultCache.put(s, matchResult);
-			return matchResult;
-		} else
-			return null;
+		return compiledFor(context).getMatch(s);
 	}
 
-	private void parseExpr(EvaluationContext context) throws UndeclaredVariableException, MackerRegexSyntaxException {
-		if (parts == null) {
-			parts = new ArrayList<Part>();
-			Matcher varMatcher = var.matcher(regexStr);
-			for (int pos = 0; pos >= 0;) {
-				boolean hasAnotherVar = varMatcher.find(pos);
-				int expEnd = hasAnotherVar ? varMatcher.start() : regexStr.length();
-
-				if (pos < expEnd)
-					parts.add(new ExpPart(parseSubexpr(regexStr.substring(pos, expEnd))));
-				if (hasAnotherVar)
-					parts.add(new VarPart(varMatcher.group(1)));
-
-				pos = hasAnotherVar ? varMatcher.end() : -1;
-			}
+	/**
+	 * Building the regexp is expensive; there's no point in doing it if we
+	 * already have one for the values of the relevant variables. A regex
+	 * without variables builds it once. Otherwise each thread remembers the
+	 * values it saw last, read into a scratch array so a repeated binding
+	 * allocates nothing; other values are looked up by binding, then by the
+	 * regexp they produce, which is shared by every regex in every rule set.
+	 */
+	private Compiled compiledFor(EvaluationContext context) throws UndeclaredVariableException,
+			MackerRegexSyntaxException {
+		if (variableSlots.length == 0) {
+			Compiled compiled = fixed;
+			if (compiled == null)
+				fixed = compiled = build(context);
+			return compiled;
 		}
 
-		// Building the regexp is expensive; there's no point in doing it if we
-		// already have one cached, and the relevant variables haven't changed
-
-		boolean changed = (regex == null);
-		for (Map.Entry<String, String> entry : prevVarValues.entrySet()) {
-			String name = entry.getKey();
-			String value = entry.getValue();
-			if (!context.getVariableValue(name).equals(value)) {
-				changed = true;
-				break;
-			}
+		State state = this.state.get();
+		String[] scratch = state.scratch;
+		if (scratch == null)
+			state.scratch = scratch = new String[variableSlots.length];
+		for (int n = 0; n < scratch.length; n++)
+			scratch[n] = context.getVariableValue(variableSlots[n]);
+		if (state.compiled != null && Arrays.equals(scratch, state.values))
+			return state.compiled;
+
+		String[] values = scratch.clone();
+		List<String> binding = Arrays.asList(values);
+		Compiled compiled;
+		synchronized (bindings) {
+			compiled = bindings.get(binding);
 		}
-
-		if (changed) {
-			StringBuffer builtRegexStr = new StringBuffer("^\\.?");
-			for (Part part : parts) {
-				if (part instanceof VarPart) {
-					String varName = ((VarPart) part).varName;
-					String varValue = context.getVariableValue(varName);
-					prevVarValues.put(varName, varValue);
-					builtRegexStr.append(parseSubexpr(varValue));
-				} else if (part instanceof ExpPart)
-					builtRegexStr.append(((ExpPart) part).exp);
+		if (compiled == null) {
+			compiled = build(context);
+			synchronized (bindings) {
+				bindings.put(binding, compiled);
 			}
-			builtRegexStr.append('$');
+		}
+		state.values = values;
+		state.compiled = compiled;
+		return compiled;
+	}
 
-			try {
-				regex = Pattern.compile(builtRegexStr.toString());
-			} catch (PatternSyntaxException pse) {
-				System.out.println("builtRegexStr = " + builtRegexStr);
-				throw new MackerRegexSyntaxException(regexStr, pse);
-			}
+	private Compiled build(EvaluationContext context) throws UndeclaredVariableException,
+			MackerRegexSyntaxException {
+		StringBuilder builtRegexStr = new StringBuilder("^\\.?");
+		for (Part part : parts) {
+			if (part instanceof VarPart)
+				builtRegexStr.append(parseSubexpr(context.getVariableValue(((VarPart) part).slot)));
+			else if (part instanceof ExpPart)
+				builtRegexStr.append(((ExpPart) part).exp);
+		}
+		builtRegexStr.append('$');
+		return compile(builtRegexStr.toString());
+	}
 
-			// ! if(???)
-			// ! throw new MackerRegexSyntaxException(regexStr,
-			// "Too many parenthesized expressions");
-			matchCache = new HashMap<String, Boolean>();
-			matchResultCache = new HashMap<String, String>();
+	private Compiled compile(String builtRegexStr) throws MackerRegexSyntaxException {
+		synchronized (compiledRegexes) {
+			Compiled compiled = compiledRegexes.get(builtRegexStr);
+			if (compiled != null)
+				return compiled;
+		}
+		Compiled compiled;
+		try {
+			compiled = new Compiled(Pattern.compile(builtRegexStr));
+		} catch (PatternSyntaxException pse) {
+			System.out.println("builtRegexStr = " + builtRegexStr);
+			throw new MackerRegexSyntaxException(regexStr, pse);
+		}
+		// ! if(???)
+		// ! throw new MackerRegexSyntaxException(regexStr,
+		// "Too many parenthesized expressions");
+		synchronized (compiledRegexes) {
+			compiledRegexes.put(builtRegexStr, compiled);
 		}
+		return compiled;
 	}
 
 	private String parseSubexpr(String exp) {
@@ -150,12 +204,55 @@ public final class MackerRegex {
 				.replace("\uFFFF\uFFFF", ".*").replace("\uFFFF", "[^\\.]*");
 	}
 
-	private Pattern regex;
-	private List<Part> parts;
-	private Map<String, String> prevVarValues;
-	private Map<String, Boolean> matchCache;
-	private Map<String, String> matchResultCache;
+	/**
+	 * A compiled regexp and the results of matching it, which may be shared
+	 * between threads.
+	 */
+	private static final class Compiled {
+		Compiled(Pattern regex) {
+			this.regex = regex;
+		}
+
+		String getMatch(String s) {
+			String cached = matches.get(s);
+			if (cached != null)
+				return (cached == NO_MATCH) ? null : cached;
+
+			Matcher matcher = regex.matcher('.' + s);
+			String matchResult = matcher.matches() ? matcher.group(matcher.groupCount()) : null;
+			if (matches.size() < MAX_MATCHES)
+				matches.put(s, (matchResult != null) ? matchResult : NO_MATCH);
+			return matchResult;
+		}
+
+		private final Pattern regex;
+		private final Map<String, String> matches = new ConcurrentHashMap<String, String>();
+	}
+
+	/**
+	 * The compiled regexp this thread used last, the variable values it was
+	 * built for, and the array the current values are read into.
+	 */
+	private static final class State {
+		String[] values, scratch;
+		Compiled compiled;
+	}
+
+	private final List<Part> parts;
+	private final int[] variableSlots;
+	private volatile Compiled fixed;
+	private final Map<List<String>, Compiled> bindings = new LruMap<List<String>, Compiled>(MAX_BINDINGS);
+	private final ThreadLocal<State> state = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State();
+		}
+	};
+	static private final String NO_MATCH = new String("no match");
+	static private final int MAX_BINDINGS = 64, MAX_COMPILED = 256, MAX_MATCHES = 1 << 14;
+	static private final Map<String, Compiled> compiledRegexes = new LruMap<String, Compiled>(MAX_COMPILED);
 	static private Pattern var, allowable, allowableNoParts;
+	static private final Pattern byPackageEnd = Pattern.compile("(^|[\\./])\\*\\*?$");
 	static {
 		String varS = "\\$\\{([A-Za-z0-9_\\.\\-]+)\\}";
 		String partS = "(([A-Za-z_]|[\\(\\)]|\\*|" + varS + ")" + "([A-Za-z0-9_]|[\\(\\)]|\\*|" + varS + ")*)";
@@ -164,15 +261,35 @@ public final class MackerRegex {
 		allowableNoParts = Pattern.compile("^" + partS + "$");
 	}
 
+	/**
+	 * Keeps the most recently used entries; callers synchronize on it.
+	 */
+	private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+		LruMap(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > maxSize;
+		}
+
+		private final int maxSize;
+		private static final long serialVersionUID = 1L;
+	}
+
 	private class Part {
 	}
 
 	private class VarPart extends Part {
 		public VarPart(String varName) {
 			this.varName = varName;
+			slot = VariableSlots.slotOf(varName);
 		}
 
 		public String varName;
+		public int slot;
 
 		@Override
 		public String toString() {
@@ -0,0 +1,279 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+
+/**
+ * Remembers which classes each pattern matched during one run, so that a
+ * pattern is evaluated at most once per class no matter how many references
+ * the class appears in.
+ * <p>
+ * A pattern which reads no variables gets a row of two bits per class ID:
+ * whether the class has been tested, and whether it matched. Class patterns
+ * made of whole segments are kept in a {@link PatternTrie} as well, and the
+ * first of them tested on a class fills in the rows of all of them with a
+ * single walk along its name. A pattern which
+ * reads variables caches its results keyed by the class and the values of
+ * those variables. Patterns which don't say what they read (see
+ * {@link VariableParser#variablesReadBy(Pattern)}) are always evaluated.
+ * <p>
+ * Classes are only tested when a rule asks about them, so filters still only
+ * load the classes they are actually applied to. Rows may be shared between
+ * threads, and one matrix between the rule sets of a run (see
+ * {@link EvaluationContext#setMatchMatrix(MatchMatrix)}).
+ */
+public final class MatchMatrix {
+	public MatchMatrix(ClassManager classManager) {
+		this.classManager = classManager;
+	}
+
+	/**
+	 * The rows for the given patterns, in the same order.
+	 */
+	synchronized Row[] rowsOf(Pattern[] patterns) {
+		Row[] result = new Row[patterns.length];
+		int trieSize = trieRows.size();
+		for (int n = 0; n < patterns.length; n++) {
+			Row row = rows.get(patterns[n]);
+			if (row == null) {
+				Set<String> variables = VariableParser.variablesReadBy(patterns[n]);
+				if (variables == null)
+					row = new Row(patterns[n]);
+				else if (patterns[n] instanceof RegexPattern
+						&& PatternTrie.accepts(((RegexPattern) patterns[n]).getRegex().getPatternString())) {
+					TrieRow trieRow = new TrieRow(patterns[n], trieRows.size());
+					trieRows.add(trieRow);
+					row = trieRow;
+				} else if (variables.isEmpty())
+					row = new ClassRow(patterns[n]);
+				else
+					row = new BoundRow(patterns[n],
+							VariableSlots.slotsOf(variables.toArray(new String[variables.size()])));
+				rows.put(patterns[n], row);
+			}
+			result[n] = row;
+		}
+		if (trieRows.size() != trieSize) {
+			List<String> trieRegexes = new ArrayList<String>();
+			for (TrieRow row : trieRows)
+				trieRegexes.add(((RegexPattern) row.pattern).getRegex().getPatternString());
+			tries = new Tries(new PatternTrie(trieRegexes), trieRows.toArray(new TrieRow[trieRows.size()]));
+		}
+		return result;
+	}
+
+	/**
+	 * A pattern which is evaluated every time.
+	 */
+	static class Row {
+		Row(Pattern pattern) {
+			this.pattern = pattern;
+		}
+
+		boolean matches(EvaluationContext context, ClassInfo classInfo) throws RulesException {
+			return pattern.matches(context, classInfo);
+		}
+
+		final Pattern pattern;
+	}
+
+	private class ClassRow extends Row {
+		ClassRow(Pattern pattern) {
+			super(pattern);
+		}
+
+		@Override
+		final boolean matches(EvaluationContext context, ClassInfo classInfo) throws RulesException {
+			int id = classManager.getClassId(classInfo);
+			AtomicLongArray words = this.words;
+			int word = id >>> 5, shift = (id & 31) << 1;
+			if (word < words.length()) {
+				long state = words.get(word) >>> shift;
+				if ((state & TESTED) != 0)
+					return (state & MATCHED) != 0;
+			}
+
+			boolean match = evaluate(context, classInfo, id);
+			record(id, match);
+			return match;
+		}
+
+		boolean evaluate(EvaluationContext context, ClassInfo classInfo, int id) throws RulesException {
+			return pattern.matches(context, classInfo);
+		}
+
+		final void record(int id, boolean match) {
+			AtomicLongArray words = this.words;
+			int word = id >>> 5, shift = (id & 31) << 1;
+			if (word >= words.length())
+				words = grow(word);
+			long bits = (TESTED | (match ? MATCHED : 0)) << shift;
+			for (long old; ((old = words.get(word)) & bits) != bits;)
+				if (words.compareAndSet(word, old, old | bits))
+					break;
+		}
+
+		/**
+		 * A result set in the old array while it is being copied is lost,
+		 * which only means the class will be tested again.
+		 */
+		private synchronized AtomicLongArray grow(int word) {
+			AtomicLongArray old = words;
+			if (word < old.length())
+				return old;
+			AtomicLongArray grown = new AtomicLongArray(Math.max(word + 1, old.length() * 2));
+			for (int n = 0; n < old.length(); n++)
+				grown.set(n, old.get(n));
+			return words = grown;
+		}
+
+		private volatile AtomicLongArray words = new AtomicLongArray(16);
+	}
+
+	private final class TrieRow extends ClassRow {
+		TrieRow(Pattern pattern, int index) {
+			super(pattern);
+			this.index = index;
+		}
+
+		@Override
+		boolean evaluate(EvaluationContext context, ClassInfo classInfo, int id) {
+			Tries tries = MatchMatrix.this.tries;
+			BitSet matches = tries.trie.match(classInfo.getFullName());
+			for (int n = 0; n < tries.rows.length; n++)
+				if (n != index)
+					tries.rows[n].record(id, matches.get(n));
+			return matches.get(index);
+		}
+
+		private final int index;
+	}
+
+	private static final class Tries {
+		Tries(PatternTrie trie, TrieRow[] rows) {
+			this.trie = trie;
+			this.rows = rows;
+		}
+
+		final PatternTrie trie;
+		final TrieRow[] rows;
+	}
+
+	private final class BoundRow extends Row {
+		BoundRow(Pattern pattern, int[] variables) {
+			super(pattern);
+			this.variables = variables;
+		}
+
+		@Override
+		boolean matches(EvaluationContext context, ClassInfo classInfo) throws RulesException {
+			Binding probe = this.probe.get();
+			for (int n = 0; n < variables.length; n++)
+				probe.values[n] = context.getVariableValue(variables[n]);
+			probe.bind(classManager.getClassId(classInfo));
+			Boolean match = results.get(probe);
+			if (match != null)
+				return match;
+
+			match = pattern.matches(context, classInfo);
+			if (results.size() < MAX_BINDINGS)
+				results.put(probe.copy(), match);
+			return match;
+		}
+
+		private final int[] variables;
+		private final Map<Binding, Boolean> results = new ConcurrentHashMap<Binding, Boolean>();
+		private final ThreadLocal<Binding> probe = new ThreadLocal<Binding>() {
+			@Override
+			protected Binding initialValue() {
+				return new Binding(new String[variables.length]);
+			}
+		};
+	}
+
+	/**
+	 * A class ID with the values of the variables a pattern reads. Each
+	 * thread reads the current values into a probe of its own, so looking up
+	 * a binding allocates nothing; only the bindings kept are copied.
+	 */
+	private static final class Binding {
+		Binding(String[] values) {
+			this.values = values;
+		}
+
+		void bind(int classId) {
+			int hash = classId;
+			for (String value : values)
+				hash = 31 * hash + value.hashCode();
+			this.classId = classId;
+			this.hash = hash;
+		}
+
+		Binding copy() {
+			Binding copy = new Binding(values.clone());
+			copy.classId = classId;
+			copy.hash = hash;
+			return copy;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Binding))
+				return false;
+			Binding other = (Binding) obj;
+			if (classId != other.classId || hash != other.hash)
+				return false;
+			for (int n = 0; n < values.length; n++)
+				if (values[n] != other.values[n] && !values[n].equals(other.values[n]))
+					return false;
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		private final String[] values;
+		private int classId, hash;
+	}
+
+	private final ClassManager classManager;
+	private final Map<Pattern, Row> rows = new IdentityHashMap<Pattern, Row>();
+	private final List<TrieRow> trieRows = new ArrayList<TrieRow>();
+	private volatile Tries tries;
+
+	private static final long TESTED = 1, MATCHED = 2;
+	// Per pattern; beyond this the pattern is simply evaluated
+	private static final int MAX_BINDINGS = 1 << 16;
+}
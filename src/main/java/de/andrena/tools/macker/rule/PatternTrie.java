@@ -0,0 +1,208 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.andrena.tools.macker.util.collect.Radix;
+import de.andrena.tools.macker.util.collect.RadixMap;
+
+/**
+ * Class patterns made of whole segments -- names, <tt>*</tt> and
+ * <tt>**</tt>, separated by dots -- kept in one trie over their segments, so
+ * that a single walk along a class name finds every pattern matching it.
+ * <p>
+ * The walk follows {@link MackerRegex} exactly: a dot in a pattern matches
+ * either '.' or '$', <tt>*</tt> matches anything up to the next '.', and
+ * <tt>**</tt> matches anything at all. Patterns with variables, parentheses,
+ * wildcards inside a segment or other separators are left to their regex.
+ * Immutable once built.
+ */
+final class PatternTrie {
+	/**
+	 * Whether a class pattern can be put into a trie.
+	 */
+	static boolean accepts(String regexStr) {
+		return segmentPattern.matcher(regexStr).matches();
+	}
+
+	PatternTrie(List<String> patterns) {
+		size = patterns.size();
+		trie = new RadixMap<int[], int[]>(new SegmentRadix());
+		for (int index = 0; index < size; index++) {
+			String pattern = patterns.get(index);
+			if (!accepts(pattern))
+				throw new IllegalArgumentException("not a segment pattern: " + pattern);
+			String[] segments = pattern.split("\\.");
+			int[] key = new int[segments.length];
+			for (int n = 0; n < segments.length; n++)
+				key[n] = tokenOf(segments[n]);
+			int[] indexes = trie.get(key);
+			indexes = (indexes == null) ? new int[1] : Arrays.copyOf(indexes, indexes.length + 1);
+			indexes[indexes.length - 1] = index;
+			trie.put(key, indexes);
+		}
+	}
+
+	private int tokenOf(String segment) {
+		if (segment.equals("*"))
+			return STAR;
+		if (segment.equals("**"))
+			return DOUBLE_STAR;
+		Integer token = names.get(segment);
+		if (token == null)
+			names.put(segment, token = names.size() + FIRST_NAME);
+		return token;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The indexes (in the list the trie was built from) of the patterns
+	 * which match the given class name.
+	 */
+	public BitSet match(String className) {
+		BitSet matches = new BitSet(size);
+		RadixMap.Cursor<int[], int[]> root = trie.cursor(0);
+		if (root != null) {
+			// Like a regex, which is applied to '.' + className and may skip
+			// the leading dot
+			String name = '.' + className;
+			segmentFrom(root, name, 0, matches);
+			segmentFrom(root, name, 1, matches);
+		}
+		return matches;
+	}
+
+	/**
+	 * Matches the next segment of the patterns under <tt>node</tt> against
+	 * the name from position <tt>start</tt> on.
+	 */
+	private void segmentFrom(RadixMap.Cursor<int[], int[]> node, String name, int start, BitSet matches) {
+		int length = name.length();
+
+		int end = start;
+		while (end < length && !isSeparator(name.charAt(end)))
+			end++;
+		Integer token = names.get(name.substring(start, end));
+		if (token != null)
+			segmentEnd(node.child(token), name, end, matches);
+
+		RadixMap.Cursor<int[], int[]> star = node.child(STAR);
+		if (star != null)
+			for (int pos = start;; pos++) {
+				if (pos == length || isSeparator(name.charAt(pos)))
+					segmentEnd(star, name, pos, matches);
+				if (pos == length || name.charAt(pos) == '.')
+					break;
+			}
+
+		RadixMap.Cursor<int[], int[]> doubleStar = node.child(DOUBLE_STAR);
+		if (doubleStar != null)
+			for (int pos = start; pos <= length; pos++)
+				if (pos == length || isSeparator(name.charAt(pos)))
+					segmentEnd(doubleStar, name, pos, matches);
+	}
+
+	/**
+	 * Continues after a segment ending at <tt>pos</tt>, which is either the
+	 * end of the name or a separator.
+	 */
+	private void segmentEnd(RadixMap.Cursor<int[], int[]> node, String name, int pos, BitSet matches) {
+		if (node == null)
+			return;
+		if (pos < name.length())
+			segmentFrom(node, name, pos + 1, matches);
+		else if (node.hasValue())
+			for (int index : node.getValue())
+				matches.set(index);
+	}
+
+	private static boolean isSeparator(char c) {
+		return c == '.' || c == '$';
+	}
+
+	/**
+	 * Token sequences as digits, the first token being the most significant.
+	 */
+	private static final class SegmentRadix implements Radix {
+		public int getBase() {
+			return Integer.MAX_VALUE;
+		}
+
+		public int digit(Object o, int position) {
+			int[] tokens = (int[]) o;
+			return (-position < tokens.length) ? tokens[-position] : -1;
+		}
+
+		public int getMaxPosition(Object o) {
+			return 0;
+		}
+
+		public int getMinPosition(Object o) {
+			return 1 - ((int[]) o).length;
+		}
+
+		public int getMaxPositionForAll(Collection values) {
+			return 0;
+		}
+
+		public int getMinPositionForAll(Collection values) {
+			int minPos = 0;
+			for (Object value : values)
+				minPos = Math.min(minPos, getMinPosition(value));
+			return minPos;
+		}
+
+		public Object objectFromDigits(int[] digits) {
+			return digits.clone();
+		}
+
+		public Object objectFromDigits(int[] digits, int offset, int len) {
+			return Arrays.copyOfRange(digits, offset, offset + len);
+		}
+
+		public int compare(Object o1, Object o2) {
+			int[] tokens1 = (int[]) o1, tokens2 = (int[]) o2;
+			for (int n = 0; n < tokens1.length && n < tokens2.length; n++)
+				if (tokens1[n] != tokens2[n])
+					return (tokens1[n] < tokens2[n]) ? -1 : 1;
+			return tokens1.length - tokens2.length;
+		}
+	}
+
+	private final int size;
+	private final RadixMap<int[], int[]> trie;
+	private final Map<String, Integer> names = new HashMap<String, Integer>();
+
+	private static final int STAR = 0, DOUBLE_STAR = 1, FIRST_NAME = 2;
+	private static final String SEGMENT = "(?:[A-Za-z_][A-Za-z0-9_]*|\\*\\*?)";
+	private static final java.util.regex.Pattern segmentPattern = java.util.regex.Pattern.compile(SEGMENT + "(?:\\."
+			+ SEGMENT + ")*");
+}
@@ -0,0 +1,137 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import de.andrena.tools.macker.event.ListenerException;
+import de.andrena.tools.macker.event.MackerIsMadException;
+import de.andrena.tools.macker.event.ReachabilityViolation;
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassInfoNameComparator;
+import de.andrena.tools.macker.structure.ClassManager;
+import de.andrena.tools.macker.structure.ReachabilityIndex;
+
+/**
+ * Forbids classes matching one pattern to reach classes matching another
+ * through any chain of references, not just directly. Each primary class
+ * which does is reported once, with a shortest path to the first such
+ * target (in name order). Uses the {@link ReachabilityIndex} of the class
+ * manager.
+ */
+public class ReachabilityRule extends Rule {
+	// --------------------------------------------------------------------------
+	// Constructors
+	// --------------------------------------------------------------------------
+
+	public ReachabilityRule(RuleSet parent) {
+		super(parent);
+		from = Pattern.ALL;
+		to = Pattern.ALL;
+	}
+
+	// --------------------------------------------------------------------------
+	// Properties
+	// --------------------------------------------------------------------------
+
+	public Pattern getFrom() {
+		return from;
+	}
+
+	public void setFrom(Pattern from) {
+		if (from == null)
+			throw new NullPointerException("from parameter cannot be null");
+		this.from = from;
+	}
+
+	public Pattern getTo() {
+		return to;
+	}
+
+	public void setTo(Pattern to) {
+		if (to == null)
+			throw new NullPointerException("to parameter cannot be null");
+		this.to = to;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	private Pattern from, to;
+	private String message;
+
+	// --------------------------------------------------------------------------
+	// Evaluation
+	// --------------------------------------------------------------------------
+
+	@Override
+	public void check(EvaluationContext context, ClassManager classes) throws RulesException, MackerIsMadException,
+			ListenerException {
+		ReachabilityIndex index = classes.getReachabilityIndex();
+		List<ClassInfo> targets = new ArrayList<ClassInfo>();
+		for (ClassInfo classInfo : index.getClasses())
+			if (to.matches(context, classInfo))
+				targets.add(classInfo);
+		if (targets.isEmpty())
+			return;
+		Collections.sort(targets, ClassInfoNameComparator.INSTANCE);
+		ReachabilityIndex.Closure closure = index.closureTo(targets);
+
+		List<ClassInfo> sources = new ArrayList<ClassInfo>(classes.getPrimaryClasses());
+		Collections.sort(sources, ClassInfoNameComparator.INSTANCE);
+		EvaluationContext localContext = null;
+		int messageVariables = 0;
+		for (ClassInfo source : sources) {
+			BitSet reached = closure.reachedFrom(source);
+			if (reached == null || !context.getRuleSet().isInSubset(context, source) || !from.matches(context, source))
+				continue;
+			int target = reached.nextSetBit(0);
+			if (target >= 0 && targets.get(target).equals(source))
+				target = reached.nextSetBit(target + 1);
+			if (target < 0)
+				continue;
+
+			ClassInfo targetClass = targets.get(target);
+			List<String> messages;
+			if (getMessage() == null)
+				messages = Collections.emptyList();
+			else {
+				if (localContext == null) {
+					localContext = new EvaluationContext(context);
+					messageVariables = VariableSlots.referenceVariables(VariableParser.variablesIn(getMessage()));
+				}
+				localContext.setReferenceVariables(source, targetClass, messageVariables);
+				messages = Collections.singletonList(VariableParser.parse(localContext, getMessage()));
+			}
+			context.broadcastEvent(new ReachabilityViolation(this, source, targetClass, closure.shortestPath(
+					source, target), messages));
+		}
+	}
+}
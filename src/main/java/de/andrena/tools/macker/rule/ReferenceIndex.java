@@ -0,0 +1,243 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+import de.andrena.tools.macker.util.collect.MultiMap;
+
+/**
+ * The references of a run, indexed by the names of the classes at either
+ * end, for the iterations of a {@link ForEach}. A typical loop body only
+ * denies references from or to classes named <tt>${var}.**</tt>; for such
+ * rules an iteration need only visit the references touching a class whose
+ * name starts with the value of the loop variable, instead of all of them.
+ * <p>
+ * The index is built on first use, in one pass over the references, and
+ * keeps them in their usual order, so the violations found are the same
+ * and are reported in the same order.
+ */
+final class ReferenceIndex {
+	ReferenceIndex(String variableName, ClassManager classes) {
+		this.variableName = variableName;
+		this.classes = classes;
+		variableSlot = VariableSlots.slotOf(variableName);
+	}
+
+	public String getVariableName() {
+		return variableName;
+	}
+
+	/**
+	 * Whether the references an access rule may deny all touch a class whose
+	 * name starts with the value of the loop variable. That is the case when
+	 * the rule chain starts with a deny (so that a reference no rule matches
+	 * is allowed), and every rule in it names the variable at the start of
+	 * its from or its to pattern.
+	 */
+	public boolean narrows(AccessRule rule) {
+		if (variableSlot < 32 && (VariableSlots.REFERENCE_VARIABLES & (1 << variableSlot)) != 0
+				|| rule.getType() != AccessRuleType.DENY)
+			return false;
+		for (AccessRule r = rule; r != null; r = r.getNext())
+			if (!anchored(r.getFrom()) && !anchored(r.getTo()))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Whether every class the pattern matches has a name starting with the
+	 * value of the loop variable. An include chain matches only through its
+	 * include nodes, each of which needs its head and its children to match.
+	 */
+	private boolean anchored(Pattern pattern) {
+		if (pattern == Pattern.NONE)
+			return true;
+		if (pattern instanceof RegexPattern)
+			return ((RegexPattern) pattern).getRegex().startsWithVariable(variableName);
+		if (!(pattern instanceof CompositePattern)
+				|| ((CompositePattern) pattern).getType() != CompositePatternType.INCLUDE)
+			return false;
+		for (Pattern pat = pattern; pat != null;) {
+			if (!(pat instanceof CompositePattern))
+				return anchored(pat);
+			CompositePattern compositePat = (CompositePattern) pat;
+			if (compositePat.getType() == CompositePatternType.INCLUDE && !anchored(compositePat.getHead())
+					&& (compositePat.getChild() == null || !anchored(compositePat.getChild())))
+				return false;
+			pat = compositePat.getNext();
+		}
+		return true;
+	}
+
+	/**
+	 * The positions of the references touching a class whose name starts
+	 * with the current value of the loop variable, in order; or null if the
+	 * value is not a plain name (a value with wildcards might match
+	 * anything).
+	 */
+	public int[] positions(EvaluationContext context) throws UndeclaredVariableException {
+		String value = context.getVariableValue(variableSlot);
+		Last last = this.last.get();
+		if (value.equals(last.value))
+			return last.positions;
+		synchronized (this) {
+			if (from == null)
+				build();
+		}
+
+		int[] positions = null;
+		if (isPlainName(value)) {
+			String prefix = value.replace('$', '.');
+			BitSet touching = new BitSet(from.length);
+			for (int n = lowerBound(prefix); n < names.length && names[n].startsWith(prefix); n++)
+				for (int position : positionsOf[n])
+					touching.set(position);
+			positions = new int[touching.cardinality()];
+			for (int n = 0, position = touching.nextSetBit(0); position >= 0; position = touching
+					.nextSetBit(position + 1))
+				positions[n++] = position;
+		}
+		last.value = value;
+		last.positions = positions;
+		return positions;
+	}
+
+	public ClassInfo[] getFrom() {
+		return from;
+	}
+
+	public ClassInfo[] getTo() {
+		return to;
+	}
+
+	/**
+	 * A value of the loop variable which matches nothing but itself in a
+	 * class pattern, and can't match the separator in front of the name.
+	 */
+	private static boolean isPlainName(String value) {
+		if (value.startsWith("."))
+			return false;
+		for (int n = 0; n < value.length(); n++) {
+			char c = value.charAt(n);
+			if (c != '.' && !Character.isJavaIdentifierPart(c))
+				return false;
+		}
+		return true;
+	}
+
+	private int lowerBound(String prefix) {
+		int n = Arrays.binarySearch(names, prefix);
+		return (n >= 0) ? n : ~n;
+	}
+
+	// ------------------------------------------------------------------------
+	// Building
+	// ------------------------------------------------------------------------
+
+	private void build() {
+		MultiMap<ClassInfo, ClassInfo> references = classes.getReferences();
+		int count = references.size();
+		from = new ClassInfo[count];
+		to = new ClassInfo[count];
+		int[] fromIds = new int[count], toIds = new int[count];
+		int classCount = 0, n = 0;
+		for (MultiMap.Entry<ClassInfo, ClassInfo> reference : references.entrySet()) {
+			from[n] = reference.getKey();
+			to[n] = reference.getValue();
+			fromIds[n] = classes.getClassId(from[n]);
+			toIds[n] = classes.getClassId(to[n]);
+			classCount = Math.max(classCount, Math.max(fromIds[n], toIds[n]) + 1);
+			n++;
+		}
+
+		int[] counts = new int[classCount];
+		ClassInfo[] classInfos = new ClassInfo[classCount];
+		for (n = 0; n < count; n++) {
+			counts[fromIds[n]]++;
+			classInfos[fromIds[n]] = from[n];
+			if (toIds[n] != fromIds[n]) {
+				counts[toIds[n]]++;
+				classInfos[toIds[n]] = to[n];
+			}
+		}
+		int[][] positionsById = new int[classCount][];
+		for (int id = 0; id < classCount; id++)
+			positionsById[id] = new int[counts[id]];
+		Arrays.fill(counts, 0);
+		for (n = 0; n < count; n++) {
+			positionsById[fromIds[n]][counts[fromIds[n]]++] = n;
+			if (toIds[n] != fromIds[n])
+				positionsById[toIds[n]][counts[toIds[n]]++] = n;
+		}
+
+		// Classes by name, with '$' read as '.': a '.' in the value matches
+		// either
+		Integer[] order = new Integer[classCount];
+		final String[] nameById = new String[classCount];
+		int named = 0;
+		for (int id = 0; id < classCount; id++)
+			if (classInfos[id] != null) {
+				nameById[id] = classInfos[id].getFullName().replace('$', '.');
+				order[named++] = id;
+			}
+		order = Arrays.copyOf(order, named);
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer id1, Integer id2) {
+				return nameById[id1].compareTo(nameById[id2]);
+			}
+		});
+		names = new String[named];
+		positionsOf = new int[named][];
+		for (n = 0; n < named; n++) {
+			names[n] = nameById[order[n]];
+			positionsOf[n] = positionsById[order[n]];
+		}
+	}
+
+	private final String variableName;
+	private final int variableSlot;
+	private final ClassManager classes;
+	private ClassInfo[] from, to;
+	private String[] names;
+	private int[][] positionsOf;
+
+	/**
+	 * The value this thread asked for last, and its positions: the rules of
+	 * an iteration all ask for the same value.
+	 */
+	private static final class Last {
+		String value;
+		int[] positions;
+	}
+
+	private final ThreadLocal<Last> last = new ThreadLocal<Last>() {
+		@Override
+		protected Last initialValue() {
+			return new Last();
+		}
+	};
+}
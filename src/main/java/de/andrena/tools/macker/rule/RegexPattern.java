@@ -20,9 +20,11 @@
 
 package de.andrena.tools.macker.rule;
 
+import java.util.Set;
+
 import de.andrena.tools.macker.structure.ClassInfo;
 
-public final class RegexPattern implements Pattern {
+public final class RegexPattern implements AttributePattern, VariablePattern {
 	// --------------------------------------------------------------------------
 	// Constructors
 	// --------------------------------------------------------------------------
@@ -39,8 +41,19 @@ public final class RegexPattern implements Pattern {
 		return regex;
 	}
 
+	public Set<ClassAttribute> getAttributes() {
+		return regex.matchesByPackage() ? PACKAGE_ATTRIBUTES : ATTRIBUTES;
+	}
+
+	public Set<String> getVariables() {
+		return regex.getVariables();
+	}
+
 	private final MackerRegex regex;
 
+	private static final Set<ClassAttribute> ATTRIBUTES = ClassAttribute.of(ClassAttribute.NAME),
+			PACKAGE_ATTRIBUTES = ClassAttribute.of(ClassAttribute.PACKAGE);
+
 	// --------------------------------------------------------------------------
 	// Evaluation
 	// --------------------------------------------------------------------------
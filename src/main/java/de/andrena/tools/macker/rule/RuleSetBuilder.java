@@ -170,6 +170,12 @@ public class RuleSetBuilder {
 				ruleSet.setSubsetPattern(buildPattern(subElem, ruleSet));
 			} else if (subElemName.equals("access-rule"))
 				ruleSet.addRule(buildAccessRule(subElem, ruleSet));
+			else if (subElemName.equals("no-cycles"))
+				ruleSet.addRule(buildCycleRule(subElem, ruleSet));
+			else if (subElemName.equals("layers"))
+				ruleSet.addRule(buildLayerRule(subElem, ruleSet));
+			else if (subElemName.equals("no-path"))
+				ruleSet.addRule(buildReachabilityRule(subElem, ruleSet));
 			else if (subElemName.equals("var"))
 				ruleSet.addRule(buildVariable(subElem, ruleSet));
 			else if (subElemName.equals("foreach"))
@@ -343,6 +349,67 @@ public class RuleSetBuilder {
 		return topRule;
 	}
 
+	public CycleRule buildCycleRule(Element ruleElem, RuleSet ruleSet) throws RulesException {
+		CycleRule cycleRule = new CycleRule(ruleSet);
+
+		String level = ruleElem.getAttributeValue("level");
+		if (level == null || level.equals("package"))
+			cycleRule.setPackageLevel(true);
+		else if (level.equals("class"))
+			cycleRule.setPackageLevel(false);
+		else
+			throw new RulesDocumentException(ruleElem, "Invalid level \"" + level + "\" --"
+					+ " expected \"package\" or \"class\"");
+
+		cycleRule.setScope(buildPattern(ruleElem, ruleSet));
+		cycleRule.setMessage(ruleElem.getChildText("message"));
+		buildSeverity(cycleRule, ruleElem);
+		return cycleRule;
+	}
+
+	public LayerRule buildLayerRule(Element ruleElem, RuleSet ruleSet) throws RulesException {
+		LayerRule layerRule = new LayerRule(ruleSet);
+
+		String mode = ruleElem.getAttributeValue("mode");
+		if (mode == null || mode.equals("relaxed"))
+			layerRule.setStrict(false);
+		else if (mode.equals("strict"))
+			layerRule.setStrict(true);
+		else
+			throw new RulesDocumentException(ruleElem, "Invalid mode \"" + mode + "\" --"
+					+ " expected \"strict\" or \"relaxed\"");
+
+		for (Element layerElem : getChildren(ruleElem, "layer")) {
+			String name = layerElem.getAttributeValue("name");
+			if (name == null)
+				throw new RulesDocumentException(layerElem, "<layer> is missing the \"name\" attribute");
+			if (layerRule.getLayerNames().contains(name))
+				throw new RulesDocumentException(layerElem, "Layer named \"" + name
+						+ "\" is already defined in this <layers>");
+			layerRule.addLayer(name, buildPattern(layerElem, ruleSet));
+		}
+		if (layerRule.getLayerNames().isEmpty())
+			throw new RulesDocumentException(ruleElem, "<layers> must contain at least one <layer>");
+
+		layerRule.setMessage(ruleElem.getChildText("message"));
+		buildSeverity(layerRule, ruleElem);
+		return layerRule;
+	}
+
+	public ReachabilityRule buildReachabilityRule(Element ruleElem, RuleSet ruleSet) throws RulesException {
+		ReachabilityRule reachabilityRule = new ReachabilityRule(ruleSet);
+
+		Element fromElem = ruleElem.getChild("from"), toElem = ruleElem.getChild("to");
+		if (fromElem == null || toElem == null)
+			throw new RulesDocumentException(ruleElem, "<no-path> must contain a <from> and a <to>");
+		reachabilityRule.setFrom(buildPattern(fromElem, ruleSet));
+		reachabilityRule.setTo(buildPattern(toElem, ruleSet));
+
+		reachabilityRule.setMessage(ruleElem.getChildText("message"));
+		buildSeverity(reachabilityRule, ruleElem);
+		return reachabilityRule;
+	}
+
 	@SuppressWarnings("unchecked")
 	private List<Element> getChildren(Element ruleElem) {
 		return ruleElem.getChildren();
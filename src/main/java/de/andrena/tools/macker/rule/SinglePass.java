@@ -0,0 +1,262 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import de.andrena.tools.macker.event.AccessRuleViolation;
+import de.andrena.tools.macker.event.ListenerException;
+import de.andrena.tools.macker.event.MackerEvent;
+import de.andrena.tools.macker.event.MackerIsMadException;
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+import de.andrena.tools.macker.util.collect.MultiMap;
+
+/**
+ * Checks several rule sets with a single walk over the references. Each
+ * rule set is checked as usual, except that access rules which would walk
+ * all references are only registered, leaving a placeholder among the
+ * events of their rule set. {@link #run()} then walks the references once,
+ * checking each one against every registered rule, and replays the events
+ * of each rule set with the violations found in place of the placeholders.
+ * Listeners see exactly what checking the rule sets one after another would
+ * produce.
+ */
+public final class SinglePass {
+	public SinglePass(ClassManager classes) {
+		this.classes = classes;
+	}
+
+	/**
+	 * Checks a rule set in the given context, as far as that is possible
+	 * without walking the references. The context's listeners hear nothing
+	 * until {@link #run()}. Once a rule set has failed, rule sets added after
+	 * it are ignored, as a serial check would never reach them.
+	 */
+	public void add(RuleSet ruleSet, EvaluationContext context) {
+		if (failure != null)
+			return;
+		BufferingContext buffer = new BufferingContext(context);
+		buffer.setSinglePass(this);
+		buffers.add(buffer);
+		try {
+			ruleSet.check(buffer, classes);
+		} catch (RulesException re) {
+			failure = re;
+		} catch (MackerIsMadException mime) {
+			failure = mime;
+		} catch (ListenerException le) {
+			failure = le;
+		}
+	}
+
+	/**
+	 * Walks the references for the registered rules, then reports the events
+	 * of the rule sets in the order they were added.
+	 */
+	public void run() throws RulesException, MackerIsMadException, ListenerException {
+		try {
+			walk();
+			for (BufferingContext buffer : buffers)
+				buffer.replay();
+		} finally {
+			buffers.clear();
+			deferred.clear();
+		}
+		if (failure instanceof RulesException)
+			throw (RulesException) failure;
+		if (failure instanceof MackerIsMadException)
+			throw (MackerIsMadException) failure;
+		if (failure instanceof ListenerException)
+			throw (ListenerException) failure;
+	}
+
+	/**
+	 * Registers an access rule to be checked against all references, with a
+	 * copy of the variables it sees now, and returns the placeholder for its
+	 * violations.
+	 */
+	Deferred defer(AccessRule rule, EvaluationContext context, DecisionProgram program,
+			Map<String, Boolean> packageDecisions, int variables) {
+		EvaluationContext snapshot = new EvaluationContext(context);
+		snapshot.setVariables(context.getVariables());
+		Deferred placeholder = new Deferred(rule, snapshot, program, packageDecisions, variables);
+		synchronized (deferred) {
+			deferred.add(placeholder);
+		}
+		return placeholder;
+	}
+
+	// ------------------------------------------------------------------------
+	// Walking
+	// ------------------------------------------------------------------------
+
+	private void walk() {
+		if (deferred.isEmpty())
+			return;
+		Deferred[] rules = deferred.toArray(new Deferred[deferred.size()]);
+		MultiMap<ClassInfo, ClassInfo> references = classes.getReferences();
+		ClassInfo[] from = new ClassInfo[references.size()], to = new ClassInfo[from.length];
+		int count = 0;
+		for (MultiMap.Entry<ClassInfo, ClassInfo> reference : references.entrySet()) {
+			from[count] = reference.getKey();
+			to[count++] = reference.getValue();
+		}
+
+		ForkJoinPool pool = buffers.get(0).getRulePool();
+		if (pool == null || pool.getParallelism() < 2)
+			collect(rules, new Chunk(rules, from, to, 0, count).call());
+		else
+			walk(pool, rules, from, to, count);
+		for (Deferred rule : rules)
+			rule.checked = true;
+	}
+
+	private void walk(ForkJoinPool pool, Deferred[] rules, ClassInfo[] from, ClassInfo[] to, int count) {
+		List<ForkJoinTask<Chunk>> chunks = new ArrayList<ForkJoinTask<Chunk>>();
+		int chunkCount = pool.getParallelism() * CHUNKS_PER_THREAD;
+		for (int start = 0, chunk = 1; start < count; chunk++) {
+			int end = Math.min(count, Math.max(start + 1, (int) ((long) count * chunk / chunkCount)));
+			chunks.add(pool.submit(new Chunk(rules, from, to, start, end)));
+			start = end;
+		}
+		try {
+			for (ForkJoinTask<Chunk> chunk : chunks)
+				collect(rules, chunk.join());
+		} finally {
+			for (ForkJoinTask<Chunk> chunk : chunks)
+				chunk.cancel(false);
+		}
+	}
+
+	/**
+	 * Adds what a chunk found to each rule; a rule which failed in an earlier
+	 * chunk takes nothing more, as it would have stopped there.
+	 */
+	private static void collect(Deferred[] rules, Chunk chunk) {
+		for (int r = 0; r < rules.length; r++)
+			if (rules[r].failure == null) {
+				rules[r].violations.addAll(chunk.violations.get(r));
+				rules[r].failure = chunk.failures[r];
+			}
+	}
+
+	/**
+	 * A run of references checked against every registered rule, each with
+	 * a context of its own.
+	 */
+	private static final class Chunk implements Callable<Chunk> {
+		Chunk(Deferred[] rules, ClassInfo[] from, ClassInfo[] to, int start, int end) {
+			this.rules = rules;
+			this.from = from;
+			this.to = to;
+			this.start = start;
+			this.end = end;
+			failures = new RulesException[rules.length];
+			violations = new ArrayList<List<AccessRuleViolation>>(rules.length);
+			for (int r = 0; r < rules.length; r++)
+				violations.add(new ArrayList<AccessRuleViolation>());
+		}
+
+		public Chunk call() {
+			EvaluationContext[] localContexts = new EvaluationContext[rules.length];
+			for (int r = 0; r < rules.length; r++)
+				localContexts[r] = new EvaluationContext(rules[r].context);
+			for (int n = start; n < end; n++)
+				for (int r = 0; r < rules.length; r++)
+					if (failures[r] == null)
+						try {
+							Deferred rule = rules[r];
+							AccessRuleViolation violation = rule.getAccessRule().check(localContexts[r],
+									rule.program, rule.packageDecisions, rule.variables, from[n], to[n]);
+							if (violation != null)
+								violations.get(r).add(violation);
+						} catch (RulesException re) {
+							failures[r] = re;
+						}
+			return this;
+		}
+
+		private final Deferred[] rules;
+		private final ClassInfo[] from, to;
+		private final int start, end;
+		private final List<List<AccessRuleViolation>> violations;
+		private final RulesException[] failures;
+	}
+
+	/**
+	 * The place of a registered access rule's violations among the events of
+	 * its rule set. It stands in for them until the walk is done, and never
+	 * reaches a listener.
+	 */
+	static final class Deferred extends MackerEvent {
+		Deferred(AccessRule rule, EvaluationContext context, DecisionProgram program,
+				Map<String, Boolean> packageDecisions, int variables) {
+			super(rule, null, Collections.<String> emptyList());
+			this.context = context;
+			this.program = program;
+			this.packageDecisions = packageDecisions;
+			this.variables = variables;
+		}
+
+		AccessRule getAccessRule() {
+			return (AccessRule) getRule();
+		}
+
+		boolean isChecked() {
+			return checked;
+		}
+
+		/**
+		 * Reports the violations in place of the placeholder; a rule which
+		 * failed stops the report where it stopped checking.
+		 */
+		void replay(EvaluationContext parent, RuleSet targetRuleSet) throws RulesException, MackerIsMadException,
+				ListenerException {
+			for (AccessRuleViolation violation : violations)
+				parent.broadcastEvent(violation, targetRuleSet);
+			if (failure != null)
+				throw failure;
+		}
+
+		private final EvaluationContext context;
+		private final DecisionProgram program;
+		private final Map<String, Boolean> packageDecisions;
+		private final int variables;
+		private final List<AccessRuleViolation> violations = new ArrayList<AccessRuleViolation>();
+		private RulesException failure;
+		private boolean checked;
+	}
+
+	private final ClassManager classes;
+	private final List<BufferingContext> buffers = new ArrayList<BufferingContext>();
+	private final List<Deferred> deferred = new ArrayList<Deferred>();
+	private Exception failure;
+
+	private static final int CHUNKS_PER_THREAD = 4;
+}
@@ -20,28 +20,102 @@
 
 package de.andrena.tools.macker.rule;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public final class VariableParser {
 	public static String parse(EvaluationContext context, String inS) throws UndeclaredVariableException {
-		StringBuffer outS = new StringBuffer();
+		if (inS.indexOf("${") < 0)
+			return inS;
+		Template template = templates.get(inS);
+		if (template == null) {
+			template = new Template(inS);
+			if (templates.size() < MAX_TEMPLATES)
+				templates.put(inS, template);
+		}
+
+		StringBuilder outS = new StringBuilder(template.literals[0]);
+		for (int n = 0; n < template.slots.length; n++)
+			outS.append(context.getVariableValue(template.slots[n])).append(template.literals[n + 1]);
+		return outS.toString();
+	}
+
+	/**
+	 * A string split at its variables, which are resolved to their slots
+	 * (see {@link VariableSlots}): literal text, then a variable, and so on,
+	 * ending with literal text.
+	 */
+	private static final class Template {
+		Template(String inS) {
+			List<String> literals = new ArrayList<String>();
+			List<Integer> slots = new ArrayList<Integer>();
+			Matcher varMatcher = var.matcher(inS);
+			int pos = 0;
+			while (varMatcher.find(pos)) {
+				literals.add(inS.substring(pos, varMatcher.start()));
+				slots.add(VariableSlots.slotOf(varMatcher.group(1)));
+				pos = varMatcher.end();
+			}
+			literals.add(inS.substring(pos));
+
+			this.literals = literals.toArray(new String[literals.size()]);
+			this.slots = new int[slots.size()];
+			for (int n = 0; n < this.slots.length; n++)
+				this.slots[n] = slots.get(n);
+		}
+
+		private final String[] literals;
+		private final int[] slots;
+	}
+
+	/**
+	 * The names of the variables referred to in a string.
+	 */
+	public static Set<String> variablesIn(String inS) {
+		Set<String> names = new LinkedHashSet<String>();
 		Matcher varMatcher = var.matcher(inS);
-		for (int pos = 0; pos >= 0;) {
-			boolean hasAnotherVar = varMatcher.find(pos);
-			int expEnd = hasAnotherVar ? varMatcher.start() : inS.length();
+		while (varMatcher.find())
+			names.add(varMatcher.group(1));
+		return Collections.unmodifiableSet(names);
+	}
 
-			if (pos < expEnd)
-				outS.append(inS.substring(pos, expEnd));
-			if (hasAnotherVar)
-				outS.append(context.getVariableValue(varMatcher.group(1)));
+	/**
+	 * The names of the variables the given pattern reads, or null if it
+	 * doesn't say (see {@link VariablePattern}).
+	 */
+	public static Set<String> variablesReadBy(Pattern pattern) {
+		if (pattern == null || pattern == Pattern.ALL
+				|| pattern == Pattern.NONE)
+			return Collections.emptySet();
+		if (pattern instanceof VariablePattern)
+			return ((VariablePattern) pattern).getVariables();
+		return null;
+	}
 
-			pos = hasAnotherVar ? varMatcher.end() : -1;
+	/**
+	 * The union of the variables the given patterns read, or null if any of
+	 * them doesn't say.
+	 */
+	public static Set<String> variablesReadBy(Pattern... patterns) {
+		Set<String> names = new LinkedHashSet<String>();
+		for (Pattern pattern : patterns) {
+			Set<String> read = variablesReadBy(pattern);
+			if (read == null)
+				return null;
+			names.addAll(read);
 		}
-		return outS.toString();
+		return Collections.unmodifiableSet(names);
 	}
 
-	static private Pattern var = Pattern.compile("\\$\\{([A-Za-z0-9_\\.\\-]+)\\}");
+	static private final Map<String, Template> templates = new ConcurrentHashMap<String, Template>();
+	static private final int MAX_TEMPLATES = 1 << 12;
+	static private java.util.regex.Pattern var = java.util.regex.Pattern.compile("\\$\\{([A-Za-z0-9_\\.\\-]+)\\}");
 
 	private VariableParser() {
 	}
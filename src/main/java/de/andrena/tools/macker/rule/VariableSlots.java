@@ -0,0 +1,98 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbers variable names, so that contexts can keep variable values in
+ * arrays. Patterns and messages number the names they refer to when they
+ * are built; other names get a number when first set. Numbers last for the
+ * life of the VM. The variables an access rule sets for each reference come
+ * first.
+ */
+final class VariableSlots {
+	static int slotOf(String name) {
+		Integer slot = slots.get(name);
+		if (slot != null)
+			return slot;
+		synchronized (names) {
+			slot = slots.get(name);
+			if (slot == null) {
+				slot = names.size();
+				names.add(name);
+				slots.put(name, slot);
+			}
+			return slot;
+		}
+	}
+
+	static int[] slotsOf(String... names) {
+		int[] slots = new int[names.length];
+		for (int n = 0; n < names.length; n++)
+			slots[n] = slotOf(names[n]);
+		return slots;
+	}
+
+	static String nameOf(int slot) {
+		synchronized (names) {
+			return names.get(slot);
+		}
+	}
+
+	static int count() {
+		return slots.size();
+	}
+
+	private static final Map<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+	private static final List<String> names = new ArrayList<String>();
+
+	static final int FROM = slotOf("from"), TO = slotOf("to"), FROM_PACKAGE = slotOf("from-package"),
+			TO_PACKAGE = slotOf("to-package"), FROM_FULL = slotOf("from-full"), TO_FULL = slotOf("to-full");
+
+	/**
+	 * The variables set for each reference, as a mask of slots.
+	 */
+	static final int REFERENCE_VARIABLES = (1 << FROM) | (1 << TO) | (1 << FROM_PACKAGE) | (1 << TO_PACKAGE)
+			| (1 << FROM_FULL) | (1 << TO_FULL);
+
+	/**
+	 * The slots of the given names which are among the
+	 * {@link #REFERENCE_VARIABLES}, as a mask.
+	 */
+	static int referenceVariables(Collection<String> names) {
+		int mask = 0;
+		for (String name : names) {
+			int slot = slotOf(name);
+			if (slot < 32)
+				mask |= (1 << slot) & REFERENCE_VARIABLES;
+		}
+		return mask;
+	}
+
+	private VariableSlots() {
+	}
+}
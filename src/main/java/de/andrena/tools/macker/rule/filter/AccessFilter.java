@@ -23,7 +23,9 @@ package de.andrena.tools.macker.rule.filter;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import de.andrena.tools.macker.rule.ClassAttribute;
 import de.andrena.tools.macker.rule.EvaluationContext;
 import de.andrena.tools.macker.rule.Pattern;
 import de.andrena.tools.macker.rule.RuleSet;
@@ -52,11 +54,13 @@ public class AccessFilter implements Filter {
 			throw new FilterSyntaxException(this, '"' + minS + "\" is not a valid access level; expected one of: "
 					+ Arrays.asList(AccessModifier.values()));
 
-		return new Pattern() {
+		return new FilterPattern(ATTRIBUTES) {
 			public boolean matches(EvaluationContext context, ClassInfo classInfo) throws RulesException {
 				return classInfo.getAccessModifier().compareTo(min) >= 0
 						&& classInfo.getAccessModifier().compareTo(max) <= 0;
 			}
 		};
 	}
+
+	private static final Set<ClassAttribute> ATTRIBUTES = ClassAttribute.of(ClassAttribute.ACCESS);
 }
@@ -0,0 +1,61 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+package de.andrena.tools.macker.rule.filter;
+
+import java.util.Collections;
+import java.util.Set;
+
+import de.andrena.tools.macker.rule.AttributePattern;
+import de.andrena.tools.macker.rule.ClassAttribute;
+import de.andrena.tools.macker.rule.VariablePattern;
+
+/**
+ * The pattern a filter creates, declaring the class attributes and variables
+ * it reads.
+ */
+abstract class FilterPattern implements AttributePattern, VariablePattern {
+	/**
+	 * A pattern which reads the given attributes and no variables.
+	 */
+	FilterPattern(Set<ClassAttribute> attributes) {
+		this(attributes, Collections.<String> emptySet());
+	}
+
+	/**
+	 * A pattern which reads the given attributes and variables; null
+	 * variables mean they are not known.
+	 */
+	FilterPattern(Set<ClassAttribute> attributes, Set<String> variables) {
+		this.attributes = Collections.unmodifiableSet(attributes);
+		this.variables = variables;
+	}
+
+	public Set<ClassAttribute> getAttributes() {
+		return attributes;
+	}
+
+	public Set<String> getVariables() {
+		return variables;
+	}
+
+	private final Set<ClassAttribute> attributes;
+	private final Set<String> variables;
+}
@@ -22,7 +22,9 @@ package de.andrena.tools.macker.rule.filter;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import de.andrena.tools.macker.rule.ClassAttribute;
 import de.andrena.tools.macker.rule.EvaluationContext;
 import de.andrena.tools.macker.rule.Pattern;
 import de.andrena.tools.macker.rule.RuleSet;
@@ -39,9 +41,11 @@ public class FinalFilter implements Filter {
 		return FINAL_PATTERN;
 	}
 
-	private final Pattern FINAL_PATTERN = new Pattern() {
+	private final Pattern FINAL_PATTERN = new FilterPattern(ATTRIBUTES) {
 		public boolean matches(EvaluationContext context, ClassInfo classInfo) throws RulesException {
 			return classInfo.isFinal() && !(classInfo instanceof PrimitiveTypeInfo);
 		}
 	};
+
+	private static final Set<ClassAttribute> ATTRIBUTES = ClassAttribute.of(ClassAttribute.FLAGS);
 }
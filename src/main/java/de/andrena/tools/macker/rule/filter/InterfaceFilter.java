@@ -22,7 +22,9 @@ package de.andrena.tools.macker.rule.filter;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import de.andrena.tools.macker.rule.ClassAttribute;
 import de.andrena.tools.macker.rule.EvaluationContext;
 import de.andrena.tools.macker.rule.Pattern;
 import de.andrena.tools.macker.rule.RuleSet;
@@ -38,9 +40,11 @@ public class InterfaceFilter implements Filter {
 		return INTERFACE_PATTERN;
 	}
 
-	private final Pattern INTERFACE_PATTERN = new Pattern() {
+	private final Pattern INTERFACE_PATTERN = new FilterPattern(ATTRIBUTES) {
 		public boolean matches(EvaluationContext context, ClassInfo classInfo) throws RulesException {
 			return classInfo.isInterface();
 		}
 	};
+
+	private static final Set<ClassAttribute> ATTRIBUTES = ClassAttribute.of(ClassAttribute.FLAGS);
 }
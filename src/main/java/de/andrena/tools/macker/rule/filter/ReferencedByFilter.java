@@ -0,0 +1,62 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule.filter;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.andrena.tools.macker.rule.ClassAttribute;
+import de.andrena.tools.macker.rule.EvaluationContext;
+import de.andrena.tools.macker.rule.Pattern;
+import de.andrena.tools.macker.rule.RuleSet;
+import de.andrena.tools.macker.rule.RulesException;
+import de.andrena.tools.macker.rule.VariableParser;
+import de.andrena.tools.macker.structure.ClassInfo;
+
+/**
+ * Matches classes which a primary class matching the parameter refers to
+ * directly. The referring classes are looked up in the class manager's index
+ * of incoming references (see
+ * {@link de.andrena.tools.macker.structure.ClassManager#getReferrers(ClassInfo)}).
+ */
+public class ReferencedByFilter implements Filter {
+	public Pattern createPattern(RuleSet ruleSet, List<Pattern> params, Map<String, String> options)
+			throws RulesException {
+		if (params.size() != 1)
+			throw new FilterSyntaxException(this, "Filter \"" + options.get("filter")
+					+ "\" expects one parameter, but has " + params.size());
+		final Pattern referrerPat = params.get(0);
+		final Set<ClassAttribute> attributes = EnumSet.of(ClassAttribute.REFERRERS);
+		attributes.addAll(ClassAttribute.readBy(referrerPat));
+		final Set<String> variables = VariableParser.variablesReadBy(referrerPat);
+		return new FilterPattern(attributes, variables) {
+			public boolean matches(EvaluationContext context, ClassInfo classInfo) throws RulesException {
+				for (ClassInfo referrer : context.getClassManager().getReferrers(classInfo))
+					if (referrerPat.matches(context, referrer))
+						return true;
+				return false;
+			}
+		};
+	}
+}
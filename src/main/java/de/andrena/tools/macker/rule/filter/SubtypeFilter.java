@@ -20,14 +20,23 @@
 
 package de.andrena.tools.macker.rule.filter;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import de.andrena.tools.macker.rule.ClassAttribute;
 import de.andrena.tools.macker.rule.EvaluationContext;
 import de.andrena.tools.macker.rule.Pattern;
 import de.andrena.tools.macker.rule.RuleSet;
 import de.andrena.tools.macker.rule.RulesException;
+import de.andrena.tools.macker.rule.VariableParser;
 import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+import de.andrena.tools.macker.structure.SupertypeIndex;
 
 public class SubtypeFilter implements Filter {
 	public Pattern createPattern(RuleSet ruleSet, List<Pattern> params, Map<String, String> options)
@@ -36,13 +45,111 @@ public class SubtypeFilter implements Filter {
 			throw new FilterSyntaxException(this, "Filter \"" + options.get("filter")
 					+ "\" expects one parameter, but has " + params.size());
 		final Pattern supertypePat = params.get(0);
-		return new Pattern() {
+		final Set<ClassAttribute> attributes = EnumSet.of(ClassAttribute.SUPERTYPES);
+		attributes.addAll(ClassAttribute.readBy(supertypePat));
+		final Set<String> variables = VariableParser.variablesReadBy(supertypePat);
+		final boolean variableFree = (variables != null && variables.isEmpty());
+		return new FilterPattern(attributes, variables) {
+			/**
+			 * A variable-free parameter is decided once per class of the
+			 * supertype index; a class matches when its closure intersects
+			 * the IDs of the classes the parameter matched.
+			 */
 			public boolean matches(EvaluationContext context, ClassInfo classInfo) throws RulesException {
-				for (ClassInfo supertype : classInfo.getSupertypes())
+				ClassManager classManager = classInfo.getClassManager();
+				if (!variableFree || classManager == null) // no index for primitive types
+					return matchesNearest(context, classInfo);
+				SupertypeIndex index = classManager.getSupertypeIndex();
+				SupertypeIndex.Closure closure = index.getClosure(classInfo);
+				if (closure == null)
+					return false;
+				Results results = resultsFor(index);
+				test(context, results, closure);
+				synchronized (results) {
+					return closure.intersects(results.classesMatched);
+				}
+			}
+
+			/**
+			 * Decides the parameter for each class of the closure not yet
+			 * decided for this index. A closure shared by many classes (that
+			 * of a common superclass) is walked once; it is marked only when
+			 * its parents are done too, so a marked closure is complete.
+			 */
+			private void test(EvaluationContext context, Results results, SupertypeIndex.Closure closure)
+					throws RulesException {
+				List<SupertypeIndex.Closure> walked = new ArrayList<SupertypeIndex.Closure>();
+				for (SupertypeIndex.Closure c = closure; c != null; c = c.getParent()) {
+					synchronized (results) {
+						if (results.closuresTested.get(c.getIndex()))
+							break;
+					}
+					int[] classIds = c.getClassIds();
+					for (int n = 0; n < classIds.length; n++) {
+						synchronized (results) {
+							if (results.classesTested.get(classIds[n]))
+								continue;
+						}
+						boolean match = supertypePat.matches(context, c.getClasses()[n]);
+						synchronized (results) {
+							results.classesTested.set(classIds[n]);
+							results.classesMatched.set(classIds[n], match);
+						}
+					}
+					walked.add(c);
+				}
+				synchronized (results) {
+					for (SupertypeIndex.Closure c : walked)
+						results.closuresTested.set(c.getIndex());
+				}
+			}
+
+			private Results resultsFor(SupertypeIndex index) {
+				Results results = this.results;
+				if (results == null || results.index != index)
+					this.results = results = new Results(index);
+				return results;
+			}
+
+			private volatile Results results;
+
+			/**
+			 * Walks up the hierarchy one level at a time and stops at the
+			 * first match, so the supertypes above it are never loaded.
+			 * Used for a parameter which reads variables (or may), whose
+			 * results can't be kept across bindings: there, building the
+			 * closure would load every supertype for an answer that is
+			 * thrown away.
+			 */
+			private boolean matchesNearest(EvaluationContext context, ClassInfo classInfo) throws RulesException {
+				List<ClassInfo> toVisit = new ArrayList<ClassInfo>();
+				Set<ClassInfo> visited = new HashSet<ClassInfo>();
+				toVisit.add(classInfo);
+				visited.add(classInfo);
+				for (int n = 0; n < toVisit.size(); n++) {
+					ClassInfo supertype = toVisit.get(n);
 					if (supertypePat.matches(context, supertype))
 						return true;
+					for (ClassInfo next : supertype.getDirectSupertypes())
+						if (visited.add(next))
+							toVisit.add(next);
+				}
 				return false;
 			}
 		};
 	}
+
+	/**
+	 * The class IDs a variable-free parameter matched, and which classes and
+	 * closures were decided, for one supertype index.
+	 */
+	private static final class Results {
+		Results(SupertypeIndex index) {
+			this.index = index;
+		}
+
+		private final SupertypeIndex index;
+		private final BitSet classesTested = new BitSet(), classesMatched = new BitSet();
+		private final BitSet closuresTested = new BitSet();
+	}
 }
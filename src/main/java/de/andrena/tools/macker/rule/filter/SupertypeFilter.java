@@ -0,0 +1,65 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.rule.filter;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.andrena.tools.macker.rule.ClassAttribute;
+import de.andrena.tools.macker.rule.EvaluationContext;
+import de.andrena.tools.macker.rule.Pattern;
+import de.andrena.tools.macker.rule.RuleSet;
+import de.andrena.tools.macker.rule.RulesException;
+import de.andrena.tools.macker.rule.VariableParser;
+import de.andrena.tools.macker.structure.ClassInfo;
+
+/**
+ * Matches classes which a class matching the parameter extends or implements,
+ * directly or not, and those matching the parameter themselves. The subtypes
+ * are looked up in the class manager's
+ * {@link de.andrena.tools.macker.structure.SubtypeIndex}, so only the primary
+ * classes and their supertypes are considered.
+ */
+public class SupertypeFilter implements Filter {
+	public Pattern createPattern(RuleSet ruleSet, List<Pattern> params, Map<String, String> options)
+			throws RulesException {
+		if (params.size() != 1)
+			throw new FilterSyntaxException(this, "Filter \"" + options.get("filter")
+					+ "\" expects one parameter, but has " + params.size());
+		final Pattern subtypePat = params.get(0);
+		final Set<ClassAttribute> attributes = EnumSet.of(ClassAttribute.SUBTYPES);
+		attributes.addAll(ClassAttribute.readBy(subtypePat));
+		final Set<String> variables = VariableParser.variablesReadBy(subtypePat);
+		return new FilterPattern(attributes, variables) {
+			public boolean matches(EvaluationContext context, ClassInfo classInfo) throws RulesException {
+				if (subtypePat.matches(context, classInfo))
+					return true;
+				for (ClassInfo subtype : context.getClassManager().getSubtypeIndex().getSubtypes(classInfo))
+					if (subtypePat.matches(context, subtype))
+						return true;
+				return false;
+			}
+		};
+	}
+}
@@ -20,13 +20,9 @@
 
 package de.andrena.tools.macker.structure;
 
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
-import de.andrena.tools.macker.util.collect.GraphWalker;
-import de.andrena.tools.macker.util.collect.Graphs;
-
 public abstract class AbstractClassInfo implements ClassInfo {
 	public AbstractClassInfo(ClassManager classManager) {
 		this.classManager = classManager;
@@ -46,7 +42,8 @@ public abstract class AbstractClassInfo implements ClassInfo {
 	public Set<ClassInfo> getDirectSupertypes() {
 		if (cachedAllDirectSuper == null) {
 			Set<ClassInfo> newAllDirectSuper = new HashSet<ClassInfo>(getImplements());
-			newAllDirectSuper.add(getExtends());
+			if (getExtends() != null)
+				newAllDirectSuper.add(getExtends());
 			cachedAllDirectSuper = newAllDirectSuper; // failure atomicity
 		}
 		return cachedAllDirectSuper;
@@ -54,14 +51,23 @@ public abstract class AbstractClassInfo implements ClassInfo {
 
 	public Set<ClassInfo> getSupertypes() {
 		if (cachedAllSuper == null)
-			cachedAllSuper = Graphs.reachableNodes(this, new GraphWalker<ClassInfo>() {
-				public Collection<ClassInfo> getEdgesFrom(ClassInfo node) {
-					return node.getDirectSupertypes();
-				}
-			});
+			cachedAllSuper = classManager.getSupertypeIndex().getClosure(this).toSet();
 		return cachedAllSuper;
 	}
 
+	/**
+	 * See {@link ClassManager#getClassId(ClassInfo)}. The ID is kept along
+	 * with the generation of the symbol table it came from.
+	 */
+	final int getClassId(int generation) {
+		long cached = cachedClassId;
+		if ((int) (cached >>> 32) != generation + 1) {
+			cached = ((long) (generation + 1) << 32) | classManager.getClassId(getFullName());
+			cachedClassId = cached;
+		}
+		return (int) cached;
+	}
+
 	public final ClassManager getClassManager() {
 		return classManager;
 	}
@@ -88,5 +94,6 @@ public abstract class AbstractClassInfo implements ClassInfo {
 	}
 
 	private ClassManager classManager;
-	private Set<ClassInfo> cachedAllSuper, cachedAllDirectSuper;
+	private volatile Set<ClassInfo> cachedAllSuper, cachedAllDirectSuper;
+	private volatile long cachedClassId;
 }
@@ -0,0 +1,399 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+package de.andrena.tools.macker.structure;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the parts of a class file Macker cares about directly from a
+ * {@link ByteBuffer}: the constant pool, the class header, and the field and
+ * method declarations. The constant pool, member tables and class attributes
+ * are walked once; method bodies and other attributes are skipped without
+ * being decoded, but a truncated file is rejected up front.
+ * Strings are decoded lazily and only once.
+ *
+ * Class names are returned in their internal form, as stored in the class
+ * file (<tt>java/lang/String</tt>, <tt>[Ljava/lang/String;</tt>).
+ */
+final class ClassFileReader {
+	ClassFileReader(ByteBuffer classFile) throws ClassParseException {
+		buf = classFile.slice();
+		try {
+			if (buf.getInt() != MAGIC)
+				throw new ClassParseException("not a class file (bad magic number)");
+			buf.getInt(); // minor & major version
+
+			readConstantPool();
+
+			accessFlags = readU2();
+			thisClass = readU2();
+			superClass = readU2();
+			interfaces = new int[readU2()];
+			for (int n = 0; n < interfaces.length; n++)
+				interfaces[n] = readU2();
+
+			fields = readMembers();
+			methods = readMembers();
+			classAttributes = buf.position();
+			skipAttributes();
+		} catch (BufferUnderflowException bue) {
+			throw new ClassParseException("truncated class file");
+		} catch (IndexOutOfBoundsException ioobe) {
+			throw new ClassParseException("truncated class file");
+		}
+	}
+
+	// ------------------------------------------------------------------------
+	// Class header
+	// ------------------------------------------------------------------------
+
+	public int getAccessFlags() {
+		return accessFlags;
+	}
+
+	public String getClassName() throws ClassParseException {
+		return getClassConstant(thisClass);
+	}
+
+	/**
+	 * Returns null for java.lang.Object (and module-info), which have no
+	 * superclass.
+	 */
+	public String getSuperclassName() throws ClassParseException {
+		return superClass == 0 ? null : getClassConstant(superClass);
+	}
+
+	public List<String> getInterfaceNames() throws ClassParseException {
+		List<String> names = new ArrayList<String>(interfaces.length);
+		for (int index : interfaces)
+			names.add(getClassConstant(index));
+		return names;
+	}
+
+	/**
+	 * The generic signature of the class, or null if it has none.
+	 */
+	public String getClassSignature() throws ClassParseException {
+		return getSignature(classAttributes);
+	}
+
+	/**
+	 * All class names in the constant pool, including this class, its
+	 * supertypes, and array types.
+	 */
+	public List<String> getClassConstantNames() throws ClassParseException {
+		List<String> names = new ArrayList<String>();
+		for (int index = 1; index < tags.length; index++)
+			if (tags[index] == CONSTANT_Class)
+				names.add(getClassConstant(index));
+		return names;
+	}
+
+	// ------------------------------------------------------------------------
+	// Members
+	// ------------------------------------------------------------------------
+
+	public int getFieldCount() {
+		return fields.length;
+	}
+
+	public int getFieldAccessFlags(int field) {
+		return buf.getShort(fields[field]) & 0xFFFF;
+	}
+
+	public String getFieldName(int field) throws ClassParseException {
+		return getUtf8(buf.getShort(fields[field] + 2) & 0xFFFF);
+	}
+
+	public String getFieldDescriptor(int field) throws ClassParseException {
+		return getUtf8(buf.getShort(fields[field] + 4) & 0xFFFF);
+	}
+
+	/**
+	 * The generic signature of the field, or null if it has none.
+	 */
+	public String getFieldSignature(int field) throws ClassParseException {
+		return getSignature(fields[field] + 6);
+	}
+
+	public int getMethodCount() {
+		return methods.length;
+	}
+
+	public int getMethodAccessFlags(int method) {
+		return buf.getShort(methods[method]) & 0xFFFF;
+	}
+
+	public String getMethodName(int method) throws ClassParseException {
+		return getUtf8(buf.getShort(methods[method] + 2) & 0xFFFF);
+	}
+
+	public String getMethodDescriptor(int method) throws ClassParseException {
+		return getUtf8(buf.getShort(methods[method] + 4) & 0xFFFF);
+	}
+
+	/**
+	 * The classes named in the method's <tt>throws</tt> clause, or an empty
+	 * list if it has none.
+	 */
+	public List<String> getMethodExceptionNames(int method) throws ClassParseException {
+		List<String> names = new ArrayList<String>();
+		try {
+			int pos = findAttribute(methods[method] + 6, EXCEPTIONS_ATTRIBUTE);
+			if (pos >= 0) {
+				int exceptionCount = buf.getShort(pos) & 0xFFFF;
+				for (int e = 0; e < exceptionCount; e++)
+					names.add(getClassConstant(buf.getShort(pos + 2 + e * 2) & 0xFFFF));
+			}
+		} catch (IndexOutOfBoundsException ioobe) {
+			throw new ClassParseException("truncated class file");
+		}
+		return names;
+	}
+
+	/**
+	 * The generic signature of the method, or null if it has none.
+	 */
+	public String getMethodSignature(int method) throws ClassParseException {
+		return getSignature(methods[method] + 6);
+	}
+
+	// ------------------------------------------------------------------------
+	// Attributes
+	// ------------------------------------------------------------------------
+
+	/**
+	 * Finds an attribute in the table starting at <tt>pos</tt>, returning
+	 * the offset of its contents, or -1 if there is none.
+	 */
+	private int findAttribute(int pos, String name) throws ClassParseException {
+		int attributeCount = buf.getShort(pos) & 0xFFFF;
+		pos += 2;
+		for (int n = 0; n < attributeCount; n++) {
+			int nameIndex = buf.getShort(pos) & 0xFFFF;
+			int length = buf.getInt(pos + 2);
+			pos += 6;
+			if (utf8Equals(nameIndex, name))
+				return pos;
+			pos += length;
+		}
+		return -1;
+	}
+
+	private String getSignature(int attributesPos) throws ClassParseException {
+		try {
+			int pos = findAttribute(attributesPos, SIGNATURE_ATTRIBUTE);
+			return (pos < 0) ? null : getUtf8(buf.getShort(pos) & 0xFFFF);
+		} catch (IndexOutOfBoundsException ioobe) {
+			throw new ClassParseException("truncated class file");
+		}
+	}
+
+	// ------------------------------------------------------------------------
+	// Constant pool
+	// ------------------------------------------------------------------------
+
+	private String getClassConstant(int index) throws ClassParseException {
+		checkTag(index, CONSTANT_Class);
+		return getUtf8(buf.getShort(offsets[index]) & 0xFFFF);
+	}
+
+	private String getUtf8(int index) throws ClassParseException {
+		String s = strings[index];
+		if (s == null) {
+			checkTag(index, CONSTANT_Utf8);
+			int offset = offsets[index];
+			s = strings[index] = decodeUtf8(offset + 2, buf.getShort(offset) & 0xFFFF);
+		}
+		return s;
+	}
+
+	private boolean utf8Equals(int index, String ascii) throws ClassParseException {
+		checkTag(index, CONSTANT_Utf8);
+		int offset = offsets[index];
+		int length = buf.getShort(offset) & 0xFFFF;
+		if (length != ascii.length())
+			return false;
+		for (int n = 0; n < length; n++)
+			if (buf.get(offset + 2 + n) != ascii.charAt(n))
+				return false;
+		return true;
+	}
+
+	private String decodeUtf8(int offset, int length) throws ClassParseException {
+		// Modified UTF-8 (JVMS 4.4.7): no 4-byte forms, and NUL is two bytes
+		char[] chars = new char[length];
+		int count = 0;
+		int end = offset + length;
+		if (end > buf.limit())
+			throw new ClassParseException("truncated class file");
+		for (int pos = offset; pos < end;) {
+			int b = buf.get(pos++) & 0xFF;
+			// Continuation bytes are checked against the end before they are read
+			if (b < 0x80)
+				chars[count++] = (char) b;
+			else if ((b & 0xE0) == 0xC0 && pos < end)
+				chars[count++] = (char) (((b & 0x1F) << 6) | (buf.get(pos++) & 0x3F));
+			else if ((b & 0xF0) == 0xE0 && pos + 1 < end) {
+				chars[count++] = (char) (((b & 0x0F) << 12) | ((buf.get(pos) & 0x3F) << 6) | (buf.get(pos + 1) & 0x3F));
+				pos += 2;
+			} else
+				throw new ClassParseException("malformed string in constant pool");
+		}
+		return new String(chars, 0, count);
+	}
+
+	private void checkTag(int index, byte expectedTag) throws ClassParseException {
+		if (index <= 0 || index >= tags.length || tags[index] != expectedTag)
+			throw new ClassParseException("bad constant pool reference: #" + index);
+	}
+
+	private void readConstantPool() throws ClassParseException {
+		int count = readU2();
+		tags = new byte[count];
+		offsets = new int[count];
+		strings = new String[count];
+		for (int index = 1; index < count; index++) {
+			byte tag = buf.get();
+			tags[index] = tag;
+			offsets[index] = buf.position();
+			switch (tag) {
+			case CONSTANT_Utf8:
+				skip(readU2());
+				break;
+			case CONSTANT_Class:
+			case CONSTANT_String:
+			case CONSTANT_MethodType:
+			case CONSTANT_Module:
+			case CONSTANT_Package:
+				skip(2);
+				break;
+			case CONSTANT_MethodHandle:
+				skip(3);
+				break;
+			case CONSTANT_Integer:
+			case CONSTANT_Float:
+			case CONSTANT_Fieldref:
+			case CONSTANT_Methodref:
+			case CONSTANT_InterfaceMethodref:
+			case CONSTANT_NameAndType:
+			case CONSTANT_Dynamic:
+			case CONSTANT_InvokeDynamic:
+				skip(4);
+				break;
+			case CONSTANT_Long:
+			case CONSTANT_Double:
+				skip(8);
+				index++; // takes two slots
+				break;
+			default:
+				throw new ClassParseException("unknown constant pool tag " + tag + " at #" + index);
+			}
+		}
+	}
+
+	private int[] readMembers() {
+		int[] memberOffsets = new int[readU2()];
+		for (int n = 0; n < memberOffsets.length; n++) {
+			memberOffsets[n] = buf.position();
+			skip(6); // access, name, descriptor
+			skipAttributes();
+		}
+		return memberOffsets;
+	}
+
+	private void skipAttributes() {
+		for (int count = readU2(); count > 0; count--) {
+			skip(2);
+			skip(buf.getInt());
+		}
+	}
+
+	private int readU2() {
+		return buf.getShort() & 0xFFFF;
+	}
+
+	private void skip(int length) {
+		if (length < 0 || length > buf.remaining())
+			throw new BufferUnderflowException();
+		buf.position(buf.position() + length);
+	}
+
+	// ------------------------------------------------------------------------
+	// Input
+	// ------------------------------------------------------------------------
+
+	static ByteBuffer read(File classFile) throws IOException {
+		FileInputStream in = new FileInputStream(classFile);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException(classFile + " is too large to be a class file");
+			ByteBuffer contents = ByteBuffer.allocate((int) size);
+			while (contents.hasRemaining())
+				if (channel.read(contents) < 0)
+					throw new IOException("unexpected end of file in " + classFile);
+			contents.flip();
+			return contents;
+		} finally {
+			in.close();
+		}
+	}
+
+	static ByteBuffer read(InputStream classFile) throws IOException {
+		byte[] contents = new byte[8192];
+		int length = 0;
+		for (int count; (count = classFile.read(contents, length, contents.length - length)) >= 0;) {
+			length += count;
+			if (length == contents.length) {
+				byte[] larger = new byte[contents.length * 2];
+				System.arraycopy(contents, 0, larger, 0, length);
+				contents = larger;
+			}
+		}
+		return ByteBuffer.wrap(contents, 0, length);
+	}
+
+	private final ByteBuffer buf;
+	private byte[] tags;
+	private int[] offsets;
+	private String[] strings;
+	private int accessFlags, thisClass, superClass, classAttributes;
+	private int[] interfaces, fields, methods;
+
+	private static final int MAGIC = 0xCAFEBABE;
+	private static final String EXCEPTIONS_ATTRIBUTE = "Exceptions", SIGNATURE_ATTRIBUTE = "Signature";
+
+	private static final byte CONSTANT_Utf8 = 1, CONSTANT_Integer = 3, CONSTANT_Float = 4, CONSTANT_Long = 5,
+			CONSTANT_Double = 6, CONSTANT_Class = 7, CONSTANT_String = 8, CONSTANT_Fieldref = 9,
+			CONSTANT_Methodref = 10, CONSTANT_InterfaceMethodref = 11, CONSTANT_NameAndType = 12,
+			CONSTANT_MethodHandle = 15, CONSTANT_MethodType = 16, CONSTANT_Dynamic = 17,
+			CONSTANT_InvokeDynamic = 18, CONSTANT_Module = 19, CONSTANT_Package = 20;
+}
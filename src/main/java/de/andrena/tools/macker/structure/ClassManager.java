@@ -23,16 +23,31 @@ package de.andrena.tools.macker.structure;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 import de.andrena.tools.macker.util.ClassNameTranslator;
-import de.andrena.tools.macker.util.collect.InnigCollections;
 import de.andrena.tools.macker.util.collect.MultiMap;
-import de.andrena.tools.macker.util.collect.TreeMultiMap;
 
 /**
  * The global collection of classes in Macker's rule-checking space.
@@ -40,12 +55,38 @@ import de.andrena.tools.macker.util.collect.TreeMultiMap;
 public class ClassManager {
 	public ClassManager() {
 		// Trees make nice sorted output
-		allClasses = new TreeSet<ClassInfo>(ClassInfoNameComparator.INSTANCE);
 		primaryClasses = new TreeSet<ClassInfo>(ClassInfoNameComparator.INSTANCE);
-		classNameToInfo = new TreeMap<String, ClassInfo>();
-		references = new TreeMultiMap<ClassInfo, ClassInfo>(ClassInfoNameComparator.INSTANCE,
-				ClassInfoNameComparator.INSTANCE);
+		symbols = new ClassSymbolTable();
+		references = new ReferenceGraph(symbols);
+		inheritancePending = new ArrayList<ParsedClassInfo>();
+		allClasses = new AllClasses();
 		classLoader = Thread.currentThread().getContextClassLoader();
+		parallelism = Runtime.getRuntime().availableProcessors();
+
+		for (ClassInfo ci : PrimitiveTypeInfo.ALL)
+			replaceClass(ci);
+	}
+
+	/**
+	 * Drops every class this manager knows about and stops its parsing
+	 * threads, so nothing read so far stays reachable from here. Embedding
+	 * code which runs many checks should call this when done with a check.
+	 * The manager is empty afterwards, as if newly created, and may be reused.
+	 */
+	public synchronized void release() {
+		if (parsePool != null) {
+			parsePool.shutdown();
+			parsePool = null;
+		}
+		primaryClasses.clear();
+		symbols = new ClassSymbolTable(); // class infos read before keep the old one
+		generation++;
+		references = new ReferenceGraph(symbols);
+		inheritancePending.clear();
+		supertypeIndex = null;
+		reachabilityIndex = null;
+		subtypeIndex = null;
+		incompleteClassWarning = false;
 
 		for (ClassInfo ci : PrimitiveTypeInfo.ALL)
 			replaceClass(ci);
@@ -59,31 +100,210 @@ public class ClassManager {
 		this.classLoader = classLoader;
 	}
 
+	/**
+	 * The number of worker threads {@link #readClasses(Collection)} uses to
+	 * parse class files. Defaults to the number of available processors.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public synchronized void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be at least 1, got " + parallelism);
+		if (parsePool != null && parallelism != this.parallelism) {
+			parsePool.shutdown();
+			parsePool = null;
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Sets a directory in which to cache parsed classes between runs, keyed
+	 * by the class file contents; null (the default) disables caching. The
+	 * directory may be shared by concurrent builds.
+	 * <p>
+	 * The directory also holds a bundle of the running JDK's java.* and
+	 * javax.* classes, generated on first use, which is consulted before the
+	 * class loader.
+	 */
+	public synchronized void setParseCacheDirectory(File directory) throws IOException {
+		parseCache = (directory == null) ? null : new ParseCache(directory);
+		jdkBundle.set(null);
+	}
+
+	public File getParseCacheDirectory() {
+		ParseCache cache = parseCache;
+		return (cache == null) ? null : cache.getDirectory();
+	}
+
+	/**
+	 * Whether to also record the classes named in the type arguments of
+	 * generic signatures, as {@link ReferenceType#TYPE_ARGUMENT} references.
+	 * Off by default, since the compiler erases them.
+	 */
+	public boolean isIncludeTypeArguments() {
+		return includeTypeArguments;
+	}
+
+	public synchronized void setIncludeTypeArguments(boolean includeTypeArguments) {
+		this.includeTypeArguments = includeTypeArguments;
+		jdkBundle.set(null);
+	}
+
 	public ClassInfo readClass(File classFile) throws ClassParseException, IOException {
-		ClassInfo classInfo = new ParsedClassInfo(this, classFile);
+		ClassInfo classInfo = parse(ClassFileReader.read(classFile));
 		addClass(classInfo);
 		return classInfo;
 	}
 
 	public ClassInfo readClass(InputStream classFile) throws ClassParseException, IOException {
-		ClassInfo classInfo = new ParsedClassInfo(this, classFile);
+		ClassInfo classInfo = parse(ClassFileReader.read(classFile));
 		addClass(classInfo);
 		return classInfo;
 	}
 
-	private void addClass(ClassInfo classInfo) {
+	private ParsedClassInfo parse(ByteBuffer classFile) throws ClassParseException {
+		ParseCache cache = parseCache;
+		if (cache == null)
+			return new ParsedClassInfo(this, classFile);
+
+		String key = cache.keyOf(classFile, includeTypeArguments);
+		ParsedClassInfo classInfo = cache.load(this, key);
+		if (classInfo == null) {
+			classInfo = new ParsedClassInfo(this, classFile);
+			cache.store(key, classInfo);
+		}
+		return classInfo;
+	}
+
+	/**
+	 * Reads and parses many class files at once. Parsing runs on a fork-join
+	 * pool; the parsed classes are then added in the order of the given
+	 * collection, so the result is the same as calling
+	 * {@link #readClass(File)} for each file in turn. If a file can't be
+	 * read, the classes before it are added and the first error is thrown.
+	 */
+	public List<ClassInfo> readClasses(Collection<File> classFiles) throws ClassParseException, IOException {
+		List<ParseTask> tasks = new ArrayList<ParseTask>(classFiles.size());
+		for (File classFile : classFiles)
+			tasks.add(new FileParseTask(classFile));
+		return readAll(tasks);
+	}
+
+	/**
+	 * Reads all the class files in a jar or zip file, in the order of the
+	 * archive's central directory. Entries are read straight out of the
+	 * memory-mapped archive and parsed like {@link #readClasses(Collection)}.
+	 */
+	public List<ClassInfo> readArchive(File archiveFile) throws ClassParseException, IOException {
+		ZipArchive archive = new ZipArchive(archiveFile);
+		List<ZipArchive.Entry> entries = archive.getClassEntries();
+		List<ParseTask> tasks = new ArrayList<ParseTask>(entries.size());
+		for (ZipArchive.Entry entry : entries)
+			tasks.add(new ArchiveParseTask(archive, entry));
+		return readAll(tasks);
+	}
+
+	/**
+	 * Reads the class files, jars and zip files found anywhere below a
+	 * directory. The directory tree is walked in parallel, and each file is
+	 * handed to the parser as soon as it is found, so walking and parsing
+	 * overlap. The classes are added in order of their path relative to the
+	 * directory.
+	 * 
+	 * @param includes
+	 *            glob patterns (in {@link java.nio.file.FileSystem#getPathMatcher
+	 *            java.nio} syntax) matched against the relative path; a file
+	 *            is read if it matches any of them. If empty, all files are
+	 *            included.
+	 * @param excludes
+	 *            glob patterns for files to skip, even if they are included.
+	 */
+	public List<ClassInfo> readDirectory(File directory, Collection<String> includes, Collection<String> excludes)
+			throws ClassParseException, IOException {
+		Path root = directory.toPath();
+		if (!Files.isDirectory(root))
+			throw new IOException(directory + " is not a directory");
+
+		DirectoryWalk walk = new DirectoryWalk(root, root, new PathSelector(includes, excludes),
+				new ConcurrentSkipListMap<String, ParseTask>(), new ConcurrentSkipListMap<String, IOException>());
+		getParsePool().invoke(walk);
+		if (!walk.errors.isEmpty()) {
+			// The walk doesn't wait for the parse tasks it started; let them
+			// finish, as readAll does, so none is still running afterwards
+			for (ParseTask task : walk.tasks.values())
+				task.quietlyJoin();
+			throw walk.errors.firstEntry().getValue();
+		}
+
+		return readAll(new ArrayList<ParseTask>(walk.tasks.values()), true);
+	}
+
+	private List<ClassInfo> readAll(List<ParseTask> tasks) throws ClassParseException, IOException {
+		if (parallelism > 1 && tasks.size() > 1) {
+			ForkJoinPool pool = getParsePool();
+			for (ParseTask task : tasks)
+				pool.execute(task);
+			return readAll(tasks, true);
+		} else
+			return readAll(tasks, false);
+	}
+
+	private List<ClassInfo> readAll(List<ParseTask> tasks, boolean started) throws ClassParseException,
+			IOException {
+		List<ClassInfo> classInfos = new ArrayList<ClassInfo>(tasks.size());
+		if (!started) {
+			for (ParseTask task : tasks) {
+				task.invoke(); // on this thread
+				ClassInfo classInfo = task.getClassInfo();
+				addClass(classInfo);
+				classInfos.add(classInfo);
+			}
+			return classInfos;
+		}
+
+		for (ParseTask task : tasks)
+			task.quietlyJoin();
+		synchronized (this) {
+			// Classes before the first failure stay added, as in a serial read
+			for (ParseTask task : tasks) {
+				ClassInfo classInfo = task.getClassInfo();
+				addClass(classInfo);
+				classInfos.add(classInfo);
+			}
+		}
+		return classInfos;
+	}
+
+	private synchronized ForkJoinPool getParsePool() {
+		// Kept for later calls (the Ant task reads each fileset separately);
+		// the idle worker threads time out on their own
+		if (parsePool == null)
+			parsePool = new ForkJoinPool(parallelism);
+		return parsePool;
+	}
+
+	/**
+	 * The pool parse tasks currently run on, or null if none has been started
+	 * since the last {@link #release()}.
+	 */
+	synchronized ForkJoinPool getCurrentParsePool() {
+		return parsePool;
+	}
+
+	private synchronized void addClass(ClassInfo classInfo) {
 		ClassInfo existing = findClassInfo(classInfo.getFullName());
 		if (existing != null && !(existing instanceof HollowClassInfo))
 			throw new IllegalStateException("ClassManager already contains a class named " + classInfo);
 		replaceClass(classInfo);
 	}
 
-	private void replaceClass(ClassInfo classInfo) {
-		allClasses.add(classInfo);
-		classNameToInfo.put(classInfo.getFullName(), classInfo);
+	private synchronized void replaceClass(ClassInfo classInfo) {
+		symbols.put(classInfo);
 	}
 
-	public void makePrimary(ClassInfo classInfo) {
+	public synchronized void makePrimary(ClassInfo classInfo) {
 		if (!classInfo.isComplete())
 			throw new IncompleteClassInfoException(classInfo + " cannot be a primary class, because the"
 					+ " class file isn't on Macker's classpath");
@@ -92,8 +312,17 @@ public class ClassManager {
 		checkOwner(classInfo);
 		classInfo = findClassInfo(classInfo.getFullName()); // in case of hollow
 		primaryClasses.add(classInfo);
-		references.putAll(classInfo, classInfo.getReferences().keySet());
-		allClasses.addAll(classInfo.getReferences().keySet());
+		reachabilityIndex = null;
+		subtypeIndex = null;
+
+		int from = symbols.find(classInfo.getFullName());
+		if (classInfo instanceof ParsedClassInfo
+				&& ((ParsedClassInfo) classInfo).getDeclaredReferenceTable().getSymbols() == symbols) {
+			references.addEdges(from, ((ParsedClassInfo) classInfo).getDeclaredReferenceTable());
+			inheritancePending.add((ParsedClassInfo) classInfo);
+		} else
+			for (Reference reference : classInfo.getReferences().values())
+				references.addEdge(from, getClassId(reference.getTo().getFullName()), reference.getType().getMask());
 	}
 
 	public Set<ClassInfo> getAllClasses() {
@@ -104,11 +333,65 @@ public class ClassManager {
 		return Collections.unmodifiableSet(primaryClasses);
 	}
 
+	/**
+	 * The classes each primary class refers to, ordered by name. The returned
+	 * multi-map is read-only.
+	 */
 	public MultiMap<ClassInfo, ClassInfo> getReferences() {
-		return InnigCollections.unmodifiableMultiMap(references);
+		return getReferenceGraph().asMultiMap();
+	}
+
+	/**
+	 * The primary classes which refer to a class, ordered by name; empty if
+	 * there are none. Looked up in an index of incoming references rather
+	 * than by going through all primary classes.
+	 */
+	public Set<ClassInfo> getReferrers(ClassInfo to) {
+		return getReferenceGraph().getReferrers(to);
 	}
 
-	public ClassInfo getClassInfo(String className) {
+	/**
+	 * The kinds of reference a primary class makes to another class; empty if
+	 * it makes none.
+	 */
+	public Set<ReferenceType> getReferenceTypes(ClassInfo from, ClassInfo to) {
+		ReferenceGraph graph = getReferenceGraph();
+		int fromId, toId;
+		synchronized (this) {
+			fromId = symbols.find(from.getFullName());
+			toId = symbols.find(to.getFullName());
+		}
+		if (fromId < 0 || toId < 0)
+			return Collections.emptySet();
+		return Collections.unmodifiableSet(ReferenceType.fromMask(graph.getTypeMask(fromId, toId)));
+	}
+
+	/**
+	 * The reference graph, with the fields the primary classes inherit added
+	 * to it first. They are added when the references are first read rather
+	 * than by {@link #makePrimary(ClassInfo)}, since finding them loads the
+	 * supertypes from outside the primary classes.
+	 */
+	private ReferenceGraph getReferenceGraph() {
+		boolean pending;
+		synchronized (this) {
+			pending = !inheritancePending.isEmpty();
+		}
+		if (pending && parseCache != null)
+			getJdkBundle(); // the supertypes are mostly JDK classes
+
+		synchronized (this) {
+			for (ParsedClassInfo classInfo : inheritancePending) {
+				ReferenceTable all = classInfo.getReferenceTable();
+				if (all != classInfo.getDeclaredReferenceTable())
+					references.addEdges(symbols.find(classInfo.getFullName()), all);
+			}
+			inheritancePending.clear();
+			return references;
+		}
+	}
+
+	public synchronized ClassInfo getClassInfo(String className) {
 		ClassInfo classInfo = findClassInfo(className);
 		if (classInfo != null)
 			return classInfo;
@@ -120,41 +403,170 @@ public class ClassManager {
 	}
 
 	ClassInfo loadClassInfo(String className) {
-		ClassInfo classInfo = findClassInfo(className);
-		if (classInfo == null || classInfo instanceof HollowClassInfo) {
-			classInfo = null; // don't use hollow!
-			String resourceName = ClassNameTranslator.classToResourceName(className);
-			InputStream classStream = classLoader.getResourceAsStream(resourceName);
+		JdkBundle bundle = jdkBundleFor(className);
+		synchronized (this) {
+			ClassInfo classInfo = findClassInfo(className);
+			if (classInfo == null || classInfo instanceof HollowClassInfo) {
+				classInfo = parseFromClassLoader(className, bundle, true); // don't use hollow!
+				if (classInfo == null)
+					classInfo = new IncompleteClassInfo(this, className);
+
+				replaceClass(classInfo);
+			}
 
-			if (classStream == null) {
+			return classInfo;
+		}
+	}
+
+	/**
+	 * Like {@link #loadClassInfo(String)}, but returns null instead of
+	 * warning if the class can't be loaded. A hollow class info is left in
+	 * place, so a later use which really needs the class still warns.
+	 */
+	ClassInfo loadClassInfoQuietly(String className) {
+		JdkBundle bundle = jdkBundleFor(className);
+		synchronized (this) {
+			ClassInfo classInfo = findClassInfo(className);
+			if (classInfo == null || classInfo instanceof HollowClassInfo) {
+				classInfo = parseFromClassLoader(className, bundle, false);
+				if (classInfo != null)
+					replaceClass(classInfo);
+			}
+			return classInfo;
+		}
+	}
+
+	/**
+	 * The JDK bundle, if it may hold a class which isn't loaded yet. Asked for
+	 * before taking this manager's lock, since the first time the bundle may
+	 * have to be generated.
+	 */
+	private JdkBundle jdkBundleFor(String className) {
+		if (!JdkBundle.covers(className) || parseCache == null)
+			return null;
+		synchronized (this) {
+			ClassInfo classInfo = findClassInfo(className);
+			if (classInfo != null && !(classInfo instanceof HollowClassInfo))
+				return null;
+		}
+		return getJdkBundle();
+	}
+
+	private ClassInfo parseFromClassLoader(String className, JdkBundle bundle, boolean warn) {
+		if (bundle != null) {
+			ClassInfo classInfo = bundle.load(this, className);
+			if (classInfo != null)
+				return classInfo;
+		}
+
+		ClassInfo classInfo = null;
+		String resourceName = ClassNameTranslator.classToResourceName(className);
+		InputStream classStream = classLoader.getResourceAsStream(resourceName);
+
+		if (classStream == null) {
+			if (warn) {
 				showIncompleteWarning();
 				System.out.println("WARNING: Unable to find class " + className + " in the classpath");
-			} else
-				try {
-					classInfo = new ParsedClassInfo(this, classStream);
-				} catch (Exception e) {
-					if (e instanceof RuntimeException)
-						throw (RuntimeException) e;
+			}
+		} else
+			try {
+				classInfo = parse(ClassFileReader.read(classStream));
+			} catch (Exception e) {
+				if (e instanceof RuntimeException)
+					throw (RuntimeException) e;
+				if (warn) {
 					showIncompleteWarning();
 					System.out.println("WARNING: Unable to load class " + className + ": " + e);
-				} finally {
-					try {
-						classStream.close();
-					} catch (IOException ioe) {
-					} // nothing we can do
 				}
+			} finally {
+				try {
+					classStream.close();
+				} catch (IOException ioe) {
+				} // nothing we can do
+			}
+		return classInfo;
+	}
 
-			if (classInfo == null)
-				classInfo = new IncompleteClassInfo(this, className);
+	/**
+	 * Returns the symbol table ID for a class name, creating a hollow class
+	 * info for it if it's not known yet.
+	 */
+	synchronized int getClassId(String className) {
+		int id = symbols.find(className);
+		return (id >= 0) ? id : symbols.put(new HollowClassInfo(this, className));
+	}
 
-			replaceClass(classInfo);
+	/**
+	 * Like {@link #getClassId(String)}, for a name in internal form found in
+	 * <tt>s</tt> between <tt>start</tt> and <tt>end</tt>. A string is only
+	 * created for names not seen before.
+	 */
+	synchronized int getClassId(String s, int start, int end) {
+		int id = symbols.findInternal(s, start, end);
+		return (id >= 0) ? id : getClassId(ClassNameTranslator.internalToClassName(s, start, end));
+	}
+
+	/**
+	 * A dense ID for a class, the same for every class info of its name, for
+	 * tables indexed by class. IDs are handed out afresh after
+	 * {@link #release()}.
+	 */
+	public int getClassId(ClassInfo classInfo) {
+		if (classInfo instanceof AbstractClassInfo && classInfo.getClassManager() == this)
+			return ((AbstractClassInfo) classInfo).getClassId(generation);
+		return getClassId(classInfo.getFullName());
+	}
+
+	/**
+	 * The supertypes of the classes known here, computed once per class.
+	 * Replaced by {@link #release()}.
+	 */
+	public synchronized SupertypeIndex getSupertypeIndex() {
+		if (supertypeIndex == null)
+			supertypeIndex = new SupertypeIndex(this);
+		return supertypeIndex;
+	}
+
+	/**
+	 * Which classes reach which others through the references of the
+	 * primary classes. Built when first asked for, and again after more
+	 * classes are made primary.
+	 */
+	public ReachabilityIndex getReachabilityIndex() {
+		MultiMap<ClassInfo, ClassInfo> graph = getReferences();
+		synchronized (this) {
+			if (reachabilityIndex == null)
+				reachabilityIndex = new ReachabilityIndex(graph);
+			return reachabilityIndex;
 		}
+	}
 
-		return classInfo;
+	/**
+	 * The subtypes of the primary classes' supertypes. Built when first asked
+	 * for, and again after more classes are made primary.
+	 */
+	public SubtypeIndex getSubtypeIndex() {
+		Set<ClassInfo> primaries;
+		synchronized (this) {
+			if (subtypeIndex != null)
+				return subtypeIndex;
+			primaries = new HashSet<ClassInfo>(primaryClasses);
+		}
+		// Built without holding the lock, since it loads classes
+		SubtypeIndex index = new SubtypeIndex(getSupertypeIndex(), primaries);
+		synchronized (this) {
+			if (subtypeIndex == null && primaryClasses.size() == primaries.size())
+				subtypeIndex = index;
+			return index;
+		}
 	}
 
-	private ClassInfo findClassInfo(String className) {
-		return classNameToInfo.get(className);
+	synchronized ClassSymbolTable getSymbols() {
+		return symbols;
+	}
+
+	private synchronized ClassInfo findClassInfo(String className) {
+		return symbols.get(className);
 	}
 
 	private void checkOwner(ClassInfo classInfo) throws IllegalStateException {
@@ -163,6 +575,56 @@ public class ClassManager {
 					+ ") is not managed by this ClassManager");
 	}
 
+	/**
+	 * Opens the JDK bundle in the parse cache directory, once, even if it
+	 * fails. This doesn't take this manager's lock: the first thread to ask
+	 * opens (or generates) the bundle, and others asking meanwhile wait for
+	 * it, while parsing and lookups go on.
+	 */
+	private JdkBundle getJdkBundle() {
+		FutureTask<JdkBundle> task = jdkBundle.get();
+		if (task == null) {
+			final ParseCache cache = parseCache;
+			if (cache == null)
+				return null;
+			final boolean typeArguments = includeTypeArguments;
+			FutureTask<JdkBundle> opening = new FutureTask<JdkBundle>(new Callable<JdkBundle>() {
+				public JdkBundle call() {
+					try {
+						return JdkBundle.open(cache.getDirectory(), typeArguments);
+					} catch (IOException ioe) {
+						System.out.println("WARNING: Unable to create the JDK class bundle in " + cache.getDirectory()
+								+ ": " + ioe);
+						return null;
+					}
+				}
+			});
+			if (jdkBundle.compareAndSet(null, opening))
+				opening.run();
+			task = jdkBundle.get();
+			if (task == null)
+				return null; // reset meanwhile
+		}
+
+		boolean interrupted = false;
+		try {
+			while (true)
+				try {
+					return task.get();
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				}
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw (RuntimeException) cause; // call() throws nothing checked
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
 	private void showIncompleteWarning() {
 		if (!incompleteClassWarning) {
 			incompleteClassWarning = true;
@@ -172,9 +634,222 @@ public class ClassManager {
 		}
 	}
 
+	/**
+	 * Parses one class on the fork-join pool. Failures, errors included, are
+	 * kept, not thrown, so they can be reported in input order once all tasks
+	 * are done.
+	 */
+	private abstract class ParseTask extends RecursiveAction {
+		@Override
+		protected void compute() {
+			try {
+				classInfo = parse();
+			} catch (ClassParseException cpe) {
+				failure = new ClassParseException("unable to parse class file " + describe(), cpe);
+			} catch (IOException ioe) {
+				failure = ioe;
+			} catch (RuntimeException re) {
+				failure = re;
+			} catch (Error e) {
+				failure = e;
+			}
+		}
+
+		public ClassInfo getClassInfo() throws ClassParseException, IOException {
+			if (failure instanceof ClassParseException)
+				throw (ClassParseException) failure;
+			if (failure instanceof IOException)
+				throw (IOException) failure;
+			if (failure instanceof Error)
+				throw (Error) failure;
+			if (failure != null)
+				throw (RuntimeException) failure;
+			return classInfo;
+		}
+
+		protected abstract ClassInfo parse() throws ClassParseException, IOException;
+
+		public abstract String describe();
+
+		private ClassInfo classInfo;
+		private Throwable failure;
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	private class FileParseTask extends ParseTask {
+		public FileParseTask(File classFile) {
+			this.classFile = classFile;
+		}
+
+		@Override
+		protected ClassInfo parse() throws ClassParseException, IOException {
+			return ClassManager.this.parse(ClassFileReader.read(classFile));
+		}
+
+		@Override
+		public String describe() {
+			return classFile.getPath();
+		}
+
+		private final File classFile;
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	private class ArchiveParseTask extends ParseTask {
+		public ArchiveParseTask(ZipArchive archive, ZipArchive.Entry entry) {
+			this.archive = archive;
+			this.entry = entry;
+		}
+
+		@Override
+		protected ClassInfo parse() throws ClassParseException, IOException {
+			return ClassManager.this.parse(archive.read(entry));
+		}
+
+		@Override
+		public String describe() {
+			return archive.describe(entry);
+		}
+
+		private final ZipArchive archive;
+		private final ZipArchive.Entry entry;
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Lists one directory, walking subdirectories in parallel and starting a
+	 * parse task for each selected file right away.
+	 */
+	private class DirectoryWalk extends RecursiveAction {
+		public DirectoryWalk(Path root, Path directory, PathSelector selector,
+				ConcurrentSkipListMap<String, ParseTask> tasks, ConcurrentSkipListMap<String, IOException> errors) {
+			this.root = root;
+			this.directory = directory;
+			this.selector = selector;
+			this.tasks = tasks;
+			this.errors = errors;
+		}
+
+		@Override
+		protected void compute() {
+			List<DirectoryWalk> subdirectories = new ArrayList<DirectoryWalk>();
+			try {
+				DirectoryStream<Path> entries = Files.newDirectoryStream(directory);
+				try {
+					for (Path path : entries) {
+						if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+							DirectoryWalk subdirectory = new DirectoryWalk(root, path, selector, tasks, errors);
+							subdirectory.fork();
+							subdirectories.add(subdirectory);
+						} else
+							visitFile(path);
+					}
+				} finally {
+					entries.close();
+				}
+			} catch (IOException ioe) {
+				errors.put(relativeName(directory), ioe);
+			}
+			for (DirectoryWalk subdirectory : subdirectories)
+				subdirectory.join();
+		}
+
+		private void visitFile(Path path) {
+			Path relativePath = root.relativize(path);
+			String fileName = path.getFileName().toString();
+			boolean classFile = fileName.endsWith(".class"), archive = isArchive(fileName);
+			if (!(classFile || archive) || !selector.selects(relativePath))
+				return;
+
+			String relativeName = relativeName(path);
+			if (classFile)
+				start(relativeName, new FileParseTask(path.toFile()));
+			else
+				try {
+					ZipArchive zipArchive = new ZipArchive(path.toFile());
+					for (ZipArchive.Entry entry : zipArchive.getClassEntries())
+						start(relativeName + "!/" + entry.getName(), new ArchiveParseTask(zipArchive, entry));
+				} catch (IOException ioe) {
+					errors.put(relativeName, ioe);
+				}
+		}
+
+		private void start(String relativeName, ParseTask task) {
+			tasks.put(relativeName, task);
+			task.fork();
+		}
+
+		private String relativeName(Path path) {
+			return root.relativize(path).toString().replace(File.separatorChar, '/');
+		}
+
+		private final Path root, directory;
+		private final PathSelector selector;
+		private final ConcurrentSkipListMap<String, ParseTask> tasks;
+		private final ConcurrentSkipListMap<String, IOException> errors;
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Every class known to this manager, in name order, read straight from
+	 * the symbol table.
+	 */
+	private class AllClasses extends AbstractSet<ClassInfo> {
+		@Override
+		public Iterator<ClassInfo> iterator() {
+			final ClassSymbolTable table = getSymbols();
+			final int[] ids = table.getIdsInNameOrder();
+			return new Iterator<ClassInfo>() {
+				public boolean hasNext() {
+					return next < ids.length;
+				}
+
+				public ClassInfo next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					return table.get(ids[next++]);
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+				private int next;
+			};
+		}
+
+		@Override
+		public int size() {
+			return getSymbols().size();
+		}
+
+		@Override
+		public boolean contains(Object obj) {
+			return obj instanceof ClassInfo && findClassInfo(((ClassInfo) obj).getFullName()) != null;
+		}
+	}
+
+	static boolean isArchive(String fileName) {
+		return fileName.endsWith(".jar") || fileName.endsWith(".zip");
+	}
+
 	private boolean incompleteClassWarning;
+	private volatile boolean includeTypeArguments;
+	private volatile int generation;
+	private SupertypeIndex supertypeIndex;
+	private ReachabilityIndex reachabilityIndex;
+	private SubtypeIndex subtypeIndex;
+	private int parallelism;
+	private ForkJoinPool parsePool;
+	private volatile ParseCache parseCache;
+	private final AtomicReference<FutureTask<JdkBundle>> jdkBundle = new AtomicReference<FutureTask<JdkBundle>>();
 	private ClassLoader classLoader;
 	private Set<ClassInfo> allClasses, primaryClasses;
-	private Map<String, ClassInfo> classNameToInfo;
-	private MultiMap<ClassInfo, ClassInfo> references;
+	private ClassSymbolTable symbols;
+	private ReferenceGraph references;
+	private List<ParsedClassInfo> inheritancePending;
 }
@@ -20,8 +20,6 @@
 
 package de.andrena.tools.macker.structure;
 
-import javassist.CtClass;
-
 /**
  * A class file was found, but was unparsable.
  */
@@ -30,8 +28,8 @@ public class ClassParseException extends Exception {
 		super(message);
 	}
 
-	public ClassParseException(String message, CtClass classFile) {
-		super(message + "\n" + classFile);
+	public ClassParseException(String message, Throwable cause) {
+		super(message, cause);
 	}
 
 	public ClassParseException(ClassFormatError cfe) {
@@ -0,0 +1,218 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+package de.andrena.tools.macker.structure;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Dense integer IDs for class names. An ID is handed out the first time a
+ * name is seen and never changes; each ID also holds the current class info
+ * for its name. Names are found by hashing into an open-addressed table, so a
+ * lookup costs one {@link String#equals(Object) equals} instead of a walk
+ * through a tree of string comparisons.
+ * <p>
+ * Name order is only needed for output, so it is computed on demand and
+ * extended incrementally as names are added.
+ */
+final class ClassSymbolTable {
+	ClassSymbolTable() {
+		names = new String[INITIAL_CAPACITY];
+		classInfos = new ClassInfo[INITIAL_CAPACITY];
+		slots = new int[INITIAL_CAPACITY * 2];
+		sortedIds = new int[0];
+		ranks = new int[0];
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the ID of a name, or -1 if it has none yet.
+	 */
+	public synchronized int find(String name) {
+		return slots[slotOf(name)] - 1;
+	}
+
+	/**
+	 * Like {@link #find(String)}, for a name in internal form (with '/' in
+	 * place of '.') found in <tt>s</tt> between <tt>start</tt> and
+	 * <tt>end</tt>. Nothing is allocated.
+	 */
+	public synchronized int findInternal(String s, int start, int end) {
+		int h = 0;
+		for (int pos = start; pos < end; pos++)
+			h = 31 * h + toDot(s.charAt(pos));
+		int mask = slots.length - 1;
+		for (int slot = (h ^ (h >>> 16)) & mask;; slot = (slot + 1) & mask) {
+			int entry = slots[slot];
+			if (entry == 0)
+				return -1;
+			if (internalEquals(names[entry - 1], s, start, end))
+				return entry - 1;
+		}
+	}
+
+	private static boolean internalEquals(String name, String s, int start, int end) {
+		if (name.length() != end - start)
+			return false;
+		for (int n = 0, pos = start; pos < end; n++, pos++)
+			if (name.charAt(n) != toDot(s.charAt(pos)))
+				return false;
+		return true;
+	}
+
+	private static char toDot(char c) {
+		return (c == '/') ? '.' : c;
+	}
+
+	/**
+	 * Returns the ID of a name, giving it a new one (with no class info) if
+	 * necessary.
+	 */
+	public synchronized int add(String name) {
+		int slot = slotOf(name);
+		if (slots[slot] == 0) {
+			if (size == names.length) {
+				grow();
+				slot = slotOf(name);
+			}
+			names[size] = name;
+			slots[slot] = ++size;
+		}
+		return slots[slot] - 1;
+	}
+
+	public synchronized String getName(int id) {
+		checkId(id);
+		return names[id];
+	}
+
+	public synchronized ClassInfo get(int id) {
+		checkId(id);
+		return classInfos[id];
+	}
+
+	public synchronized ClassInfo get(String name) {
+		int id = find(name);
+		return (id < 0) ? null : classInfos[id];
+	}
+
+	/**
+	 * Sets the class info for a name, replacing any earlier one.
+	 * 
+	 * @return the name's ID
+	 */
+	public synchronized int put(ClassInfo classInfo) {
+		int id = add(classInfo.getFullName());
+		classInfos[id] = classInfo;
+		return id;
+	}
+
+	/**
+	 * All IDs, ordered by name. The returned array must not be modified.
+	 */
+	public synchronized int[] getIdsInNameOrder() {
+		sort();
+		return sortedIds;
+	}
+
+	/**
+	 * For each ID, its position in name order. The returned array must not be
+	 * modified.
+	 */
+	public synchronized int[] getRanks() {
+		sort();
+		return ranks;
+	}
+
+	private void sort() {
+		int sorted = sortedIds.length;
+		if (sorted == size)
+			return;
+
+		// Sort only the names added since last time, then merge
+		Integer[] added = new Integer[size - sorted];
+		for (int n = 0; n < added.length; n++)
+			added[n] = sorted + n;
+		Arrays.sort(added, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return names[a].compareTo(names[b]);
+			}
+		});
+
+		int[] merged = new int[size];
+		int i = 0, j = 0, k = 0;
+		while (i < sorted && j < added.length)
+			merged[k++] = (names[sortedIds[i]].compareTo(names[added[j]]) <= 0) ? sortedIds[i++] : added[j++];
+		while (i < sorted)
+			merged[k++] = sortedIds[i++];
+		while (j < added.length)
+			merged[k++] = added[j++];
+
+		int[] newRanks = new int[size];
+		for (int rank = 0; rank < size; rank++)
+			newRanks[merged[rank]] = rank;
+		sortedIds = merged; // new arrays, so earlier callers' copies stay valid
+		ranks = newRanks;
+	}
+
+	private int slotOf(String name) {
+		int mask = slots.length - 1;
+		for (int slot = hash(name) & mask;; slot = (slot + 1) & mask) {
+			int entry = slots[slot];
+			if (entry == 0 || names[entry - 1].equals(name))
+				return slot;
+		}
+	}
+
+	private void grow() {
+		names = Arrays.copyOf(names, names.length * 2);
+		classInfos = Arrays.copyOf(classInfos, classInfos.length * 2);
+		slots = new int[names.length * 2]; // keep the load factor at 1/2
+		int mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hash(names[id]) & mask;
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			slots[slot] = id + 1;
+		}
+	}
+
+	private static int hash(String name) {
+		int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private void checkId(int id) {
+		if (id < 0 || id >= size)
+			throw new IndexOutOfBoundsException("no class with ID " + id);
+	}
+
+	private String[] names;
+	private ClassInfo[] classInfos;
+	private int[] slots; // ID + 1 for each used slot, 0 for empty ones
+	private int size;
+	private int[] sortedIds, ranks;
+
+	private static final int INITIAL_CAPACITY = 1024;
+}
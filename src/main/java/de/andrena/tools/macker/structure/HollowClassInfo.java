@@ -80,11 +80,12 @@ public class HollowClassInfo extends AbstractClassInfo {
 	}
 
 	private ClassInfo getActual() {
-		if (actual == null)
-			actual = getClassManager().loadClassInfo(className);
-		return actual;
+		ClassInfo result = actual;
+		if (result == null)
+			actual = result = getClassManager().loadClassInfo(className);
+		return result;
 	}
 
 	private String className;
-	private ClassInfo actual;
+	private volatile ClassInfo actual;
 }
@@ -0,0 +1,426 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.structure;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.andrena.tools.macker.util.ClassNameTranslator;
+
+/**
+ * The parsed java.* and javax.* classes of the running JDK, in a single file.
+ * The file is generated the first time it is needed, by reading every such
+ * class from the JDK's module image (or rt.jar before Java 9), and is
+ * memory-mapped on later runs; classes are decoded from it only when asked
+ * for. Each class is stored in the {@link ParseCache} record format, so it
+ * restores exactly what parsing the class file would give.
+ * <p>
+ * The file is named after the JDK version and location, and its header
+ * repeats them, so a bundle from another JDK is never used. Like cache
+ * entries, it is written to a temporary file and renamed into place.
+ */
+final class JdkBundle {
+	/**
+	 * Opens the bundle for the running JDK in the given directory, generating
+	 * it if it doesn't exist yet or is unusable. Returns null if the JDK's
+	 * classes can't be enumerated.
+	 */
+	static JdkBundle open(File directory, boolean typeArguments) throws IOException {
+		File file = new File(directory, fileName(typeArguments));
+		if (file.isFile()) {
+			JdkBundle bundle = read(file, typeArguments);
+			if (bundle != null)
+				return bundle;
+			System.out.println("WARNING: Replacing the unusable JDK class bundle " + file);
+		}
+		List<ClassSource> sources = findJdkClasses();
+		if (sources == null)
+			return null;
+		write(file, typeArguments, sources);
+		return read(file, typeArguments);
+	}
+
+	private JdkBundle(File file, MappedByteBuffer contents, Map<String, Integer> index, int[] offsets,
+			boolean typeArguments) {
+		this.file = file;
+		this.contents = contents;
+		this.index = index;
+		this.offsets = offsets;
+		this.typeArguments = typeArguments;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public boolean isTypeArguments() {
+		return typeArguments;
+	}
+
+	public int size() {
+		return index.size();
+	}
+
+	public static boolean covers(String className) {
+		return className.startsWith("java.") || className.startsWith("javax.");
+	}
+
+	/**
+	 * Restores a class from the bundle, or returns null if it isn't there.
+	 */
+	public ParsedClassInfo load(ClassManager classManager, String className) {
+		Integer n = index.get(className);
+		if (n == null)
+			return null;
+		int start = offsets[n], end = offsets[n + 1];
+		byte[] record = new byte[end - start];
+		ByteBuffer slice = contents.duplicate();
+		slice.position(start);
+		slice.get(record);
+		try {
+			return new ParsedClassInfo(classManager, new DataInputStream(new ByteArrayInputStream(record)));
+		} catch (IOException ioe) {
+			// A corrupt record; the class loader still has the class
+			if (!corruptRecordWarning) {
+				corruptRecordWarning = true;
+				System.out.println("WARNING: The JDK class bundle " + file + " has a corrupt record for "
+						+ className + " (and maybe more); reading them from the classpath instead: " + ioe);
+			}
+			return null;
+		}
+	}
+
+	// ------------------------------------------------------------------------
+	// Reading
+	// ------------------------------------------------------------------------
+
+	private static JdkBundle read(File file, boolean typeArguments) throws IOException {
+		MappedByteBuffer contents;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < 16 || channel.size() > Integer.MAX_VALUE)
+				return null;
+			contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close(); // the mapping stays valid
+		}
+
+		try {
+			if (contents.getInt(0) != MAGIC || contents.getInt(4) != FORMAT_VERSION
+					|| contents.getInt(8) != contents.limit())
+				return null;
+			int headerLength = contents.getInt(12);
+			if (headerLength < 0 || headerLength > contents.limit() - 16)
+				return null;
+			byte[] headerBytes = new byte[headerLength];
+			contents.position(16);
+			contents.get(headerBytes);
+			DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBytes));
+			if (!header.readUTF().equals(jdkVersion()) || !header.readUTF().equals(jdkHome())
+					|| header.readBoolean() != typeArguments)
+				return null;
+
+			int count = header.readInt(), recordStart = 16 + headerBytes.length;
+			if (count < 0 || count > headerBytes.length / 6) // a name and an offset take at least 6 bytes
+				return null;
+			Map<String, Integer> index = new HashMap<String, Integer>(count * 2);
+			int[] offsets = new int[count + 1];
+			for (int n = 0; n < count; n++) {
+				index.put(header.readUTF(), n);
+				offsets[n] = recordStart + header.readInt();
+			}
+			offsets[count] = contents.limit();
+			for (int n = 0; n < count; n++)
+				if (offsets[n] < recordStart || offsets[n] > offsets[n + 1])
+					return null;
+			return new JdkBundle(file, contents, index, offsets, typeArguments);
+		} catch (IOException ioe) {
+			return null; // truncated header
+		}
+	}
+
+	// ------------------------------------------------------------------------
+	// Generating
+	// ------------------------------------------------------------------------
+
+	/**
+	 * Parses the given class files and writes them to a bundle file. Classes
+	 * which fail to parse are left out.
+	 */
+	static void write(File file, boolean typeArguments, List<ClassSource> sources) throws IOException {
+		// A class manager of its own, so the JDK's classes don't end up among
+		// the caller's
+		ClassManager classManager = new ClassManager();
+		classManager.setIncludeTypeArguments(typeArguments);
+		byte[][] records = new byte[sources.size()][];
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			pool.invoke(new WriteRecords(classManager, sources, records, 0, sources.size()));
+		} finally {
+			pool.shutdown();
+		}
+
+		// Sorted by name, so the file is the same on every machine
+		Map<String, byte[]> byName = new TreeMap<String, byte[]>();
+		for (int n = 0; n < records.length; n++)
+			if (records[n] != null)
+				byName.put(sources.get(n).getClassName(), records[n]);
+
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerBytes);
+		header.writeUTF(jdkVersion());
+		header.writeUTF(jdkHome());
+		header.writeBoolean(typeArguments);
+		header.writeInt(byName.size());
+		int offset = 0; // from the end of the header
+		for (Map.Entry<String, byte[]> entry : byName.entrySet()) {
+			header.writeUTF(entry.getKey());
+			header.writeInt(offset);
+			offset += entry.getValue().length;
+		}
+		header.flush();
+
+		File tempFile = File.createTempFile("jdk", ".tmp", file.getParentFile());
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile),
+					65536));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(16 + headerBytes.size() + offset);
+				out.writeInt(headerBytes.size());
+				headerBytes.writeTo(out);
+				for (byte[] record : byName.values())
+					out.write(record);
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException amnse) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			tempFile = null;
+		} finally {
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+
+	/**
+	 * Lists the java.* and javax.* class files of the running JDK, or returns
+	 * null if there is neither a module image nor an rt.jar.
+	 */
+	private static List<ClassSource> findJdkClasses() throws IOException {
+		final List<ClassSource> sources = new ArrayList<ClassSource>();
+		FileSystem jrt = null;
+		try {
+			jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+		} catch (FileSystemNotFoundException fsnfe) {
+			// before Java 9
+		} catch (ProviderNotFoundException pnfe) {
+			// ditto
+		}
+
+		if (jrt != null) {
+			DirectoryStream<Path> modules = Files.newDirectoryStream(jrt.getPath("/modules"));
+			try {
+				for (final Path module : modules)
+					for (String root : new String[] { "java", "javax" }) {
+						Path packageRoot = module.resolve(root);
+						if (!Files.isDirectory(packageRoot))
+							continue;
+						Files.walkFileTree(packageRoot, new SimpleFileVisitor<Path>() {
+							@Override
+							public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+								String resourceName = module.relativize(file).toString();
+								if (resourceName.endsWith(".class"))
+									sources.add(new PathSource(file, resourceName));
+								return FileVisitResult.CONTINUE;
+							}
+						});
+					}
+			} finally {
+				modules.close();
+			}
+			return sources;
+		}
+
+		File rtJar = new File(jdkHome(), "lib/rt.jar");
+		if (!rtJar.isFile())
+			return null;
+		ZipArchive archive = new ZipArchive(rtJar);
+		for (ZipArchive.Entry entry : archive.getClassEntries())
+			if (entry.getName().startsWith("java/") || entry.getName().startsWith("javax/"))
+				sources.add(new ArchiveSource(archive, entry));
+		return sources;
+	}
+
+	static String fileName(boolean typeArguments) {
+		String version = jdkVersion().replaceAll("[^A-Za-z0-9._-]", "_");
+		return "jdk-" + version + '-' + Integer.toHexString(jdkHome().hashCode())
+				+ (typeArguments ? "-type-arguments" : "") + ".bundle";
+	}
+
+	private static String jdkVersion() {
+		return System.getProperty("java.runtime.version", System.getProperty("java.version"));
+	}
+
+	private static String jdkHome() {
+		return System.getProperty("java.home");
+	}
+
+	/**
+	 * Parses a range of the JDK's classes into records, splitting the range
+	 * in halves for the fork-join pool. Classes which fail to parse are left
+	 * out; they will be read through the class loader as before.
+	 */
+	private static class WriteRecords extends RecursiveAction {
+		WriteRecords(ClassManager classManager, List<ClassSource> sources, byte[][] records, int start, int end) {
+			this.classManager = classManager;
+			this.sources = sources;
+			this.records = records;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > 64) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new WriteRecords(classManager, sources, records, start, middle), new WriteRecords(
+						classManager, sources, records, middle, end));
+				return;
+			}
+			for (int n = start; n < end; n++)
+				try {
+					ParsedClassInfo classInfo = new ParsedClassInfo(classManager, sources.get(n).read());
+					if (!classInfo.getFullName().equals(sources.get(n).getClassName()))
+						continue;
+					ByteArrayOutputStream record = new ByteArrayOutputStream(1024);
+					DataOutputStream out = new DataOutputStream(record);
+					classInfo.write(out);
+					out.flush();
+					records[n] = record.toByteArray();
+				} catch (ClassParseException cpe) {
+					// left to the class loader
+				} catch (IOException ioe) {
+					// ditto
+				}
+		}
+
+		private final ClassManager classManager;
+		private final List<ClassSource> sources;
+		private final byte[][] records;
+		private final int start, end;
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * A class file to put in the bundle.
+	 */
+	static abstract class ClassSource {
+		ClassSource(String resourceName) {
+			this.className = ClassNameTranslator.resourceToClassName(resourceName);
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		public abstract ByteBuffer read() throws IOException;
+
+		private final String className;
+	}
+
+	private static class PathSource extends ClassSource {
+		PathSource(Path path, String resourceName) {
+			super(resourceName);
+			this.path = path;
+		}
+
+		@Override
+		public ByteBuffer read() throws IOException {
+			return ByteBuffer.wrap(Files.readAllBytes(path));
+		}
+
+		private final Path path;
+	}
+
+	private static class ArchiveSource extends ClassSource {
+		ArchiveSource(ZipArchive archive, ZipArchive.Entry entry) {
+			super(entry.getName());
+			this.archive = archive;
+			this.entry = entry;
+		}
+
+		@Override
+		public ByteBuffer read() throws IOException {
+			return archive.read(entry);
+		}
+
+		private final ZipArchive archive;
+		private final ZipArchive.Entry entry;
+	}
+
+	private final File file;
+	private final MappedByteBuffer contents;
+	private final Map<String, Integer> index;
+	private final int[] offsets;
+	private final boolean typeArguments;
+	private volatile boolean corruptRecordWarning;
+
+	private static final int MAGIC = 0x4D4B4A42; // "MKJB"
+	private static final int FORMAT_VERSION = ParseCache.FORMAT_VERSION;
+}
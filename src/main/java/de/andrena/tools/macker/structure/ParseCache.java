@@ -0,0 +1,168 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+package de.andrena.tools.macker.structure;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * An on-disk cache of parsed classes, keyed by the SHA-1 hash of the class
+ * file contents. Unchanged classes are then restored from a compact binary
+ * record instead of being parsed again.
+ * <p>
+ * Several processes may share one cache directory. Entries are written to a
+ * temporary file and renamed into place, so a reader sees either a complete
+ * entry or none. Entries which are unreadable, corrupt, or from another
+ * format version are treated as misses and overwritten.
+ */
+final class ParseCache {
+	ParseCache(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("unable to create parse cache directory " + directory);
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * The cache key for a class file. Classes parsed with type argument
+	 * references get a key of their own.
+	 */
+	public String keyOf(ByteBuffer classFile, boolean typeArguments) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException("SHA-1 is not available", nsae);
+		}
+		digest.update(classFile.duplicate());
+		if (typeArguments)
+			digest.update((byte) 1);
+
+		StringBuilder key = new StringBuilder(40);
+		for (byte b : digest.digest()) {
+			key.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns the cached class, or null on a miss.
+	 */
+	public ParsedClassInfo load(ClassManager classManager, String key) {
+		File entryFile = entryFile(key);
+		if (!entryFile.isFile())
+			return null;
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(entryFile
+					.toPath())));
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+				return null;
+			byte[] payload = new byte[in.readInt()];
+			int checksum = in.readInt();
+			in.readFully(payload);
+			if (checksum != checksum(payload))
+				return null;
+			return new ParsedClassInfo(classManager, new DataInputStream(new ByteArrayInputStream(payload)));
+		} catch (IOException ioe) {
+			return null;
+		} catch (RuntimeException re) {
+			return null; // corrupt entry
+		}
+	}
+
+	public void store(String key, ParsedClassInfo classInfo) {
+		File entryFile = entryFile(key);
+		File tempFile = null;
+		try {
+			ByteArrayOutputStream payload = new ByteArrayOutputStream(1024);
+			DataOutputStream payloadOut = new DataOutputStream(payload);
+			classInfo.write(payloadOut);
+			payloadOut.flush();
+			byte[] payloadBytes = payload.toByteArray();
+
+			File entryDir = entryFile.getParentFile();
+			if (!entryDir.isDirectory() && !entryDir.mkdirs() && !entryDir.isDirectory())
+				throw new IOException("unable to create " + entryDir);
+			tempFile = File.createTempFile(key, ".tmp", entryDir);
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(payloadBytes.length);
+				out.writeInt(checksum(payloadBytes));
+				out.write(payloadBytes);
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException amnse) {
+				Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			tempFile = null;
+		} catch (IOException ioe) {
+			showWriteWarning(ioe);
+		} finally {
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+
+	private File entryFile(String key) {
+		return new File(new File(directory, key.substring(0, 2)), key.substring(2));
+	}
+
+	private static int checksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	private synchronized void showWriteWarning(IOException ioe) {
+		if (!writeWarning) {
+			writeWarning = true;
+			System.out.println("WARNING: Unable to write to parse cache " + directory + ": " + ioe);
+		}
+	}
+
+	private final File directory;
+	private boolean writeWarning;
+
+	private static final int MAGIC = 0x4D4B5043; // "MKPC"
+	/** Bump whenever the extracted data or its encoding changes. */
+	static final int FORMAT_VERSION = 1;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+}
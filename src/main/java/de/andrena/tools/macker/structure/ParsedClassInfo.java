@@ -20,30 +20,27 @@
 
 package de.andrena.tools.macker.structure;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.io.InputStream;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
 
-import javassist.ClassPool;
-import javassist.CtBehavior;
-import javassist.CtClass;
-import javassist.CtField;
-import javassist.Modifier;
 import de.andrena.tools.macker.util.ClassNameTranslator;
-import de.andrena.tools.macker.util.collect.CompositeMultiMap;
-import de.andrena.tools.macker.util.collect.InnigCollections;
+import de.andrena.tools.macker.util.DescriptorDecoder;
+import de.andrena.tools.macker.util.EnumeratedType;
 import de.andrena.tools.macker.util.collect.MultiMap;
 
 /**
- * Class info retrieved from a class file using Javassist.
+ * Class info retrieved from a class file using {@link ClassFileReader}.
  * 
  * @author Ben Romberg
  */
@@ -56,17 +53,25 @@ public class ParsedClassInfo extends AbstractClassInfo {
 	private AccessModifier accessModifier;
 	private ClassInfo extendsClass;
 	private Set<ClassInfo> implementsClasses;
-	private MultiMap<ClassInfo, Reference> references;
+	private ReferenceTable references;
+	private volatile ReferenceTable allReferences;
+	private volatile MultiMap<ClassInfo, Reference> referenceView;
+	private ReferenceTable.Builder referenceBuilder;
+	private DescriptorDecoder decoder;
 
-	ParsedClassInfo(final ClassManager classManager, final File classFile) throws IOException, ClassParseException {
+	private static final AccessModifier[] ACCESS_MODIFIERS = AccessModifier.values();
+
+	ParsedClassInfo(final ClassManager classManager, final ByteBuffer classFile) throws ClassParseException {
 		super(classManager);
-		parse(ClassPool.getDefault().makeClass(new FileInputStream(classFile)));
+		parse(new ClassFileReader(classFile));
 	}
 
-	ParsedClassInfo(final ClassManager classManager, final InputStream classFileStream) throws IOException,
-			ClassParseException {
+	/**
+	 * Restores a class written by {@link #write(DataOutput)}.
+	 */
+	ParsedClassInfo(final ClassManager classManager, final DataInput in) throws IOException {
 		super(classManager);
-		parse(ClassPool.getDefault().makeClass(classFileStream));
+		read(in);
 	}
 
 	public String getFullName() {
@@ -102,21 +107,47 @@ public class ParsedClassInfo extends AbstractClassInfo {
 	}
 
 	public MultiMap<ClassInfo, Reference> getReferences() {
+		MultiMap<ClassInfo, Reference> result = this.referenceView;
+		if (result == null) {
+			this.referenceView = result = getReferenceTable().asMultiMap(this);
+		}
+		return result;
+	}
+
+	/**
+	 * The packed form of {@link #getReferences()}.
+	 */
+	ReferenceTable getReferenceTable() {
+		ReferenceTable result = this.allReferences;
+		if (result == null) {
+			// Inherited fields count as references too. They are resolved lazily,
+			// because the supertypes may not have been read yet during parsing,
+			// and those outside the primary classes have to be loaded.
+			this.allReferences = result = addInheritedFieldReferences(this.references);
+		}
+		return result;
+	}
+
+	/**
+	 * The references found in the class file itself, without the fields
+	 * inherited from supertypes. Reading them loads no other class.
+	 */
+	ReferenceTable getDeclaredReferenceTable() {
 		return this.references;
 	}
 
-	private void parseClassName(CtClass classFile) {
-		this.fullClassName = classFile.getName();
+	private void parseClassName(ClassFileReader classFile) throws ClassParseException {
+		this.fullClassName = classFile.getClassName().replace('/', '.');
 	}
 
-	private void parseFlags(CtClass classFile) {
-		this.isInterface = classFile.isInterface();
-		this.isAbstract = Modifier.isAbstract(classFile.getModifiers());
-		this.isFinal = Modifier.isFinal(classFile.getModifiers());
+	private void parseFlags(ClassFileReader classFile) {
+		this.isInterface = Modifier.isInterface(classFile.getAccessFlags());
+		this.isAbstract = Modifier.isAbstract(classFile.getAccessFlags());
+		this.isFinal = Modifier.isFinal(classFile.getAccessFlags());
 	}
 
-	private void parseAccess(CtClass classFile) {
-		setAccessModifier(translateAccess(classFile.getModifiers()));
+	private void parseAccess(ClassFileReader classFile) {
+		setAccessModifier(translateAccess(classFile.getAccessFlags()));
 	}
 
 	private void setAccessModifier(final AccessModifier accessModifier) {
@@ -136,19 +167,20 @@ public class ParsedClassInfo extends AbstractClassInfo {
 		return AccessModifier.PACKAGE;
 	}
 
-	private void parseExtends(CtClass classFile) throws ClassParseException {
-		this.extendsClass = getSafeClassInfo(classFile.getClassFile().getSuperclass());
+	private void parseExtends(ClassFileReader classFile) throws ClassParseException {
+		String superclassName = classFile.getSuperclassName();
+		this.extendsClass = (superclassName == null) ? null : getSafeClassInfo(superclassName);
 	}
 
-	private void parseImplements(CtClass classFile) throws ClassParseException {
+	private void parseImplements(ClassFileReader classFile) throws ClassParseException {
 		implementsClasses = new TreeSet<ClassInfo>(ClassInfoNameComparator.INSTANCE);
-		for (String interfaze : classFile.getClassFile().getInterfaces()) {
+		for (String interfaze : classFile.getInterfaceNames()) {
 			implementsClasses.add(getSafeClassInfo(interfaze));
 		}
 		implementsClasses = Collections.unmodifiableSet(implementsClasses);
 	}
 
-	private void parse(CtClass classFile) throws ClassParseException {
+	private void parse(ClassFileReader classFile) throws ClassParseException {
 		parseClassName(classFile);
 		parseFlags(classFile);
 		parseAccess(classFile);
@@ -157,76 +189,298 @@ public class ParsedClassInfo extends AbstractClassInfo {
 		parseReferences(classFile);
 	}
 
-	private void addReference(Reference ref) {
-		getReferences().put(ref.getTo(), ref);
+	private void addReference(int to, ReferenceType type, String memberName, AccessModifier memberAccess) {
+		referenceBuilder.add(to, type, memberName, memberAccess);
 	}
 
-	private void parseConstantPoolReferences(CtClass classFile) throws ClassParseException {
-		@SuppressWarnings("unchecked")
-		Set<String> classNames = classFile.getClassFile().getConstPool().getClassNames();
-		for (String className : classNames) {
-			addReference(new Reference(this, getSafeClassInfo(className), ReferenceType.CONSTANT_POOL, null, null));
+	private ReferenceTable addInheritedFieldReferences(ReferenceTable declared) {
+		List<ReferenceTable> supertypeReferences = new ArrayList<ReferenceTable>();
+		Set<String> visited = new HashSet<String>();
+		List<ClassInfo> toVisit = new ArrayList<ClassInfo>(getDirectSupertypes());
+		while (!toVisit.isEmpty()) {
+			ClassInfo supertype = toVisit.remove(toVisit.size() - 1);
+			if (!visited.add(supertype.getFullName())) {
+				continue;
+			}
+			// Supertypes missing from the classpath are skipped silently
+			ClassInfo actual = getClassManager().loadClassInfoQuietly(supertype.getFullName());
+			if (actual instanceof ParsedClassInfo) {
+				ParsedClassInfo parsed = (ParsedClassInfo) actual;
+				if (parsed.references.getSymbols() == declared.getSymbols()) {
+					supertypeReferences.add(parsed.references);
+				}
+				toVisit.addAll(parsed.getDirectSupertypes());
+			}
 		}
+		return declared.withInheritedFields(supertypeReferences);
 	}
 
-	private void parseMethodReferences(CtClass classFile) throws ClassParseException {
-		for (CtBehavior behavior : classFile.getDeclaredMethods()) {
-			AccessModifier methodAccess = translateAccess(behavior.getModifiers());
-			List<String> paramsAndReturn = ClassNameTranslator.signatureToClassNames(behavior.getSignature());
-			for (Iterator<String> i = paramsAndReturn.iterator(); i.hasNext();) {
-				String refTo = i.next();
-				ClassInfo safeClassInfo = getSafeClassInfo(refTo);
+	private void parseConstantPoolReferences(ClassFileReader classFile) throws ClassParseException {
+		for (String className : classFile.getClassConstantNames()) {
+			decoder.decodeTypeConstant(className);
+			addReference(getSafeClassId(0, className), ReferenceType.CONSTANT_POOL, null, null);
+		}
+	}
+
+	private void parseMethodReferences(ClassFileReader classFile) throws ClassParseException {
+		for (int method = 0; method < classFile.getMethodCount(); method++) {
+			String methodName = classFile.getMethodName(method);
+			if (methodName.equals("<init>") || methodName.equals("<clinit>")) {
+				continue;
+			}
+			String methodSignature = classFile.getMethodDescriptor(method);
+			AccessModifier methodAccess = translateAccess(classFile.getMethodAccessFlags(method));
+			int typeCount = decoder.decodeDescriptor(methodSignature);
+			for (int n = 0; n < typeCount; n++) {
+				int refTo = getSafeClassId(n, methodSignature);
 				ReferenceType referenceType;
-				if (i.hasNext()) {
+				if (n < typeCount - 1) {
 					referenceType = ReferenceType.METHOD_PARAM;
 				} else {
 					referenceType = ReferenceType.METHOD_RETURNS;
 				}
 
-				addReference(new Reference(this, safeClassInfo, referenceType, behavior.getName(), methodAccess));
+				addReference(refTo, referenceType, methodName, methodAccess);
 			}
-			if (behavior.getMethodInfo().getExceptionsAttribute() != null) {
-				String[] exceptionNames = behavior.getMethodInfo().getExceptionsAttribute().getExceptions();
-				for (String exceptionName : exceptionNames) {
-					addReference(new Reference(this, getSafeClassInfo(exceptionName, behavior.getSignature()),
-							ReferenceType.METHOD_THROWS, behavior.getName(), methodAccess));
-				}
+			for (String exceptionName : classFile.getMethodExceptionNames(method)) {
+				addReference(getSafeClassId(exceptionName, 0, exceptionName.length(), methodSignature),
+						ReferenceType.METHOD_THROWS, methodName, methodAccess);
+			}
+			if (getClassManager().isIncludeTypeArguments()) {
+				parseTypeArgumentReferences(classFile.getMethodSignature(method), methodName, methodAccess);
 			}
 		}
 	}
 
-	private void parseReferences(CtClass classFile) throws ClassParseException {
-		this.references = new CompositeMultiMap<ClassInfo, Reference>(new TreeMap<ClassInfo, Set<Reference>>(
-				ClassInfoNameComparator.INSTANCE), HashSet.class);
+	/**
+	 * Adds the classes named inside the type arguments and type parameter
+	 * bounds of a generic signature. The erased types are already covered by
+	 * the descriptor.
+	 */
+	private void parseTypeArgumentReferences(String signature, String memberName, AccessModifier memberAccess)
+			throws ClassParseException {
+		if (signature == null) {
+			return;
+		}
+		int typeCount;
+		try {
+			typeCount = decoder.decodeSignature(signature);
+		} catch (IllegalArgumentException iae) {
+			throw new ClassParseException(iae.getMessage() + " in " + getFullName(), iae);
+		}
+		for (int n = 0; n < typeCount; n++) {
+			if (decoder.getDepth(n) > 0 && decoder.getPrimitiveName(n) == null) {
+				addReference(getSafeClassId(n, signature), ReferenceType.TYPE_ARGUMENT, memberName, memberAccess);
+			}
+		}
+	}
+
+	private void parseReferences(ClassFileReader classFile) throws ClassParseException {
+		this.referenceBuilder = new ReferenceTable.Builder(getClassManager().getSymbols());
+		this.decoder = new DescriptorDecoder();
 		parseConstantPoolReferences(classFile);
 		parseMethodReferences(classFile);
 		parseFieldReferences(classFile);
-		this.references = InnigCollections.unmodifiableMultiMap(getReferences());
+		if (getClassManager().isIncludeTypeArguments()) {
+			parseTypeArgumentReferences(classFile.getClassSignature(), null, null);
+		}
+		this.references = referenceBuilder.build();
+		this.referenceBuilder = null;
+		this.decoder = null;
 	}
 
-	private void parseFieldReferences(CtClass classFile) throws ClassParseException {
-		CtField[] fields = classFile.getFields();
-		for (CtField field : fields) {
-			List<String> types = ClassNameTranslator.signatureToClassNames(field.getSignature());
-			if (types.size() != 1) {
-				throw new ClassParseException("expected one type for field " + getFullName() + '.' + field.getName()
-						+ "; got: " + types + " (signature is \"" + field.getSignature() + "\")", classFile);
+	private void parseFieldReferences(ClassFileReader classFile) throws ClassParseException {
+		for (int field = 0; field < classFile.getFieldCount(); field++) {
+			int fieldAccess = classFile.getFieldAccessFlags(field);
+			if (Modifier.isPrivate(fieldAccess)) {
+				continue;
+			}
+			String fieldName = classFile.getFieldName(field);
+			String fieldSignature = classFile.getFieldDescriptor(field);
+			AccessModifier access = translateAccess(fieldAccess);
+			if (decoder.decodeDescriptor(fieldSignature) != 1) {
+				List<String> types = new ArrayList<String>();
+				for (int n = 0; n < decoder.getCount(); n++) {
+					types.add(decoder.getClassName(n));
+				}
+				throw new ClassParseException("expected one type for field " + getFullName() + '.' + fieldName
+						+ "; got: " + types + " (signature is \"" + fieldSignature + "\")");
+			}
+			addReference(getSafeClassId(0, fieldSignature), ReferenceType.FIELD_SIGNATURE, fieldName, access);
+			if (getClassManager().isIncludeTypeArguments()) {
+				parseTypeArgumentReferences(classFile.getFieldSignature(field), fieldName, access);
 			}
-			addReference(new Reference(this, getSafeClassInfo(types.get(0), field.getSignature()),
-					ReferenceType.FIELD_SIGNATURE, field.getName(), translateAccess(field.getModifiers())));
 		}
 	}
 
+	// ------------------------------------------------------------------------
+	// Compact binary form, for the parse cache
+	// ------------------------------------------------------------------------
+
+	/**
+	 * Writes everything extracted from the class file.
+	 */
+	void write(DataOutput out) throws IOException {
+		ReferenceTable refs = this.references;
+		ClassSymbolTable symbols = refs.getSymbols();
+		int refCount = 0;
+		Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		intern(strings, fullClassName);
+		if (extendsClass != null) {
+			intern(strings, extendsClass.getFullName());
+		}
+		for (ClassInfo interfaze : implementsClasses) {
+			intern(strings, interfaze.getFullName());
+		}
+		for (int row = 0; row < refs.getTargetCount(); row++) {
+			for (int entry = refs.getEntryStart(row); entry < refs.getEntryStart(row + 1); entry++) {
+				if (!refs.isInherited(entry)) {
+					intern(strings, symbols.getName(refs.getTarget(row)));
+					intern(strings, refs.getType(entry).getName());
+					if (refs.getMemberName(entry) != null) {
+						intern(strings, refs.getMemberName(entry));
+					}
+					refCount++;
+				}
+			}
+		}
+
+		out.writeInt(strings.size());
+		for (String string : strings.keySet()) {
+			out.writeUTF(string);
+		}
+		out.writeInt(strings.get(fullClassName));
+		out.writeByte((isInterface ? 1 : 0) | (isAbstract ? 2 : 0) | (isFinal ? 4 : 0));
+		out.writeByte(accessModifier.ordinal());
+		out.writeInt(extendsClass == null ? -1 : strings.get(extendsClass.getFullName()));
+		out.writeInt(implementsClasses.size());
+		for (ClassInfo interfaze : implementsClasses) {
+			out.writeInt(strings.get(interfaze.getFullName()));
+		}
+		out.writeInt(refCount);
+		for (int row = 0; row < refs.getTargetCount(); row++) {
+			for (int entry = refs.getEntryStart(row); entry < refs.getEntryStart(row + 1); entry++) {
+				if (!refs.isInherited(entry)) {
+					String memberName = refs.getMemberName(entry);
+					AccessModifier memberAccess = refs.getMemberAccess(entry);
+					out.writeInt(strings.get(symbols.getName(refs.getTarget(row))));
+					out.writeInt(strings.get(refs.getType(entry).getName()));
+					out.writeInt(memberName == null ? -1 : strings.get(memberName));
+					out.writeByte(memberAccess == null ? -1 : memberAccess.ordinal());
+				}
+			}
+		}
+	}
+
+	private static void intern(Map<String, Integer> strings, String string) {
+		if (!strings.containsKey(string)) {
+			strings.put(string, strings.size());
+		}
+	}
+
+	/**
+	 * Restores what {@link #write(DataOutput)} wrote. Malformed input, such as
+	 * an index out of range, is reported as an IOException.
+	 */
+	private void read(DataInput in) throws IOException {
+		int stringCount = in.readInt();
+		if (stringCount < 0) {
+			throw new IOException("negative string count");
+		}
+		String[] strings = new String[stringCount];
+		for (int n = 0; n < strings.length; n++) {
+			strings[n] = in.readUTF();
+		}
+		this.fullClassName = string(strings, in.readInt());
+		int flags = in.readByte();
+		this.isInterface = (flags & 1) != 0;
+		this.isAbstract = (flags & 2) != 0;
+		this.isFinal = (flags & 4) != 0;
+		this.accessModifier = accessModifier(in.readByte());
+		int extendsIndex = in.readInt();
+		this.extendsClass = (extendsIndex == -1) ? null : getClassManager().getClassInfo(
+				string(strings, extendsIndex));
+		implementsClasses = new TreeSet<ClassInfo>(ClassInfoNameComparator.INSTANCE);
+		for (int n = in.readInt(); n > 0; n--) {
+			implementsClasses.add(getClassManager().getClassInfo(string(strings, in.readInt())));
+		}
+		implementsClasses = Collections.unmodifiableSet(implementsClasses);
+
+		ReferenceTable.Builder builder = new ReferenceTable.Builder(getClassManager().getSymbols());
+		for (int n = in.readInt(); n > 0; n--) {
+			int to = getClassManager().getClassId(string(strings, in.readInt()));
+			ReferenceType type = (ReferenceType) EnumeratedType.resolveFromName(ReferenceType.class,
+					string(strings, in.readInt()));
+			if (type == null) {
+				throw new IOException("unknown reference type");
+			}
+			int memberIndex = in.readInt();
+			int access = in.readByte();
+			if ((memberIndex == -1) != (access == -1)) {
+				throw new IOException("member name and access must both be present or both be absent");
+			}
+			builder.add(to, type, (memberIndex == -1) ? null : string(strings, memberIndex),
+					(access == -1) ? null : accessModifier(access));
+		}
+		this.references = builder.build();
+	}
+
+	private static String string(String[] strings, int index) throws IOException {
+		if (index < 0 || index >= strings.length) {
+			throw new IOException("string index " + index + " out of range");
+		}
+		return strings[index];
+	}
+
+	private static AccessModifier accessModifier(int ordinal) throws IOException {
+		if (ordinal < 0 || ordinal >= ACCESS_MODIFIERS.length) {
+			throw new IOException("unknown access modifier " + ordinal);
+		}
+		return ACCESS_MODIFIERS[ordinal];
+	}
+
 	private ClassInfo getSafeClassInfo(final String className) throws ClassParseException {
 		return getSafeClassInfo(ClassNameTranslator.typeConstantToClassName(className), className);
 	}
 
+	/**
+	 * Looks up the <tt>n</tt>th type the decoder found, straight from the
+	 * decoded string where possible.
+	 */
+	private int getSafeClassId(final int n, final String unparsedClassName) throws ClassParseException {
+		String primitiveName = decoder.getPrimitiveName(n);
+		if (primitiveName != null) {
+			return getClassManager().getClassId(primitiveName);
+		}
+		int start = decoder.getNameStart(n);
+		if (start < 0) {
+			String className = decoder.getClassName(n);
+			checkClassName(className, unparsedClassName);
+			return getClassManager().getClassId(className);
+		}
+		return getSafeClassId(decoder.getInput(), start, decoder.getNameEnd(n), unparsedClassName);
+	}
+
+	private int getSafeClassId(final String internalName, final int start, final int end,
+			final String unparsedClassName) throws ClassParseException {
+		if (!ClassNameTranslator.isInternalName(internalName, start, end)) {
+			throw new ClassParseException("unable to parse class name / signature: \"" + unparsedClassName
+					+ "\" (got \"" + ClassNameTranslator.internalToClassName(internalName, start, end) + "\")");
+		}
+		return getClassManager().getClassId(internalName, start, end);
+	}
+
 	private ClassInfo getSafeClassInfo(final String className, final String unparsedClassName)
 			throws ClassParseException {
+		checkClassName(className, unparsedClassName);
+		return getClassManager().getClassInfo(className);
+	}
+
+	private static void checkClassName(final String className, final String unparsedClassName)
+			throws ClassParseException {
 		if (!ClassNameTranslator.isJavaIdentifier(className)) {
 			throw new ClassParseException("unable to parse class name / signature: \"" + unparsedClassName
 					+ "\" (got \"" + className + "\")");
 		}
-		return getClassManager().getClassInfo(className);
 	}
 }
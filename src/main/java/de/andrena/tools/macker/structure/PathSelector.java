@@ -0,0 +1,63 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+package de.andrena.tools.macker.structure;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Include / exclude glob patterns for files found by walking a directory.
+ * Patterns are matched against the path relative to the directory. As in
+ * Ant, a leading <tt>&#42;&#42;/</tt> also matches files at the top level.
+ */
+final class PathSelector {
+	PathSelector(Collection<String> includes, Collection<String> excludes) {
+		this.includes = compile(includes);
+		this.excludes = compile(excludes);
+	}
+
+	public boolean selects(Path relativePath) {
+		return (includes.isEmpty() || matchesAny(includes, relativePath)) && !matchesAny(excludes, relativePath);
+	}
+
+	private static boolean matchesAny(List<PathMatcher> matchers, Path path) {
+		for (PathMatcher matcher : matchers)
+			if (matcher.matches(path))
+				return true;
+		return false;
+	}
+
+	private static List<PathMatcher> compile(Collection<String> patterns) {
+		List<PathMatcher> matchers = new ArrayList<PathMatcher>(patterns.size());
+		for (String pattern : patterns) {
+			matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+			if (pattern.startsWith("**/"))
+				matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(3)));
+		}
+		return matchers;
+	}
+
+	private final List<PathMatcher> includes, excludes;
+}
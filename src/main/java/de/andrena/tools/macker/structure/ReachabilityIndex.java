@@ -0,0 +1,242 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.structure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.andrena.tools.macker.util.collect.Graphs;
+import de.andrena.tools.macker.util.collect.MultiMap;
+
+/**
+ * Which classes reach which others through chains of references, for the
+ * references of a {@link ClassManager} at one time. Built once, it holds the
+ * class graph and its condensation: the strongly connected components (see
+ * {@link Graphs#stronglyConnectedComponents(int[], int[])}),
+ * numbered so that every component a component refers to comes before it.
+ * What a set of target classes can be reached from is then worked out with
+ * one pass over the components (see {@link #closureTo(List)}).
+ */
+public final class ReachabilityIndex {
+	ReachabilityIndex(MultiMap<ClassInfo, ClassInfo> references) {
+		// The class graph in compressed sparse row form; the references come
+		// grouped by referring class
+		Map<ClassInfo, Integer> numbers = new HashMap<ClassInfo, Integer>();
+		List<ClassInfo> nodes = new ArrayList<ClassInfo>();
+		int[] edgeFrom = new int[references.size()], edgeTo = new int[edgeFrom.length];
+		int edgeCount = 0;
+		for (MultiMap.Entry<ClassInfo, ClassInfo> reference : references.entrySet()) {
+			int from = number(reference.getKey(), numbers, nodes), to = number(reference.getValue(), numbers, nodes);
+			if (from != to) {
+				edgeFrom[edgeCount] = from;
+				edgeTo[edgeCount++] = to;
+			}
+		}
+		classes = nodes.toArray(new ClassInfo[nodes.size()]);
+		this.numbers = numbers;
+		rowStart = new int[classes.length + 1];
+		for (int edge = 0; edge < edgeCount; edge++)
+			rowStart[edgeFrom[edge] + 1]++;
+		for (int node = 0; node < classes.length; node++)
+			rowStart[node + 1] += rowStart[node];
+		targets = new int[edgeCount];
+		int[] next = rowStart.clone();
+		for (int edge = 0; edge < edgeCount; edge++)
+			targets[next[edgeFrom[edge]]++] = edgeTo[edge];
+
+		// Tarjan's algorithm yields the components in the order wanted
+		componentOf = Graphs.stronglyConnectedComponents(rowStart, targets);
+		int componentCount = 0;
+		for (int node = 0; node < classes.length; node++)
+			componentCount = Math.max(componentCount, componentOf[node] + 1);
+		int[] memberStart = new int[componentCount + 1], members = new int[classes.length];
+		for (int node = 0; node < classes.length; node++)
+			memberStart[componentOf[node] + 1]++;
+		for (int component = 0; component < componentCount; component++)
+			memberStart[component + 1] += memberStart[component];
+		int[] nextMember = memberStart.clone();
+		for (int node = 0; node < classes.length; node++)
+			members[nextMember[componentOf[node]]++] = node;
+
+		// The edges between components, without duplicates
+		componentStart = new int[componentCount + 1];
+		int[] componentTargets = new int[Math.min(edgeCount, 64)];
+		int[] lastSeen = new int[componentCount];
+		Arrays.fill(lastSeen, -1);
+		int count = 0;
+		for (int component = 0; component < componentCount; component++) {
+			for (int member = memberStart[component]; member < memberStart[component + 1]; member++)
+				for (int edge = rowStart[members[member]]; edge < rowStart[members[member] + 1]; edge++) {
+					int target = componentOf[targets[edge]];
+					if (target == component || lastSeen[target] == component)
+						continue;
+					lastSeen[target] = component;
+					if (count == componentTargets.length)
+						componentTargets = Arrays.copyOf(componentTargets, count * 2);
+					componentTargets[count++] = target;
+				}
+			componentStart[component + 1] = count;
+		}
+		this.componentTargets = Arrays.copyOf(componentTargets, count);
+	}
+
+	private static int number(ClassInfo classInfo, Map<ClassInfo, Integer> numbers, List<ClassInfo> nodes) {
+		Integer number = numbers.get(classInfo);
+		if (number == null) {
+			numbers.put(classInfo, number = nodes.size());
+			nodes.add(classInfo);
+		}
+		return number;
+	}
+
+	/**
+	 * The classes which refer to or are referred to by others.
+	 */
+	public List<ClassInfo> getClasses() {
+		return Collections.unmodifiableList(Arrays.asList(classes));
+	}
+
+	public int getComponentCount() {
+		return componentStart.length - 1;
+	}
+
+	/**
+	 * The strongly connected component of a class, or -1 if the class
+	 * neither refers to nor is referred to by another.
+	 */
+	public int getComponent(ClassInfo classInfo) {
+		Integer node = numbers.get(classInfo);
+		return (node == null) ? -1 : componentOf[node];
+	}
+
+	/**
+	 * Works out, for every class, which of the given classes it reaches.
+	 */
+	public Closure closureTo(List<ClassInfo> targetClasses) {
+		return new Closure(targetClasses);
+	}
+
+	/**
+	 * For each component, the target classes reached from it, as bits
+	 * indexed like the targets. A component which adds nothing to what a
+	 * single component it refers to reaches shares that component's set.
+	 */
+	public final class Closure {
+		private Closure(List<ClassInfo> targetClasses) {
+			this.targetClasses = Collections.unmodifiableList(new ArrayList<ClassInfo>(targetClasses));
+			reached = new BitSet[getComponentCount()];
+			for (int target = 0; target < targetClasses.size(); target++) {
+				int component = getComponent(targetClasses.get(target));
+				if (component >= 0) {
+					if (reached[component] == null)
+						reached[component] = new BitSet();
+					reached[component].set(target);
+				}
+			}
+			for (int component = 0; component < reached.length; component++) {
+				BitSet bits = reached[component];
+				boolean shared = false;
+				for (int edge = componentStart[component]; edge < componentStart[component + 1]; edge++) {
+					BitSet more = reached[componentTargets[edge]];
+					if (more == null || more == bits)
+						continue;
+					if (bits == null) {
+						bits = more;
+						shared = true;
+					} else {
+						if (shared) {
+							bits = (BitSet) bits.clone();
+							shared = false;
+						}
+						bits.or(more);
+					}
+				}
+				reached[component] = bits;
+			}
+		}
+
+		public List<ClassInfo> getTargetClasses() {
+			return targetClasses;
+		}
+
+		/**
+		 * The targets reached from a class, including the class itself if it
+		 * is one, by their index in {@link #getTargetClasses()}; or null if
+		 * none. The returned set must not be changed.
+		 */
+		public BitSet reachedFrom(ClassInfo classInfo) {
+			int component = getComponent(classInfo);
+			return (component < 0) ? null : reached[component];
+		}
+
+		/**
+		 * A shortest chain of references from a class to a target, both ends
+		 * included, or null if there is none or the class is the target.
+		 * Only classes from which the target is reached are visited.
+		 */
+		public List<ClassInfo> shortestPath(ClassInfo from, int target) {
+			Integer start = numbers.get(from), end = numbers.get(targetClasses.get(target));
+			if (start == null || end == null || start.equals(end))
+				return null;
+			int[] previous = new int[classes.length];
+			Arrays.fill(previous, -1);
+			previous[start] = start;
+			int[] queue = new int[classes.length];
+			int head = 0, tail = 0;
+			queue[tail++] = start;
+			while (head < tail) {
+				int node = queue[head++];
+				if (node == end) {
+					List<ClassInfo> path = new ArrayList<ClassInfo>();
+					for (int n = node; n != start; n = previous[n])
+						path.add(classes[n]);
+					path.add(classes[start]);
+					Collections.reverse(path);
+					return path;
+				}
+				for (int edge = rowStart[node]; edge < rowStart[node + 1]; edge++) {
+					int next = targets[edge];
+					BitSet bits = reached[componentOf[next]];
+					if (previous[next] < 0 && bits != null && bits.get(target)) {
+						previous[next] = node;
+						queue[tail++] = next;
+					}
+				}
+			}
+			return null;
+		}
+
+		private final List<ClassInfo> targetClasses;
+		private final BitSet[] reached;
+	}
+
+	private final Map<ClassInfo, Integer> numbers;
+	private final ClassInfo[] classes;
+	private final int[] rowStart, targets;
+	private final int[] componentOf;
+	private final int[] componentStart, componentTargets;
+}
@@ -0,0 +1,340 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+package de.andrena.tools.macker.structure;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import de.andrena.tools.macker.util.collect.AbstractMultiMap;
+import de.andrena.tools.macker.util.collect.MultiMap;
+
+/**
+ * The class-to-class references of a {@link ClassManager}, as a graph in
+ * compressed sparse row form: the referring classes in name order, and for
+ * each of them a run of referenced classes, also in name order. Classes are
+ * {@link ClassSymbolTable} IDs, and each edge carries a mask of the
+ * {@link ReferenceType}s behind it, so an edge takes two ints.
+ * <p>
+ * New edges are collected unsorted and folded into the compressed form the
+ * next time the graph is read. Readers get an immutable snapshot, so the
+ * views stay consistent while more edges are added.
+ */
+final class ReferenceGraph {
+	ReferenceGraph(ClassSymbolTable symbols) {
+		this.symbols = symbols;
+		compressed = new Snapshot(new int[0], new int[] { 0 }, new int[0], new int[0], new int[0]);
+		pendingFrom = new int[64];
+		pendingTo = new int[64];
+		pendingMasks = new int[64];
+	}
+
+	public synchronized void addEdge(int from, int to, int typeMask) {
+		if (pendingCount == pendingFrom.length) {
+			pendingFrom = Arrays.copyOf(pendingFrom, pendingCount * 2);
+			pendingTo = Arrays.copyOf(pendingTo, pendingCount * 2);
+			pendingMasks = Arrays.copyOf(pendingMasks, pendingCount * 2);
+		}
+		pendingFrom[pendingCount] = from;
+		pendingTo[pendingCount] = to;
+		pendingMasks[pendingCount] = typeMask;
+		pendingCount++;
+	}
+
+	/**
+	 * Adds an edge to each class a table refers to.
+	 */
+	public synchronized void addEdges(int from, ReferenceTable table) {
+		for (int row = 0; row < table.getTargetCount(); row++)
+			addEdge(from, table.getTarget(row), table.getTypeMask(row));
+	}
+
+	/**
+	 * The {@link ReferenceType#getMask() mask} of reference types from one
+	 * class to another, or 0 if there is no such edge.
+	 */
+	public int getTypeMask(int from, int to) {
+		Snapshot graph = snapshot();
+		int row = graph.rowOf(from);
+		if (row >= 0)
+			for (int edge = graph.rowStart[row]; edge < graph.rowStart[row + 1]; edge++)
+				if (graph.targets[edge] == to)
+					return graph.masks[edge];
+		return 0;
+	}
+
+	/**
+	 * The classes referring to a class, in name order. Found through an
+	 * index of incoming edges, built with each snapshot when first needed.
+	 */
+	public Set<ClassInfo> getReferrers(ClassInfo to) {
+		Snapshot graph = snapshot();
+		Incoming incoming = graph.incoming();
+		int id = idOf(to);
+		if (id < 0 || id + 1 >= incoming.start.length)
+			return Collections.emptySet();
+		return new IdSet(incoming.sources, incoming.start[id], incoming.start[id + 1]);
+	}
+
+	public MultiMap<ClassInfo, ClassInfo> asMultiMap() {
+		return new AbstractMultiMap<ClassInfo, ClassInfo>() {
+			@Override
+			public Set<ClassInfo> keySet() {
+				final Snapshot graph = snapshot();
+				return new IdSet(graph.sources, 0, graph.sources.length) {
+					@Override
+					public boolean contains(Object obj) {
+						return obj instanceof ClassInfo && graph.rowOf(idOf((ClassInfo) obj)) >= 0;
+					}
+				};
+			}
+
+			@Override
+			public Set<ClassInfo> get(ClassInfo from) {
+				Snapshot graph = snapshot();
+				int row = graph.rowOf(idOf(from));
+				return (row < 0) ? null : new IdSet(graph.targets, graph.rowStart[row], graph.rowStart[row + 1]);
+			}
+
+			@Override
+			public int size() {
+				return snapshot().targets.length;
+			}
+
+			@Override
+			protected Iterator<MultiMap.Entry<ClassInfo, ClassInfo>> entryIterator() {
+				final Snapshot graph = snapshot();
+				return new Iterator<MultiMap.Entry<ClassInfo, ClassInfo>>() {
+					public boolean hasNext() {
+						return edge < graph.targets.length;
+					}
+
+					public MultiMap.Entry<ClassInfo, ClassInfo> next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						while (graph.rowStart[row + 1] <= edge)
+							row++;
+						return new SimpleEntry<ClassInfo, ClassInfo>(symbols.get(graph.sources[row]),
+								symbols.get(graph.targets[edge++]));
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException(unsupported);
+					}
+
+					private int row, edge;
+				};
+			}
+		};
+	}
+
+	private int idOf(ClassInfo classInfo) {
+		return (classInfo == null) ? -1 : symbols.find(classInfo.getFullName());
+	}
+
+	/**
+	 * A read-only run of class IDs, presented as class infos.
+	 */
+	private class IdSet extends AbstractSet<ClassInfo> {
+		public IdSet(int[] ids, int start, int end) {
+			this.ids = ids;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Iterator<ClassInfo> iterator() {
+			return new Iterator<ClassInfo>() {
+				public boolean hasNext() {
+					return next < end;
+				}
+
+				public ClassInfo next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					return symbols.get(ids[next++]);
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+
+				private int next = start;
+			};
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+
+		@Override
+		public boolean contains(Object obj) {
+			int id = (obj instanceof ClassInfo) ? idOf((ClassInfo) obj) : -1;
+			if (id >= 0)
+				for (int n = start; n < end; n++)
+					if (ids[n] == id)
+						return true;
+			return false;
+		}
+
+		private final int[] ids;
+		private final int start, end;
+	}
+
+	// ------------------------------------------------------------------------
+	// Compression
+	// ------------------------------------------------------------------------
+
+	private synchronized Snapshot snapshot() {
+		if (pendingCount > 0) {
+			compressed = compress();
+			pendingCount = 0;
+		}
+		return compressed;
+	}
+
+	/**
+	 * Merges the pending edges into the compressed graph. Edges are bucketed
+	 * by the name rank of their source, then each bucket is sorted by target
+	 * rank with the type mask riding along in the low bits; duplicate edges
+	 * are merged by or-ing their masks.
+	 */
+	private Snapshot compress() {
+		int[] ranks = symbols.getRanks(), idsByRank = symbols.getIdsInNameOrder();
+		Snapshot old = compressed;
+		int total = old.targets.length + pendingCount;
+		int[] sourceRanks = new int[total];
+		long[] edges = new long[total];
+		int count = 0;
+		for (int row = 0; row < old.sources.length; row++)
+			for (int edge = old.rowStart[row]; edge < old.rowStart[row + 1]; edge++) {
+				sourceRanks[count] = ranks[old.sources[row]];
+				edges[count++] = pack(ranks[old.targets[edge]], old.masks[edge]);
+			}
+		for (int n = 0; n < pendingCount; n++) {
+			sourceRanks[count] = ranks[pendingFrom[n]];
+			edges[count++] = pack(ranks[pendingTo[n]], pendingMasks[n]);
+		}
+
+		int[] bucketStart = new int[ranks.length + 1];
+		for (int n = 0; n < total; n++)
+			bucketStart[sourceRanks[n] + 1]++;
+		for (int rank = 0; rank < ranks.length; rank++)
+			bucketStart[rank + 1] += bucketStart[rank];
+		long[] bucketed = new long[total];
+		int[] fill = Arrays.copyOf(bucketStart, ranks.length);
+		for (int n = 0; n < total; n++)
+			bucketed[fill[sourceRanks[n]]++] = edges[n];
+
+		int[] sources = new int[Math.min(total, ranks.length)];
+		int[] rowStart = new int[sources.length + 1];
+		int[] targets = new int[total];
+		int[] masks = new int[total];
+		int rows = 0, edgeCount = 0;
+		for (int rank = 0; rank < ranks.length; rank++) {
+			int start = bucketStart[rank], end = bucketStart[rank + 1];
+			if (start == end)
+				continue;
+			Arrays.sort(bucketed, start, end);
+			sources[rows] = idsByRank[rank];
+			rowStart[rows++] = edgeCount;
+			int lastTarget = -1;
+			for (int n = start; n < end; n++) {
+				int targetRank = (int) (bucketed[n] >>> 32), mask = (int) bucketed[n];
+				if (targetRank == lastTarget)
+					masks[edgeCount - 1] |= mask;
+				else {
+					targets[edgeCount] = idsByRank[targetRank];
+					masks[edgeCount++] = mask;
+					lastTarget = targetRank;
+				}
+			}
+		}
+		rowStart[rows] = edgeCount;
+
+		int[] rowOfId = new int[ranks.length];
+		Arrays.fill(rowOfId, -1);
+		for (int row = 0; row < rows; row++)
+			rowOfId[sources[row]] = row;
+		return new Snapshot(Arrays.copyOf(sources, rows), Arrays.copyOf(rowStart, rows + 1), Arrays.copyOf(
+				targets, edgeCount), Arrays.copyOf(masks, edgeCount), rowOfId);
+	}
+
+	private static long pack(int targetRank, int mask) {
+		return (long) targetRank << 32 | (mask & 0xFFFFFFFFL);
+	}
+
+	private static final class Snapshot {
+		public Snapshot(int[] sources, int[] rowStart, int[] targets, int[] masks, int[] rowOfId) {
+			this.sources = sources;
+			this.rowStart = rowStart;
+			this.targets = targets;
+			this.masks = masks;
+			this.rowOfId = rowOfId;
+		}
+
+		public int rowOf(int id) {
+			return (id < 0 || id >= rowOfId.length) ? -1 : rowOfId[id];
+		}
+
+		/**
+		 * The edges transposed: for each target ID, its sources in name
+		 * order (the order of the rows).
+		 */
+		public synchronized Incoming incoming() {
+			if (incoming == null) {
+				int[] start = new int[rowOfId.length + 1];
+				for (int target : targets)
+					start[target + 1]++;
+				for (int id = 0; id < rowOfId.length; id++)
+					start[id + 1] += start[id];
+				int[] incomingSources = new int[targets.length];
+				int[] fill = Arrays.copyOf(start, rowOfId.length);
+				for (int row = 0; row < sources.length; row++)
+					for (int edge = rowStart[row]; edge < rowStart[row + 1]; edge++)
+						incomingSources[fill[targets[edge]]++] = sources[row];
+				incoming = new Incoming(start, incomingSources);
+			}
+			return incoming;
+		}
+
+		private final int[] sources, rowStart, targets, masks, rowOfId;
+		private Incoming incoming;
+	}
+
+	private static final class Incoming {
+		public Incoming(int[] start, int[] sources) {
+			this.start = start;
+			this.sources = sources;
+		}
+
+		private final int[] start, sources;
+	}
+
+	private final ClassSymbolTable symbols;
+	private Snapshot compressed;
+	private int[] pendingFrom, pendingTo, pendingMasks;
+	private int pendingCount;
+}
@@ -0,0 +1,327 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+package de.andrena.tools.macker.structure;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import de.andrena.tools.macker.util.collect.AbstractMultiMap;
+import de.andrena.tools.macker.util.collect.MultiMap;
+
+/**
+ * The references from one class, packed into a few arrays instead of a map
+ * of sets of {@link Reference} objects. The referenced classes are held as
+ * {@link ClassSymbolTable} IDs, in name order; each has a run of entries
+ * giving the reference type, member access and member name. An entry takes
+ * a short and a (shared) string pointer.
+ * <p>
+ * {@link #asMultiMap(ClassInfo)} presents a table as the
+ * <tt>MultiMap&lt;ClassInfo, Reference&gt;</tt> which
+ * {@link ClassInfo#getReferences()} promises, creating the references as
+ * they are asked for.
+ */
+final class ReferenceTable {
+	private ReferenceTable(ClassSymbolTable symbols, int[] targets, int[] entryStart, short[] kinds,
+			String[] memberNames) {
+		this.symbols = symbols;
+		this.targets = targets;
+		this.entryStart = entryStart;
+		this.kinds = kinds;
+		this.memberNames = memberNames;
+	}
+
+	public ClassSymbolTable getSymbols() {
+		return symbols;
+	}
+
+	public int getTargetCount() {
+		return targets.length;
+	}
+
+	public int getTarget(int row) {
+		return targets[row];
+	}
+
+	/**
+	 * The entries for the <tt>row</tt>th referenced class run from
+	 * <tt>getEntryStart(row)</tt> up to <tt>getEntryStart(row + 1)</tt>.
+	 */
+	public int getEntryStart(int row) {
+		return entryStart[row];
+	}
+
+	public int getEntryCount() {
+		return kinds.length;
+	}
+
+	public ReferenceType getType(int entry) {
+		return ReferenceType.fromIndex(kinds[entry] & TYPE_BITS);
+	}
+
+	public String getMemberName(int entry) {
+		return memberNames[entry];
+	}
+
+	public AccessModifier getMemberAccess(int entry) {
+		int access = (kinds[entry] & ACCESS_BITS) >> ACCESS_SHIFT;
+		return (access == 0) ? null : ACCESS_MODIFIERS[access - 1];
+	}
+
+	/**
+	 * True for field references copied from a supertype.
+	 */
+	public boolean isInherited(int entry) {
+		return (kinds[entry] & INHERITED) != 0;
+	}
+
+	/**
+	 * The {@link ReferenceType#getMask() mask} of all reference types to the
+	 * <tt>row</tt>th referenced class.
+	 */
+	public int getTypeMask(int row) {
+		int mask = 0;
+		for (int entry = entryStart[row]; entry < entryStart[row + 1]; entry++)
+			mask |= 1 << (kinds[entry] & TYPE_BITS);
+		return mask;
+	}
+
+	/**
+	 * Adds the field references declared by some supertypes, marked as
+	 * inherited. Returns this table if they add nothing new.
+	 */
+	public ReferenceTable withInheritedFields(Iterable<ReferenceTable> supertypes) {
+		Builder builder = new Builder(symbols);
+		builder.addAll(this);
+		int fieldType = ReferenceType.FIELD_SIGNATURE.getIndex();
+		for (ReferenceTable supertype : supertypes)
+			for (int row = 0; row < supertype.targets.length; row++)
+				for (int entry = supertype.entryStart[row]; entry < supertype.entryStart[row + 1]; entry++) {
+					short kind = supertype.kinds[entry];
+					if ((kind & TYPE_BITS) == fieldType && (kind & INHERITED) == 0)
+						builder.add(supertype.targets[row], (short) (kind | INHERITED), supertype.memberNames[entry]);
+				}
+		ReferenceTable merged = builder.build();
+		return (merged.getEntryCount() == getEntryCount()) ? this : merged;
+	}
+
+	public MultiMap<ClassInfo, Reference> asMultiMap(final ClassInfo from) {
+		return new AbstractMultiMap<ClassInfo, Reference>() {
+			@Override
+			public Set<ClassInfo> keySet() {
+				return new AbstractSet<ClassInfo>() {
+					@Override
+					public Iterator<ClassInfo> iterator() {
+						return new Iterator<ClassInfo>() {
+							public boolean hasNext() {
+								return row < targets.length;
+							}
+
+							public ClassInfo next() {
+								if (!hasNext())
+									throw new NoSuchElementException();
+								return symbols.get(targets[row++]);
+							}
+
+							public void remove() {
+								throw new UnsupportedOperationException(unsupported);
+							}
+
+							private int row;
+						};
+					}
+
+					@Override
+					public int size() {
+						return targets.length;
+					}
+
+					@Override
+					public boolean contains(Object obj) {
+						return obj instanceof ClassInfo && rowOf((ClassInfo) obj) >= 0;
+					}
+				};
+			}
+
+			@Override
+			public Set<Reference> get(ClassInfo to) {
+				int row = rowOf(to);
+				if (row < 0)
+					return null;
+				ClassInfo target = symbols.get(targets[row]);
+				Set<Reference> refs = new LinkedHashSet<Reference>();
+				for (int entry = entryStart[row]; entry < entryStart[row + 1]; entry++)
+					refs.add(new Reference(from, target, getType(entry), memberNames[entry], getMemberAccess(entry)));
+				return Collections.unmodifiableSet(refs);
+			}
+
+			@Override
+			public int size() {
+				return kinds.length;
+			}
+		};
+	}
+
+	private int rowOf(ClassInfo classInfo) {
+		if (classInfo == null)
+			return -1;
+		int id = symbols.find(classInfo.getFullName());
+		if (id >= 0)
+			for (int row = 0; row < targets.length; row++)
+				if (targets[row] == id)
+					return row;
+		return -1;
+	}
+
+	/**
+	 * Collects references in any order, then sorts and packs them. Duplicate
+	 * references are dropped; an inherited entry never replaces a declared
+	 * one.
+	 */
+	static final class Builder {
+		Builder(ClassSymbolTable symbols) {
+			this.symbols = symbols;
+			targets = new int[16];
+			kinds = new short[16];
+			memberNames = new String[16];
+		}
+
+		public void add(int target, ReferenceType type, String memberName, AccessModifier memberAccess) {
+			add(target, (short) (type.getIndex() | (memberAccess == null ? 0 : memberAccess.ordinal() + 1) << ACCESS_SHIFT),
+					memberName);
+		}
+
+		void addAll(ReferenceTable table) {
+			for (int row = 0; row < table.targets.length; row++)
+				for (int entry = table.entryStart[row]; entry < table.entryStart[row + 1]; entry++)
+					add(table.targets[row], table.kinds[entry], table.memberNames[entry]);
+		}
+
+		void add(int target, short kind, String memberName) {
+			if (size == targets.length) {
+				targets = Arrays.copyOf(targets, size * 2);
+				kinds = Arrays.copyOf(kinds, size * 2);
+				memberNames = Arrays.copyOf(memberNames, size * 2);
+			}
+			targets[size] = target;
+			kinds[size] = kind;
+			memberNames[size] = memberName;
+			size++;
+		}
+
+		public ReferenceTable build() {
+			// Put the distinct targets in name order, looking each name up once
+			int[] ids = Arrays.copyOf(targets, size);
+			Arrays.sort(ids);
+			int distinct = 0;
+			for (int n = 0; n < size; n++)
+				if (distinct == 0 || ids[distinct - 1] != ids[n])
+					ids[distinct++] = ids[n];
+			final String[] names = new String[distinct];
+			Integer[] byName = new Integer[distinct];
+			for (int n = 0; n < distinct; n++) {
+				names[n] = symbols.getName(ids[n]);
+				byName[n] = n;
+			}
+			Arrays.sort(byName, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return names[a].compareTo(names[b]);
+				}
+			});
+			int[] rowOfDistinct = new int[distinct];
+			for (int row = 0; row < distinct; row++)
+				rowOfDistinct[byName[row]] = row;
+			final int[] rows = new int[size];
+			for (int n = 0; n < size; n++)
+				rows[n] = rowOfDistinct[Arrays.binarySearch(ids, 0, distinct, targets[n])];
+
+			// Sort the entries by row, then kind and member name, declared
+			// before inherited, so duplicates end up next to each other
+			Integer[] order = new Integer[size];
+			for (int n = 0; n < size; n++)
+				order[n] = n;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					if (rows[a] != rows[b])
+						return rows[a] - rows[b];
+					int kindA = kinds[a] & ~INHERITED, kindB = kinds[b] & ~INHERITED;
+					if (kindA != kindB)
+						return kindA - kindB;
+					int byMember = compareMembers(memberNames[a], memberNames[b]);
+					if (byMember != 0)
+						return byMember;
+					return (kinds[a] & INHERITED) - (kinds[b] & INHERITED);
+				}
+			});
+
+			int[] tableTargets = new int[distinct];
+			int[] entryStart = new int[distinct + 1];
+			short[] tableKinds = new short[size];
+			String[] tableMembers = new String[size];
+			int count = 0, row = -1;
+			for (int n = 0; n < size; n++) {
+				int entry = order[n];
+				if (rows[entry] != row) {
+					row = rows[entry];
+					tableTargets[row] = targets[entry];
+					entryStart[row] = count;
+				} else {
+					int last = order[n - 1];
+					if ((kinds[last] & ~INHERITED) == (kinds[entry] & ~INHERITED)
+							&& compareMembers(memberNames[last], memberNames[entry]) == 0)
+						continue;
+				}
+				tableKinds[count] = kinds[entry];
+				tableMembers[count] = memberNames[entry];
+				count++;
+			}
+			entryStart[distinct] = count;
+			return new ReferenceTable(symbols, tableTargets, entryStart, Arrays.copyOf(tableKinds, count),
+					Arrays.copyOf(tableMembers, count));
+		}
+
+		private static int compareMembers(String a, String b) {
+			if (a == null)
+				return (b == null) ? 0 : -1;
+			return (b == null) ? 1 : a.compareTo(b);
+		}
+
+		private final ClassSymbolTable symbols;
+		private int[] targets;
+		private short[] kinds;
+		private String[] memberNames;
+		private int size;
+	}
+
+	private final ClassSymbolTable symbols;
+	private final int[] targets, entryStart;
+	private final short[] kinds; // type index, access ordinal + 1, inherited flag
+	private final String[] memberNames;
+
+	private static final AccessModifier[] ACCESS_MODIFIERS = AccessModifier.values();
+	private static final int TYPE_BITS = 0x1F, ACCESS_SHIFT = 5, ACCESS_BITS = 0x7 << ACCESS_SHIFT;
+	private static final short INHERITED = 0x100;
+}
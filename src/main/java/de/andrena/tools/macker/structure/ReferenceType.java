@@ -20,6 +20,11 @@
 
 package de.andrena.tools.macker.structure;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import de.andrena.tools.macker.util.GraphType;
 
 /**
@@ -28,6 +33,8 @@ import de.andrena.tools.macker.util.GraphType;
  * @see Reference
  */
 public class ReferenceType extends GraphType {
+	private static final List<ReferenceType> values = new ArrayList<ReferenceType>();
+
 	public static final ReferenceType SIGNATURE = new ReferenceType("signature"), MEMBER_SIGNATURE = new ReferenceType(
 			"member-signature", SIGNATURE), METHOD_SIGNATURE = new ReferenceType("method-signature", MEMBER_SIGNATURE),
 			METHOD_PARAM = new ReferenceType("method-param", METHOD_SIGNATURE), METHOD_RETURNS = new ReferenceType(
@@ -35,13 +42,47 @@ public class ReferenceType extends GraphType {
 					METHOD_SIGNATURE), FIELD_SIGNATURE = new ReferenceType("field-signature", MEMBER_SIGNATURE),
 			SUPER = new ReferenceType("super"), EXTENDS = new ReferenceType("extends", SUPER),
 			IMPLEMENTS = new ReferenceType("implements", SUPER), INTERNAL = new ReferenceType("internal"),
-			CONSTANT_POOL = new ReferenceType("constant-pool", INTERNAL);
+			CONSTANT_POOL = new ReferenceType("constant-pool", INTERNAL), TYPE_ARGUMENT = new ReferenceType(
+					"type-argument", SIGNATURE);
 
 	private ReferenceType(String name) {
 		super(name);
+		index = register(this);
 	}
 
 	private ReferenceType(String name, ReferenceType parent) {
 		super(name, parent);
+		index = register(this);
+	}
+
+	/**
+	 * The position of this type in declaration order. A set of reference
+	 * types is stored as an int with bit <tt>index</tt> set for each type.
+	 */
+	int getIndex() {
+		return index;
 	}
+
+	int getMask() {
+		return 1 << index;
+	}
+
+	static ReferenceType fromIndex(int index) {
+		return values.get(index);
+	}
+
+	static Set<ReferenceType> fromMask(int mask) {
+		Set<ReferenceType> types = new LinkedHashSet<ReferenceType>();
+		for (int index = 0; mask != 0; index++, mask >>>= 1)
+			if ((mask & 1) != 0)
+				types.add(values.get(index));
+		return types;
+	}
+
+	private static int register(ReferenceType type) {
+		values.add(type);
+		return values.size() - 1;
+	}
+
+	private final int index;
 }
@@ -0,0 +1,74 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.structure;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The subtypes of classes, the reverse of {@link SupertypeIndex}: for each
+ * class, the primary classes and their supertypes which extend or implement
+ * it, directly or not. Building it loads all supertypes of the primary
+ * classes.
+ */
+public final class SubtypeIndex {
+	SubtypeIndex(SupertypeIndex supertypes, Set<ClassInfo> primaryClasses) {
+		Set<ClassInfo> known = new HashSet<ClassInfo>();
+		for (ClassInfo primaryClass : primaryClasses)
+			addClasses(supertypes.getClosure(primaryClass), known);
+
+		Map<ClassInfo, List<ClassInfo>> subtypes = new HashMap<ClassInfo, List<ClassInfo>>();
+		for (ClassInfo classInfo : known)
+			for (SupertypeIndex.Closure c = supertypes.getClosure(classInfo); c != null; c = c.getParent())
+				for (ClassInfo supertype : c.getClasses())
+					if (!supertype.equals(classInfo)) {
+						List<ClassInfo> list = subtypes.get(supertype);
+						if (list == null)
+							subtypes.put(supertype, list = new ArrayList<ClassInfo>());
+						list.add(classInfo);
+					}
+		for (List<ClassInfo> list : subtypes.values())
+			Collections.sort(list, ClassInfoNameComparator.INSTANCE);
+		this.subtypes = subtypes;
+	}
+
+	private static void addClasses(SupertypeIndex.Closure closure, Set<ClassInfo> classes) {
+		for (SupertypeIndex.Closure c = closure; c != null; c = c.getParent())
+			Collections.addAll(classes, c.getClasses());
+	}
+
+	/**
+	 * The known subtypes of a class, not including the class itself, in name
+	 * order.
+	 */
+	public List<ClassInfo> getSubtypes(ClassInfo classInfo) {
+		List<ClassInfo> list = subtypes.get(classInfo);
+		return (list == null) ? Collections.<ClassInfo> emptyList() : Collections.unmodifiableList(list);
+	}
+
+	private final Map<ClassInfo, List<ClassInfo>> subtypes;
+}
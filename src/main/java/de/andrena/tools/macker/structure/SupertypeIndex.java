@@ -0,0 +1,189 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+
+package de.andrena.tools.macker.structure;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The transitive supertypes of the classes of a {@link ClassManager}, each
+ * computed once. A class's closure is stored as the closure of its
+ * superclass, shared with every other class extending it, plus the IDs (see
+ * {@link ClassManager#getClassId(ClassInfo)}) of the class itself and of
+ * those supertypes reached through its interfaces that the superclass
+ * lacks. Closures are computed on demand, supertypes first, under the
+ * index's lock; once computed they are read without it.
+ */
+public final class SupertypeIndex {
+	SupertypeIndex(ClassManager classManager) {
+		this.classManager = classManager;
+	}
+
+	/**
+	 * The closure of a class: the class and all its supertypes. Loads every
+	 * supertype of the class. A closure already computed is returned without
+	 * taking the lock.
+	 */
+	public Closure getClosure(ClassInfo classInfo) {
+		int id = classManager.getClassId(classInfo);
+		AtomicReferenceArray<Closure> computed = closures;
+		if (id < computed.length()) {
+			Closure closure = computed.get(id);
+			if (closure != null && closure != IN_PROGRESS)
+				return closure;
+		}
+		return computeClosure(id, classInfo);
+	}
+
+	private synchronized Closure computeClosure(int id, ClassInfo classInfo) {
+		if (closures.length() <= id) {
+			AtomicReferenceArray<Closure> grown = new AtomicReferenceArray<Closure>(Math.max(id + 1,
+					closures.length() * 2));
+			for (int n = 0; n < closures.length(); n++)
+				grown.set(n, closures.get(n));
+			closures = grown;
+		}
+		Closure closure = closures.get(id);
+		if (closure == IN_PROGRESS) // a class among its own supertypes
+			return null;
+		if (closure != null)
+			return closure;
+
+		closures.set(id, IN_PROGRESS);
+		try {
+			ClassInfo superclass = classInfo.getExtends();
+			Closure parent = (superclass == null) ? null : getClosure(superclass);
+			Map<Closure, Boolean> inherited = new IdentityHashMap<Closure, Boolean>();
+			for (Closure c = parent; c != null; c = c.parent)
+				inherited.put(c, true);
+
+			TreeMap<Integer, ClassInfo> own = new TreeMap<Integer, ClassInfo>();
+			own.put(id, classInfo);
+			for (ClassInfo iface : classInfo.getImplements())
+				for (Closure c = getClosure(iface); c != null && !inherited.containsKey(c); c = c.parent)
+					for (int n = 0; n < c.classIds.length; n++)
+						if (parent == null || !parent.contains(c.classIds[n]))
+							own.put(c.classIds[n], c.classes[n]);
+			closure = new Closure(count++, parent, own);
+		} finally {
+			// the array may have grown while computing the supertypes
+			closures.set(id, closure);
+		}
+		return closure;
+	}
+
+	/**
+	 * The number of closures computed so far; closures are numbered from 0
+	 * (see {@link Closure#getIndex()}).
+	 */
+	public synchronized int getClosureCount() {
+		return count;
+	}
+
+	/**
+	 * A class and its supertypes. Immutable.
+	 */
+	public static final class Closure {
+		private Closure(int index, Closure parent, TreeMap<Integer, ClassInfo> own) {
+			this.index = index;
+			this.parent = parent;
+			classIds = new int[own.size()];
+			classes = new ClassInfo[classIds.length];
+			int n = 0;
+			for (Map.Entry<Integer, ClassInfo> entry : own.entrySet()) {
+				classIds[n] = entry.getKey();
+				classes[n++] = entry.getValue();
+			}
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * The closure of the superclass, all of which belongs to this one; or
+		 * null.
+		 */
+		public Closure getParent() {
+			return parent;
+		}
+
+		/**
+		 * The IDs of the classes in this closure but not in the parent's,
+		 * ascending. The returned array must not be changed.
+		 */
+		public int[] getClassIds() {
+			return classIds;
+		}
+
+		/**
+		 * The classes of {@link #getClassIds()}, in the same order. The
+		 * returned array must not be changed.
+		 */
+		public ClassInfo[] getClasses() {
+			return classes;
+		}
+
+		public boolean contains(int classId) {
+			for (Closure c = this; c != null; c = c.parent)
+				if (Arrays.binarySearch(c.classIds, classId) >= 0)
+					return true;
+			return false;
+		}
+
+		/**
+		 * Whether any class of the closure is in the given set of class IDs.
+		 */
+		public boolean intersects(BitSet classIds) {
+			for (Closure c = this; c != null; c = c.parent)
+				for (int classId : c.classIds)
+					if (classIds.get(classId))
+						return true;
+			return false;
+		}
+
+		public Set<ClassInfo> toSet() {
+			Set<ClassInfo> set = new HashSet<ClassInfo>();
+			for (Closure c = this; c != null; c = c.parent)
+				Collections.addAll(set, c.classes);
+			return set;
+		}
+
+		private final int index;
+		private final Closure parent;
+		private final int[] classIds;
+		private final ClassInfo[] classes;
+	}
+
+	private final ClassManager classManager;
+	private volatile AtomicReferenceArray<Closure> closures = new AtomicReferenceArray<Closure>(16);
+	private int count;
+
+	private static final Closure IN_PROGRESS = new Closure(-1, null, new TreeMap<Integer, ClassInfo>());
+}
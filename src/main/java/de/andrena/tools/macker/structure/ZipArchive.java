@@ -0,0 +1,259 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+package de.andrena.tools.macker.structure;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A jar or zip file, read by memory-mapping it and walking its central
+ * directory. Stored entries are handed out as slices of the mapped file;
+ * deflated entries are inflated straight into a buffer of their final size.
+ * Nothing is extracted to disk.
+ */
+final class ZipArchive {
+	ZipArchive(File file) throws IOException {
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(file + " is too large (over 2 GB)");
+			contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			contents.order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close(); // the mapping stays valid
+		}
+		try {
+			readCentralDirectory();
+		} catch (IndexOutOfBoundsException ioobe) {
+			throw new IOException(file + " is not a valid zip file (truncated central directory)");
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * The class files in the archive, in central directory order. Entries
+	 * under META-INF (such as multi-release versions) and module-info.class
+	 * are left out.
+	 */
+	public List<Entry> getClassEntries() {
+		List<Entry> classEntries = new ArrayList<Entry>();
+		for (Entry entry : entries)
+			if (entry.name.endsWith(".class") && !entry.name.startsWith("META-INF/")
+					&& !entry.name.equals("module-info.class"))
+				classEntries.add(entry);
+		return classEntries;
+	}
+
+	/**
+	 * Returns the uncompressed contents of an entry.
+	 */
+	public ByteBuffer read(Entry entry) throws IOException {
+		int localHeader = checkedOffset(entry.localHeaderOffset);
+		if (contents.getInt(localHeader) != LOCAL_HEADER_SIGNATURE)
+			throw new IOException(describe(entry) + ": bad local header");
+		int dataStart = localHeader + 30 + (contents.getShort(localHeader + 26) & 0xFFFF)
+				+ (contents.getShort(localHeader + 28) & 0xFFFF);
+		int compressedSize = checkedSize(entry.compressedSize);
+		int size = checkedSize(entry.size);
+		if (dataStart + (long) compressedSize > contents.limit())
+			throw new IOException(describe(entry) + ": entry extends past end of file");
+
+		ByteBuffer data = contents.duplicate();
+		data.position(dataStart);
+		data.limit(dataStart + compressedSize);
+
+		switch (entry.method) {
+		case METHOD_STORED:
+			return data.slice();
+		case METHOD_DEFLATED:
+			byte[] compressed = new byte[compressedSize];
+			data.get(compressed);
+			byte[] uncompressed = new byte[size];
+			Inflater inflater = new Inflater(true);
+			try {
+				inflater.setInput(compressed);
+				int count = 0;
+				while (count < size && !inflater.finished()) {
+					int n = inflater.inflate(uncompressed, count, size - count);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					count += n;
+				}
+				if (count != size)
+					throw new IOException(describe(entry) + ": inflated to " + count + " bytes, expected " + size);
+			} catch (DataFormatException dfe) {
+				throw new IOException(describe(entry) + ": " + dfe.getMessage(), dfe);
+			} finally {
+				inflater.end();
+			}
+			return ByteBuffer.wrap(uncompressed);
+		default:
+			throw new IOException(describe(entry) + ": unsupported compression method " + entry.method);
+		}
+	}
+
+	public String describe(Entry entry) {
+		return file.getPath() + "!/" + entry.name;
+	}
+
+	// ------------------------------------------------------------------------
+	// Central directory
+	// ------------------------------------------------------------------------
+
+	private void readCentralDirectory() throws IOException {
+		int eocd = findEndOfCentralDirectory();
+		long entryCount = contents.getShort(eocd + 10) & 0xFFFF;
+		long directoryOffset = contents.getInt(eocd + 16) & 0xFFFFFFFFL;
+
+		if (entryCount == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+			int locator = eocd - 20;
+			if (locator >= 0 && contents.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+				int zip64Eocd = checkedOffset(contents.getLong(locator + 8));
+				if (contents.getInt(zip64Eocd) != ZIP64_END_SIGNATURE)
+					throw new IOException(file + " is not a valid zip file (bad zip64 end record)");
+				entryCount = contents.getLong(zip64Eocd + 32);
+				directoryOffset = contents.getLong(zip64Eocd + 48);
+			}
+		}
+
+		entries = new ArrayList<Entry>((int) Math.min(entryCount, 65536));
+		int pos = checkedOffset(directoryOffset);
+		for (long n = 0; n < entryCount; n++) {
+			if (contents.getInt(pos) != CENTRAL_HEADER_SIGNATURE)
+				throw new IOException(file + " is not a valid zip file (bad central directory entry)");
+			int method = contents.getShort(pos + 10) & 0xFFFF;
+			long compressedSize = contents.getInt(pos + 20) & 0xFFFFFFFFL;
+			long size = contents.getInt(pos + 24) & 0xFFFFFFFFL;
+			int nameLength = contents.getShort(pos + 28) & 0xFFFF;
+			int extraLength = contents.getShort(pos + 30) & 0xFFFF;
+			int commentLength = contents.getShort(pos + 32) & 0xFFFF;
+			long localHeaderOffset = contents.getInt(pos + 42) & 0xFFFFFFFFL;
+
+			int nameStart = pos + 46;
+			String name = decodeName(nameStart, nameLength);
+
+			// Zip64 extended information, present only for the fields that overflowed
+			int extra = nameStart + nameLength, extraEnd = extra + extraLength;
+			while (extra + 4 <= extraEnd) {
+				int id = contents.getShort(extra) & 0xFFFF;
+				int length = contents.getShort(extra + 2) & 0xFFFF;
+				if (id == ZIP64_EXTRA_ID) {
+					int field = extra + 4;
+					if (size == 0xFFFFFFFFL) {
+						size = contents.getLong(field);
+						field += 8;
+					}
+					if (compressedSize == 0xFFFFFFFFL) {
+						compressedSize = contents.getLong(field);
+						field += 8;
+					}
+					if (localHeaderOffset == 0xFFFFFFFFL)
+						localHeaderOffset = contents.getLong(field);
+				}
+				extra += 4 + length;
+			}
+
+			if (!name.endsWith("/"))
+				entries.add(new Entry(name, method, compressedSize, size, localHeaderOffset));
+			pos = extraEnd + commentLength;
+		}
+	}
+
+	private int findEndOfCentralDirectory() throws IOException {
+		// The end record is 22 bytes plus a comment of up to 64k
+		int last = contents.limit() - 22;
+		int first = Math.max(0, last - 0xFFFF);
+		for (int pos = last; pos >= first; pos--)
+			if (contents.getInt(pos) == END_SIGNATURE)
+				return pos;
+		throw new IOException(file + " is not a zip file (no central directory found)");
+	}
+
+	private String decodeName(int start, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer name = contents.duplicate();
+		name.position(start);
+		name.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private int checkedOffset(long offset) throws IOException {
+		if (offset < 0 || offset >= contents.limit())
+			throw new IOException(file + " is not a valid zip file (offset " + offset + " out of range)");
+		return (int) offset;
+	}
+
+	private int checkedSize(long size) throws IOException {
+		if (size < 0 || size > Integer.MAX_VALUE)
+			throw new IOException(file + " contains an entry too large to read (" + size + " bytes)");
+		return (int) size;
+	}
+
+	static final class Entry {
+		Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+			this.name = name;
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+
+		private final String name;
+		private final int method;
+		private final long compressedSize, size, localHeaderOffset;
+	}
+
+	private final File file;
+	private final ByteBuffer contents;
+	private List<Entry> entries;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final int METHOD_STORED = 0, METHOD_DEFLATED = 8;
+}
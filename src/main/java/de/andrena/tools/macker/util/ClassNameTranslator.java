@@ -21,71 +21,110 @@
 package de.andrena.tools.macker.util;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Conversions between the names of classes in class files and Java class
+ * names, scanned by hand rather than with regular expressions.
+ */
 public class ClassNameTranslator {
 	static public boolean isJavaIdentifier(String className) {
-		return legalJavaIdentRE.matcher(className).matches();
+		return isName(className, 0, className.length(), '.');
+	}
+
+	/**
+	 * Checks the class name in internal form (such as
+	 * <tt>java/lang/String</tt>) in <tt>s</tt> between <tt>start</tt> and
+	 * <tt>end</tt>, without copying it. '.' is accepted as a separator too,
+	 * as it was when such names were converted before being checked.
+	 */
+	static public boolean isInternalName(String s, int start, int end) {
+		return isName(s, start, end, '/');
 	}
 
 	static public List<String> signatureToClassNames(String signature) {
-		List<String> names = new ArrayList<String>();
-		for (int pos = 0; pos < signature.length();) {
-			String remaining = signature.substring(pos);
-			Matcher sigMatcher = sigExtractorRE.matcher(remaining);
-			if (!sigMatcher.find())
-				throw new IllegalArgumentException("Unable to extract type info from: " + remaining);
-			if (sigMatcher.group(2) != null)
-				names.add(primitiveTypeMap.get(sigMatcher.group(2)));
-			if (sigMatcher.group(3) != null)
-				names.add(resourceToClassName(sigMatcher.group(3)));
-			pos += sigMatcher.end();
-		}
+		DescriptorDecoder decoder = decoders.get();
+		int count = decoder.decodeDescriptor(signature);
+		List<String> names = new ArrayList<String>(count);
+		for (int n = 0; n < count; n++)
+			names.add(decoder.getClassName(n).intern());
 		return names;
 	}
 
 	static public String typeConstantToClassName(String typeName) {
-		Matcher arrayMatcher = arrayExtractorRE.matcher(typeName);
-		if (arrayMatcher.matches()) {
-			if (arrayMatcher.group(2) != null)
-				return primitiveTypeMap.get(arrayMatcher.group(2));
-			if (arrayMatcher.group(3) != null)
-				return resourceToClassName(arrayMatcher.group(3));
-		}
-		return resourceToClassName(typeName);
+		DescriptorDecoder decoder = decoders.get();
+		decoder.decodeTypeConstant(typeName);
+		return decoder.getClassName(0).intern();
 	}
 
 	static public String resourceToClassName(String className) {
-		return classSuffixRE.matcher(className).replaceAll("").replace('/', '.').intern();
+		int end = className.endsWith(".class") ? className.length() - ".class".length() : className.length();
+		return internalToClassName(className, 0, end).intern();
 	}
 
 	static public String classToResourceName(String resourceName) {
 		return (resourceName.replace('.', '/') + ".class").intern();
 	}
 
-	static private Pattern classSuffixRE, arrayExtractorRE, sigExtractorRE, legalJavaIdentRE;
-	static private Map<String, String> primitiveTypeMap;
-	static {
-		classSuffixRE = Pattern.compile("\\.class$");
-		arrayExtractorRE = Pattern.compile("^(\\[+([BSIJCFDZV])|\\[+L([^;]*);)$");
-		sigExtractorRE = Pattern.compile("^\\(?\\)?(\\[*([BSIJCFDZV])|\\[*L([^;]*);)");
-		String javaIdent = "[\\p{Alpha}$_][\\p{Alnum}$_]*";
-		String packageInfo = Pattern.quote("package-info");
-		legalJavaIdentRE = Pattern.compile("^((" + javaIdent + ")\\.)*((" + javaIdent + ")|(" + packageInfo + "))$");
+	/**
+	 * Turns the internal name in <tt>s</tt> between <tt>start</tt> and
+	 * <tt>end</tt> (such as <tt>java/lang/String</tt>) into a Java class name.
+	 */
+	static public String internalToClassName(String s, int start, int end) {
+		char[] name = new char[end - start];
+		s.getChars(start, end, name, 0);
+		for (int n = 0; n < name.length; n++)
+			if (name[n] == '/')
+				name[n] = '.';
+		return new String(name);
+	}
 
-		primitiveTypeMap = new HashMap<String, String>();
-		primitiveTypeMap.put("B", "byte");
-		primitiveTypeMap.put("S", "short");
-		primitiveTypeMap.put("I", "int");
-		primitiveTypeMap.put("J", "long");
-		primitiveTypeMap.put("C", "char");
-		primitiveTypeMap.put("F", "float");
-		primitiveTypeMap.put("D", "double");
-		primitiveTypeMap.put("Z", "boolean");
-		primitiveTypeMap.put("V", "void");
+	/**
+	 * Dot-separated identifiers, the last of which may be
+	 * <tt>package-info</tt>; <tt>separator</tt> separates them as well.
+	 */
+	static private boolean isName(String s, int start, int end, char separator) {
+		for (int segmentStart = start, pos = start;; pos++) {
+			if (pos == end || s.charAt(pos) == '.' || s.charAt(pos) == separator) {
+				if (!isIdentifier(s, segmentStart, pos) && !(pos == end && isPackageInfo(s, segmentStart, pos)))
+					return false;
+				if (pos == end)
+					return true;
+				segmentStart = pos + 1;
+			}
+		}
 	}
+
+	static private boolean isIdentifier(String s, int start, int end) {
+		if (start == end || !isIdentifierStart(s.charAt(start)))
+			return false;
+		for (int pos = start + 1; pos < end; pos++) {
+			char c = s.charAt(pos);
+			if (!isIdentifierStart(c) && !(c >= '0' && c <= '9'))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * ASCII letters only, like the <tt>\p{Alpha}</tt> this replaced.
+	 */
+	static private boolean isIdentifierStart(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '$' || c == '_';
+	}
+
+	static private boolean isPackageInfo(String s, int start, int end) {
+		return end - start == PACKAGE_INFO.length() && s.startsWith(PACKAGE_INFO, start);
+	}
+
+	static private final String PACKAGE_INFO = "package-info";
+
+	// The helpers above decode one name at a time, so a decoder per thread
+	// does; it reuses its buffers between calls
+	static private final ThreadLocal<DescriptorDecoder> decoders = new ThreadLocal<DescriptorDecoder>() {
+		@Override
+		protected DescriptorDecoder initialValue() {
+			return new DescriptorDecoder();
+		}
+	};
 }
@@ -0,0 +1,34 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+package de.andrena.tools.macker.util;
+
+/**
+ * A node which knows whether evaluating it is costly, so that
+ * {@link IncludeExcludeLogic} can avoid it where the result doesn't depend on
+ * it. Other nodes are always evaluated in turn.
+ */
+public interface CostHint extends IncludeExcludeNode {
+	/**
+	 * Whether evaluating this node (or its children) may load classes. Such
+	 * nodes are only evaluated when the result depends on them.
+	 */
+	public boolean isCostly();
+}
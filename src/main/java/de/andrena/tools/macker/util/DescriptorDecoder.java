@@ -0,0 +1,362 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+package de.andrena.tools.macker.util;
+
+import java.util.Arrays;
+
+/**
+ * Finds the types named in a JVM field or method descriptor, a class
+ * constant, or a generic <tt>Signature</tt> attribute, in a single pass over
+ * the string. No substrings are created: each type is recorded either as a
+ * primitive type name or as the start and end of its class name (in internal
+ * form, with '/' separators) within the decoded string. An instance reuses
+ * its buffers from one string to the next, so it should be kept around for a
+ * whole class file (but not shared between threads).
+ */
+public final class DescriptorDecoder {
+	public DescriptorDecoder() {
+		primitiveNames = new String[16];
+		nameStarts = new int[16];
+		nameEnds = new int[16];
+		builtNames = new String[16];
+		depths = new int[16];
+	}
+
+	/**
+	 * Decodes a field or method descriptor, such as
+	 * <tt>(I[Ljava/lang/String;)V</tt>. Array types count as their element
+	 * type. For a method, the last type found is the return type.
+	 * 
+	 * @return the number of types found
+	 * @throws IllegalArgumentException
+	 *             if the descriptor is malformed
+	 */
+	public int decodeDescriptor(String descriptor) {
+		begin(descriptor);
+		int length = descriptor.length();
+		for (int pos = 0; pos < length;) {
+			int typeStart = pos;
+			if (pos < length && descriptor.charAt(pos) == '(')
+				pos++;
+			if (pos < length && descriptor.charAt(pos) == ')')
+				pos++;
+			while (pos < length && descriptor.charAt(pos) == '[')
+				pos++;
+			char c = (pos < length) ? descriptor.charAt(pos) : 0;
+			String primitiveName = primitiveName(c);
+			if (primitiveName != null) {
+				addPrimitive(primitiveName, 0);
+				pos++;
+			} else if (c == 'L') {
+				int semicolon = descriptor.indexOf(';', pos + 1);
+				if (semicolon < 0)
+					throw unableToExtract(descriptor, typeStart);
+				addClass(pos + 1, withoutClassSuffix(descriptor, pos + 1, semicolon), 0);
+				pos = semicolon + 1;
+			} else
+				throw unableToExtract(descriptor, typeStart);
+		}
+		return count;
+	}
+
+	/**
+	 * Decodes the name in a <tt>CONSTANT_Class</tt>: either a class name in
+	 * internal form, or an array descriptor such as <tt>[[Ljava/lang/String;</tt>
+	 * or <tt>[I</tt>. Anything else is taken as a class name.
+	 * 
+	 * @return 1, the number of types found
+	 */
+	public int decodeTypeConstant(String typeConstant) {
+		begin(typeConstant);
+		int length = typeConstant.length();
+		int pos = 0;
+		while (pos < length && typeConstant.charAt(pos) == '[')
+			pos++;
+		if (pos > 0 && pos < length) {
+			String primitiveName = primitiveName(typeConstant.charAt(pos));
+			if (primitiveName != null && pos == length - 1) {
+				addPrimitive(primitiveName, 0);
+				return count;
+			}
+			if (typeConstant.charAt(pos) == 'L' && typeConstant.indexOf(';', pos) == length - 1) {
+				addClass(pos + 1, withoutClassSuffix(typeConstant, pos + 1, length - 1), 0);
+				return count;
+			}
+		}
+		addClass(0, withoutClassSuffix(typeConstant, 0, length), 0);
+		return count;
+	}
+
+	/**
+	 * Decodes a class, method or field signature from a <tt>Signature</tt>
+	 * attribute (JVMS 4.7.9.1). Every class type is found, however deeply it
+	 * is nested; {@link #getDepth(int)} tells how many type argument or type
+	 * parameter lists enclose it. Type variables and wildcards name no class
+	 * and are skipped.
+	 * 
+	 * @return the number of types found
+	 * @throws IllegalArgumentException
+	 *             if the signature is malformed
+	 */
+	public int decodeSignature(String signature) {
+		begin(signature);
+		int length = signature.length();
+		try {
+			int pos = 0;
+			if (length > 0 && signature.charAt(0) == '<')
+				pos = skipTypeParameters(0, 1);
+			if (pos < length && signature.charAt(pos) == '(') {
+				pos++;
+				while (signature.charAt(pos) != ')')
+					pos = decodeType(pos, 0);
+				pos = decodeType(pos + 1, 0);
+				while (pos < length) {
+					if (signature.charAt(pos) != '^')
+						throw malformed();
+					pos = decodeType(pos + 1, 0);
+				}
+			} else
+				while (pos < length)
+					pos = decodeType(pos, 0);
+		} catch (StringIndexOutOfBoundsException sioobe) {
+			throw malformed();
+		}
+		return count;
+	}
+
+	public String getInput() {
+		return input;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * The Java name of the <tt>n</tt>th type if it is primitive (such as
+	 * <tt>int</tt>), otherwise null.
+	 */
+	public String getPrimitiveName(int n) {
+		return primitiveNames[n];
+	}
+
+	/**
+	 * Where the internal name of the <tt>n</tt>th type starts in the input,
+	 * or -1 if it is primitive or its name isn't a single run of characters
+	 * (an inner class of a parameterized type, in a signature).
+	 */
+	public int getNameStart(int n) {
+		return nameStarts[n];
+	}
+
+	public int getNameEnd(int n) {
+		return nameEnds[n];
+	}
+
+	/**
+	 * The Java name of the <tt>n</tt>th type, such as <tt>java.lang.String</tt>
+	 * or <tt>int</tt>. This creates a string for class types.
+	 */
+	public String getClassName(int n) {
+		if (primitiveNames[n] != null)
+			return primitiveNames[n];
+		if (builtNames[n] != null)
+			return builtNames[n];
+		return ClassNameTranslator.internalToClassName(input, nameStarts[n], nameEnds[n]);
+	}
+
+	/**
+	 * For signatures, how many type argument or type parameter lists enclose
+	 * the <tt>n</tt>th type; always 0 for descriptors and class constants.
+	 */
+	public int getDepth(int n) {
+		return depths[n];
+	}
+
+	// ------------------------------------------------------------------------
+	// Signatures
+	// ------------------------------------------------------------------------
+
+	private int skipTypeParameters(int pos, int depth) {
+		pos++; // '<'
+		while (input.charAt(pos) != '>') {
+			int colon = input.indexOf(':', pos);
+			if (colon < 0)
+				throw malformed();
+			pos = colon + 1;
+			char c = input.charAt(pos);
+			if (c == 'L' || c == '[' || c == 'T')
+				pos = decodeType(pos, depth); // class bound
+			while (input.charAt(pos) == ':')
+				pos = decodeType(pos + 1, depth); // interface bounds
+		}
+		return pos + 1;
+	}
+
+	private int decodeType(int pos, int depth) {
+		char c = input.charAt(pos);
+		switch (c) {
+		case 'L':
+			return decodeClassType(pos, depth);
+		case 'T':
+			int semicolon = input.indexOf(';', pos);
+			if (semicolon < 0)
+				throw malformed();
+			return semicolon + 1;
+		case '[':
+			return decodeType(pos + 1, depth);
+		default:
+			String primitiveName = primitiveName(c);
+			if (primitiveName == null)
+				throw malformed();
+			addPrimitive(primitiveName, depth);
+			return pos + 1;
+		}
+	}
+
+	private int decodeClassType(int pos, int depth) {
+		int n = addClass(pos + 1, -1, depth); // filled in below, once the name is known
+		StringBuilder inner = null;
+		int segmentStart = pos + 1;
+		for (pos = segmentStart;; pos++) {
+			char c = input.charAt(pos);
+			if (c != '<' && c != '.' && c != ';')
+				continue;
+
+			if (inner == null)
+				nameEnds[n] = pos;
+			else if (segmentStart < pos)
+				inner.append(input, segmentStart, pos);
+			if (c == '<') {
+				pos = decodeTypeArguments(pos, depth + 1);
+				c = input.charAt(pos);
+			}
+			if (c == ';')
+				break;
+			if (c == '.') {
+				if (inner == null)
+					inner = new StringBuilder(ClassNameTranslator.internalToClassName(input, nameStarts[n],
+							nameEnds[n]));
+				inner.append('$');
+				segmentStart = pos + 1;
+			} else
+				throw malformed();
+		}
+		if (inner != null) {
+			nameStarts[n] = nameEnds[n] = -1;
+			builtNames[n] = inner.toString();
+		}
+		return pos + 1;
+	}
+
+	private int decodeTypeArguments(int pos, int depth) {
+		pos++; // '<'
+		while (input.charAt(pos) != '>') {
+			char c = input.charAt(pos);
+			if (c == '*')
+				pos++;
+			else
+				pos = decodeType((c == '+' || c == '-') ? pos + 1 : pos, depth);
+		}
+		return pos + 1;
+	}
+
+	// ------------------------------------------------------------------------
+	// Results
+	// ------------------------------------------------------------------------
+
+	private void begin(String input) {
+		this.input = input;
+		count = 0;
+	}
+
+	private void addPrimitive(String primitiveName, int depth) {
+		int n = add(depth);
+		primitiveNames[n] = primitiveName;
+		nameStarts[n] = nameEnds[n] = -1;
+	}
+
+	private int addClass(int start, int end, int depth) {
+		int n = add(depth);
+		nameStarts[n] = start;
+		nameEnds[n] = end;
+		return n;
+	}
+
+	private int add(int depth) {
+		if (count == depths.length) {
+			primitiveNames = Arrays.copyOf(primitiveNames, count * 2);
+			nameStarts = Arrays.copyOf(nameStarts, count * 2);
+			nameEnds = Arrays.copyOf(nameEnds, count * 2);
+			builtNames = Arrays.copyOf(builtNames, count * 2);
+			depths = Arrays.copyOf(depths, count * 2);
+		}
+		primitiveNames[count] = null;
+		builtNames[count] = null;
+		depths[count] = depth;
+		return count++;
+	}
+
+	private static int withoutClassSuffix(String s, int start, int end) {
+		return (end - start >= CLASS_SUFFIX.length() && s.startsWith(CLASS_SUFFIX, end - CLASS_SUFFIX.length()))
+				? end - CLASS_SUFFIX.length() : end;
+	}
+
+	static String primitiveName(char descriptor) {
+		switch (descriptor) {
+		case 'B':
+			return "byte";
+		case 'S':
+			return "short";
+		case 'I':
+			return "int";
+		case 'J':
+			return "long";
+		case 'C':
+			return "char";
+		case 'F':
+			return "float";
+		case 'D':
+			return "double";
+		case 'Z':
+			return "boolean";
+		case 'V':
+			return "void";
+		default:
+			return null;
+		}
+	}
+
+	private IllegalArgumentException unableToExtract(String descriptor, int pos) {
+		return new IllegalArgumentException("Unable to extract type info from: " + descriptor.substring(pos));
+	}
+
+	private IllegalArgumentException malformed() {
+		return new IllegalArgumentException("Malformed generic signature: " + input);
+	}
+
+	private String input;
+	private int count;
+	private String[] primitiveNames, builtNames;
+	private int[] nameStarts, nameEnds, depths;
+
+	private static final String CLASS_SUFFIX = ".class";
+}
@@ -20,20 +20,53 @@
 
 package de.andrena.tools.macker.util;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import de.andrena.tools.macker.rule.RulesException;
 
+/**
+ * Evaluates a chain of include and exclude nodes. Every node which matches
+ * (and whose children agree) sets the result to include or exclude, so the
+ * last such node decides. The chain is therefore evaluated from its end,
+ * stopping at the first node which decides; nodes before it are never
+ * matched.
+ */
 public class IncludeExcludeLogic {
 	public static boolean apply(IncludeExcludeNode node) throws RulesException {
-		return applyNext(node, node.isInclude() ? false // include starts with
-														// all excluded, and
-				: true); // exclude starts with all included
+		List<IncludeExcludeNode> chain = new ArrayList<IncludeExcludeNode>();
+		for (; node != null; node = node.getNext())
+			chain.add(node);
+		return apply(chain, chain.size() - 1);
+	}
+
+	/**
+	 * The result of the nodes up to and including <tt>last</tt>. A costly
+	 * node (see {@link CostHint}) is skipped if the nodes before it already
+	 * give the result it would set.
+	 */
+	private static boolean apply(List<IncludeExcludeNode> chain, int last) throws RulesException {
+		if (last < 0)
+			return !chain.get(0).isInclude(); // include starts with all excluded, exclude with all included
+
+		IncludeExcludeNode node = chain.get(last);
+		if (isCostly(node)) {
+			boolean before = apply(chain, last - 1);
+			return (before != node.isInclude() && decides(node)) ? node.isInclude() : before;
+		}
+		return decides(node) ? node.isInclude() : apply(chain, last - 1);
+	}
+
+	private static boolean isCostly(IncludeExcludeNode node) {
+		return node instanceof CostHint && ((CostHint) node).isCostly();
 	}
 
-	private static boolean applyNext(IncludeExcludeNode node, boolean prevMatches) throws RulesException {
-		IncludeExcludeNode child = node.getChild(), next = node.getNext();
-		boolean curMatches = node.matches();
-		boolean matchesSoFar = node.isInclude() ? prevMatches || (curMatches && (child == null || apply(child)))
-				: prevMatches && (!curMatches || (child != null && apply(child)));
-		return (next == null) ? matchesSoFar : applyNext(next, matchesSoFar);
+	private static boolean decides(IncludeExcludeNode node) throws RulesException {
+		if (!node.matches())
+			return false;
+		IncludeExcludeNode child = node.getChild();
+		if (child == null)
+			return true;
+		return node.isInclude() ? apply(child) : !apply(child);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,263 @@
+/*______________________________________________________________________________
+ *
+ * Macker   http://innig.net/macker/
+ *
+ * Copyright 2002-2003 Paul Cantrell
+ * 
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2, as published by the
+ * Free Software Foundation. See the file LICENSE.html for more information.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY, including the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the license for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc. / 59 Temple
+ * Place, Suite 330 / Boston, MA 02111-1307 / USA.
+ *______________________________________________________________________________
+ */
+
+package de.andrena.tools.macker.util.collect;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A skeleton for read-only multi-maps, in the spirit of
+ * {@link java.util.AbstractMap}. Subclasses provide {@link #keySet()},
+ * {@link #get(Object)} and {@link #size()}; everything else is derived from
+ * those. The modifying methods throw {@link UnsupportedOperationException}.
+ * <p>
+ * Equality and hash codes follow the {@link MultiMap} contract, so an
+ * instance is equal to a {@link CompositeMultiMap} with the same mappings.
+ */
+public abstract class AbstractMultiMap<K, V> implements MultiMap<K, V> {
+	public abstract Set<K> keySet();
+
+	public abstract Set<V> get(K key);
+
+	public abstract int size();
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public boolean containsKey(K key) {
+		return get(key) != null;
+	}
+
+	public boolean containsValue(V searchValue) {
+		for (V value : values())
+			if (searchValue == null ? value == null : searchValue.equals(value))
+				return true;
+		return false;
+	}
+
+	public boolean put(K key, V value) {
+		throw new UnsupportedOperationException(unsupported);
+	}
+
+	public boolean putAll(K key, Collection<? extends V> values) {
+		throw new UnsupportedOperationException(unsupported);
+	}
+
+	public void putAll(MultiMap<? extends K, ? extends V> multimap) {
+		throw new UnsupportedOperationException(unsupported);
+	}
+
+	public void putAll(Map<? extends K, ? extends V> map) {
+		throw new UnsupportedOperationException(unsupported);
+	}
+
+	public boolean remove(K key, V value) {
+		throw new UnsupportedOperationException(unsupported);
+	}
+
+	public Set<V> removeKey(K key) {
+		throw new UnsupportedOperationException(unsupported);
+	}
+
+	public void clear() {
+		throw new UnsupportedOperationException(unsupported);
+	}
+
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				final Iterator<MultiMap.Entry<K, V>> entries = entryIterator();
+				return new Iterator<V>() {
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					public V next() {
+						return entries.next().getValue();
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException(unsupported);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return AbstractMultiMap.this.size();
+			}
+		};
+	}
+
+	public Set<MultiMap.Entry<K, V>> entrySet() {
+		return new AbstractSet<MultiMap.Entry<K, V>>() {
+			@Override
+			public Iterator<MultiMap.Entry<K, V>> iterator() {
+				return entryIterator();
+			}
+
+			@Override
+			public int size() {
+				return AbstractMultiMap.this.size();
+			}
+
+			@Override
+			public boolean contains(Object obj) {
+				if (!(obj instanceof MultiMap.Entry))
+					return false;
+				MultiMap.Entry<?, ?> entry = (MultiMap.Entry<?, ?>) obj;
+				Set<V> values = getByObject(entry.getKey());
+				return values != null && values.contains(entry.getValue());
+			}
+		};
+	}
+
+	/**
+	 * {@link #get(Object)} for a key of unknown type. The key is only
+	 * looked up, never stored, so the erased cast is safe.
+	 */
+	@SuppressWarnings("unchecked")
+	private Set<V> getByObject(Object key) {
+		return get((K) key);
+	}
+
+	/**
+	 * Iterates over all key/value pairs, key by key. Subclasses which can
+	 * walk their entries more directly than through {@link #keySet()} and
+	 * {@link #get(Object)} may override this.
+	 */
+	protected Iterator<MultiMap.Entry<K, V>> entryIterator() {
+		return new EntryIterator();
+	}
+
+	protected static class SimpleEntry<EK, EV> implements MultiMap.Entry<EK, EV> {
+		public SimpleEntry(EK key, EV value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public EK getKey() {
+			return key;
+		}
+
+		public EV getValue() {
+			return value;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof MultiMap.Entry))
+				return false;
+			MultiMap.Entry<?, ?> otherEntry = (MultiMap.Entry<?, ?>) other;
+			return key.equals(otherEntry.getKey())
+					&& (value == null ? otherEntry.getValue() == null : value.equals(otherEntry.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			return (key == null ? 0 : key.hashCode()) + (value == null ? 0 : value.hashCode()) * 17;
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + value;
+		}
+
+		private final EK key;
+		private final EV value;
+	}
+
+	private class EntryIterator implements Iterator<MultiMap.Entry<K, V>> {
+		public EntryIterator() {
+			keyIter = keySet().iterator();
+		}
+
+		public boolean hasNext() {
+			while (valueIter == null || !valueIter.hasNext()) {
+				if (!keyIter.hasNext())
+					return false;
+				curKey = keyIter.next();
+				valueIter = get(curKey).iterator();
+			}
+			return true;
+		}
+
+		public MultiMap.Entry<K, V> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return new SimpleEntry<K, V>(curKey, valueIter.next());
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException(unsupported);
+		}
+
+		private Iterator<K> keyIter;
+		private Iterator<V> valueIter;
+		private K curKey;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other == this)
+			return true;
+		if (!(other instanceof MultiMap))
+			return false;
+		return entrySet().equals(((MultiMap<?, ?>) other).entrySet());
+	}
+
+	/**
+	 * Computed like {@link CompositeMultiMap#hashCode()}: the sum of the hash
+	 * codes of each key's map entry.
+	 */
+	@Override
+	public int hashCode() {
+		int hash = 0;
+		for (K key : keySet())
+			hash += (key == null ? 0 : key.hashCode()) ^ get(key).hashCode();
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer buf = new StringBuffer("{");
+		boolean first = true;
+		for (K key : keySet()) {
+			if (!first)
+				buf.append(", ");
+			first = false;
+			buf.append(key);
+			buf.append('=');
+			buf.append(get(key));
+		}
+		buf.append('}');
+		return buf.toString();
+	}
+
+	protected static final String unsupported = "multimap is read-only";
+}
@@ -35,9 +35,14 @@
 package de.andrena.tools.macker.util.collect;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -98,6 +103,175 @@ public abstract class Graphs {
 		return nodes;
 	}
 
+	/**
+	 * Returns the strongly connected components of the graph made of the
+	 * given nodes and all nodes reachable from them: sets of nodes each of
+	 * which can reach every other. Components come in reverse topological
+	 * order (a component before those which can reach it), and the nodes of
+	 * each in the order they were found. This is Tarjan's algorithm, which
+	 * visits every node and edge once; it keeps its own stack, so deep graphs
+	 * do not overflow the call stack.
+	 */
+
+	public static <N> List<List<N>> stronglyConnectedComponents(Collection<N> nodes, GraphWalker<N> walker) {
+		// For each node: its index in visiting order, the lowest index it
+		// reaches, and whether it is still on the component stack
+		Map<N, int[]> visited = new HashMap<N, int[]>();
+		List<N> stack = new ArrayList<N>();
+		List<N> path = new ArrayList<N>();
+		List<Iterator<N>> pathEdges = new ArrayList<Iterator<N>>();
+		List<List<N>> components = new ArrayList<List<N>>();
+		int count = 0;
+
+		for (N root : nodes) {
+			if (visited.containsKey(root))
+				continue;
+			visited.put(root, new int[] { count, count++, 1 });
+			stack.add(root);
+			path.add(root);
+			pathEdges.add(walker.getEdgesFrom(root).iterator());
+
+			while (!path.isEmpty()) {
+				int top = path.size() - 1;
+				N node = path.get(top);
+				int[] state = visited.get(node);
+				Iterator<N> edges = pathEdges.get(top);
+				if (edges.hasNext()) {
+					N next = edges.next();
+					int[] nextState = visited.get(next);
+					if (nextState == null) {
+						visited.put(next, new int[] { count, count++, 1 });
+						stack.add(next);
+						path.add(next);
+						pathEdges.add(walker.getEdgesFrom(next).iterator());
+					} else if (nextState[2] != 0)
+						state[1] = Math.min(state[1], nextState[0]);
+					continue;
+				}
+
+				path.remove(top);
+				pathEdges.remove(top);
+				if (top > 0) {
+					int[] parentState = visited.get(path.get(top - 1));
+					parentState[1] = Math.min(parentState[1], state[1]);
+				}
+				if (state[1] == state[0]) {
+					int start = stack.size() - 1;
+					while (stack.get(start) != node)
+						start--;
+					List<N> members = stack.subList(start, stack.size());
+					List<N> component = new ArrayList<N>(members);
+					members.clear();
+					for (N member : component)
+						visited.get(member)[2] = 0;
+					components.add(component);
+				}
+			}
+		}
+		return components;
+	}
+
+	/**
+	 * Like {@link #stronglyConnectedComponents(Collection, GraphWalker)}, for
+	 * the graph of the nodes 0 to <tt>rowStart.length - 2</tt> in compressed
+	 * sparse row form: the edges from node <tt>n</tt> go to
+	 * <tt>targets[rowStart[n]]</tt> up to, but not including,
+	 * <tt>targets[rowStart[n + 1]]</tt>. Every node is a root, in ascending
+	 * order. Returns the component of each node, components numbered in
+	 * reverse topological order.
+	 */
+
+	public static int[] stronglyConnectedComponents(int[] rowStart, int[] targets) {
+		int nodeCount = rowStart.length - 1;
+		// For each node: its index in visiting order, the lowest index it
+		// reaches, and its component (-1 while it is still on the stack)
+		int[] index = new int[nodeCount], low = new int[nodeCount], component = new int[nodeCount];
+		Arrays.fill(index, -1);
+		Arrays.fill(component, -1);
+		int[] stack = new int[nodeCount], path = new int[nodeCount], pathEdge = new int[nodeCount];
+		int stackSize = 0, count = 0, components = 0;
+
+		for (int root = 0; root < nodeCount; root++) {
+			if (index[root] >= 0)
+				continue;
+			index[root] = low[root] = count++;
+			stack[stackSize++] = root;
+			path[0] = root;
+			pathEdge[0] = rowStart[root];
+			int pathSize = 1;
+
+			while (pathSize > 0) {
+				int node = path[pathSize - 1];
+				if (pathEdge[pathSize - 1] < rowStart[node + 1]) {
+					int next = targets[pathEdge[pathSize - 1]++];
+					if (index[next] < 0) {
+						index[next] = low[next] = count++;
+						stack[stackSize++] = next;
+						path[pathSize] = next;
+						pathEdge[pathSize++] = rowStart[next];
+					} else if (component[next] < 0)
+						low[node] = Math.min(low[node], index[next]);
+					continue;
+				}
+
+				pathSize--;
+				if (pathSize > 0) {
+					int parent = path[pathSize - 1];
+					low[parent] = Math.min(low[parent], low[node]);
+				}
+				if (low[node] == index[node]) {
+					int member;
+					do {
+						member = stack[--stackSize];
+						component[member] = components;
+					} while (member != node);
+					components++;
+				}
+			}
+		}
+		return component;
+	}
+
+	/**
+	 * Returns a shortest cycle through a node, using only the given nodes
+	 * (such as a strongly connected component), or null if there is none. The
+	 * cycle starts with the node and does not repeat it at the end.
+	 */
+
+	public static <N> List<N> shortestCycle(N node, Set<N> within, GraphWalker<N> walker) {
+		Map<N, N> previous = new HashMap<N, N>();
+		List<N> queue = new ArrayList<N>();
+		queue.add(node);
+		for (int head = 0; head < queue.size(); head++) {
+			N current = queue.get(head);
+			for (N next : walker.getEdgesFrom(current)) {
+				if (next.equals(node)) {
+					List<N> cycle = new ArrayList<N>();
+					for (N n = current; n != null; n = previous.get(n))
+						cycle.add(n);
+					Collections.reverse(cycle);
+					return cycle;
+				}
+				if (within.contains(next) && !previous.containsKey(next)) {
+					previous.put(next, current);
+					queue.add(next);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the paths from a node which end by coming back to a node
+	 * already on them. The number of such paths grows exponentially with the
+	 * size of the graph.
+	 * 
+	 * @deprecated Use {@link #stronglyConnectedComponents(Collection, GraphWalker)}
+	 *             and {@link #shortestCycle(Object, Set, GraphWalker)}, which
+	 *             take linear time.
+	 */
+
+	@Deprecated
 	public static <N> Set<List<N>> findCycles(N initial, GraphWalker<N> walker) {
 		Set<List<N>> cycles = new HashSet<List<N>>(); // ! change to
 														// IdentityHashSet
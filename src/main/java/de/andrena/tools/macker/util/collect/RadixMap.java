@@ -38,45 +38,49 @@
 
 package de.andrena.tools.macker.util.collect;
 
-import java.util.AbstractCollection;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
-
-import de.andrena.tools.macker.util.EnumeratedType;
+import java.util.TreeMap;
 
 /**
- * A map which theoretically has fast lookups, but doesn't actually work very
- * well (yet).
- * 
- * <p align="center">
- * <table cellpadding=4 cellspacing=2 border=0 bgcolor="#338833" width="90%">
- * <tr>
- * <td bgcolor="#EEEEEE">
- * <b>Maturity:</b> All the radix utilities in innig-util are completely
- * experimental. (In particular, this class is not completely implemented!) They
- * may stay; they may improve; they may go away.</td>
- * </tr>
- * <tr>
- * <td bgcolor="#EEEEEE">
- * <b>Plans:</b> Experiment.</td>
- * </tr>
- * </table>
+ * A map kept as a trie over the digits of its keys, as given by a
+ * {@link Radix}. A lookup costs one step per digit of the key, no matter how
+ * many keys the map holds, and keys sharing leading digits share nodes.
+ * <p>
+ * Digits are read from the most significant position of a key down to its
+ * least significant one; keys whose most significant positions differ are
+ * kept in separate tries. Nodes store only the digits actually used, so a
+ * radix may have a very large base (such as one digit per distinct word).
+ * <p>
+ * Besides the map operations, a {@link Cursor} walks the trie one digit at a
+ * time, for searches which are not plain lookups. Iteration goes depth first,
+ * each key before the keys it is a prefix of, children in digit order. Not
+ * thread-safe.
  */
-public class RadixMap extends AbstractMap {
+public class RadixMap<K, V> extends AbstractMap<K, V> {
 	public RadixMap(Radix radix) {
+		if (radix == null)
+			throw new NullPointerException("radix == null");
 		this.radix = radix;
 	}
 
-	public RadixMap(Radix radix, Map otherMap) {
+	public RadixMap(Radix radix, Map<? extends K, ? extends V> otherMap) {
 		this(radix);
 		putAll(otherMap);
 	}
 
+	public Radix getRadix() {
+		return radix;
+	}
+
 	@Override
 	public int size() {
 		return size;
@@ -89,102 +93,55 @@ public class RadixMap extends AbstractMap {
 
 	@Override
 	public boolean containsKey(Object key) {
-		RadixTree tree = getRadixTree(key, false);
-		return (tree == null) ? true : tree.hasValue();
+		Node<K, V> node = find(key, false);
+		return node != null && node.hasValue;
 	}
 
 	@Override
-	public Object get(Object key) {
-		RadixTree tree = getRadixTree(key, false);
-		return (tree == null) ? null : tree.getValue();
+	public V get(Object key) {
+		Node<K, V> node = find(key, false);
+		return (node == null) ? null : node.value;
 	}
 
 	@Override
-	public Object put(Object key, Object value) {
-		RadixTree tree = getRadixTree(key, true);
-		Object oldValue = tree.getValue();
-		tree.setValue(value);
-		size++;
+	public V put(K key, V value) {
+		Node<K, V> node = find(key, true);
+		V oldValue = node.value;
+		if (!node.hasValue) {
+			node.hasValue = true;
+			size++;
+		}
+		node.key = key;
+		node.value = value;
 		version++;
 		return oldValue;
 	}
 
 	@Override
-	public Object remove(Object key) {
-		RadixTree tree = getRadixTree(key, false);
-		if (tree == null || !tree.hasValue())
+	public V remove(Object key) {
+		Node<K, V> node = find(key, false);
+		if (node == null || !node.hasValue)
 			return null;
-		Object oldValue = tree.getValue();
-		tree.removeValue();
-		size--;
-		version++;
-		// trim();
+		V oldValue = node.value;
+		removeValue(node);
+		prune(node);
 		return oldValue;
 	}
 
 	@Override
 	public void clear() {
-		version++;
+		roots.clear();
 		size = 0;
-		root = null;
-	}
-
-	@Override
-	public Set keySet() {
-		if (keys == null)
-			keys = new AbstractSet() {
-				@Override
-				public java.util.Iterator iterator() {
-					return new Iterator(root.getInitialPosition(), root, IteratorType.ENTRIES);
-				}
-
-				@Override
-				public int size() {
-					return size;
-				}
-
-				@Override
-				public boolean remove(Object obj) {
-					return RadixMap.this.remove(obj) != null;
-				}
-
-				@Override
-				public void clear() {
-					RadixMap.this.clear();
-				}
-			};
-		return keys;
-	}
-
-	@Override
-	public Collection values() {
-		if (values == null)
-			values = new AbstractCollection() {
-				@Override
-				public java.util.Iterator iterator() {
-					return new Iterator(root.getInitialPosition(), root, IteratorType.VALUES);
-				}
-
-				@Override
-				public int size() {
-					return RadixMap.this.size();
-				}
-
-				@Override
-				public void clear() {
-					RadixMap.this.clear();
-				}
-			};
-		return values;
+		version++;
 	}
 
 	@Override
-	public Set entrySet() {
+	public Set<Map.Entry<K, V>> entrySet() {
 		if (entries == null)
-			entries = new AbstractSet() {
+			entries = new AbstractSet<Map.Entry<K, V>>() {
 				@Override
-				public java.util.Iterator iterator() {
-					return new Iterator(root.getInitialPosition(), root, IteratorType.ENTRIES);
+				public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntryIterator();
 				}
 
 				@Override
@@ -192,14 +149,6 @@ public class RadixMap extends AbstractMap {
 					return size;
 				}
 
-				@Override
-				public boolean remove(Object obj) {
-					if (!(obj instanceof RadixMap.Entry))
-						return false;
-					RadixMap.Entry entry = (RadixMap.Entry) obj;
-					return RadixMap.this.remove(entry.getKey()) != null;
-				}
-
 				@Override
 				public void clear() {
 					RadixMap.this.clear();
@@ -208,230 +157,205 @@ public class RadixMap extends AbstractMap {
 		return entries;
 	}
 
-	public Radix getRadix() {
-		return radix;
+	/**
+	 * Returns a cursor at the root of the trie for keys whose most
+	 * significant digit is at the given position, or null if there are none.
+	 */
+	public Cursor<K, V> cursor(int maxPosition) {
+		return roots.get(maxPosition);
 	}
 
-	private RadixTree getRadixTree(Object value, boolean create) {
-		int valueMaxPos = radix.getMaxPosition(value), valueMinPos = radix.getMinPosition(value);
-
-		if (root == null || root.getInitialPosition() < valueMaxPos) {
-			if (!create)
-				return null;
-			// inserting ahead of root ... tricky
-			// root = new RadixTree(valueMaxPos);
-			// ////////////
-			// return ..............;
-
-			root = new RadixTree(value, valueMaxPos, valueMinPos);
-
-		}
-
-		RadixTree curTree = root;
-		for (int pos = valueMaxPos; pos >= valueMinPos; pos--) {
-			int digit = radix.digit(value, pos);
-			RadixTree nextTree = curTree.getChild(pos, digit);
-			if (nextTree == null) {
-				if (!create)
-					return null;
-				nextTree = new RadixTree(value, pos - 1, valueMinPos);
-				curTree.setChild(pos, digit, nextTree);
-				// return curTree;
-			}
-			curTree = nextTree;
-		}
-		return curTree; // ?
+	/**
+	 * A node of the trie: the keys sharing the digits on the path to it.
+	 * Cursors are only valid until the map is next modified.
+	 */
+	public interface Cursor<K, V> {
+		/**
+		 * The node reached by one more digit, or null if no key continues
+		 * with that digit.
+		 */
+		public Cursor<K, V> child(int digit);
+
+		/**
+		 * Whether a key ends at this node.
+		 */
+		public boolean hasValue();
+
+		public K getKey();
+
+		public V getValue();
 	}
 
-	private class RadixTree {
-		public RadixTree(Object value, int maxPos, int minPos) {
-			this.minPos = this.maxPos = maxPos;
-			if (minPos <= maxPos)
-				setChild(maxPos, radix.digit(value, maxPos), new RadixTree(value, maxPos - 1, minPos));
-		}
+	// ------------------------------------------------------------------------
+	// Trie
+	// ------------------------------------------------------------------------
 
-		public int getInitialPosition() {
-			return minPos;
-		}
-
-		public RadixTree getChild(int position, int digit) {
-			if (position < minPos || position > maxPos)
-				throw new IllegalArgumentException("illegal position (" + position + " not in [" + minPos + ","
-						+ maxPos + "])");
-			if (children == null)
+	private Node<K, V> find(Object key, boolean create) {
+		int maxPos = radix.getMaxPosition(key), minPos = radix.getMinPosition(key);
+		Node<K, V> node = roots.get(maxPos);
+		if (node == null) {
+			if (!create)
 				return null;
-			return children[digit];
-		}
-
-		public void setChild(int position, int digit, RadixTree tree) {
-			if (position < minPos || position > maxPos)
-				throw new IllegalArgumentException("illegal position (" + position + " not in [" + minPos + ","
-						+ maxPos + "])");
-			if (digit < 0 || digit > radix.getBase())
-				throw new IllegalArgumentException("illegal digit (" + digit + " not in [" + 0 + ","
-						+ (children.length - 1) + "])");
-			if (children == null)
-				children = new RadixTree[radix.getBase()];
-			if ((children[digit] == null) != (tree == null))
-				childCount += (tree == null) ? -1 : 1;
-			children[digit] = tree;
+			roots.put(maxPos, node = new Node<K, V>(null));
 		}
-
-		public boolean hasValue() {
-			return hasValue;
+		for (int pos = maxPos; pos >= minPos && node != null; pos--) {
+			int digit = radix.digit(key, pos);
+			if (digit < 0)
+				break; // past the end of a variable-length key
+			Node<K, V> child = node.child(digit);
+			if (child == null && create)
+				child = node.addChild(digit);
+			node = child;
 		}
+		return node;
+	}
 
-		public Object getValue() {
-			return value;
-		}
+	private void removeValue(Node<K, V> node) {
+		node.hasValue = false;
+		node.key = null;
+		node.value = null;
+		size--;
+		version++;
+	}
 
-		public void setValue(Object value) {
-			hasValue = true;
-			this.value = value;
-		}
+	/**
+	 * Drops the nodes on the way up from <tt>node</tt> which no longer lead to
+	 * any key.
+	 */
+	private void prune(Node<K, V> node) {
+		for (; node.parent != null && !node.hasValue && node.childCount == 0; node = node.parent)
+			node.parent.removeChild(node);
+		if (node.parent == null && !node.hasValue && node.childCount == 0)
+			roots.values().remove(node);
+	}
 
-		public void removeValue() {
-			hasValue = false;
-			value = null;
+	private static final class Node<K, V> implements Cursor<K, V> {
+		Node(Node<K, V> parent) {
+			this.parent = parent;
 		}
 
-		public boolean isEmpty() {
-			return !hasValue && childCount == 0;
+		public Node<K, V> child(int digit) {
+			int index = Arrays.binarySearch(digits, 0, childCount, digit);
+			return (index >= 0) ? children[index] : null;
 		}
 
-		public void dumpTree(int i) {
-			for (int n = i; n > 0; n--)
-				System.out.print(' ');
-			System.out.println("tree @ " + maxPos);
-			if (hasValue) {
-				for (int n = i; n > 0; n--)
-					System.out.print(' ');
-				System.out.println("value: " + value);
+		Node<K, V> addChild(int digit) {
+			int index = -Arrays.binarySearch(digits, 0, childCount, digit) - 1;
+			if (childCount == digits.length) {
+				int capacity = Math.max(2, childCount * 2);
+				digits = Arrays.copyOf(digits, capacity);
+				children = Arrays.copyOf(children, capacity);
 			}
-			if (children != null)
-				for (int child = 0; child < children.length; child++)
-					if (children[child] != null) {
-						for (int n = i; n > 0; n--)
-							System.out.print(' ');
-						System.out.println(child + ": ");
-						children[child].dumpTree(i + 3);
-					}
+			System.arraycopy(digits, index, digits, index + 1, childCount - index);
+			System.arraycopy(children, index, children, index + 1, childCount - index);
+			Node<K, V> child = new Node<K, V>(this);
+			digits[index] = digit;
+			children[index] = child;
+			childCount++;
+			return child;
 		}
 
-		private int minPos, maxPos;
-		private boolean hasValue;
-		private Object value;
-		private int childCount;
-		private RadixTree[] children;
-	}
+		void removeChild(Node<K, V> child) {
+			for (int index = 0; index < childCount; index++)
+				if (children[index] == child) {
+					childCount--;
+					System.arraycopy(digits, index + 1, digits, index, childCount - index);
+					System.arraycopy(children, index + 1, children, index, childCount - index);
+					children[childCount] = null;
+					return;
+				}
+		}
 
-	private class Entry implements Map.Entry {
-		public Entry(Object key, Object value) {
-			this.key = key;
-			this.value = value;
+		public boolean hasValue() {
+			return hasValue;
 		}
 
-		public Object getKey() {
+		public K getKey() {
 			return key;
 		}
 
-		public Object getValue() {
+		public V getValue() {
 			return value;
 		}
 
-		public Object setValue(Object value) {
-			Object oldValue = value;
-			this.value = value;
-			return oldValue;
-		}
-
-		@Override
-		public boolean equals(Object that) {
-			if (this == that)
-				return true;
-			if (that == null || !(that instanceof Map.Entry))
-				return false;
-			Map.Entry thatEntry = (Map.Entry) that;
-			return key.equals(thatEntry.getKey())
-					&& (value == null ? thatEntry.getValue() == null : value.equals(thatEntry.getValue()));
-		}
-
-		@Override
-		public int hashCode() {
-			return key.hashCode() + (value == null ? 0 : value.hashCode() * 23);
-		}
-
-		private Object key;
-		private Object value;
+		private final Node<K, V> parent;
+		private int[] digits = NO_DIGITS;
+		@SuppressWarnings("unchecked")
+		private Node<K, V>[] children = new Node[0];
+		private int childCount;
+		private boolean hasValue;
+		private K key;
+		private V value;
 	}
 
-	private static class IteratorType extends EnumeratedType {
-		public static final IteratorType KEYS = new IteratorType("keys"), VALUES = new IteratorType("values"),
-				ENTRIES = new IteratorType("entries");
-
-		private IteratorType(String name) {
-			super(name);
-		}
-	}
+	// ------------------------------------------------------------------------
+	// Iteration
+	// ------------------------------------------------------------------------
 
-	private class Iterator implements java.util.Iterator {
-		public Iterator(int position, RadixTree tree, IteratorType type) {
-			this.position = position;
-			this.tree = tree;
-			this.type = type;
+	private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		EntryIterator() {
 			expectedVersion = version;
-			curDigit = -1;
-			if (tree != null)
-				handledValue = !tree.hasValue();
+			for (Node<K, V> root : roots.descendingMap().values())
+				pending.add(root);
+			advance();
 		}
 
 		public boolean hasNext() {
 			checkModification();
-			if (tree == null)
-				return false;
-			if (curIter != null && curIter.hasNext())
-				return true;
-			if (!handledValue)
-				return true;
-			for (nextDigit = curDigit + 1; nextDigit < radix.getBase(); nextDigit++) {
-				RadixTree subTree = tree.getChild(position, nextDigit);
-				if (subTree != null) {
-					nextIter = new Iterator(position - 1, subTree, type);
-					if (nextIter.hasNext())
-						return true;
-				}
-			}
-			return false;
+			return next != null;
 		}
 
-		public Object next() {
+		public Map.Entry<K, V> next() {
 			if (!hasNext())
 				throw new NoSuchElementException();
+			last = next;
+			advance();
+			final Node<K, V> node = last;
+			return new SimpleEntry<K, V>(node.key, node.value) {
+				@Override
+				public V setValue(V value) {
+					checkModification();
+					node.value = value;
+					return super.setValue(value);
+				}
 
-			if (!handledValue) {
-				handledValue = true;
-				if (type == IteratorType.VALUES)
-					return tree.getValue();
-				throw new UnsupportedOperationException();
-			}
-
-			curDigit = nextDigit;
-			curIter = nextIter;
-			return curIter.next();
+				private static final long serialVersionUID = 1L;
+			};
 		}
 
+		/**
+		 * Nodes are only pruned once the iteration reaches the end, since the
+		 * pending list may refer to them.
+		 */
 		public void remove() {
-			if (curIter != null) {
-				curIter.remove();
-				expectedVersion = version;
-				return;
-			}
 			checkModification();
-			if (tree == null || !tree.hasValue())
+			if (last == null || !last.hasValue)
 				throw new IllegalStateException("no element to remove");
-			tree.removeValue();
-			size--;
-			expectedVersion = ++version;
+			removeValue(last);
+			removed.add(last);
+			last = null;
+			expectedVersion = version;
+			if (next == null)
+				pruneRemoved();
+		}
+
+		private void advance() {
+			next = null;
+			while (next == null && !pending.isEmpty()) {
+				Node<K, V> node = pending.remove(pending.size() - 1);
+				for (int index = node.childCount - 1; index >= 0; index--)
+					pending.add(node.children[index]);
+				if (node.hasValue)
+					next = node;
+			}
+			if (next == null)
+				pruneRemoved();
+		}
+
+		private void pruneRemoved() {
+			for (Node<K, V> node : removed)
+				prune(node);
+			removed.clear();
 		}
 
 		private void checkModification() {
@@ -440,29 +364,16 @@ public class RadixMap extends AbstractMap {
 						+ ")");
 		}
 
-		private final int position;
-		private final RadixTree tree;
-		private final IteratorType type;
+		private final List<Node<K, V>> pending = new ArrayList<Node<K, V>>(), removed = new ArrayList<Node<K, V>>();
+		private Node<K, V> next, last;
 		private long expectedVersion;
-		private int curDigit, nextDigit;
-		private Iterator curIter, nextIter;
-		private boolean handledValue;
 	}
 
+	private final Radix radix;
+	private final TreeMap<Integer, Node<K, V>> roots = new TreeMap<Integer, Node<K, V>>();
 	private int size;
-	private Radix radix;
-	private RadixTree root;
-	private Set keys, entries;
-	private Collection values;
+	private long version;
+	private Set<Map.Entry<K, V>> entries;
 
-	private transient long version;
-
-	@Override
-	public String toString() {
-		return getClass().getName();
-	}
-
-	public void dump() {
-		root.dumpTree(0);
-	}
+	private static final int[] NO_DIGITS = new int[0];
 }
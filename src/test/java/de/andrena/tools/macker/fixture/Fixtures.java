@@ -0,0 +1,32 @@
+package de.andrena.tools.macker.fixture;
+
+import de.andrena.tools.macker.fixture.data.Entry;
+import de.andrena.tools.macker.fixture.data.Record;
+import de.andrena.tools.macker.fixture.data.Store;
+import de.andrena.tools.macker.fixture.service.Listener;
+import de.andrena.tools.macker.fixture.service.Service;
+import de.andrena.tools.macker.fixture.ui.Shortcut;
+import de.andrena.tools.macker.fixture.ui.View;
+
+/**
+ * Classes with a known reference graph for the rule tests. The packages are
+ * layered <tt>ui</tt>, <tt>service</tt>, <tt>data</tt>; the classes refer to
+ * each other through their fields and supertypes only:
+ * 
+ * <pre>
+ * ui.View         -&gt; service.Service
+ * ui.Shortcut     -&gt; data.Store                     (skips the service layer)
+ * service.Service -&gt; data.Store, service.Listener   (implements it)
+ * data.Store      -&gt; data.Record, service.Listener  (against the layers)
+ * data.Record     -&gt; data.Store                     (a class cycle)
+ * data.Entry      -&gt; data.Record                    (extends it)
+ * </pre>
+ */
+public final class Fixtures {
+
+	public static final Class<?>[] CLASSES = { View.class, Shortcut.class, Listener.class, Service.class,
+			Store.class, Record.class, Entry.class };
+
+	private Fixtures() {
+	}
+}
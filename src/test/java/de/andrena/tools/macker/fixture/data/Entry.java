@@ -0,0 +1,4 @@
+package de.andrena.tools.macker.fixture.data;
+
+public class Entry extends Record {
+}
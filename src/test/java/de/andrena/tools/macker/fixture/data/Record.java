@@ -0,0 +1,5 @@
+package de.andrena.tools.macker.fixture.data;
+
+public class Record {
+	Store owner;
+}
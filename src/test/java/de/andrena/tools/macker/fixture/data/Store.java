@@ -0,0 +1,8 @@
+package de.andrena.tools.macker.fixture.data;
+
+import de.andrena.tools.macker.fixture.service.Listener;
+
+public class Store {
+	Record record;
+	Listener listener;
+}
@@ -0,0 +1,4 @@
+package de.andrena.tools.macker.fixture.service;
+
+public interface Listener {
+}
@@ -0,0 +1,7 @@
+package de.andrena.tools.macker.fixture.service;
+
+import de.andrena.tools.macker.fixture.data.Store;
+
+public class Service implements Listener {
+	Store store;
+}
@@ -0,0 +1,7 @@
+package de.andrena.tools.macker.fixture.ui;
+
+import de.andrena.tools.macker.fixture.data.Store;
+
+public class Shortcut {
+	Store store;
+}
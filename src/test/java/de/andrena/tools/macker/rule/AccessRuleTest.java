@@ -0,0 +1,182 @@
+package de.andrena.tools.macker.rule;
+
+import static de.andrena.tools.macker.rule.RuleTestSupport.primaryClasses;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.andrena.tools.macker.event.AccessRuleViolation;
+import de.andrena.tools.macker.event.MackerEvent;
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+
+public class AccessRuleTest {
+
+	private ClassManager classManager;
+	private RuleSet ruleSet;
+
+	@Before
+	public void setUp() throws Exception {
+		classManager = primaryClasses(AccessRule.class, DecisionProgram.class, EvaluationContext.class,
+				MackerRegex.class, RuleSet.class, ClassManager.class, ClassInfo.class);
+
+		ruleSet = new RuleSet(RuleSet.getMackerDefaults());
+		AccessRule toUtil = new AccessRule(ruleSet);
+		toUtil.setTo(new RegexPattern("java.util.**"));
+		toUtil.setMessage("${from} uses ${to-package}.${to}");
+		ruleSet.addRule(toUtil);
+		// The pattern depends on the variables of the reference being checked
+		AccessRule samePackage = new AccessRule(ruleSet);
+		samePackage.setTo(new RegexPattern("${from-package}.*"));
+		samePackage.setMessage("${from-full} -> ${to-full}");
+		ruleSet.addRule(samePackage);
+	}
+
+	@Test
+	public void check_ParallelReportsInSerialOrder() throws Exception {
+		List<String> serial = check(null);
+		assertThat(serial.isEmpty(), is(false));
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			List<String> parallel = check(pool);
+			assertThat(parallel, is(serial));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void check_VariablePatternPerReference() throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			List<String> violations = check(pool);
+			assertThat(violations,
+					hasItem("de.andrena.tools.macker.rule.AccessRule -> de.andrena.tools.macker.rule.DecisionProgram"));
+			assertThat(violations, not(hasItem(
+					"de.andrena.tools.macker.rule.AccessRule -> de.andrena.tools.macker.structure.ClassInfo")));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void decidedByPackage_PackagePatternsOnly() throws Exception {
+		for (Object rule : ruleSet.getRules())
+			assertThat(AccessRule.decidedByPackage((AccessRule) rule), is(true));
+
+		AccessRule byClass = new AccessRule(ruleSet);
+		byClass.setTo(new RegexPattern("java.util.List"));
+		assertThat(AccessRule.decidedByPackage(byClass), is(false));
+		AccessRule byVariable = new AccessRule(ruleSet);
+		byVariable.setTo(new RegexPattern("${from-full}*"));
+		assertThat(AccessRule.decidedByPackage(byVariable), is(false));
+	}
+
+	@Test
+	public void referenceVariables_OnlyThoseRead() throws Exception {
+		AccessRule toUtil = (AccessRule) ruleSet.getRules().iterator().next();
+		assertThat(toUtil.referenceVariables(ruleSet),
+				is((1 << VariableSlots.FROM) | (1 << VariableSlots.TO) | (1 << VariableSlots.TO_PACKAGE)));
+
+		AccessRule unnamed = new AccessRule(ruleSet);
+		unnamed.setTo(new RegexPattern("java.**"));
+		assertThat(unnamed.referenceVariables(ruleSet), is(0));
+		ruleSet.setSubsetPattern(new RegexPattern("${from-full}"));
+		assertThat(unnamed.referenceVariables(ruleSet), is(1 << VariableSlots.FROM_FULL));
+		unnamed.setFrom(new Pattern() {
+			public boolean matches(EvaluationContext context, ClassInfo classInfo) {
+				return true;
+			}
+		});
+		assertThat(unnamed.referenceVariables(ruleSet), is(VariableSlots.REFERENCE_VARIABLES));
+	}
+
+	@Test
+	public void check_NestedClassesNotDecidedByPackage() throws Exception {
+		ruleSet = new RuleSet(RuleSet.getMackerDefaults());
+		AccessRule toNested = new AccessRule(ruleSet);
+		toNested.setTo(new RegexPattern(AccessRule.class.getName() + ".*"));
+		toNested.setMessage("${to-full}");
+		ruleSet.addRule(toNested);
+		assertThat(AccessRule.decidedByPackage(toNested), is(true));
+
+		List<String> violations = check(null);
+		assertThat(violations, hasItem(AccessRule.class.getName() + "$Chunk"));
+		assertThat(violations, not(hasItem(DecisionProgram.class.getName())));
+	}
+
+	@Test
+	public void getProgram_KeptUntilTheRulesChange() throws Exception {
+		AccessRule rule = new AccessRule(ruleSet);
+		AccessRule child = new AccessRule(ruleSet);
+		rule.setChild(child);
+		DecisionProgram program = rule.getProgram();
+		assertThat(rule.getProgram(), is(sameInstance(program)));
+
+		child.setTo(new RegexPattern("java.util.**"));
+		assertThat(rule.getProgram(), is(not(sameInstance(program))));
+	}
+
+	@Test
+	public void check_ForEachVisitsReferencesOfItsValueOnly() throws Exception {
+		RuleSet body = new RuleSet(ruleSet);
+		AccessRule fromModule = new AccessRule(body);
+		fromModule.setFrom(new RegexPattern("${module}.*"));
+		fromModule.setTo(new RegexPattern("java.util.**"));
+		fromModule.setMessage("${module}: ${from} -> ${to}");
+		body.addRule(fromModule);
+		ReferenceIndex index = new ReferenceIndex("module", classManager);
+		assertThat(index.narrows(fromModule), is(true));
+		AccessRule allowFirst = new AccessRule(body);
+		allowFirst.setType(AccessRuleType.ALLOW);
+		allowFirst.setFrom(new RegexPattern("${module}.*"));
+		assertThat(index.narrows(allowFirst), is(false));
+
+		// Each value checked over all references, without an index
+		List<String> expected = new ArrayList<String>();
+		RuleSet parent = ruleSet;
+		ruleSet = body;
+		for (String module : new String[] { "de.andrena.tools.macker.rule", "de.andrena.tools.macker.structure" })
+			expected.addAll(check(null, module));
+		assertThat(expected.isEmpty(), is(false));
+
+		ruleSet = new RuleSet(parent);
+		ForEach forEach = new ForEach(ruleSet);
+		forEach.setVariableName("module");
+		forEach.setRegex("(de.andrena.tools.macker.*).*");
+		forEach.setRuleSet(body);
+		ruleSet.addRule(forEach);
+		assertThat(check(null), is(expected));
+	}
+
+	private List<String> check(ForkJoinPool pool) throws Exception {
+		return check(pool, null);
+	}
+
+	private List<String> check(ForkJoinPool pool, String module) throws Exception {
+		final List<String> violations = new ArrayList<String>();
+		EvaluationContext context = new EvaluationContext(classManager, ruleSet);
+		if (module != null)
+			context.setVariableValue("module", module);
+		context.setRulePool(pool);
+		context.addListener(new RuleTestSupport.ListenerAdapter() {
+			@Override
+			public void handleMackerEvent(RuleSet ruleSet, MackerEvent event) {
+				if (event instanceof AccessRuleViolation)
+					violations.addAll(event.getMessages());
+			}
+		});
+		ruleSet.check(context, classManager);
+		return violations;
+	}
+}
@@ -0,0 +1,55 @@
+package de.andrena.tools.macker.rule;
+
+import static de.andrena.tools.macker.rule.RuleTestSupport.primaryClasses;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.andrena.tools.macker.event.CycleViolation;
+import de.andrena.tools.macker.fixture.Fixtures;
+import de.andrena.tools.macker.fixture.data.Record;
+import de.andrena.tools.macker.fixture.data.Store;
+import de.andrena.tools.macker.structure.ClassManager;
+
+public class CycleRuleTest {
+
+	private ClassManager classManager;
+
+	@Before
+	public void setUp() throws Exception {
+		classManager = primaryClasses(Fixtures.CLASSES);
+	}
+
+	@Test
+	public void check_PackageCycle() throws Exception {
+		List<CycleViolation> violations = check("<no-cycles class='de.andrena.tools.macker.fixture.**'/>");
+		assertThat(violations.size(), is(1));
+		assertThat(violations.get(0).getMembers(),
+				contains("de.andrena.tools.macker.fixture.data", "de.andrena.tools.macker.fixture.service"));
+		assertThat(violations.get(0).getCycle(),
+				contains("de.andrena.tools.macker.fixture.data", "de.andrena.tools.macker.fixture.service"));
+	}
+
+	@Test
+	public void check_ClassCycleWithinScope() throws Exception {
+		List<CycleViolation> violations = check("<no-cycles level='class' class='de.andrena.tools.macker.fixture.**'>"
+				+ "<message>no cycles</message></no-cycles>");
+		assertThat(violations.size(), is(1));
+		assertThat(violations.get(0).getMembers(), contains(Record.class.getName(), Store.class.getName()));
+		assertThat(violations.get(0).getCycle(), contains(Record.class.getName(), Store.class.getName()));
+		assertThat(violations.get(0).getMessages(), contains("no cycles"));
+
+		// Service reaches Listener through Store, but nothing leads back
+		assertThat(check("<no-cycles level='class' class='de.andrena.tools.macker.fixture.service.**'/>").isEmpty(),
+				is(true));
+	}
+
+	private List<CycleViolation> check(String rule) throws Exception {
+		return RuleTestSupport.check(classManager, rule, CycleViolation.class);
+	}
+}
@@ -0,0 +1,168 @@
+package de.andrena.tools.macker.rule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+import de.andrena.tools.macker.util.CostHint;
+import de.andrena.tools.macker.util.IncludeExcludeLogic;
+import de.andrena.tools.macker.util.IncludeExcludeNode;
+
+public class DecisionProgramTest {
+
+	private final Random random = new Random(42);
+	private final ClassManager classManager = new ClassManager();
+	private final RuleSet ruleSet = new RuleSet(RuleSet.getMackerDefaults());
+	private final EvaluationContext context = new EvaluationContext(classManager, ruleSet);
+	private final ClassInfo from = classManager.getClassInfo("a.From"), to = classManager.getClassInfo("b.To");
+
+	@Test
+	public void matches_SameAsIncludeExcludeLogic() throws Exception {
+		for (int n = 0; n < 5000; n++) {
+			Pattern pattern = randomPattern(3);
+			assertThat(pattern.toString(), DecisionProgram.compile(pattern).matches(context, from),
+					is(referenceMatches(pattern)));
+		}
+	}
+
+	@Test
+	public void allows_SameAsIncludeExcludeLogic() throws Exception {
+		for (int n = 0; n < 5000; n++) {
+			AccessRule rule = randomRule(ruleSet, 3);
+			assertThat(DecisionProgram.compile(rule).allows(context, from, to),
+					is(IncludeExcludeLogic.apply(referenceNode(rule))));
+		}
+	}
+
+	@Test
+	public void matches_SharedPattern() throws Exception {
+		Pattern shared = CompositePattern.create(CompositePatternType.EXCLUDE, leaf(true, false), null, null);
+		Pattern pattern = CompositePattern.create(CompositePatternType.INCLUDE, shared, shared, shared);
+		assertThat(DecisionProgram.compile(pattern).matches(context, from), is(referenceMatches(pattern)));
+	}
+
+	private Pattern randomPattern(int depth) {
+		if (depth == 0 || random.nextInt(3) == 0)
+			return leaf(random.nextBoolean(), random.nextBoolean());
+		CompositePatternType type = random.nextBoolean() ? CompositePatternType.INCLUDE
+				: CompositePatternType.EXCLUDE;
+		return CompositePattern.create(type, randomPattern(depth - 1),
+				random.nextBoolean() ? randomPattern(depth - 1) : null,
+				random.nextBoolean() ? randomPattern(depth - 1) : null);
+	}
+
+	private AccessRule randomRule(RuleSet ruleSet, int depth) {
+		AccessRule first = null, previous = null;
+		for (int n = random.nextInt(3); n >= 0; n--) {
+			AccessRule rule = new AccessRule(ruleSet);
+			rule.setType(random.nextBoolean() ? AccessRuleType.ALLOW : AccessRuleType.DENY);
+			rule.setFrom(randomPattern(depth - 1));
+			rule.setTo(randomPattern(depth - 1));
+			if (depth > 1 && random.nextBoolean())
+				rule.setChild(randomRule(ruleSet, depth - 1));
+			if (first == null)
+				first = rule;
+			else
+				previous.setNext(rule);
+			previous = rule;
+		}
+		return first;
+	}
+
+	private static Pattern leaf(final boolean matches, boolean costly) {
+		final Set<ClassAttribute> attributes = ClassAttribute.of(costly ? ClassAttribute.FLAGS : ClassAttribute.NAME);
+		return new AttributePattern() {
+			public boolean matches(EvaluationContext context, ClassInfo classInfo) {
+				return matches;
+			}
+
+			public Set<ClassAttribute> getAttributes() {
+				return attributes;
+			}
+
+			@Override
+			public String toString() {
+				return String.valueOf(matches);
+			}
+		};
+	}
+
+	// Evaluation through IncludeExcludeNode objects, as before compiling
+
+	private static boolean referenceMatches(Pattern pattern) throws RulesException {
+		if (pattern instanceof CompositePattern)
+			return IncludeExcludeLogic.apply(referenceNode(pattern));
+		return pattern.matches(null, null);
+	}
+
+	private static IncludeExcludeNode referenceNode(final Pattern pattern) {
+		if (pattern == null)
+			return null;
+		final boolean include;
+		final Pattern head, child, next;
+		if (pattern instanceof CompositePattern) {
+			CompositePattern compositePat = (CompositePattern) pattern;
+			include = compositePat.getType() == CompositePatternType.INCLUDE;
+			head = compositePat.getHead();
+			child = compositePat.getChild();
+			next = compositePat.getNext();
+		} else {
+			include = true;
+			head = pattern;
+			child = next = null;
+		}
+		return new CostHint() {
+			public boolean isInclude() {
+				return include;
+			}
+
+			public boolean matches() throws RulesException {
+				return referenceMatches(head);
+			}
+
+			public boolean isCostly() {
+				return ClassAttribute.needClassFile(ClassAttribute.readBy(head, child));
+			}
+
+			public IncludeExcludeNode getChild() {
+				return referenceNode(child);
+			}
+
+			public IncludeExcludeNode getNext() {
+				return referenceNode(next);
+			}
+		};
+	}
+
+	private static IncludeExcludeNode referenceNode(final AccessRule rule) {
+		if (rule == null)
+			return null;
+		return new CostHint() {
+			public boolean isInclude() {
+				return rule.getType() == AccessRuleType.ALLOW;
+			}
+
+			public boolean matches() throws RulesException {
+				return referenceMatches(rule.getFrom()) && referenceMatches(rule.getTo());
+			}
+
+			public boolean isCostly() {
+				return rule.isCostly();
+			}
+
+			public IncludeExcludeNode getChild() {
+				return referenceNode(rule.getChild());
+			}
+
+			public IncludeExcludeNode getNext() {
+				return referenceNode(rule.getNext());
+			}
+		};
+	}
+}
@@ -0,0 +1,111 @@
+package de.andrena.tools.macker.rule;
+
+import static de.andrena.tools.macker.rule.RuleTestSupport.primaryClasses;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.andrena.tools.macker.event.ForEachIterationStarted;
+import de.andrena.tools.macker.event.MackerEvent;
+import de.andrena.tools.macker.event.MackerEventListener;
+import de.andrena.tools.macker.event.MackerIsMadException;
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+
+public class ForEachTest {
+
+	private ClassManager classManager;
+	private RuleSet ruleSet;
+
+	@Before
+	public void setUp() throws Exception {
+		classManager = primaryClasses(AccessRule.class, ForEach.class, EvaluationContext.class, ClassManager.class,
+				ClassInfo.class);
+
+		ruleSet = new RuleSet(RuleSet.getMackerDefaults());
+		ForEach forEach = new ForEach(ruleSet);
+		forEach.setVariableName("package");
+		forEach.setRegex("(**).*");
+		RuleSet body = new RuleSet(ruleSet);
+		AccessRule toOthers = new AccessRule(body);
+		toOthers.setFrom(new RegexPattern("${package}.*"));
+		toOthers.setMessage("${package}: ${from} -> ${to-full}");
+		body.addRule(toOthers);
+		AccessRule sameName = new AccessRule(body);
+		sameName.setType(AccessRuleType.ALLOW);
+		sameName.setTo(new RegexPattern("${package}.**"));
+		toOthers.setChild(sameName);
+		forEach.setRuleSet(body);
+		ruleSet.addRule(forEach);
+	}
+
+	@Test
+	public void check_ParallelIterationsReportInSerialOrder() throws Exception {
+		List<String> serial = check(null, -1);
+		assertThat(serial.size() > 10, is(true));
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertThat(check(pool, -1), is(serial));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void check_ParallelIterationsStopWhereSerialStops() throws Exception {
+		List<String> serial = check(null, 3);
+		assertThat(serial, hasItem("aborted"));
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertThat(check(pool, 3), is(serial));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Lists what listeners see; a listener throws at the iteration numbered
+	 * <tt>madAt</tt>, if any.
+	 */
+	private List<String> check(ForkJoinPool pool, final int madAt) throws Exception {
+		final List<String> log = new ArrayList<String>();
+		EvaluationContext context = new EvaluationContext(classManager, ruleSet);
+		context.setRulePool(pool);
+		context.addListener(new MackerEventListener() {
+			public void mackerStarted(RuleSet ruleSet) {
+				log.add("started");
+			}
+
+			public void mackerFinished(RuleSet ruleSet) {
+				log.add("finished");
+			}
+
+			public void mackerAborted(RuleSet ruleSet) {
+				log.add("aborted");
+			}
+
+			public void handleMackerEvent(RuleSet ruleSet, MackerEvent event) throws MackerIsMadException {
+				log.add(event.getClass().getSimpleName() + " " + event.getDescription() + " " + event.getMessages());
+				if (event instanceof ForEachIterationStarted && ++iterations == madAt)
+					throw new MackerIsMadException(event);
+			}
+
+			private int iterations;
+		});
+		try {
+			ruleSet.check(context, classManager);
+		} catch (MackerIsMadException mime) {
+			log.add("mad");
+		}
+		return log;
+	}
+}
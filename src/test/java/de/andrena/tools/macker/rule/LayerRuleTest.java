@@ -0,0 +1,60 @@
+package de.andrena.tools.macker.rule;
+
+import static de.andrena.tools.macker.rule.RuleTestSupport.primaryClasses;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.andrena.tools.macker.event.LayerViolation;
+import de.andrena.tools.macker.fixture.Fixtures;
+import de.andrena.tools.macker.structure.ClassManager;
+
+public class LayerRuleTest {
+
+	private static final String LAYERS = "<layer name='ui' class='de.andrena.tools.macker.fixture.ui.**'/>"
+			+ "<layer name='service' class='de.andrena.tools.macker.fixture.service.**'/>"
+			+ "<layer name='data' class='de.andrena.tools.macker.fixture.data.**'/>";
+
+	private ClassManager classManager;
+
+	@Before
+	public void setUp() throws Exception {
+		classManager = primaryClasses(Fixtures.CLASSES);
+	}
+
+	@Test
+	public void check_Relaxed() throws Exception {
+		List<LayerViolation> violations = check("<layers><message>${from-layer} uses ${to-layer}: ${from}</message>"
+				+ LAYERS + "</layers>");
+		// Store's listener is the only reference against the layers
+		assertThat(violations.size(), is(1));
+		assertThat(violations.get(0).getFromLayer(), is("data"));
+		assertThat(violations.get(0).getToLayer(), is("service"));
+		assertThat(violations.get(0).getMessages(), contains("data uses service: Store"));
+	}
+
+	@Test
+	public void check_StrictForbidsSkippingLayers() throws Exception {
+		Set<String> layerPairs = layerPairs(check("<layers mode='strict'>" + LAYERS + "</layers>"));
+		assertThat(layerPairs, containsInAnyOrder("data service", "ui data"));
+	}
+
+	private Set<String> layerPairs(List<LayerViolation> violations) {
+		Set<String> layerPairs = new HashSet<String>();
+		for (LayerViolation violation : violations)
+			layerPairs.add(violation.getFromLayer() + " " + violation.getToLayer());
+		return layerPairs;
+	}
+
+	private List<LayerViolation> check(String rule) throws Exception {
+		return RuleTestSupport.check(classManager, rule, LayerViolation.class);
+	}
+}
@@ -0,0 +1,49 @@
+package de.andrena.tools.macker.rule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.andrena.tools.macker.structure.ClassManager;
+
+public class MackerRegexTest {
+
+	private EvaluationContext context;
+
+	@Before
+	public void setUp() {
+		context = new EvaluationContext(new ClassManager(), new RuleSet(RuleSet.getMackerDefaults()));
+	}
+
+	@Test
+	public void getMatch_RevisitedBindings() throws Exception {
+		MackerRegex regex = new MackerRegex("${base}.(*).**");
+		for (int n = 0; n < 2; n++) {
+			context.setVariableValue("base", "a");
+			assertThat(regex.getMatch(context, "a.b.C"), is("b"));
+			assertThat(regex.getMatch(context, "x.b.C"), is(nullValue()));
+			context.setVariableValue("base", "x");
+			assertThat(regex.getMatch(context, "a.b.C"), is(nullValue()));
+			assertThat(regex.getMatch(context, "x.b.C"), is("b"));
+		}
+	}
+
+	@Test
+	public void getMatch_SameRegexpSharedBetweenPatterns() throws Exception {
+		MackerRegex first = new MackerRegex("${v}.*"), second = new MackerRegex("a.${w}");
+		context.setVariableValue("v", "a");
+		context.setVariableValue("w", "*");
+		assertThat(first.matches(context, "a.B"), is(true));
+		assertThat(second.matches(context, "a.B"), is(true));
+		assertThat(second.matches(context, "b.B"), is(false));
+	}
+
+	@Test(expected = MackerRegexSyntaxException.class)
+	public void getMatch_BadVariableValue() throws Exception {
+		context.setVariableValue("v", "a(");
+		new MackerRegex("${v}.*").matches(context, "a.B");
+	}
+}
@@ -0,0 +1,127 @@
+package de.andrena.tools.macker.rule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+
+public class MatchMatrixTest {
+
+	private ClassManager classManager;
+	private EvaluationContext context;
+	private ClassInfo first, second;
+
+	@Before
+	public void setUp() {
+		classManager = new ClassManager();
+		context = new EvaluationContext(classManager, new RuleSet(RuleSet.getMackerDefaults()));
+		first = classManager.getClassInfo("a.First");
+		second = classManager.getClassInfo("a.Second");
+	}
+
+	@Test
+	public void matches_VariableIndependentOncePerClass() throws Exception {
+		CountingPattern pattern = new CountingPattern(Collections.<String> emptySet());
+		MatchMatrix.Row row = context.getMatchMatrix().rowsOf(new Pattern[] { pattern })[0];
+		for (int n = 0; n < 3; n++) {
+			assertThat(row.matches(context, first), is(true));
+			assertThat(row.matches(context, second), is(false));
+		}
+		assertThat(pattern.count, is(2));
+	}
+
+	@Test
+	public void matches_VariableDependentOncePerBinding() throws Exception {
+		CountingPattern pattern = new CountingPattern(Collections.singleton("v"));
+		MatchMatrix.Row row = context.getMatchMatrix().rowsOf(new Pattern[] { pattern })[0];
+		for (String value : new String[] { "x", "y", "x", "y" }) {
+			context.setVariableValue("v", value);
+			row.matches(context, first);
+		}
+		assertThat(pattern.count, is(2));
+	}
+
+	@Test
+	public void matches_VariableValuesComparedWhole() throws Exception {
+		CountingPattern pattern = new CountingPattern(new HashSet<String>(Arrays.asList("v", "w")));
+		MatchMatrix.Row row = context.getMatchMatrix().rowsOf(new Pattern[] { pattern })[0];
+		context.setVariableValue("v", "x\0y");
+		context.setVariableValue("w", "z");
+		row.matches(context, first);
+		context.setVariableValue("v", "x");
+		context.setVariableValue("w", "y\0z");
+		row.matches(context, first);
+		context.setVariableValue("v", new String("x"));
+		row.matches(context, first);
+		assertThat(pattern.count, is(2));
+	}
+
+	@Test
+	public void matches_SharedBetweenRootContexts() throws Exception {
+		CountingPattern pattern = new CountingPattern(Collections.<String> emptySet());
+		EvaluationContext other = new EvaluationContext(classManager, new RuleSet(RuleSet.getMackerDefaults()));
+		other.setMatchMatrix(context.getMatchMatrix());
+		context.getMatchMatrix().rowsOf(new Pattern[] { pattern })[0].matches(context, first);
+		other.getMatchMatrix().rowsOf(new Pattern[] { pattern })[0].matches(other, first);
+		assertThat(pattern.count, is(1));
+	}
+
+	@Test
+	public void matches_UndeclaredVariablesEveryTime() throws Exception {
+		CountingPattern pattern = new CountingPattern(null);
+		MatchMatrix.Row row = context.getMatchMatrix().rowsOf(new Pattern[] { pattern })[0];
+		row.matches(context, first);
+		row.matches(context, first);
+		assertThat(pattern.count, is(2));
+	}
+
+	@Test
+	public void matches_AttributePatternWithoutVariablesEveryTime() throws Exception {
+		final int[] count = new int[1];
+		Pattern pattern = new AttributePattern() {
+			public boolean matches(EvaluationContext context, ClassInfo classInfo) {
+				count[0]++;
+				return true;
+			}
+
+			public Set<ClassAttribute> getAttributes() {
+				return ClassAttribute.of(ClassAttribute.NAME);
+			}
+		};
+		MatchMatrix.Row row = context.getMatchMatrix().rowsOf(new Pattern[] { pattern })[0];
+		row.matches(context, first);
+		row.matches(context, first);
+		assertThat(count[0], is(2));
+	}
+
+	private static class CountingPattern implements AttributePattern, VariablePattern {
+		CountingPattern(Set<String> variables) {
+			this.variables = variables;
+		}
+
+		public boolean matches(EvaluationContext context, ClassInfo classInfo) {
+			count++;
+			return classInfo.getClassName().equals("First");
+		}
+
+		public Set<ClassAttribute> getAttributes() {
+			return ClassAttribute.of(ClassAttribute.NAME);
+		}
+
+		public Set<String> getVariables() {
+			return variables;
+		}
+
+		private final Set<String> variables;
+		private int count;
+	}
+}
@@ -0,0 +1,63 @@
+package de.andrena.tools.macker.rule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.andrena.tools.macker.structure.ClassManager;
+
+public class PatternTrieTest {
+
+	private static final String[] SEGMENTS = { "a", "b", "Foo", "*", "**" };
+	private static final String[] NAME_SEGMENTS = { "a", "b", "Foo", "Bar" };
+
+	private final Random random = new Random(11);
+
+	@Test
+	public void match_SameAsRegex() throws Exception {
+		EvaluationContext context = new EvaluationContext(new ClassManager(), new RuleSet(
+				RuleSet.getMackerDefaults()));
+		List<String> patterns = new ArrayList<String>();
+		List<MackerRegex> regexes = new ArrayList<MackerRegex>();
+		for (int n = 0; n < 200; n++) {
+			String pattern = randomJoin(SEGMENTS, ".");
+			patterns.add(pattern);
+			regexes.add(new MackerRegex(pattern));
+		}
+		PatternTrie trie = new PatternTrie(patterns);
+
+		for (int n = 0; n < 2000; n++) {
+			String name = randomJoin(NAME_SEGMENTS, random.nextInt(4) == 0 ? "$" : ".");
+			BitSet matches = trie.match(name);
+			for (int index = 0; index < patterns.size(); index++)
+				assertThat(patterns.get(index) + " ~ " + name, matches.get(index),
+						is(regexes.get(index).matches(context, name)));
+		}
+	}
+
+	@Test
+	public void accepts_WholeSegmentsOnly() {
+		assertThat(PatternTrie.accepts("de.andrena.**"), is(true));
+		assertThat(PatternTrie.accepts("*.Foo"), is(true));
+		assertThat(PatternTrie.accepts("de.Foo*"), is(false));
+		assertThat(PatternTrie.accepts("${module}.**"), is(false));
+		assertThat(PatternTrie.accepts("(de.*).**"), is(false));
+		assertThat(PatternTrie.accepts("de/Foo"), is(false));
+	}
+
+	private String randomJoin(String[] segments, String separator) {
+		StringBuilder joined = new StringBuilder();
+		for (int n = random.nextInt(4); n >= 0; n--) {
+			if (joined.length() > 0)
+				joined.append(random.nextInt(3) == 0 ? separator : ".");
+			joined.append(segments[random.nextInt(segments.length)]);
+		}
+		return joined.toString();
+	}
+}
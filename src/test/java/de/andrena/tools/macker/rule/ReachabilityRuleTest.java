@@ -0,0 +1,80 @@
+package de.andrena.tools.macker.rule;
+
+import static de.andrena.tools.macker.rule.RuleTestSupport.primaryClasses;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom.Element;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.andrena.tools.macker.event.ReachabilityViolation;
+import de.andrena.tools.macker.fixture.Fixtures;
+import de.andrena.tools.macker.fixture.data.Entry;
+import de.andrena.tools.macker.fixture.data.Record;
+import de.andrena.tools.macker.fixture.data.Store;
+import de.andrena.tools.macker.fixture.service.Service;
+import de.andrena.tools.macker.fixture.ui.View;
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+
+public class ReachabilityRuleTest {
+
+	private ClassManager classManager;
+
+	@Before
+	public void setUp() throws Exception {
+		classManager = primaryClasses(Fixtures.CLASSES);
+	}
+
+	@Test
+	public void check_ReportsShortestPath() throws Exception {
+		// View reaches Store through Service only, and Record through Store
+		List<ReachabilityViolation> violations = check("<no-path><message>${from} reaches ${to}</message>"
+				+ "<from class='de.andrena.tools.macker.fixture.ui.View'/>"
+				+ "<to class='de.andrena.tools.macker.fixture.data.Record'/></no-path>");
+		assertThat(violations.size(), is(1));
+		assertThat(names(violations.get(0).getPath()), contains(View.class.getName(), Service.class.getName(),
+				Store.class.getName(), Record.class.getName()));
+		assertThat(violations.get(0).getMessages(), contains("View reaches Record"));
+	}
+
+	@Test
+	public void check_OnlyClassesReachingTargets() throws Exception {
+		List<ReachabilityViolation> violations = check("<no-path><from class='de.andrena.tools.macker.fixture.**'/>"
+				+ "<to class='de.andrena.tools.macker.fixture.ui.Shortcut'/></no-path>");
+		assertThat(violations.isEmpty(), is(true));
+
+		violations = check("<no-path><from class='de.andrena.tools.macker.fixture.data.**'/>"
+				+ "<to class='de.andrena.tools.macker.fixture.data.Record'/></no-path>");
+		List<String> from = new ArrayList<String>();
+		for (ReachabilityViolation violation : violations)
+			from.add(violation.getFrom().getFullName());
+		// A target is not reported for reaching itself, even through a cycle
+		assertThat(from, containsInAnyOrder(Entry.class.getName(), Store.class.getName()));
+	}
+
+	@Test(expected = RulesDocumentException.class)
+	public void build_RequiresFromAndTo() throws Exception {
+		// As the DTD does; a document built in memory isn't validated
+		Element rule = new Element("no-path");
+		rule.addContent(new Element("from").setAttribute("class", "de.andrena.tools.macker.fixture.**"));
+		new RuleSetBuilder().buildReachabilityRule(rule, new RuleSet(RuleSet.getMackerDefaults()));
+	}
+
+	private List<String> names(List<ClassInfo> classInfos) {
+		List<String> names = new ArrayList<String>();
+		for (ClassInfo classInfo : classInfos)
+			names.add(classInfo.getFullName());
+		return names;
+	}
+
+	private List<ReachabilityViolation> check(String rule) throws Exception {
+		return RuleTestSupport.check(classManager, rule, ReachabilityViolation.class);
+	}
+}
@@ -0,0 +1,71 @@
+package de.andrena.tools.macker.rule;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.andrena.tools.macker.event.MackerEvent;
+import de.andrena.tools.macker.event.MackerEventListener;
+import de.andrena.tools.macker.event.MackerIsMadException;
+import de.andrena.tools.macker.structure.ClassManager;
+
+/**
+ * Setup shared by the rule tests.
+ */
+public final class RuleTestSupport {
+
+	/**
+	 * A class manager reading through the test class loader, with the given
+	 * classes as primary classes.
+	 */
+	public static ClassManager primaryClasses(Class<?>... classes) throws Exception {
+		ClassLoader classLoader = RuleTestSupport.class.getClassLoader();
+		ClassManager classManager = new ClassManager();
+		classManager.setClassLoader(classLoader);
+		for (Class<?> clazz : classes)
+			classManager.makePrimary(classManager.readClass(classLoader.getResourceAsStream(clazz.getName().replace(
+					'.', '/') + ".class")));
+		return classManager;
+	}
+
+	/**
+	 * Checks the given rules, written as the body of a ruleset, and returns
+	 * the events of the given type they report.
+	 */
+	public static <E extends MackerEvent> List<E> check(ClassManager classManager, String rules,
+			final Class<E> eventType) throws Exception {
+		RuleSet ruleSet = new RuleSetBuilder().build(
+				new StringReader("<macker><ruleset name='test'>" + rules + "</ruleset></macker>")).iterator().next();
+		final List<E> events = new ArrayList<E>();
+		EvaluationContext context = new EvaluationContext(classManager, ruleSet);
+		context.addListener(new ListenerAdapter() {
+			@Override
+			public void handleMackerEvent(RuleSet ruleSet, MackerEvent event) {
+				if (eventType.isInstance(event))
+					events.add(eventType.cast(event));
+			}
+		});
+		ruleSet.check(context, classManager);
+		return events;
+	}
+
+	/**
+	 * A listener which ignores everything; tests override what they watch.
+	 */
+	public static class ListenerAdapter implements MackerEventListener {
+		public void mackerStarted(RuleSet ruleSet) {
+		}
+
+		public void mackerFinished(RuleSet ruleSet) {
+		}
+
+		public void mackerAborted(RuleSet ruleSet) {
+		}
+
+		public void handleMackerEvent(RuleSet ruleSet, MackerEvent event) throws MackerIsMadException {
+		}
+	}
+
+	private RuleTestSupport() {
+	}
+}
@@ -0,0 +1,130 @@
+package de.andrena.tools.macker.rule;
+
+import static de.andrena.tools.macker.rule.RuleTestSupport.primaryClasses;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.andrena.tools.macker.event.AccessRuleViolation;
+import de.andrena.tools.macker.event.MackerEvent;
+import de.andrena.tools.macker.event.MackerEventListener;
+import de.andrena.tools.macker.event.MackerIsMadException;
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+
+public class SinglePassTest {
+
+	private ClassManager classManager;
+	private List<RuleSet> ruleSets;
+
+	@Before
+	public void setUp() throws Exception {
+		classManager = primaryClasses(AccessRule.class, SinglePass.class, EvaluationContext.class, ClassManager.class,
+				ClassInfo.class);
+
+		// The same rule reads a different value of ${target} each time
+		RuleSet first = new RuleSet(RuleSet.getMackerDefaults());
+		AccessRule toTarget = new AccessRule(first);
+		toTarget.setTo(new RegexPattern("${target}.**"));
+		toTarget.setMessage("${from} -> ${to-full}");
+		first.addRule(new Variable(first, "target", "java.util"));
+		first.addRule(toTarget);
+		first.addRule(new Message(first, "between"));
+		first.addRule(new Variable(first, "target", "java.io"));
+		first.addRule(toTarget);
+
+		RuleSet second = new RuleSet(RuleSet.getMackerDefaults());
+		RuleSet nested = new RuleSet(second);
+		AccessRule toStructure = new AccessRule(nested);
+		toStructure.setTo(new RegexPattern("de.andrena.tools.macker.structure.*"));
+		toStructure.setMessage("${from-full} uses ${to}");
+		nested.addRule(toStructure);
+		second.addRule(nested);
+		ForEach forEach = new ForEach(second);
+		forEach.setVariableName("package");
+		forEach.setRegex("(java.*).**");
+		RuleSet body = new RuleSet(second);
+		AccessRule toPackage = new AccessRule(body);
+		toPackage.setTo(new RegexPattern("*.${package}.*"));
+		body.addRule(toPackage);
+		forEach.setRuleSet(body);
+		second.addRule(forEach);
+
+		ruleSets = Arrays.asList(first, second);
+	}
+
+	@Test
+	public void run_ReportsAsSerialCheck() throws Exception {
+		List<String> serial = check(false, null, -1);
+		assertThat(serial, hasItem("AccessRuleViolation [de.andrena.tools.macker.rule.AccessRule uses ClassInfo]"));
+		assertThat(check(true, null, -1), is(serial));
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertThat(check(true, pool, -1), is(serial));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void run_StopsWhereSerialCheckStops() throws Exception {
+		List<String> serial = check(false, null, 5);
+		assertThat(serial, hasItem("mad"));
+		assertThat(check(true, null, 5), is(serial));
+	}
+
+	/**
+	 * Lists what listeners see; a listener throws at the violation numbered
+	 * <tt>madAt</tt>, if any.
+	 */
+	private List<String> check(boolean singlePass, ForkJoinPool pool, final int madAt) throws Exception {
+		final List<String> log = new ArrayList<String>();
+		MackerEventListener listener = new MackerEventListener() {
+			public void mackerStarted(RuleSet ruleSet) {
+				log.add("started");
+			}
+
+			public void mackerFinished(RuleSet ruleSet) {
+				log.add("finished");
+			}
+
+			public void mackerAborted(RuleSet ruleSet) {
+				log.add("aborted");
+			}
+
+			public void handleMackerEvent(RuleSet ruleSet, MackerEvent event) throws MackerIsMadException {
+				log.add(event.getClass().getSimpleName() + " " + event.getMessages());
+				if (event instanceof AccessRuleViolation && ++violations == madAt)
+					throw new MackerIsMadException(event);
+			}
+
+			private int violations;
+		};
+		SinglePass pass = singlePass ? new SinglePass(classManager) : null;
+		try {
+			for (RuleSet ruleSet : ruleSets) {
+				EvaluationContext context = new EvaluationContext(classManager, ruleSet);
+				context.setRulePool(pool);
+				context.addListener(listener);
+				if (pass != null)
+					pass.add(ruleSet, context);
+				else
+					ruleSet.check(context, classManager);
+			}
+			if (pass != null)
+				pass.run();
+		} catch (MackerIsMadException mime) {
+			log.add("mad");
+		}
+		return log;
+	}
+}
@@ -0,0 +1,83 @@
+package de.andrena.tools.macker.rule.filter;
+
+import static de.andrena.tools.macker.rule.RuleTestSupport.primaryClasses;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.andrena.tools.macker.fixture.Fixtures;
+import de.andrena.tools.macker.fixture.data.Entry;
+import de.andrena.tools.macker.fixture.data.Record;
+import de.andrena.tools.macker.fixture.data.Store;
+import de.andrena.tools.macker.fixture.service.Listener;
+import de.andrena.tools.macker.fixture.service.Service;
+import de.andrena.tools.macker.fixture.ui.View;
+import de.andrena.tools.macker.rule.ClassAttribute;
+import de.andrena.tools.macker.rule.EvaluationContext;
+import de.andrena.tools.macker.rule.Pattern;
+import de.andrena.tools.macker.rule.RegexPattern;
+import de.andrena.tools.macker.rule.RuleSet;
+import de.andrena.tools.macker.structure.ClassInfo;
+import de.andrena.tools.macker.structure.ClassManager;
+
+public class ReferenceFiltersTest {
+
+	private ClassManager classManager;
+	private EvaluationContext context;
+
+	@Before
+	public void setUp() throws Exception {
+		classManager = primaryClasses(Fixtures.CLASSES);
+		context = new EvaluationContext(classManager, RuleSet.getMackerDefaults());
+	}
+
+	@Test
+	public void referencesAndReferencedBy() throws Exception {
+		Pattern referencesStore = filter("references", Store.class.getName());
+		assertThat(referencesStore.matches(context, classInfo(Service.class)), is(true));
+		assertThat(referencesStore.matches(context, classInfo(Record.class)), is(true));
+		assertThat(referencesStore.matches(context, classInfo(View.class)), is(false));
+
+		Pattern referencedByStore = filter("referenced-by", Store.class.getName());
+		assertThat(referencedByStore.matches(context, classInfo(Record.class)), is(true));
+		assertThat(referencedByStore.matches(context, classInfo(Listener.class)), is(true));
+		assertThat(referencedByStore.matches(context, classInfo(Service.class)), is(false));
+		assertThat(ClassAttribute.needClassFile(ClassAttribute.readBy(referencedByStore)), is(false));
+	}
+
+	@Test
+	public void supertypeOf() throws Exception {
+		Pattern supertypeOfEntry = filter("supertype-of", Entry.class.getName());
+		assertThat(supertypeOfEntry.matches(context, classInfo(Record.class)), is(true));
+		assertThat(supertypeOfEntry.matches(context, classInfo(Entry.class)), is(true));
+		assertThat(supertypeOfEntry.matches(context, classInfo(Object.class)), is(true));
+		assertThat(supertypeOfEntry.matches(context, classInfo(Store.class)), is(false));
+	}
+
+	@Test
+	public void subtypeOf() throws Exception {
+		Pattern subtypeOfListener = filter("subtype-of", Listener.class.getName());
+		assertThat(subtypeOfListener.matches(context, classInfo(Service.class)), is(true));
+		assertThat(subtypeOfListener.matches(context, classInfo(Listener.class)), is(true));
+		assertThat(subtypeOfListener.matches(context, classInfo(Store.class)), is(false));
+		assertThat(subtypeOfListener.matches(context, classManager.getClassInfo("int")), is(false));
+		assertThat(filter("subtype-of", "int").matches(context, classManager.getClassInfo("int")), is(true));
+	}
+
+	private Pattern filter(String name, String className) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		options.put("filter", name);
+		return FilterFinder.findFilter(name).createPattern(RuleSet.getMackerDefaults(),
+				Collections.<Pattern> singletonList(new RegexPattern(className)), options);
+	}
+
+	private ClassInfo classInfo(Class<?> clazz) {
+		return classManager.getClassInfo(clazz.getName());
+	}
+}
@@ -0,0 +1,330 @@
+package de.andrena.tools.macker.structure;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.andrena.tools.macker.util.collect.MultiMap;
+
+public class ClassManagerTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void readArchive_Deflated() throws Exception {
+		File jar = writeJar(ZipEntry.DEFLATED, ClassManager.class, ParsedClassInfo.class);
+		assertThat(namesOf(new ClassManager().readArchive(jar)),
+				contains(ClassManager.class.getName(), ParsedClassInfo.class.getName()));
+	}
+
+	@Test
+	public void readArchive_Stored() throws Exception {
+		File jar = writeJar(ZipEntry.STORED, ClassManager.class, ParsedClassInfo.class);
+		assertThat(namesOf(new ClassManager().readArchive(jar)),
+				contains(ClassManager.class.getName(), ParsedClassInfo.class.getName()));
+	}
+
+	@Test
+	public void readDirectory_IncludesAndExcludes() throws Exception {
+		File dir = tempFolder.newFolder("classes");
+		writeClassFile(dir, ClassManager.class);
+		writeClassFile(dir, ParsedClassInfo.class);
+		writeClassFile(dir, ClassInfo.class);
+		List<ClassInfo> classInfos = new ClassManager().readDirectory(dir, Arrays.asList("**/*Class*.class"),
+				Arrays.asList("**/ParsedClassInfo.class"));
+		assertThat(namesOf(classInfos), contains(ClassInfo.class.getName(), ClassManager.class.getName()));
+	}
+
+	@Test
+	public void readDirectory_BrokenArchive() throws Exception {
+		File dir = tempFolder.newFolder("classes");
+		writeClassFile(dir, ClassManager.class);
+		writeClassFile(dir, ParsedClassInfo.class);
+		FileOutputStream out = new FileOutputStream(new File(dir, "broken.jar"));
+		try {
+			out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+		} finally {
+			out.close();
+		}
+		ClassManager classManager = new ClassManager();
+		classManager.setParallelism(4);
+		try {
+			classManager.readDirectory(dir, Collections.<String> emptyList(), Collections.<String> emptyList());
+			fail("expected IOException");
+		} catch (IOException ioe) {
+			assertThat(ioe.getMessage(), containsString("broken.jar"));
+		}
+
+		// Nothing was added, so the classes can be read again
+		List<ClassInfo> classInfos = classManager.readDirectory(dir, Collections.<String> emptyList(),
+				Arrays.asList("*.jar"));
+		assertThat(namesOf(classInfos), contains(ClassManager.class.getName(), ParsedClassInfo.class.getName()));
+	}
+
+	@Test
+	public void readClasses_InGivenOrder() throws Exception {
+		File dir = tempFolder.newFolder("classes");
+		ClassManager classManager = new ClassManager();
+		classManager.setParallelism(4);
+		List<ClassInfo> classInfos = classManager.readClasses(Arrays.asList(writeClassFile(dir, ParsedClassInfo.class),
+				writeClassFile(dir, ClassManager.class), writeClassFile(dir, ClassInfo.class)));
+		assertThat(namesOf(classInfos),
+				contains(ParsedClassInfo.class.getName(), ClassManager.class.getName(), ClassInfo.class.getName()));
+	}
+
+	@Test
+	public void readClasses_StopsAtFirstFailure() throws Exception {
+		File dir = tempFolder.newFolder("classes");
+		File broken = new File(dir, "Broken.class");
+		FileOutputStream out = new FileOutputStream(broken);
+		try {
+			out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+		} finally {
+			out.close();
+		}
+		ClassManager classManager = new ClassManager();
+		classManager.setParallelism(4);
+		try {
+			classManager.readClasses(Arrays.asList(writeClassFile(dir, ClassManager.class), broken,
+					writeClassFile(dir, ParsedClassInfo.class), new File(dir, "Missing.class")));
+			fail("expected ClassParseException");
+		} catch (ClassParseException cpe) {
+			assertThat(cpe.getMessage(), containsString(broken.getPath()));
+		}
+		assertThat(classManager.getClassInfo(ClassManager.class.getName()), instanceOf(ParsedClassInfo.class));
+		assertThat(classManager.getClassInfo(ParsedClassInfo.class.getName()), instanceOf(HollowClassInfo.class));
+	}
+
+	@Test
+	public void readArchive_ParseCacheRoundTrip() throws Exception {
+		File jar = writeJar(ZipEntry.DEFLATED, ParsedClassInfo.class);
+		File cacheDir = tempFolder.newFolder("cache");
+
+		ClassManager parsing = new ClassManager();
+		parsing.setParseCacheDirectory(cacheDir);
+		ClassInfo parsed = parsing.readArchive(jar).get(0);
+
+		ClassManager cached = new ClassManager();
+		cached.setParseCacheDirectory(cacheDir);
+		ClassInfo restored = cached.readArchive(jar).get(0);
+
+		assertThat(restored.getFullName(), is(parsed.getFullName()));
+		assertThat(restored.getAccessModifier(), is(parsed.getAccessModifier()));
+		assertThat(restored.getExtends(), is(parsed.getExtends()));
+		assertThat(restored.getImplements(), is(parsed.getImplements()));
+		assertThat(restored.getReferences(), is(parsed.getReferences()));
+	}
+
+	@Test
+	public void loadClass_FromJdkBundle() throws Exception {
+		ClassInfo parsed = new ClassManager().getClassInfo(ArrayList.class.getName());
+		assertThat(parsed.getExtends().getFullName(), is("java.util.AbstractList"));
+
+		// A bundle of ArrayList and the superclasses its inherited fields come
+		// from, where the real one would hold the whole JDK
+		File cacheDir = tempFolder.newFolder("cache");
+		List<JdkBundle.ClassSource> sources = new ArrayList<JdkBundle.ClassSource>();
+		for (final String resourceName : new String[] { "java/util/ArrayList.class", "java/util/AbstractList.class",
+				"java/util/AbstractCollection.class", "java/lang/Object.class" })
+			sources.add(new JdkBundle.ClassSource(resourceName) {
+				@Override
+				public ByteBuffer read() throws IOException {
+					return ByteBuffer.wrap(readResource(resourceName));
+				}
+			});
+		JdkBundle.write(new File(cacheDir, JdkBundle.fileName(false)), false, sources);
+
+		// The bundle is consulted before the class loader, which here finds
+		// nothing
+		ClassManager bundled = new ClassManager();
+		bundled.setParseCacheDirectory(cacheDir);
+		bundled.setClassLoader(new ClassLoader(null) {
+			@Override
+			public InputStream getResourceAsStream(String name) {
+				return null;
+			}
+		});
+		ClassInfo restored = bundled.getClassInfo(ArrayList.class.getName());
+		assertThat(restored.isComplete(), is(true));
+		assertThat(namesOf(new ArrayList<ClassInfo>(restored.getImplements())),
+				is(namesOf(new ArrayList<ClassInfo>(parsed.getImplements()))));
+		assertThat(restored.getReferences(), is(parsed.getReferences()));
+		assertThat(bundled.getClassInfo("java.util.LinkedList").isComplete(), is(false));
+	}
+
+	@Test
+	public void getReferences_SortedByNameWithTypes() throws Exception {
+		ClassManager classManager = new ClassManager();
+		classManager.setClassLoader(getClass().getClassLoader());
+		for (ClassInfo classInfo : classManager.readArchive(writeJar(ZipEntry.DEFLATED, ParsedClassInfo.class,
+				ClassManager.class)))
+			classManager.makePrimary(classInfo);
+
+		MultiMap<ClassInfo, ClassInfo> references = classManager.getReferences();
+		assertThat(namesOf(new ArrayList<ClassInfo>(references.keySet())),
+				contains(ClassManager.class.getName(), ParsedClassInfo.class.getName()));
+		ClassInfo parsed = classManager.getClassInfo(ParsedClassInfo.class.getName());
+		List<String> referenced = namesOf(new ArrayList<ClassInfo>(references.get(parsed)));
+		List<String> sorted = new ArrayList<String>(referenced);
+		Collections.sort(sorted);
+		assertThat(referenced, is(sorted));
+		assertThat(referenced, hasItem(ClassFileReader.class.getName()));
+
+		ClassInfo reader = classManager.getClassInfo(ClassFileReader.class.getName());
+		assertThat(classManager.getReferenceTypes(parsed, reader),
+				hasItems(ReferenceType.CONSTANT_POOL, ReferenceType.METHOD_PARAM));
+		assertThat(classManager.getReferenceTypes(reader, parsed).isEmpty(), is(true));
+	}
+
+	@Test
+	public void getReferrers_FromIncomingIndex() throws Exception {
+		ClassManager classManager = new ClassManager();
+		classManager.setClassLoader(getClass().getClassLoader());
+		for (ClassInfo classInfo : classManager.readArchive(writeJar(ZipEntry.DEFLATED, ClassInfo.class,
+				ParsedClassInfo.class, ClassManager.class)))
+			classManager.makePrimary(classInfo);
+
+		ClassInfo reader = classManager.getClassInfo(ClassFileReader.class.getName());
+		assertThat(namesOf(new ArrayList<ClassInfo>(classManager.getReferrers(reader))),
+				contains(ClassManager.class.getName(), ParsedClassInfo.class.getName()));
+		assertThat(classManager.getReferrers(classManager.getClassInfo("java.math.BigInteger")).isEmpty(), is(true));
+
+		ClassInfo classInfo = classManager.getClassInfo(ClassInfo.class.getName());
+		assertThat(namesOf(classManager.getSubtypeIndex().getSubtypes(classInfo)),
+				hasItems(AbstractClassInfo.class.getName(), ParsedClassInfo.class.getName()));
+	}
+
+	@Test
+	public void release_ForgetsClasses() throws Exception {
+		ClassManager classManager = new ClassManager();
+		classManager.makePrimary(classManager.readArchive(writeJar(ZipEntry.DEFLATED, ClassManager.class)).get(0));
+		classManager.release();
+		assertThat(classManager.getPrimaryClasses().isEmpty(), is(true));
+		assertThat(classManager.getReferences().isEmpty(), is(true));
+	}
+
+	@Test
+	public void release_ShutsDownParsePool() throws Exception {
+		File dir = tempFolder.newFolder("classes");
+		ClassManager classManager = new ClassManager();
+		classManager.setParallelism(4);
+		List<File> first = Arrays.asList(writeClassFile(dir, ClassManager.class),
+				writeClassFile(dir, ParsedClassInfo.class));
+		classManager.readClasses(first);
+		ForkJoinPool pool = classManager.getCurrentParsePool();
+		classManager.readClasses(Arrays.asList(writeClassFile(dir, ClassInfo.class),
+				writeClassFile(dir, ClassFileReader.class)));
+		assertThat(classManager.getCurrentParsePool(), is(sameInstance(pool)));
+
+		classManager.release();
+		assertThat(pool.isShutdown(), is(true));
+		assertThat(classManager.getCurrentParsePool(), is(nullValue()));
+
+		// A read after release starts a new pool
+		assertThat(namesOf(classManager.readClasses(first)),
+				contains(ClassManager.class.getName(), ParsedClassInfo.class.getName()));
+		assertThat(classManager.getCurrentParsePool(), is(not(sameInstance(pool))));
+		assertThat(classManager.getCurrentParsePool().isShutdown(), is(false));
+	}
+
+	@Test
+	public void getSupertypeIndex_SharesSuperclassClosures() throws Exception {
+		ClassManager classManager = new ClassManager();
+		ClassInfo arrayList = classManager.getClassInfo(ArrayList.class.getName());
+		ClassInfo linkedList = classManager.getClassInfo(java.util.LinkedList.class.getName());
+		SupertypeIndex index = classManager.getSupertypeIndex();
+		SupertypeIndex.Closure closure = index.getClosure(arrayList);
+		assertThat(namesOf(new ArrayList<ClassInfo>(closure.toSet())), hasItems("java.util.ArrayList",
+				"java.util.AbstractList", "java.util.List", "java.util.Collection", "java.lang.Object"));
+		assertThat(closure.contains(classManager.getClassId(classManager.getClassInfo("java.util.List"))), is(true));
+		assertThat(closure.getParent(), is(index.getClosure(arrayList.getExtends())));
+		assertThat(index.getClosure(linkedList).toSet(), hasItem(arrayList.getExtends()));
+		assertThat(arrayList.getSupertypes(), is(closure.toSet()));
+	}
+
+	private File writeJar(int method, Class<?>... classes) throws IOException {
+		File jar = tempFolder.newFile("classes.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+		try {
+			out.putNextEntry(new ZipEntry("META-INF/"));
+			for (Class<?> clazz : classes) {
+				String resourceName = clazz.getName().replace('.', '/') + ".class";
+				byte[] contents = readResource(resourceName);
+				ZipEntry entry = new ZipEntry(resourceName);
+				entry.setMethod(method);
+				if (method == ZipEntry.STORED) {
+					CRC32 crc = new CRC32();
+					crc.update(contents);
+					entry.setSize(contents.length);
+					entry.setCrc(crc.getValue());
+				}
+				out.putNextEntry(entry);
+				out.write(contents);
+			}
+		} finally {
+			out.close();
+		}
+		return jar;
+	}
+
+	private File writeClassFile(File dir, Class<?> clazz) throws IOException {
+		String resourceName = clazz.getName().replace('.', '/') + ".class";
+		File classFile = new File(dir, resourceName);
+		classFile.getParentFile().mkdirs();
+		FileOutputStream out = new FileOutputStream(classFile);
+		try {
+			out.write(readResource(resourceName));
+		} finally {
+			out.close();
+		}
+		return classFile;
+	}
+
+	private byte[] readResource(String resourceName) throws IOException {
+		InputStream in = getClass().getClassLoader().getResourceAsStream(resourceName);
+		try {
+			ByteArrayOutputStream contents = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int count; (count = in.read(buffer)) >= 0;)
+				contents.write(buffer, 0, count);
+			return contents.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private List<String> namesOf(List<ClassInfo> classInfos) {
+		List<String> names = new ArrayList<String>();
+		for (ClassInfo classInfo : classInfos)
+			names.add(classInfo.getFullName());
+		return names;
+	}
+}
@@ -0,0 +1,147 @@
+package de.andrena.tools.macker.structure;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParsedClassInfoTest {
+
+	static class Base {
+		protected Date inherited;
+	}
+
+	static abstract class Sample extends Base implements Runnable {
+		public List<String> list;
+		@SuppressWarnings("unused")
+		private BigInteger hidden;
+
+		abstract File method(URL url) throws IOException;
+	}
+
+	private ClassManager classManager;
+
+	@Before
+	public void setUp() {
+		classManager = new ClassManager();
+		classManager.setClassLoader(getClass().getClassLoader());
+	}
+
+	@Test
+	public void readClass_NameAndFlags() throws Exception {
+		ClassInfo sample = readClass(Sample.class);
+		assertThat(sample.getFullName(), is(Sample.class.getName()));
+		assertThat(sample.isAbstract(), is(true));
+		assertThat(sample.isInterface(), is(false));
+		assertThat(sample.isFinal(), is(false));
+	}
+
+	@Test
+	public void readClass_Supertypes() throws Exception {
+		ClassInfo sample = readClass(Sample.class);
+		assertThat(sample.getExtends().getFullName(), is(Base.class.getName()));
+		assertThat(sample.getImplements().iterator().next().getFullName(), is(Runnable.class.getName()));
+	}
+
+	@Test
+	public void readClass_References() throws Exception {
+		Set<String> referenced = referencedNames(readClass(Sample.class));
+		assertThat(referenced, hasItems("java.util.List", "java.net.URL", "java.io.File", "java.io.IOException"));
+		assertThat(referenced, hasItem("java.util.Date"));
+		assertThat(referenced, not(hasItem("java.math.BigInteger")));
+	}
+
+	@Test
+	public void makePrimary_InheritedFieldsResolvedOnRead() throws Exception {
+		ClassInfo sample = readClass(Sample.class);
+		classManager.makePrimary(sample);
+		assertThat(classManager.getClassInfo(Base.class.getName()), instanceOf(HollowClassInfo.class));
+
+		ClassInfo date = classManager.getClassInfo("java.util.Date");
+		assertThat(classManager.getReferences().get(sample), hasItem(date));
+		assertThat(classManager.getReferenceTypes(sample, date), hasItem(ReferenceType.FIELD_SIGNATURE));
+		assertThat(classManager.getClassInfo(Base.class.getName()), instanceOf(ParsedClassInfo.class));
+	}
+
+	@Test
+	public void readClass_TypeArguments() throws Exception {
+		assertThat(referencedNames(readClass(Sample.class)), not(hasItem("java.lang.String")));
+
+		classManager = new ClassManager();
+		classManager.setClassLoader(getClass().getClassLoader());
+		classManager.setIncludeTypeArguments(true);
+		ClassInfo sample = readClass(Sample.class);
+		assertThat(referencedNames(sample), hasItem("java.lang.String"));
+		ClassInfo string = classManager.getClassInfo("java.lang.String");
+		assertThat(sample.getReferences().get(string).iterator().next().getType(), is(ReferenceType.TYPE_ARGUMENT));
+	}
+
+	@Test
+	public void loadClass_ObjectHasNoSuperclass() {
+		ClassInfo object = classManager.getClassInfo("java.lang.Object");
+		assertThat(object.isComplete(), is(true));
+		assertThat(object.getExtends(), is(nullValue()));
+	}
+
+	@Test(expected = ClassParseException.class)
+	public void readClass_NotAClassFile() throws Exception {
+		classManager.readClass(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 }));
+	}
+
+	@Test
+	public void readClass_TruncatedClassFile() throws Exception {
+		byte[] classFile = classFileBytes(Sample.class);
+		for (int length = 0; length < classFile.length; length++) {
+			try {
+				classManager.readClass(new ByteArrayInputStream(Arrays.copyOf(classFile, length)));
+				fail("read a class file cut at " + length + " of " + classFile.length + " bytes");
+			} catch (ClassParseException expected) {
+			}
+		}
+	}
+
+	private Set<String> referencedNames(ClassInfo classInfo) {
+		Set<String> referenced = new HashSet<String>();
+		for (ClassInfo referencedClass : classInfo.getReferences().keySet())
+			referenced.add(referencedClass.getFullName());
+		return referenced;
+	}
+
+	private byte[] classFileBytes(Class<?> clazz) throws IOException {
+		InputStream in = getClass().getClassLoader().getResourceAsStream(clazz.getName().replace('.', '/') + ".class");
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] chunk = new byte[4096];
+			for (int read; (read = in.read(chunk)) > 0;)
+				out.write(chunk, 0, read);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private ClassInfo readClass(Class<?> clazz) throws Exception {
+		String resourceName = clazz.getName().replace('.', '/') + ".class";
+		return classManager.readClass(getClass().getClassLoader().getResourceAsStream(resourceName));
+	}
+}
@@ -1,8 +1,12 @@
 package de.andrena.tools.macker.util;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.is;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 public class ClassNameTranslatorTest {
@@ -32,4 +36,45 @@ public class ClassNameTranslatorTest {
 		assertThat(ClassNameTranslator.isJavaIdentifier("example.package-info"), is(true));
 	}
 
+	@Test
+	public void isJavaIdentifier_InternalForm() {
+		assertThat(ClassNameTranslator.isJavaIdentifier("java/lang/String"), is(false));
+	}
+
+	@Test
+	public void isInternalName_Range() {
+		String descriptor = "Ljava/lang/String;";
+		assertThat(ClassNameTranslator.isInternalName(descriptor, 1, descriptor.length() - 1), is(true));
+		assertThat(ClassNameTranslator.isInternalName(descriptor, 0, descriptor.length()), is(false));
+		assertThat(ClassNameTranslator.isInternalName("example/package-info", 0, 20), is(true));
+	}
+
+	@Test
+	public void signatureToClassNames_MethodDescriptor() {
+		assertThat(ClassNameTranslator.signatureToClassNames("(I[Ljava/lang/String;J)Ljava/util/List;"),
+				contains("int", "java.lang.String", "long", "java.util.List"));
+	}
+
+	@Test
+	public void typeConstantToClassName_Array() {
+		assertThat(ClassNameTranslator.typeConstantToClassName("[[Ljava/lang/Object;"), is("java.lang.Object"));
+		assertThat(ClassNameTranslator.typeConstantToClassName("java/lang/Object"), is("java.lang.Object"));
+	}
+
+	@Test
+	public void decodeSignature_TypeArgumentsAndNestedTypes() {
+		DescriptorDecoder decoder = new DescriptorDecoder();
+		int count = decoder.decodeSignature("<T:Ljava/lang/Number;>(Ljava/util/Map<TT;+Ljava/util/Set<[B>;>;)"
+				+ "Ljava/util/Map<TT;*>.Entry<Ljava/lang/String;*>;^Ljava/io/IOException;");
+		List<String> names = new ArrayList<String>();
+		List<Integer> depths = new ArrayList<Integer>();
+		for (int n = 0; n < count; n++) {
+			names.add(decoder.getClassName(n));
+			depths.add(decoder.getDepth(n));
+		}
+		assertThat(names, contains("java.lang.Number", "java.util.Map", "java.util.Set", "byte",
+				"java.util.Map$Entry", "java.lang.String", "java.io.IOException"));
+		assertThat(depths, contains(1, 0, 1, 2, 0, 1, 0));
+	}
+
 }
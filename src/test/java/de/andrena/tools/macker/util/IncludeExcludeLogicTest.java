@@ -0,0 +1,122 @@
+package de.andrena.tools.macker.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.Test;
+
+import de.andrena.tools.macker.rule.RulesException;
+
+public class IncludeExcludeLogicTest {
+
+	@Test
+	public void apply_SameAsEvaluatingEveryNode() throws Exception {
+		// every chain of up to four nodes, each including or excluding,
+		// matching or not, and costly or not
+		for (int length = 1; length <= 4; length++)
+			for (int bits = 0; bits < 1 << (3 * length); bits++) {
+				Node chain = null;
+				for (int n = length - 1; n >= 0; n--) {
+					int nodeBits = bits >> (3 * n);
+					chain = new Node((nodeBits & 1) != 0, (nodeBits & 2) != 0, (nodeBits & 4) != 0, null, chain);
+				}
+				assertThat("chain " + Integer.toBinaryString(bits), IncludeExcludeLogic.apply(chain),
+						is(applyEagerly(chain, !chain.isInclude())));
+			}
+	}
+
+	@Test
+	public void apply_WithChild() throws Exception {
+		Node excludingChild = new Node(false, true, false, null, null);
+		Node includingChild = new Node(true, true, false, null, null);
+		assertThat(IncludeExcludeLogic.apply(new Node(true, true, false, excludingChild, null)), is(false));
+		assertThat(IncludeExcludeLogic.apply(new Node(true, true, false, includingChild, null)), is(true));
+		assertThat(IncludeExcludeLogic.apply(new Node(false, true, false, excludingChild, null)), is(false));
+		assertThat(IncludeExcludeLogic.apply(new Node(false, true, false, includingChild, null)), is(true));
+	}
+
+	@Test
+	public void apply_SkipsCostlyNodeDecidedByLaterNode() throws Exception {
+		Node costly = new Node(true, true, true, null, new Node(false, true, false, null, null));
+		assertThat(IncludeExcludeLogic.apply(costly), is(false));
+		assertThat(costly.evaluated, is(false));
+	}
+
+	@Test
+	public void apply_SkipsCostlyNodeDecidedByEarlierNodes() throws Exception {
+		Node costly = new Node(true, true, true, null, null);
+		assertThat(IncludeExcludeLogic.apply(new Node(true, true, false, null, costly)), is(true));
+		assertThat(costly.evaluated, is(false));
+	}
+
+	@Test
+	public void apply_NodeWithoutCostHint() throws Exception {
+		final Node next = new Node(true, false, true, null, null);
+		IncludeExcludeNode plain = new IncludeExcludeNode() {
+			public boolean isInclude() {
+				return true;
+			}
+
+			public boolean matches() {
+				return true;
+			}
+
+			public IncludeExcludeNode getChild() {
+				return null;
+			}
+
+			public IncludeExcludeNode getNext() {
+				return next;
+			}
+		};
+		assertThat(IncludeExcludeLogic.apply(plain), is(true));
+		assertThat(next.evaluated, is(false));
+	}
+
+	/**
+	 * The straightforward reading: each node in turn updates the result.
+	 */
+	private static boolean applyEagerly(IncludeExcludeNode node, boolean prevMatches) throws RulesException {
+		IncludeExcludeNode child = node.getChild(), next = node.getNext();
+		boolean curMatches = node.matches();
+		boolean matchesSoFar = node.isInclude() ? prevMatches
+				|| (curMatches && (child == null || applyEagerly(child, !child.isInclude())))
+				: prevMatches && (!curMatches || (child != null && applyEagerly(child, !child.isInclude())));
+		return (next == null) ? matchesSoFar : applyEagerly(next, matchesSoFar);
+	}
+
+	private static class Node implements CostHint {
+		Node(boolean include, boolean matches, boolean costly, Node child, Node next) {
+			this.include = include;
+			this.matches = matches;
+			this.costly = costly;
+			this.child = child;
+			this.next = next;
+		}
+
+		public boolean isInclude() {
+			return include;
+		}
+
+		public boolean matches() {
+			evaluated = true;
+			return matches;
+		}
+
+		public boolean isCostly() {
+			return costly;
+		}
+
+		public IncludeExcludeNode getChild() {
+			return child;
+		}
+
+		public IncludeExcludeNode getNext() {
+			return next;
+		}
+
+		private final boolean include, matches, costly;
+		private final Node child, next;
+		private boolean evaluated;
+	}
+}
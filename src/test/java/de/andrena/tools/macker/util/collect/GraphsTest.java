@@ -0,0 +1,67 @@
+package de.andrena.tools.macker.util.collect;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class GraphsTest {
+
+	@Test
+	public void stronglyConnectedComponents_ReverseTopologicalOrder() {
+		// 0 -> 1 <-> 2 -> 3 <-> 4, 3 -> 3
+		final int[][] edges = { { 1 }, { 2 }, { 1, 3 }, { 3, 4 }, { 3 } };
+		GraphWalker<Integer> walker = new GraphWalker<Integer>() {
+			public Collection<Integer> getEdgesFrom(Integer node) {
+				List<Integer> targets = new ArrayList<Integer>();
+				for (int target : edges[node])
+					targets.add(target);
+				return targets;
+			}
+		};
+		List<List<Integer>> components = Graphs.stronglyConnectedComponents(Arrays.asList(0), walker);
+		assertThat(components.size(), is(3));
+		assertThat(new HashSet<Integer>(components.get(0)), is(new HashSet<Integer>(Arrays.asList(3, 4))));
+		assertThat(new HashSet<Integer>(components.get(1)), is(new HashSet<Integer>(Arrays.asList(1, 2))));
+		assertThat(components.get(2), contains(0));
+		assertThat(Graphs.shortestCycle(2, new HashSet<Integer>(Arrays.asList(1, 2)), walker), contains(2, 1));
+		assertThat(Graphs.shortestCycle(0, Collections.singleton(0), walker), is((List<Integer>) null));
+	}
+
+	@Test
+	public void stronglyConnectedComponents_CompressedRows() {
+		// The graph above, with 5 -> 0 added; the edges of node n are
+		// targets[rowStart[n]] up to targets[rowStart[n + 1]]
+		int[] rowStart = { 0, 1, 2, 4, 6, 7, 8 };
+		int[] targets = { 1, 2, 1, 3, 3, 4, 3, 0 };
+		int[] component = Graphs.stronglyConnectedComponents(rowStart, targets);
+		assertThat(component[3], is(0));
+		assertThat(component[4], is(0));
+		assertThat(component[1], is(1));
+		assertThat(component[2], is(1));
+		assertThat(component[0], is(2));
+		assertThat(component[5], is(3));
+	}
+
+	@Test
+	public void stronglyConnectedComponents_DeepRing() {
+		final int size = 200000;
+		GraphWalker<Integer> ring = new GraphWalker<Integer>() {
+			public Collection<Integer> getEdgesFrom(Integer node) {
+				return Collections.singleton((node + 1) % size);
+			}
+		};
+		List<List<Integer>> components = Graphs.stronglyConnectedComponents(Arrays.asList(0), ring);
+		assertThat(components.size(), is(1));
+		assertThat(components.get(0).size(), is(size));
+		assertThat(Graphs.shortestCycle(0, new HashSet<Integer>(components.get(0)), ring).size(), is(size));
+	}
+}
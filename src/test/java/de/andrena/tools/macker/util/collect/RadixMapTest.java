@@ -0,0 +1,125 @@
+package de.andrena.tools.macker.util.collect;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RadixMapTest {
+
+	/**
+	 * Strings by character, most significant first.
+	 */
+	private static final Radix STRING_RADIX = new Radix() {
+		public int getBase() {
+			return Character.MAX_VALUE + 1;
+		}
+
+		public int digit(Object o, int position) {
+			String s = (String) o;
+			return (-position < s.length()) ? s.charAt(-position) : -1;
+		}
+
+		public int getMaxPosition(Object o) {
+			return 0;
+		}
+
+		public int getMinPosition(Object o) {
+			return 1 - ((String) o).length();
+		}
+
+		public int getMaxPositionForAll(Collection values) {
+			return 0;
+		}
+
+		public int getMinPositionForAll(Collection values) {
+			throw new UnsupportedOperationException();
+		}
+
+		public Object objectFromDigits(int[] digits) {
+			throw new UnsupportedOperationException();
+		}
+
+		public Object objectFromDigits(int[] digits, int offset, int len) {
+			throw new UnsupportedOperationException();
+		}
+
+		public int compare(Object o1, Object o2) {
+			return ((String) o1).compareTo((String) o2);
+		}
+	};
+
+	@Test
+	public void putGetRemove_SameAsHashMap() {
+		Random random = new Random(7);
+		RadixMap<String, Integer> radixMap = new RadixMap<String, Integer>(STRING_RADIX);
+		Map<String, Integer> hashMap = new HashMap<String, Integer>();
+		for (int n = 0; n < 20000; n++) {
+			String key = randomKey(random);
+			switch (random.nextInt(3)) {
+			case 0:
+				assertThat(radixMap.put(key, n), is(hashMap.put(key, n)));
+				break;
+			case 1:
+				assertThat(radixMap.remove(key), is(hashMap.remove(key)));
+				break;
+			default:
+				assertThat(radixMap.get(key), is(hashMap.get(key)));
+				assertThat(radixMap.containsKey(key), is(hashMap.containsKey(key)));
+			}
+			assertThat(radixMap.size(), is(hashMap.size()));
+		}
+		assertThat(radixMap, is(hashMap));
+	}
+
+	@Test
+	public void iterator_PrefixesFirstInDigitOrder() {
+		RadixMap<String, Integer> map = new RadixMap<String, Integer>(STRING_RADIX);
+		for (String key : new String[] { "b", "ab", "a", "abc", "" })
+			map.put(key, key.length());
+		assertThat(new ArrayList<String>(map.keySet()).toString(), is("[, a, ab, abc, b]"));
+	}
+
+	@Test
+	public void iteratorRemove() {
+		RadixMap<String, Integer> map = new RadixMap<String, Integer>(STRING_RADIX);
+		for (String key : new String[] { "a", "ab", "abc", "b" })
+			map.put(key, key.length());
+		for (Iterator<String> keys = map.keySet().iterator(); keys.hasNext();)
+			if (keys.next().startsWith("ab"))
+				keys.remove();
+		assertThat(map.size(), is(2));
+		assertThat(map.get("ab"), is(nullValue()));
+		assertThat(map.get("a"), is(1));
+		assertThat(map.cursor(0).child('a').child('b'), is(nullValue()));
+	}
+
+	@Test
+	public void cursor_WalksDigits() {
+		RadixMap<String, Integer> map = new RadixMap<String, Integer>(STRING_RADIX);
+		map.put("ab", 2);
+		RadixMap.Cursor<String, Integer> a = map.cursor(0).child('a');
+		assertThat(a.hasValue(), is(false));
+		assertThat(a.child('b').getKey(), is("ab"));
+		assertThat(a.child('c'), is(nullValue()));
+	}
+
+	private static String randomKey(Random random) {
+		List<Character> chars = new ArrayList<Character>();
+		for (int n = random.nextInt(5); n > 0; n--)
+			chars.add((char) ('a' + random.nextInt(3)));
+		StringBuilder key = new StringBuilder();
+		for (char c : chars)
+			key.append(c);
+		return key.toString();
+	}
+}